@@ -0,0 +1,44 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich;
+
+/**
+ * Base class for {@link PartitionContext} implementations.  Two partition contexts that extend this class are equal if
+ * their {@link #asMap()} views are equal, regardless of how each one stores its key/value pairs.  This lets callers
+ * use specialized, allocation-light contexts interchangeably with the ones from {@link PartitionContextBuilder}.
+ */
+public abstract class AbstractPartitionContext implements PartitionContext {
+    @Override
+    public Object get() {
+        return get("");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof AbstractPartitionContext &&
+                asMap().equals(((AbstractPartitionContext) o).asMap()));
+    }
+
+    @Override
+    public int hashCode() {
+        return 95261 + asMap().hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return asMap().toString();
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * An optional extension of {@link ServiceFactory} for services whose health checks are slow, for example because
+ * checking an end point requires a connection handshake.
+ * <p/>
+ * When a service pool's factory implements this interface health checks of bad end points are done with
+ * {@link #isHealthyAsync} and don't occupy a health check thread while they're in progress.
+ * <p/>
+ * The blocking {@link #isHealthy} method is still used by callers that need an answer right away, for example
+ * {@link ServicePool#checkForHealthyEndPoint}, and may simply wait on the asynchronous version.
+ * @param <S> The type of the service.
+ */
+public interface AsyncServiceFactory<S> extends ServiceFactory<S> {
+    /**
+     * Starts a health check on an end point.  This method should not block; the returned future should complete with
+     * {@code true} if the health check succeeded, {@code false} or an exception otherwise.
+     * @param endPoint The end point to check the health of.
+     * @return A future that completes with the result of the health check.
+     */
+    ListenableFuture<Boolean> isHealthyAsync(ServiceEndPoint endPoint);
+}
@@ -15,6 +15,8 @@
  */
 package com.bazaarvoice.ostrich;
 
+import com.google.common.util.concurrent.ListenableFuture;
+
 import java.io.Closeable;
 import java.util.Collection;
 import java.util.concurrent.Future;
@@ -22,6 +24,10 @@ import java.util.concurrent.Future;
 /**
  * An asynchronous service pool.  This mimics the behavior of a {@link ServicePool}, but instead of executing its
  * callbacks synchronously, it will run them in the background.
+ * <p/>
+ * Each of the {@code execute} methods has a {@code Listenable} counterpart that returns {@link ListenableFuture}s
+ * instead of plain futures, so results can be chained with {@link com.google.common.util.concurrent.Futures} or
+ * listeners without blocking a thread on {@code get()}.
  *
  * @param <S> The service interface that this pool keeps track of end points for.
  */
@@ -80,6 +86,99 @@ public interface AsyncServicePool<S> extends Closeable {
     <R> Collection<Future<R>> executeOn(ServiceEndPointPredicate predicate, RetryPolicy retryPolicy,
                                         ServiceCallback<S, R> callback);
 
+    /**
+     * Like {@link #execute(RetryPolicy, ServiceCallback)}, but returns a {@link ListenableFuture} that is completed by
+     * the background task itself, so the result can be chained with {@link com.google.common.util.concurrent.Futures}
+     * or listeners without blocking a thread on {@code get()}.
+     *
+     * @param retryPolicy The retry policy for the operation.
+     * @param callback    The user provided callback to invoke.
+     * @param <R>         The return type for the call.
+     * @return            A listenable future representing the call.
+     */
+    <R> ListenableFuture<R> executeListenable(RetryPolicy retryPolicy, ServiceCallback<S, R> callback);
+
+    /**
+     * Like {@link #execute(PartitionContext, RetryPolicy, ServiceCallback)}, but returns a {@link ListenableFuture}.
+     *
+     * @param partitionContext The partition context.
+     * @param retryPolicy      The retry policy for the operation.
+     * @param callback         The user provided callback to invoke with a service end point.
+     * @param <R>              The return type for the call.
+     * @return                 A listenable future representing the call.
+     */
+    <R> ListenableFuture<R> executeListenable(PartitionContext partitionContext, RetryPolicy retryPolicy,
+                                              ServiceCallback<S, R> callback);
+
+    /**
+     * Like {@link #executeOnAll}, but returns a {@link ListenableFuture} for each call.
+     * <p/>
+     * The futures are in the order the calls were made.  Use {@link com.bazaarvoice.ostrich.pool.FanOuts} to handle
+     * results in the order they complete, or to wait for just the first, the first few or a quorum of results.
+     *
+     * @param retryPolicy The retry policy for each operation.
+     * @param callback    The user provided callback to invoke.
+     * @param <R>         The return type for the call.
+     * @return            A collection with one listenable future for each end point being called.
+     */
+    <R> Collection<ListenableFuture<R>> executeOnAllListenable(RetryPolicy retryPolicy, ServiceCallback<S, R> callback);
+
+    /**
+     * Like {@link #executeOn}, but returns a {@link ListenableFuture} for each call.
+     *
+     * @param predicate   A predicate indicating which service end points the request should be executed against.  If
+     *                    the predicate returns {@code true} then the request will be executed against that end point.
+     * @param retryPolicy The retry policy for each operation.
+     * @param callback    The user provided callback to invoke.
+     * @param <R>         The return type for the call.
+     * @return            A collection with one listenable future for each end point being called.
+     */
+    <R> Collection<ListenableFuture<R>> executeOnListenable(ServiceEndPointPredicate predicate,
+                                                            RetryPolicy retryPolicy, ServiceCallback<S, R> callback);
+
+    /**
+     * Execute a request asynchronously against <b>ALL</b> of the remote services in this {@code ServicePool}, calling
+     * no more than {@code maxConcurrency} end points at a time and folding the results together as they arrive.
+     * <p/>
+     * NOTE: It is undefined how the implementation handles the situation where an end point is discovered or removed
+     * while the {@code reduceOnAll} operation is executing.
+     *
+     * @param retryPolicy    The retry policy for each operation.
+     * @param callback       The user provided callback to invoke.
+     * @param maxConcurrency The maximum number of end points to call at the same time.
+     * @param reducer        The reducer that folds the results together.
+     * @param <R>            The return type for the call.
+     * @param <T>            The type of the folded result.
+     * @return               A future for the folded result of every call.
+     */
+    <R, T> ListenableFuture<T> reduceOnAll(RetryPolicy retryPolicy, ServiceCallback<S, R> callback,
+                                           int maxConcurrency, ResultReducer<? super R, T> reducer);
+
+    /**
+     * Execute a request asynchronously against some of the remote services in this {@code ServicePool}, calling no
+     * more than {@code maxConcurrency} end points at a time and folding the results together as they arrive.  Unlike
+     * {@link #executeOn}, further calls are only submitted as earlier ones complete, and the result of each call is
+     * discarded as soon as it has been folded in.  Cancelling the returned future cancels the calls that haven't
+     * completed.
+     * <p/>
+     * NOTE: It is undefined how the implementation handles the situation where an end point is discovered or removed
+     * while the {@code reduceOn} operation is executing.
+     *
+     * @param predicate      A predicate indicating which service end points the request should be executed against.
+     *                       If the predicate returns {@code true} then the request will be executed against that end
+     *                       point.
+     * @param retryPolicy    The retry policy for each operation.
+     * @param callback       The user provided callback to invoke.
+     * @param maxConcurrency The maximum number of end points to call at the same time.
+     * @param reducer        The reducer that folds the results together.
+     * @param <R>            The return type for the call.
+     * @param <T>            The type of the folded result.
+     * @return               A future for the folded result of every call.
+     */
+    <R, T> ListenableFuture<T> reduceOn(ServiceEndPointPredicate predicate, RetryPolicy retryPolicy,
+                                        ServiceCallback<S, R> callback, int maxConcurrency,
+                                        ResultReducer<? super R, T> reducer);
+
     /**
      * Return the number of valid end points that this service pool knows about.  This will include end points that have
      * never thrown exceptions during execution (even those that have never been interacted with) and end points that
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich;
+
+/**
+ * A retry policy that can say how long to wait before the next attempt instead of waiting itself.
+ * <p/>
+ * {@link AsyncServicePool} uses this to schedule the next attempt of a failed operation for later rather than holding
+ * a thread while it backs off.  Synchronous callers still use {@link #allowRetry}, which waits on the calling thread.
+ */
+public interface DelayedRetryPolicy extends RetryPolicy {
+    /**
+     * Called when an operation has failed for some reason.  Returns how long to wait before the operation is retried,
+     * without waiting, or a negative value if the operation shouldn't be retried.
+     *
+     * @param numAttempts   The number of attempts that have happened so far.  This must be greater than zero.
+     * @param elapsedTimeMs The amount of time in milliseconds that the operation has been attempted.
+     * @return The number of milliseconds to wait before trying the operation again, or a negative value if it
+     *         shouldn't be tried again.
+     */
+    long getRetryDelayMs(int numAttempts, long elapsedTimeMs);
+}
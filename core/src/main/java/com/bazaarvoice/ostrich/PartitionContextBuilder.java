@@ -76,18 +76,13 @@ public final class PartitionContextBuilder {
         return new Context(_map.build());
     }
 
-    private static class Context implements PartitionContext {
+    private static class Context extends AbstractPartitionContext {
         private final ImmutableMap<String, Object> _map;
 
         private Context(ImmutableMap<String, Object> map) {
             _map = checkNotNull(map);
         }
 
-        @Override
-        public Object get() {
-            return _map.get("");
-        }
-
         @Override
         public Object get(String key) {
             return _map.get(key);
@@ -97,15 +92,5 @@ public final class PartitionContextBuilder {
         public Map<String, Object> asMap() {
             return _map;
         }
-
-        @Override
-        public boolean equals(Object o) {
-            return this == o || (o instanceof Context && _map.equals(((Context) o)._map));
-        }
-
-        @Override
-        public int hashCode() {
-            return 95261 + _map.hashCode();
-        }
     }
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Caches the decoded payloads of {@link ServiceEndPoint} instances so that service factories, partition filters and
+ * load balance algorithms don't have to parse the payload string every time they need it.
+ * <p/>
+ * Payloads are cached per {@code ServiceEndPoint} instance: a new instance from host discovery is decoded again even if
+ * it is equal to an instance that has already been decoded.  Entries are weakly referenced, so they go away once host
+ * discovery no longer references the end point.  Register the cache with
+ * {@link com.bazaarvoice.ostrich.pool.ServicePoolBuilder#withPayloadCache} so that the payloads of new end points are
+ * decoded as soon as they are discovered, rather than on the first request that uses them.
+ * <p/>
+ * Payloads that fail to decode are not cached.
+ */
+public class PayloadCache<P> {
+    private final LoadingCache<ServiceEndPoint, P> _cache;
+
+    public PayloadCache(final PayloadDecoder<P> decoder) {
+        checkNotNull(decoder);
+        _cache = CacheBuilder.newBuilder()
+                .weakKeys()
+                .build(new CacheLoader<ServiceEndPoint, P>() {
+                    @Override
+                    public P load(ServiceEndPoint endPoint) {
+                        return checkNotNull(decoder.decode(endPoint), "Decoded payload");
+                    }
+                });
+    }
+
+    /**
+     * Returns the decoded payload of the end point, decoding it if necessary.
+     *
+     * @throws RuntimeException The exception thrown by the {@link PayloadDecoder} if the payload is invalid.
+     */
+    public P get(ServiceEndPoint endPoint) {
+        checkNotNull(endPoint);
+        try {
+            return _cache.getUnchecked(endPoint);
+        } catch (UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Discards the decoded payload of the end point, if any.
+     */
+    public void invalidate(ServiceEndPoint endPoint) {
+        checkNotNull(endPoint);
+        _cache.invalidate(endPoint);
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich;
+
+/**
+ * Decodes the payload of a {@link ServiceEndPoint} into a typed object.  Used with a {@link PayloadCache} so that each
+ * end point's payload is only decoded once.
+ */
+public interface PayloadDecoder<P> {
+    /**
+     * Decodes the payload of an end point.  Must not return {@code null}.
+     *
+     * @throws RuntimeException If the payload is invalid.
+     */
+    P decode(ServiceEndPoint endPoint);
+}
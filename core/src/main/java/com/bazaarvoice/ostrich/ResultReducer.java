@@ -0,0 +1,43 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich;
+
+/**
+ * Folds the results of a request executed on many end points into a single value, one result at a time as each call
+ * completes, so that only the value folded so far has to be kept in memory.
+ * <p/>
+ * Calls to a reducer are serialized, so an accumulated value doesn't need to be thread safe.
+ *
+ * @param <R> The return type of the call on each end point.
+ * @param <T> The type of the accumulated value.
+ */
+public interface ResultReducer<R, T> {
+    /**
+     * Returns the value to fold the first result into.  This is also the result if no end points are called.
+     */
+    T initialValue();
+
+    /**
+     * Folds the result of a successful call into the accumulated value, returning the new accumulated value.
+     */
+    T reduce(T accumulated, ServiceEndPoint endPoint, R result);
+
+    /**
+     * Folds a failed call into the accumulated value, returning the new accumulated value.  To fail the whole request
+     * instead, throw an exception, for example by propagating {@code failure}.
+     */
+    T reduceFailure(T accumulated, ServiceEndPoint endPoint, Throwable failure);
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich;
+
+/**
+ * An optional extension of {@link ServiceFactory} for services whose cached instances can go bad while they sit idle,
+ * for example because the server silently closed the instance's connection.
+ * <p/>
+ * When a service pool's factory implements this interface the pool's cache periodically validates its idle instances
+ * in the background and destroys the ones that are no longer valid, so a broken instance is found before a request
+ * fails on it and the end point is marked bad.  The caching policy can also ask for instances to be validated as they
+ * are checked out.  Each instance is validated at most once per the policy's validation interval.
+ * @param <S> The type of the service.
+ */
+public interface ValidatingServiceFactory<S> extends ServiceFactory<S> {
+    /**
+     * Checks whether a cached service instance can still be used.  Should be cheap, for example checking a connection
+     * is still open, since it may be called while a caller is waiting for the instance.
+     * @param endPoint The end point the instance connects to.
+     * @param service The service instance to validate.
+     * @return {@code true} if the instance can still be used, {@code false} if it should be destroyed.
+     */
+    boolean validate(ServiceEndPoint endPoint, S service);
+}
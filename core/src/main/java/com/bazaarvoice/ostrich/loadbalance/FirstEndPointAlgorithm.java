@@ -0,0 +1,39 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.loadbalance;
+
+import com.bazaarvoice.ostrich.LoadBalanceAlgorithm;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ServicePoolStatistics;
+import com.google.common.base.Preconditions;
+
+import java.util.Iterator;
+
+/**
+ * Always chooses the first end point.  Intended for use with partition filters that return end points in order of
+ * preference, such as a {@link com.bazaarvoice.ostrich.partition.ConsistentHashPartitionFilter} with a replication
+ * factor.  End points that fail are marked bad and removed before the partition filter runs again, so a retry
+ * automatically moves on to the next end point in order.
+ */
+public class FirstEndPointAlgorithm implements LoadBalanceAlgorithm {
+    @Override
+    public ServiceEndPoint choose(Iterable<ServiceEndPoint> endPoints, ServicePoolStatistics statistics) {
+        Preconditions.checkNotNull(endPoints);
+
+        Iterator<ServiceEndPoint> iter = endPoints.iterator();
+        return iter.hasNext() ? iter.next() : null;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.partition;
+
+/**
+ * Skeleton {@link PartitionHasher} implementation that hashes partition context values using their natural binary
+ * form where one exists:
+ * <ul>
+ * <li>{@code byte[]} values are added as-is.</li>
+ * <li>{@code Long}, {@code Integer}, {@code Short} and {@code Byte} values are added as 64-bit integers so that the
+ *     same number hashes identically regardless of its boxed type.</li>
+ * <li>{@code CharSequence} values are added with {@link #putString}.</li>
+ * <li>{@link HashablePartitionKey} values add themselves.</li>
+ * <li>Anything else is added using its {@code toString()} value.</li>
+ * </ul>
+ */
+public abstract class AbstractPartitionHasher implements PartitionHasher {
+    @Override
+    public PartitionHasher putKey(Object value) {
+        if (value instanceof CharSequence) {
+            putString((CharSequence) value);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            putLong(((Number) value).longValue());
+        } else if (value instanceof byte[]) {
+            putBytes((byte[]) value);
+        } else if (value instanceof HashablePartitionKey) {
+            ((HashablePartitionKey) value).hashTo(this);
+        } else {
+            putString(value.toString());
+        }
+        return this;
+    }
+}
@@ -17,12 +17,10 @@ package com.bazaarvoice.ostrich.partition;
 
 import com.bazaarvoice.ostrich.PartitionContext;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.google.common.hash.HashCode;
-import com.google.common.hash.Hasher;
-import com.google.common.hash.Hashing;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
@@ -30,6 +28,10 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
  * Uses consistent hashing to map service calls to end points.  Partitions are mapped to servers based on hashes of the
@@ -39,6 +41,11 @@ import java.util.NavigableMap;
  * on the same data are directed to the same server.  For example, choose this partition filter to distribute requests
  * across a set of memcached servers.
  * <p/>
+ * By default end points and partition keys are hashed with MD5 so that partitions are assigned to the same end points
+ * as in earlier releases.  Clients that don't need to preserve existing placements should specify a faster hash
+ * function such as {@link PartitionHashFunctions#murmur3_128()}.  Every client of a service must use the same hash
+ * function.
+ * <p/>
  * The algorithm is inspired by:
  * <a href="http://last.fm/user/RJ/journal/2007/04/10/rz_libketama_-_a_consistent_hashing_algo_for_memcache_clients">
  *     libketama</a>
@@ -47,7 +54,9 @@ public class ConsistentHashPartitionFilter implements PartitionFilter {
     private static final int DEFAULT_ENTRIES_PER_END_POINT = 100;
 
     private final int _entriesPerEndPoint;
+    private final int _replicationFactor;
     private final List<String> _partitionKeys;
+    private final PartitionHashFunction _hashFunction;
     private final NavigableMap<Integer, String> _ring = Maps.newTreeMap();
     private Map<String, ServiceEndPoint> _endPointsById = Maps.newHashMap();
 
@@ -72,21 +81,46 @@ public class ConsistentHashPartitionFilter implements PartitionFilter {
      * specified set of keys to determine the partition.
      */
     public ConsistentHashPartitionFilter(List<String> partitionKeys) {
-        this(partitionKeys, DEFAULT_ENTRIES_PER_END_POINT);
+        this(partitionKeys, PartitionHashFunctions.md5());
+    }
+
+    /**
+     * Constructs a {@code ConsistentHashPartitionFilter} that concatenates the partition context values for the
+     * specified set of keys to determine the partition, using the specified hash function for both the partition
+     * context values and the end point IDs.  An empty list of keys selects the default partition key.
+     */
+    public ConsistentHashPartitionFilter(List<String> partitionKeys, PartitionHashFunction hashFunction) {
+        this(partitionKeys, hashFunction, 1);
+    }
+
+    /**
+     * Constructs a {@code ConsistentHashPartitionFilter} that returns up to {@code replicationFactor} end points for
+     * each partition: the end point that owns the partition followed by the next distinct end points in ring order.
+     * The end points that would take over the partition if the owner went away come first, so combine this with a
+     * {@link com.bazaarvoice.ostrich.loadbalance.FirstEndPointAlgorithm} to fail over to the next replica while
+     * otherwise always calling the owner.
+     */
+    public ConsistentHashPartitionFilter(List<String> partitionKeys, PartitionHashFunction hashFunction,
+                                         int replicationFactor) {
+        this(partitionKeys, hashFunction, replicationFactor, DEFAULT_ENTRIES_PER_END_POINT);
     }
 
     /**
      * Constructs a {@code ConsistentHashPartitionFilter} that concatenates the partition context values for the
      * specified set of keys to determine the partition.
      */
-    private ConsistentHashPartitionFilter(List<String> partitionKeys, int entriesPerEndPoint) {
-        _partitionKeys = partitionKeys;
+    private ConsistentHashPartitionFilter(List<String> partitionKeys, PartitionHashFunction hashFunction,
+                                          int replicationFactor, int entriesPerEndPoint) {
+        checkArgument(replicationFactor > 0);
+        _partitionKeys = checkNotNull(partitionKeys);
+        _hashFunction = checkNotNull(hashFunction);
+        _replicationFactor = replicationFactor;
         _entriesPerEndPoint = entriesPerEndPoint;
     }
 
     @Override
     public Iterable<ServiceEndPoint> filter(Iterable<ServiceEndPoint> endPoints, PartitionContext partitionContext) {
-        HashCode partitionHash = getPartitionHash(partitionContext);
+        byte[] partitionHash = PartitionHashing.hashPartition(_hashFunction, _partitionKeys, partitionContext);
         if (partitionHash == null) {
             return endPoints;  // No partition hash means any server can handle the request.
         }
@@ -94,42 +128,11 @@ public class ConsistentHashPartitionFilter implements PartitionFilter {
         // The choose() method is synchronized.  Do any prep work we can up front before calling into it.
         Map<String, ServiceEndPoint> endPointsById = indexById(endPoints);
 
-        ServiceEndPoint endPoint = choose(endPointsById, partitionHash);
-        return Collections.singleton(endPoint);
+        return choose(endPointsById, PartitionHashing.asInt(partitionHash));
     }
 
-    private HashCode getPartitionHash(PartitionContext partitionContext) {
-        // The precise implementation of this method isn't particularly important.  There are lots of ways we can hash
-        // the data in the PartitionContext.  It just needs to be deterministic and to take into account the values in
-        // the PartitionContext for the configured partition keys.
-        Hasher hasher = Hashing.md5().newHasher();
-        boolean empty = true;
-        if (_partitionKeys.isEmpty()) {
-            // Use the default context.
-            Object value = partitionContext.get();
-            if (value != null) {
-                hasher.putString(value.toString());
-                empty = false;
-            }
-        }
-        for (String partitionKey : _partitionKeys) {
-            Object value = partitionContext.get(partitionKey);
-            if (value != null) {
-                // Include both the key and value in the hash so "reviewId" of 1 and "reviewerId" of 1 hash differently.
-                hasher.putString(partitionKey);
-                hasher.putString(value.toString());
-                empty = false;
-            }
-        }
-        if (empty) {
-            // When the partition context has no relevant values that means we should ignore the partition context and
-            // don't filter the end points based on partition.  Return null to indicate this.
-            return null;
-        }
-        return hasher.hash();
-    }
-
-    private synchronized ServiceEndPoint choose(Map<String, ServiceEndPoint> endPointsById, HashCode partitionHash) {
+    private synchronized Iterable<ServiceEndPoint> choose(Map<String, ServiceEndPoint> endPointsById,
+                                                          int partitionHash) {
         // Update the ring if the set of active end points has changed.
         for (String endPointId : Sets.difference(_endPointsById.keySet(), endPointsById.keySet())) {
             for (Integer hash : computeHashCodes(endPointId)) {
@@ -146,27 +149,45 @@ public class ConsistentHashPartitionFilter implements PartitionFilter {
         }
 
         // For the given partition hash, find its location in the ring and return its associated end point.
-        Map.Entry<Integer, String> entry = _ring.ceilingEntry(partitionHash.asInt());
+        Map.Entry<Integer, String> entry = _ring.ceilingEntry(partitionHash);
         if (entry == null) {
             entry = _ring.firstEntry();
         }
-        return _endPointsById.get(entry.getValue());
+        if (_replicationFactor == 1) {
+            return Collections.singleton(_endPointsById.get(entry.getValue()));
+        }
+
+        // Walk the ring clockwise from the owner, wrapping around at the end, collecting distinct end points.
+        int numReplicas = Math.min(_replicationFactor, _endPointsById.size());
+        Set<String> replicaIds = Sets.newLinkedHashSetWithExpectedSize(numReplicas);
+        for (String endPointId : Iterables.concat(_ring.tailMap(entry.getKey()).values(),
+                _ring.headMap(entry.getKey()).values())) {
+            if (replicaIds.add(endPointId) && replicaIds.size() == numReplicas) {
+                break;
+            }
+        }
+        List<ServiceEndPoint> replicas = Lists.newArrayListWithCapacity(numReplicas);
+        for (String endPointId : replicaIds) {
+            replicas.add(_endPointsById.get(endPointId));
+        }
+        return replicas;
     }
 
     /**
      * Returns a list of pseudo-random 32-bit values derived from the specified end point ID.
      */
     private List<Integer> computeHashCodes(String endPointId) {
-        // Use the libketama approach of using MD5 hashes to generate 32-bit random values.  This assigns a set of
-        // randomly generated ranges to each end point.  The individual ranges may vary widely in size, but, with
-        // sufficient # of entries per end point, the overall amount of data assigned to each server tends to even out
-        // with minimal variation (256 entries per server yields roughly 5% variation in server load).
+        // Use the libketama approach of using MD5 hashes (or the configured hash function) to generate 32-bit random
+        // values.  This assigns a set of randomly generated ranges to each end point.  The individual ranges may vary
+        // widely in size, but, with sufficient # of entries per end point, the overall amount of data assigned to each
+        // server tends to even out with minimal variation (256 entries per server yields roughly 5% variation in server
+        // load).
         List<Integer> list = Lists.newArrayListWithCapacity(_entriesPerEndPoint);
         for (int i = 0; list.size() < _entriesPerEndPoint; i++) {
-            Hasher hasher = Hashing.md5().newHasher();
+            PartitionHasher hasher = _hashFunction.newHasher();
             hasher.putInt(i);
             hasher.putString(endPointId);
-            ByteBuffer buf = ByteBuffer.wrap(hasher.hash().asBytes());
+            ByteBuffer buf = ByteBuffer.wrap(hasher.hash());
             while (buf.hasRemaining() && list.size() < _entriesPerEndPoint) {
                 list.add(buf.getInt());
             }
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.partition;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+
+/**
+ * Computes the relative weight of a service end point for partition filters that support weighting, such as
+ * {@link RendezvousPartitionFilter}.  An end point with twice the weight of another is assigned roughly twice as many
+ * partitions.
+ * <p/>
+ * Weights are typically derived from the end point payload.  The function must be deterministic and every client of a
+ * service must compute the same weights, otherwise the clients will disagree about which end point owns a partition.
+ */
+public interface EndPointWeightFunction {
+    /**
+     * Returns the weight of the end point.  End points with a weight of zero are ranked after every end point with a
+     * positive weight.
+     */
+    double getWeight(ServiceEndPoint endPoint);
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.partition;
+
+/**
+ * A partition key type that knows how to add itself to a hash.  Keys that implement this interface are hashed by
+ * {@link AbstractPartitionHasher#putKey} without calling {@code toString()}.
+ * <p/>
+ * Implementations must add the same data for keys that are equal to each other.
+ */
+public interface HashablePartitionKey {
+    void hashTo(PartitionHasher hasher);
+}
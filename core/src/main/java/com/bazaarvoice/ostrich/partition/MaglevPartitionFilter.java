@@ -0,0 +1,291 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.partition;
+
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Uses Maglev hashing to map service calls to end points.  A fixed size lookup table, whose length is a prime number,
+ * is populated with end points whenever the set of end points changes.  Each request is then routed by hashing its
+ * partition context values and indexing into the table.
+ * <p/>
+ * Choose this partition filter for the same reasons as {@link ConsistentHashPartitionFilter}, when there are many end
+ * points and routing needs to be as cheap as possible.  Routing doesn't take a lock, and partitions are split between
+ * end points almost perfectly evenly.  In exchange, a few more partitions than strictly necessary move when the set of
+ * end points changes, and rebuilding the table costs time proportional to its size.
+ * <p/>
+ * The table size must be a prime number considerably larger than the number of end points; 100 times larger keeps
+ * the number of partitions owned by each end point within about 1% of each other.
+ * <p/>
+ * The algorithm is described in:
+ * <a href="http://research.google.com/pubs/pub44824.html">
+ *     Maglev: A Fast and Reliable Software Network Load Balancer</a>
+ */
+public class MaglevPartitionFilter implements PartitionFilter {
+    private static final int DEFAULT_TABLE_SIZE = 65537;
+
+    private final List<String> _partitionKeys;
+    private final PartitionHashFunction _hashFunction;
+    private final int _tableSize;
+    private volatile Table _table = Table.EMPTY;
+
+    /**
+     * Constructs a default {@code MaglevPartitionFilter} that uses the default partition key
+     * ({@link com.bazaarvoice.ostrich.PartitionContext#get()}) to determine the partition.
+     */
+    public MaglevPartitionFilter() {
+        this(Collections.<String>emptyList());
+    }
+
+    /**
+     * Constructs a {@code MaglevPartitionFilter} that concatenates the partition context values for the specified set
+     * of keys to determine the partition.
+     */
+    public MaglevPartitionFilter(String... partitionKeys) {
+        this(Arrays.asList(partitionKeys));
+    }
+
+    /**
+     * Constructs a {@code MaglevPartitionFilter} that concatenates the partition context values for the specified set
+     * of keys to determine the partition.
+     */
+    public MaglevPartitionFilter(List<String> partitionKeys) {
+        this(partitionKeys, PartitionHashFunctions.murmur3_128(), DEFAULT_TABLE_SIZE);
+    }
+
+    /**
+     * Constructs a {@code MaglevPartitionFilter} that concatenates the partition context values for the specified set
+     * of keys to determine the partition.
+     *
+     * @param partitionKeys The partition context keys, or an empty list to use the default partition key.
+     * @param hashFunction  The hash function used for both partition context values and end point IDs.
+     * @param tableSize     The size of the lookup table.  Must be a prime number.
+     */
+    public MaglevPartitionFilter(List<String> partitionKeys, PartitionHashFunction hashFunction, int tableSize) {
+        checkArgument(tableSize > 1 && BigInteger.valueOf(tableSize).isProbablePrime(32),
+                "Table size must be prime: %s", tableSize);
+        _partitionKeys = checkNotNull(partitionKeys);
+        _hashFunction = checkNotNull(hashFunction);
+        _tableSize = tableSize;
+    }
+
+    @Override
+    public Iterable<ServiceEndPoint> filter(Iterable<ServiceEndPoint> endPoints, PartitionContext partitionContext) {
+        byte[] partitionHash = PartitionHashing.hashPartition(_hashFunction, _partitionKeys, partitionContext);
+        if (partitionHash == null) {
+            return endPoints;  // No partition hash means any server can handle the request.
+        }
+
+        Table table = getTable(endPoints);
+        if (table.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        int slot = (int) ((PartitionHashing.asInt(partitionHash) & 0xFFFFFFFFL) % _tableSize);
+        return Collections.singleton(table.get(slot));
+    }
+
+    /**
+     * Returns the lookup table for the specified end points, rebuilding it if the set of end points has changed.
+     */
+    private Table getTable(Iterable<ServiceEndPoint> endPoints) {
+        Table table = _table;
+        if (table.hasSameEndPoints(endPoints)) {
+            return table;
+        }
+
+        // The set of end points may have changed, or they may just be in a different order.
+        Map<String, ServiceEndPoint> endPointsById = indexById(endPoints);
+        synchronized (this) {
+            table = _table;
+            if (!table.hasSameEndPoints(endPointsById)) {
+                table = build(endPointsById);
+            }
+            _table = table.withOrder(endPoints);
+            return _table;
+        }
+    }
+
+    /**
+     * Populates a new lookup table using the Maglev permutation algorithm.
+     */
+    @VisibleForTesting
+    Table build(Map<String, ServiceEndPoint> endPointsById) {
+        if (endPointsById.isEmpty()) {
+            return Table.EMPTY;
+        }
+
+        // Sort by ID so that every client populates the table identically.
+        List<String> ids = Ordering.natural().sortedCopy(endPointsById.keySet());
+        int numEndPoints = ids.size();
+
+        // Each end point visits the table slots in its own pseudo-random order given by (offset + j * skip) % size.
+        long[] offsets = new long[numEndPoints];
+        long[] skips = new long[numEndPoints];
+        long[] next = new long[numEndPoints];
+        ServiceEndPoint[] owners = new ServiceEndPoint[numEndPoints];
+        for (int i = 0; i < numEndPoints; i++) {
+            String id = ids.get(i);
+            offsets[i] = unsignedMod(hashId(0, id), _tableSize);
+            skips[i] = unsignedMod(hashId(1, id), _tableSize - 1) + 1;
+            owners[i] = endPointsById.get(id);
+        }
+
+        // Take turns letting each end point claim the next free slot in its preference order until the table is full.
+        // Every end point ends up with either floor(size / n) or ceil(size / n) slots.
+        int[] entries = new int[_tableSize];
+        Arrays.fill(entries, -1);
+        int filled = 0;
+        while (true) {
+            for (int i = 0; i < numEndPoints; i++) {
+                int slot;
+                do {
+                    slot = (int) ((offsets[i] + next[i]++ * skips[i]) % _tableSize);
+                } while (entries[slot] >= 0);
+                entries[slot] = i;
+                if (++filled == _tableSize) {
+                    return new Table(endPointsById, owners, entries);
+                }
+            }
+        }
+    }
+
+    private long hashId(int seed, String id) {
+        return PartitionHashing.asLong(_hashFunction.newHasher().putInt(seed).putString(id).hash());
+    }
+
+    private static long unsignedMod(long value, int modulus) {
+        long result = value % modulus;
+        return (result < 0) ? result + modulus : result;
+    }
+
+    /**
+     * Returns a map of {@link ServiceEndPoint} objects indexed by their ID.
+     */
+    private static Map<String, ServiceEndPoint> indexById(Iterable<ServiceEndPoint> endPoints) {
+        Map<String, ServiceEndPoint> map = Maps.newHashMap();
+        for (ServiceEndPoint endPoint : endPoints) {
+            map.put(endPoint.getId(), endPoint);
+        }
+        return map;
+    }
+
+    /**
+     * An immutable lookup table along with the end points it was built from.
+     */
+    @VisibleForTesting
+    static class Table {
+        static final Table EMPTY = new Table(Collections.<String, ServiceEndPoint>emptyMap(),
+                new ServiceEndPoint[0], new int[0]);
+
+        private final Map<String, ServiceEndPoint> _endPointsById;
+        private final ServiceEndPoint[] _owners;
+        private final int[] _entries;
+
+        /**
+         * The end points in the order the filter last saw them, and the iterable they came from, used to quickly
+         * detect that nothing has changed.
+         */
+        private final ServiceEndPoint[] _lastSeen;
+        private final Iterable<ServiceEndPoint> _lastSeenIterable;
+
+        Table(Map<String, ServiceEndPoint> endPointsById, ServiceEndPoint[] owners, int[] entries) {
+            this(endPointsById, owners, entries, new ServiceEndPoint[0], null);
+        }
+
+        private Table(Map<String, ServiceEndPoint> endPointsById, ServiceEndPoint[] owners, int[] entries,
+                      ServiceEndPoint[] lastSeen, Iterable<ServiceEndPoint> lastSeenIterable) {
+            _endPointsById = endPointsById;
+            _owners = owners;
+            _entries = entries;
+            _lastSeen = lastSeen;
+            _lastSeenIterable = lastSeenIterable;
+        }
+
+        boolean isEmpty() {
+            return _owners.length == 0;
+        }
+
+        ServiceEndPoint get(int slot) {
+            return _owners[_entries[slot]];
+        }
+
+        /**
+         * Returns the number of table slots owned by each end point, used for testing balance.
+         */
+        @VisibleForTesting
+        Map<ServiceEndPoint, Integer> getSlotCounts() {
+            Map<ServiceEndPoint, Integer> counts = Maps.newHashMap();
+            for (int entry : _entries) {
+                Integer count = counts.get(_owners[entry]);
+                counts.put(_owners[entry], (count == null) ? 1 : count + 1);
+            }
+            return counts;
+        }
+
+        /**
+         * Cheap check that the end points are the same instances, in the same order, as the last time.  The same
+         * immutable collection is recognized without looking at its contents, and a collection of a different size
+         * without iterating it.  Anything else, such as a live view over the end points that changes underneath the
+         * filter, is compared by reference one end point at a time.
+         */
+        boolean hasSameEndPoints(Iterable<ServiceEndPoint> endPoints) {
+            if (_lastSeen.length == 0) {
+                return false;
+            }
+            if (endPoints == _lastSeenIterable && endPoints instanceof ImmutableCollection) {
+                return true;
+            }
+            if (endPoints instanceof Collection && ((Collection<?>) endPoints).size() != _lastSeen.length) {
+                return false;
+            }
+
+            int i = 0;
+            for (ServiceEndPoint endPoint : endPoints) {
+                if (i == _lastSeen.length || (endPoint != _lastSeen[i] && !endPoint.equals(_lastSeen[i]))) {
+                    return false;
+                }
+                i++;
+            }
+            return i == _lastSeen.length;
+        }
+
+        boolean hasSameEndPoints(Map<String, ServiceEndPoint> endPointsById) {
+            return _endPointsById.equals(endPointsById);
+        }
+
+        Table withOrder(Iterable<ServiceEndPoint> endPoints) {
+            return new Table(_endPointsById, _owners, _entries, Iterables.toArray(endPoints, ServiceEndPoint.class),
+                    endPoints);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.partition;
+
+/**
+ * A hash function used by partition filters to map partition keys and end point IDs onto a hash space.
+ * <p/>
+ * Implementations for commonly used algorithms are available from {@link PartitionHashFunctions}.  Every client of a
+ * partitioned service must use the same hash function, otherwise they will disagree about which end point owns a
+ * particular partition.
+ */
+public interface PartitionHashFunction {
+    /**
+     * Returns a new {@link PartitionHasher} that can be used to compute a single hash value.
+     */
+    PartitionHasher newHasher();
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.partition;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Standard {@link PartitionHashFunction} implementations.
+ */
+public abstract class PartitionHashFunctions {
+    private PartitionHashFunctions() {} // Prevent instantiation
+
+    private static final PartitionHashFunction MD5 = new PartitionHashFunction() {
+        @Override
+        public PartitionHasher newHasher() {
+            return new LegacyHasher(Hashing.md5().newHasher());
+        }
+
+        @Override
+        public String toString() {
+            return "PartitionHashFunctions.md5()";
+        }
+    };
+
+    private static final PartitionHashFunction MURMUR3_32 = new GuavaHashFunction(Hashing.murmur3_32());
+
+    private static final PartitionHashFunction MURMUR3_128 = new GuavaHashFunction(Hashing.murmur3_128());
+
+    /**
+     * Returns the MD5-based hash function used by earlier versions of Ostrich.  Partition context values are always
+     * hashed using their {@code toString()} value, so this function assigns partitions to exactly the same end points
+     * as previous releases did.  It is also considerably slower than the alternatives, so prefer
+     * {@link #murmur3_128()} unless placements must be preserved across an upgrade.
+     */
+    public static PartitionHashFunction md5() {
+        return MD5;
+    }
+
+    /**
+     * Returns a 32-bit Murmur3 hash function.  Keys are hashed using {@link AbstractPartitionHasher#putKey}.
+     */
+    public static PartitionHashFunction murmur3_32() {
+        return MURMUR3_32;
+    }
+
+    /**
+     * Returns a 128-bit Murmur3 hash function.  Keys are hashed using {@link AbstractPartitionHasher#putKey}.
+     */
+    public static PartitionHashFunction murmur3_128() {
+        return MURMUR3_128;
+    }
+
+    private static class GuavaHashFunction implements PartitionHashFunction {
+        private final HashFunction _hashFunction;
+
+        GuavaHashFunction(HashFunction hashFunction) {
+            _hashFunction = checkNotNull(hashFunction);
+        }
+
+        @Override
+        public PartitionHasher newHasher() {
+            return new GuavaHasher(_hashFunction.newHasher());
+        }
+
+        @Override
+        public String toString() {
+            return "PartitionHashFunctions." + _hashFunction;
+        }
+    }
+
+    private static class GuavaHasher extends AbstractPartitionHasher {
+        private final Hasher _hasher;
+
+        GuavaHasher(Hasher hasher) {
+            _hasher = hasher;
+        }
+
+        @Override
+        public PartitionHasher putInt(int value) {
+            _hasher.putInt(value);
+            return this;
+        }
+
+        @Override
+        public PartitionHasher putLong(long value) {
+            _hasher.putLong(value);
+            return this;
+        }
+
+        @Override
+        public PartitionHasher putBytes(byte[] bytes) {
+            _hasher.putBytes(bytes);
+            return this;
+        }
+
+        @Override
+        public PartitionHasher putString(CharSequence string) {
+            _hasher.putString(string);
+            return this;
+        }
+
+        @Override
+        public byte[] hash() {
+            return _hasher.hash().asBytes();
+        }
+    }
+
+    /** Hashes every partition context value by its string representation, matching the original implementation. */
+    private static class LegacyHasher extends GuavaHasher {
+        LegacyHasher(Hasher hasher) {
+            super(hasher);
+        }
+
+        @Override
+        public PartitionHasher putKey(Object value) {
+            return putString(value.toString());
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.partition;
+
+/**
+ * Accumulates data for a single hash computation.  Instances are obtained from
+ * {@link PartitionHashFunction#newHasher()} and must not be reused once {@link #hash()} has been called.
+ * <p/>
+ * Most implementations should extend {@link AbstractPartitionHasher}, which provides a {@link #putKey} implementation
+ * that hashes common key types without converting them to strings.
+ */
+public interface PartitionHasher {
+    PartitionHasher putInt(int value);
+
+    PartitionHasher putLong(long value);
+
+    PartitionHasher putBytes(byte[] bytes);
+
+    PartitionHasher putString(CharSequence string);
+
+    /**
+     * Adds a value from a {@link com.bazaarvoice.ostrich.PartitionContext} to the hash.  The way the value is encoded
+     * is up to the implementation, but it must be deterministic and equal values must produce equal hashes.
+     *
+     * @return this
+     */
+    PartitionHasher putKey(Object value);
+
+    /**
+     * Computes the hash of the data added so far.  The result is at least 4 bytes long.
+     */
+    byte[] hash();
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.partition;
+
+import com.bazaarvoice.ostrich.PartitionContext;
+
+import java.util.List;
+
+/**
+ * Helpers shared by the hash-based partition filters.
+ */
+class PartitionHashing {
+    private PartitionHashing() {} // Prevent instantiation
+
+    /**
+     * Hashes the values in the partition context for the specified keys, or the default context value if the list of
+     * keys is empty.  Returns {@code null} if the partition context has none of the relevant values.
+     */
+    static byte[] hashPartition(PartitionHashFunction hashFunction, List<String> partitionKeys,
+                                PartitionContext partitionContext) {
+        // The precise implementation of this method isn't particularly important.  There are lots of ways we can hash
+        // the data in the PartitionContext.  It just needs to be deterministic and to take into account the values in
+        // the PartitionContext for the configured partition keys.
+        PartitionHasher hasher = null;
+        if (partitionKeys.isEmpty()) {
+            // Use the default context.
+            Object value = partitionContext.get();
+            if (value != null) {
+                hasher = hashFunction.newHasher().putKey(value);
+            }
+        }
+        for (String partitionKey : partitionKeys) {
+            Object value = partitionContext.get(partitionKey);
+            if (value != null) {
+                if (hasher == null) {
+                    hasher = hashFunction.newHasher();
+                }
+                // Include both the key and value in the hash so "reviewId" of 1 and "reviewerId" of 1 hash differently.
+                hasher.putString(partitionKey);
+                hasher.putKey(value);
+            }
+        }
+        // When the partition context has no relevant values that means we should ignore the partition context and
+        // don't filter the end points based on partition.  Return null to indicate this.
+        return (hasher != null) ? hasher.hash() : null;
+    }
+
+    /**
+     * Returns the first four bytes of a hash as a little-endian int.
+     */
+    static int asInt(byte[] hash) {
+        return (hash[0] & 0xFF)
+                | ((hash[1] & 0xFF) << 8)
+                | ((hash[2] & 0xFF) << 16)
+                | ((hash[3] & 0xFF) << 24);
+    }
+
+    /**
+     * Returns the first eight bytes of a hash as a little-endian long.  Hashes shorter than eight bytes are widened
+     * from their first four bytes.
+     */
+    static long asLong(byte[] hash) {
+        if (hash.length < 8) {
+            return asInt(hash) & 0xFFFFFFFFL;
+        }
+        long value = 0;
+        for (int i = 7; i >= 0; i--) {
+            value = (value << 8) | (hash[i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -28,4 +28,13 @@ public @interface PartitionKey {
      * Defines name of the property key, i.e. the key in the {@link com.bazaarvoice.ostrich.PartitionContext}.
      */
     String value() default "";
+
+    /**
+     * Optional dot-separated path to a property of the argument to use as the partition key value instead of the
+     * argument itself, for example {@code "header.tenantId"}.  Each element of the path names a public no-argument
+     * method ({@code getX()}, {@code isX()} or {@code x()}) or a field of the type declared by the previous element.
+     * Paths are resolved when the service pool proxy is built, so an invalid path fails fast.  If any element along
+     * the path evaluates to {@code null} the partition key is omitted from the context.
+     */
+    String path() default "";
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.partition;
+
+import com.google.common.base.Objects;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A contiguous range of partition keys owned by a service end point, used by {@link RangePartitionFilter}.  The lower
+ * bound is always inclusive, the upper bound may be inclusive or exclusive, and a {@code null} bound means the range
+ * is unbounded in that direction.
+ */
+public final class PartitionRange<K extends Comparable<? super K>> {
+    private final K _lower;
+    private final K _upper;
+    private final boolean _upperInclusive;
+
+    /** Returns the range of keys {@code lower <= key <= upper}. */
+    public static <K extends Comparable<? super K>> PartitionRange<K> closed(K lower, K upper) {
+        return new PartitionRange<K>(lower, upper, true);
+    }
+
+    /** Returns the range of keys {@code lower <= key < upper}. */
+    public static <K extends Comparable<? super K>> PartitionRange<K> closedOpen(K lower, K upper) {
+        return new PartitionRange<K>(lower, upper, false);
+    }
+
+    /** Returns the range of keys {@code lower <= key}. */
+    public static <K extends Comparable<? super K>> PartitionRange<K> atLeast(K lower) {
+        return new PartitionRange<K>(lower, null, false);
+    }
+
+    /** Returns the range of keys {@code key <= upper}. */
+    public static <K extends Comparable<? super K>> PartitionRange<K> atMost(K upper) {
+        return new PartitionRange<K>(null, upper, true);
+    }
+
+    /** Returns the range of keys {@code key < upper}. */
+    public static <K extends Comparable<? super K>> PartitionRange<K> lessThan(K upper) {
+        return new PartitionRange<K>(null, upper, false);
+    }
+
+    /** Returns the range containing every key. */
+    public static <K extends Comparable<? super K>> PartitionRange<K> all() {
+        return new PartitionRange<K>(null, null, false);
+    }
+
+    private PartitionRange(K lower, K upper, boolean upperInclusive) {
+        if (lower != null && upper != null) {
+            int cmp = lower.compareTo(upper);
+            checkArgument(cmp < 0 || (cmp == 0 && upperInclusive), "Invalid range: %s..%s", lower, upper);
+        }
+        _lower = lower;
+        _upper = upper;
+        _upperInclusive = upperInclusive && upper != null;
+    }
+
+    /** Returns the inclusive lower bound, or {@code null} if the range has no lower bound. */
+    public K getLower() {
+        return _lower;
+    }
+
+    /** Returns the upper bound, or {@code null} if the range has no upper bound. */
+    public K getUpper() {
+        return _upper;
+    }
+
+    public boolean isUpperInclusive() {
+        return _upperInclusive;
+    }
+
+    public boolean contains(K key) {
+        if (_lower != null && key.compareTo(_lower) < 0) {
+            return false;
+        }
+        if (_upper != null) {
+            int cmp = key.compareTo(_upper);
+            return cmp < 0 || (cmp == 0 && _upperInclusive);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) return true;
+        if (!(obj instanceof PartitionRange)) return false;
+
+        PartitionRange<?> that = (PartitionRange<?>) obj;
+        return Objects.equal(_lower, that._lower)
+                && Objects.equal(_upper, that._upper)
+                && _upperInclusive == that._upperInclusive;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(_lower, _upper, _upperInclusive);
+    }
+
+    @Override
+    public String toString() {
+        return "[" + (_lower != null ? _lower : "") + ".." + (_upper != null ? _upper : "") +
+                (_upperInclusive ? "]" : ")");
+    }
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.partition;
+
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.collect.ImmutableCollection;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Routes service calls to the end points that declare ownership of a range of keys containing the partition key.
+ * <p/>
+ * Choose this partition filter when each server can only handle a subset of the requests and the subsets are
+ * contiguous ranges of an ordered key space, for example alphabetical ranges of words or numeric ranges of IDs.  End
+ * points typically advertise their ranges in their payload.  Ranges may overlap, in which case every end point that
+ * owns the key is returned.
+ * <p/>
+ * The ranges of each end point are obtained from a {@link RangePartitioner} once, when the end point is first seen,
+ * and are combined into a sorted index whenever the set of end points changes.  Each request is then routed with a
+ * binary search of that index.
+ */
+public class RangePartitionFilter<K extends Comparable<? super K>> implements PartitionFilter {
+    private static final Logger LOG = LoggerFactory.getLogger(RangePartitionFilter.class);
+
+    private final String _partitionKey;
+    private final RangePartitioner<K> _partitioner;
+    private volatile Index<K> _index = Index.empty();
+
+    /**
+     * Constructs a {@code RangePartitionFilter} that uses the default partition key
+     * ({@link com.bazaarvoice.ostrich.PartitionContext#get()}) to determine the partition.
+     */
+    public RangePartitionFilter(RangePartitioner<K> partitioner) {
+        this("", partitioner);
+    }
+
+    /**
+     * Constructs a {@code RangePartitionFilter} that uses the partition context value for the specified key to
+     * determine the partition.
+     */
+    public RangePartitionFilter(String partitionKey, RangePartitioner<K> partitioner) {
+        _partitionKey = checkNotNull(partitionKey);
+        _partitioner = checkNotNull(partitioner);
+    }
+
+    @Override
+    public Iterable<ServiceEndPoint> filter(Iterable<ServiceEndPoint> endPoints, PartitionContext partitionContext) {
+        Object value = partitionContext.get(_partitionKey);
+        if (value == null) {
+            return endPoints;  // No partition key means any server can handle the request.
+        }
+        K key = checkNotNull(_partitioner.getKey(value));
+
+        return getIndex(endPoints).get(key);
+    }
+
+    /**
+     * Returns the index for the specified end points, rebuilding it if the set of end points has changed.
+     */
+    private Index<K> getIndex(Iterable<ServiceEndPoint> endPoints) {
+        Index<K> index = _index;
+        if (index.hasSameEndPoints(endPoints)) {
+            return index;
+        }
+
+        // The set of end points may have changed, or they may just be in a different order.
+        Set<ServiceEndPoint> endPointSet = Sets.newHashSet(endPoints);
+        synchronized (this) {
+            index = _index;
+            if (!index.hasSameEndPointSet(endPointSet)) {
+                index = build(endPointSet, index);
+            }
+            _index = index.withOrder(endPoints);
+            return _index;
+        }
+    }
+
+    private Index<K> build(Set<ServiceEndPoint> endPoints, Index<K> previous) {
+        // Reuse the ranges of end points we already know about so each end point's ranges are only determined once.
+        Map<ServiceEndPoint, List<PartitionRange<K>>> rangesByEndPoint = Maps.newHashMap();
+        for (ServiceEndPoint endPoint : endPoints) {
+            List<PartitionRange<K>> ranges = previous._rangesByEndPoint.get(endPoint);
+            if (ranges == null) {
+                ranges = getRanges(endPoint);
+            }
+            rangesByEndPoint.put(endPoint, ranges);
+        }
+
+        // Every range bound becomes a cut in the key space.  The sorted, distinct cuts divide the key space into
+        // segments, and every key within a segment is owned by the same set of end points.
+        List<Cut<K>> cuts = Lists.newArrayList();
+        for (List<PartitionRange<K>> ranges : rangesByEndPoint.values()) {
+            for (PartitionRange<K> range : ranges) {
+                if (range.getLower() != null) {
+                    cuts.add(lowerCut(range));
+                }
+                if (range.getUpper() != null) {
+                    cuts.add(upperCut(range));
+                }
+            }
+        }
+        Collections.sort(cuts);
+        List<Cut<K>> distinctCuts = Lists.newArrayList();
+        for (Cut<K> cut : cuts) {
+            if (distinctCuts.isEmpty() || distinctCuts.get(distinctCuts.size() - 1).compareTo(cut) != 0) {
+                distinctCuts.add(cut);
+            }
+        }
+
+        // Segment i contains the keys that are above exactly i cuts.  Add each end point to every segment covered by
+        // its ranges.  Sort by ID so end points are always returned in the same order.
+        List<ServiceEndPoint> sortedEndPoints = Lists.newArrayList(rangesByEndPoint.keySet());
+        Collections.sort(sortedEndPoints, BY_ID);
+        List<List<ServiceEndPoint>> segments = Lists.newArrayList();
+        for (int i = 0; i <= distinctCuts.size(); i++) {
+            segments.add(Lists.<ServiceEndPoint>newArrayList());
+        }
+        for (ServiceEndPoint endPoint : sortedEndPoints) {
+            for (PartitionRange<K> range : rangesByEndPoint.get(endPoint)) {
+                int first = (range.getLower() != null)
+                        ? Collections.binarySearch(distinctCuts, lowerCut(range)) + 1
+                        : 0;
+                int last = (range.getUpper() != null)
+                        ? Collections.binarySearch(distinctCuts, upperCut(range))
+                        : distinctCuts.size();
+                for (int i = first; i <= last; i++) {
+                    List<ServiceEndPoint> segment = segments.get(i);
+                    if (segment.isEmpty() || segment.get(segment.size() - 1) != endPoint) {
+                        segment.add(endPoint);
+                    }
+                }
+            }
+        }
+
+        ImmutableList.Builder<K> cutValues = ImmutableList.builder();
+        boolean[] cutAbove = new boolean[distinctCuts.size()];
+        for (int i = 0; i < distinctCuts.size(); i++) {
+            cutValues.add(distinctCuts.get(i)._value);
+            cutAbove[i] = distinctCuts.get(i)._above;
+        }
+        ImmutableList.Builder<List<ServiceEndPoint>> immutableSegments = ImmutableList.builder();
+        for (List<ServiceEndPoint> segment : segments) {
+            immutableSegments.add(ImmutableList.copyOf(segment));
+        }
+        return new Index<K>(ImmutableMap.copyOf(rangesByEndPoint), cutValues.build(), cutAbove,
+                immutableSegments.build(), Collections.<ServiceEndPoint>emptyList(), null);
+    }
+
+    private List<PartitionRange<K>> getRanges(ServiceEndPoint endPoint) {
+        try {
+            return ImmutableList.copyOf(_partitioner.getRanges(endPoint));
+        } catch (Exception e) {
+            LOG.warn("Unable to determine partition ranges for end point id: {}, {}", endPoint.getId(), e.toString());
+            LOG.debug("Exception", e);
+            return Collections.emptyList();
+        }
+    }
+
+    private static <K extends Comparable<? super K>> Cut<K> lowerCut(PartitionRange<K> range) {
+        return new Cut<K>(range.getLower(), false);
+    }
+
+    private static <K extends Comparable<? super K>> Cut<K> upperCut(PartitionRange<K> range) {
+        return new Cut<K>(range.getUpper(), range.isUpperInclusive());
+    }
+
+    private static final Comparator<ServiceEndPoint> BY_ID = new Comparator<ServiceEndPoint>() {
+        @Override
+        public int compare(ServiceEndPoint left, ServiceEndPoint right) {
+            return left.getId().compareTo(right.getId());
+        }
+    };
+
+    /**
+     * A point between keys: either just below a value or just above it.
+     */
+    private static class Cut<K extends Comparable<? super K>> implements Comparable<Cut<K>> {
+        private final K _value;
+        private final boolean _above;
+
+        Cut(K value, boolean above) {
+            _value = value;
+            _above = above;
+        }
+
+        @Override
+        public int compareTo(Cut<K> cut) {
+            int result = _value.compareTo(cut._value);
+            if (result == 0 && _above != cut._above) {
+                result = _above ? 1 : -1;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * An immutable index from key segments to the end points that own them.
+     */
+    private static class Index<K extends Comparable<? super K>> {
+        private final Map<ServiceEndPoint, List<PartitionRange<K>>> _rangesByEndPoint;
+        private final List<K> _cutValues;
+        private final boolean[] _cutAbove;
+        private final List<List<ServiceEndPoint>> _segments;
+
+        /**
+         * The end points in the order the filter last saw them, and the iterable they came from, used to quickly
+         * detect that nothing has changed.
+         */
+        private final List<ServiceEndPoint> _lastSeen;
+        private final Iterable<ServiceEndPoint> _lastSeenIterable;
+
+        static <K extends Comparable<? super K>> Index<K> empty() {
+            return new Index<K>(Collections.<ServiceEndPoint, List<PartitionRange<K>>>emptyMap(),
+                    ImmutableList.<K>of(), new boolean[0],
+                    ImmutableList.<List<ServiceEndPoint>>of(ImmutableList.<ServiceEndPoint>of()),
+                    Collections.<ServiceEndPoint>emptyList(), null);
+        }
+
+        Index(Map<ServiceEndPoint, List<PartitionRange<K>>> rangesByEndPoint, List<K> cutValues, boolean[] cutAbove,
+              List<List<ServiceEndPoint>> segments, List<ServiceEndPoint> lastSeen,
+              Iterable<ServiceEndPoint> lastSeenIterable) {
+            _rangesByEndPoint = rangesByEndPoint;
+            _cutValues = cutValues;
+            _cutAbove = cutAbove;
+            _segments = segments;
+            _lastSeen = lastSeen;
+            _lastSeenIterable = lastSeenIterable;
+        }
+
+        List<ServiceEndPoint> get(K key) {
+            // Binary search for the number of cuts below the key, which is the index of the key's segment.
+            int low = 0;
+            int high = _cutValues.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                int cmp = _cutValues.get(mid).compareTo(key);
+                if (cmp < 0 || (cmp == 0 && !_cutAbove[mid])) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return _segments.get(low);
+        }
+
+        /**
+         * Cheap check that the end points are the same, in the same order, as the last time.  The same immutable
+         * collection is recognized without looking at its contents, and a collection of a different size without
+         * iterating it.  Anything else, such as a live view over the end points that changes underneath the filter,
+         * is compared one end point at a time.
+         */
+        boolean hasSameEndPoints(Iterable<ServiceEndPoint> endPoints) {
+            if (_lastSeen.isEmpty()) {
+                return false;
+            }
+            if (endPoints == _lastSeenIterable && endPoints instanceof ImmutableCollection) {
+                return true;
+            }
+            if (endPoints instanceof Collection && ((Collection<?>) endPoints).size() != _lastSeen.size()) {
+                return false;
+            }
+
+            Iterator<ServiceEndPoint> iter = endPoints.iterator();
+            for (ServiceEndPoint endPoint : _lastSeen) {
+                if (!iter.hasNext()) {
+                    return false;
+                }
+                ServiceEndPoint next = iter.next();
+                if (endPoint != next && !endPoint.equals(next)) {
+                    return false;
+                }
+            }
+            return !iter.hasNext();
+        }
+
+        boolean hasSameEndPointSet(Set<ServiceEndPoint> endPoints) {
+            return _rangesByEndPoint.keySet().equals(endPoints);
+        }
+
+        Index<K> withOrder(Iterable<ServiceEndPoint> endPoints) {
+            return new Index<K>(_rangesByEndPoint, _cutValues, _cutAbove, _segments, Lists.newArrayList(endPoints),
+                    endPoints);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.partition;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+
+/**
+ * Describes how a {@link RangePartitionFilter} maps partition context values and service end points onto a space of
+ * ordered keys.
+ */
+public interface RangePartitioner<K extends Comparable<? super K>> {
+    /**
+     * Returns the ranges of keys owned by an end point, typically parsed from the end point payload.  This is called
+     * once when an end point is first seen, not on every request.  Throw an exception if the end point doesn't
+     * describe a valid set of ranges; the end point will then never be chosen.
+     */
+    Iterable<PartitionRange<K>> getRanges(ServiceEndPoint endPoint);
+
+    /**
+     * Converts a value from the {@link com.bazaarvoice.ostrich.PartitionContext} to a key.  This is called on every
+     * request so should be inexpensive.
+     */
+    K getKey(Object partitionValue);
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.partition;
+
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.collect.Lists;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Uses rendezvous, or highest random weight (HRW), hashing to map service calls to end points.  For every request
+ * each end point is given a score derived from a hash of the partition context values and the end point ID, and the
+ * end points with the highest scores own the partition.
+ * <p/>
+ * Choose this partition filter for the same reasons as {@link ConsistentHashPartitionFilter}.  Unlike consistent
+ * hashing, rendezvous hashing keeps no ring in memory, splits partitions evenly between end points without virtual
+ * nodes, and only moves the partitions owned by an end point when that end point is added or removed.  Scoring costs
+ * one hash per end point per request, so it is best suited to small and medium sized fleets.
+ * <p/>
+ * End points are returned in ranked order, highest score first.  By default only the top-ranked end point is returned,
+ * but the filter can be configured to return more so that callers can fail over to the next-ranked end point.  If an
+ * {@link EndPointWeightFunction} is specified, end points are assigned partitions in proportion to their weights.
+ * <p/>
+ * The algorithm is described in:
+ * <a href="http://www.eecs.umich.edu/techreports/cse/96/CSE-TR-316-96.pdf">
+ *     A Name-Based Mapping Scheme for Rendezvous</a>
+ */
+public class RendezvousPartitionFilter implements PartitionFilter {
+    private final List<String> _partitionKeys;
+    private final PartitionHashFunction _hashFunction;
+    private final EndPointWeightFunction _weightFunction;
+    private final int _numEndPoints;
+
+    /**
+     * Constructs a default {@code RendezvousPartitionFilter} that uses the default partition key
+     * ({@link com.bazaarvoice.ostrich.PartitionContext#get()}) to determine the partition.
+     */
+    public RendezvousPartitionFilter() {
+        this(Collections.<String>emptyList());
+    }
+
+    /**
+     * Constructs a {@code RendezvousPartitionFilter} that concatenates the partition context values for the specified
+     * set of keys to determine the partition.
+     */
+    public RendezvousPartitionFilter(String... partitionKeys) {
+        this(Arrays.asList(partitionKeys));
+    }
+
+    /**
+     * Constructs a {@code RendezvousPartitionFilter} that concatenates the partition context values for the specified
+     * set of keys to determine the partition.
+     */
+    public RendezvousPartitionFilter(List<String> partitionKeys) {
+        this(partitionKeys, PartitionHashFunctions.murmur3_128(), null, 1);
+    }
+
+    /**
+     * Constructs a {@code RendezvousPartitionFilter} that concatenates the partition context values for the specified
+     * set of keys to determine the partition.
+     *
+     * @param partitionKeys  The partition context keys, or an empty list to use the default partition key.
+     * @param hashFunction   The hash function used to score end points.
+     * @param weightFunction The function that computes end point weights, or {@code null} to weight all end points
+     *                       equally.
+     * @param numEndPoints   The maximum number of end points to return, in ranked order.
+     */
+    public RendezvousPartitionFilter(List<String> partitionKeys, PartitionHashFunction hashFunction,
+                                     EndPointWeightFunction weightFunction, int numEndPoints) {
+        checkArgument(numEndPoints > 0);
+        _partitionKeys = checkNotNull(partitionKeys);
+        _hashFunction = checkNotNull(hashFunction);
+        _weightFunction = weightFunction;
+        _numEndPoints = numEndPoints;
+    }
+
+    @Override
+    public Iterable<ServiceEndPoint> filter(Iterable<ServiceEndPoint> endPoints, PartitionContext partitionContext) {
+        byte[] partitionHash = PartitionHashing.hashPartition(_hashFunction, _partitionKeys, partitionContext);
+        if (partitionHash == null) {
+            return endPoints;  // No partition hash means any server can handle the request.
+        }
+
+        if (_numEndPoints == 1) {
+            // Common case, avoid sorting.
+            ServiceEndPoint best = null;
+            double bestScore = -1;
+            for (ServiceEndPoint endPoint : endPoints) {
+                double score = score(partitionHash, endPoint);
+                if (best == null || score > bestScore
+                        || (score == bestScore && endPoint.getId().compareTo(best.getId()) < 0)) {
+                    best = endPoint;
+                    bestScore = score;
+                }
+            }
+            return (best != null) ? Collections.singletonList(best) : Collections.<ServiceEndPoint>emptyList();
+        }
+
+        List<ScoredEndPoint> scored = Lists.newArrayList();
+        for (ServiceEndPoint endPoint : endPoints) {
+            scored.add(new ScoredEndPoint(endPoint, score(partitionHash, endPoint)));
+        }
+        Collections.sort(scored, HIGHEST_SCORE_FIRST);
+
+        List<ServiceEndPoint> ranked = Lists.newArrayListWithCapacity(Math.min(_numEndPoints, scored.size()));
+        for (ScoredEndPoint entry : scored) {
+            if (ranked.size() == _numEndPoints) {
+                break;
+            }
+            ranked.add(entry._endPoint);
+        }
+        return ranked;
+    }
+
+    /**
+     * Returns the score of an end point for a partition.  Unweighted scores are uniformly distributed in (0, 1).
+     * Weighted scores use the logarithmic method so that each end point wins in proportion to its weight.
+     */
+    private double score(byte[] partitionHash, ServiceEndPoint endPoint) {
+        double random = toUniform(_hashFunction.newHasher()
+                .putBytes(partitionHash)
+                .putString(endPoint.getId())
+                .hash());
+        if (_weightFunction == null) {
+            return random;
+        }
+        double weight = _weightFunction.getWeight(endPoint);
+        checkState(weight >= 0, "Negative weight for end point: %s", endPoint);
+        return weight / -Math.log(random);
+    }
+
+    /**
+     * Maps a hash to a double in the open interval (0, 1), using as many of its bits as it has.  Hashes shorter than
+     * eight bytes only have 32 bits, so scaling them as though they had 64 would crowd every value next to zero.
+     */
+    private static double toUniform(byte[] hash) {
+        if (hash.length < 8) {
+            return (PartitionHashing.asLong(hash) + 0.5) / (1L << 32);
+        }
+        // The top 53 bits, all that fit in a double's mantissa.
+        return ((PartitionHashing.asLong(hash) >>> 11) + 0.5) / (1L << 53);
+    }
+
+    private static final Comparator<ScoredEndPoint> HIGHEST_SCORE_FIRST = new Comparator<ScoredEndPoint>() {
+        @Override
+        public int compare(ScoredEndPoint left, ScoredEndPoint right) {
+            int result = Double.compare(right._score, left._score);
+            if (result == 0) {
+                // Break ties by ID so every client ranks end points the same way.
+                result = left._endPoint.getId().compareTo(right._endPoint.getId());
+            }
+            return result;
+        }
+    };
+
+    private static class ScoredEndPoint {
+        private final ServiceEndPoint _endPoint;
+        private final double _score;
+
+        ScoredEndPoint(ServiceEndPoint endPoint, double score) {
+            _endPoint = endPoint;
+            _score = score;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link ServiceCachingPolicy} with settings beyond the basic ones.  A {@link ServiceCache} whose policy is only a
+ * {@code ServiceCachingPolicy} uses the cache's defaults for these: the default eviction interval, instances that
+ * live as long as they're used, validation of idle instances once a minute but not on check out, and instances that
+ * are not shared.
+ */
+public interface AdvancedServiceCachingPolicy extends ServiceCachingPolicy {
+    /**
+     * How often the cache looks for service instances that have been idle for longer than the
+     * {@link #getMaxServiceInstanceIdleTime max service instance idle time}, which bounds how long past that time an
+     * idle instance can live.
+     * <p/>
+     * NOTE: A non-positive value indicates that the cache's default interval of five minutes is used.
+     */
+    long getEvictionInterval(TimeUnit unit);
+
+    /**
+     * The maximum amount of time a service instance lives, however often it is used, so callers don't stay pinned to
+     * the same instance forever.  Each instance is retired at a random point between 90% and 100% of this age so that
+     * instances created together aren't all recycled at once.  An instance that is checked out when it reaches its age
+     * is retired when it is checked back in.
+     * <p/>
+     * NOTE: A non-positive value indicates that service instances live as long as they're used.
+     */
+    long getMaxServiceInstanceLifetime(TimeUnit unit);
+
+    /**
+     * The minimum amount of time between validations of the same service instance, when the service factory is a
+     * {@link com.bazaarvoice.ostrich.ValidatingServiceFactory}.  Idle instances are validated in the background this
+     * often, and an instance isn't validated again until it has been idle for this long since it was last used or
+     * validated.
+     * <p/>
+     * NOTE: A non-positive value indicates that the cache's default interval of one minute is used.
+     */
+    long getServiceInstanceValidationInterval(TimeUnit unit);
+
+    /**
+     * Whether an idle service instance is validated before it is checked out, if it's due for validation.  An instance
+     * that fails validation is destroyed and another one is checked out instead.
+     * <p/>
+     * NOTE: This only applies when the service factory is a {@link com.bazaarvoice.ostrich.ValidatingServiceFactory}
+     * and service instances aren't shared.
+     */
+    boolean isServiceInstanceValidatedOnCheckOut();
+
+    /**
+     * Returns the number of service instances kept for each end point that are used by all callers at the same time,
+     * rather than being checked out by one caller at a time.  Only appropriate for services whose instances are
+     * thread-safe, for example HTTP clients.
+     * <p/>
+     * NOTE: A value of 0 indicates that service instances are not shared.  When they are shared, the maximum numbers of
+     * service instances and the exhaustion action do not apply.
+     */
+    int getNumSharedServiceInstancesPerEndPoint();
+}
@@ -36,7 +36,7 @@ import static com.google.common.base.Preconditions.checkState;
  * context from method arguments.
  */
 class AnnotationPartitionContextSupplier implements PartitionContextSupplier {
-    private final Map<Method, String[]> _keyMappings;
+    private final Map<Method, ArgumentPartitionContext.Layout> _keyMappings;
 
     /**
      * Introspects the specified service interface and client implementation class, looking for {@link PartitionKey}
@@ -50,7 +50,7 @@ class AnnotationPartitionContextSupplier implements PartitionContextSupplier {
     <S> AnnotationPartitionContextSupplier(Class<S> ifc, Class<? extends S> impl) {
         checkArgument(ifc.isAssignableFrom(impl));
 
-        ImmutableMap.Builder<Method, String[]> builder = ImmutableMap.builder();
+        ImmutableMap.Builder<Method, ArgumentPartitionContext.Layout> builder = ImmutableMap.builder();
         for (Method ifcMethod : ifc.getDeclaredMethods()) {
             Method implMethod;
             try {
@@ -59,40 +59,36 @@ class AnnotationPartitionContextSupplier implements PartitionContextSupplier {
                 throw Throwables.propagate(e);  // Should never happen if impl implements ifc.
             }
 
-            String[] keyMappings = collectPartitionKeyAnnotations(implMethod);
-            if (keyMappings == null) {
+            ArgumentPartitionContext.Layout layout = collectPartitionKeyAnnotations(implMethod);
+            if (layout == null) {
                 continue;  // Not annotated
             }
 
             // Index by the ifcMethod because that's the method provided when a dynamic proxy method is invoked.
-            builder.put(ifcMethod, keyMappings);
+            builder.put(ifcMethod, layout);
         }
         _keyMappings = builder.build();
     }
 
     @Override
     public PartitionContext forCall(Method method, Object... args) {
-        String[] mappings = _keyMappings.get(method);
-        if (mappings == null) {
+        ArgumentPartitionContext.Layout layout = _keyMappings.get(method);
+        if (layout == null) {
             return PartitionContextBuilder.empty();
         }
-
-        PartitionContextBuilder builder = new PartitionContextBuilder();
-        for (int i = 0; i < mappings.length; i++) {
-            if (mappings[i] != null && args[i] != null) {
-                builder.put(mappings[i], args[i]);
-            }
-        }
-        return builder.build();
+        return layout.forCall(args);
     }
 
     /**
-     * Returns an array indexed by argument index with the value of the @PartitionKey annotation for each argument,
-     * or null if no arguments are annotated with @PartitionKey.
+     * Returns the layout of the @PartitionKey annotations on the method's arguments, or null if no arguments are
+     * annotated with @PartitionKey.  Any property paths are resolved against the declared argument types here so that
+     * an invalid path is reported when the proxy is built rather than on every call.
      */
-    private String[] collectPartitionKeyAnnotations(Method method) {
+    private ArgumentPartitionContext.Layout collectPartitionKeyAnnotations(Method method) {
         Annotation[][] annotations = method.getParameterAnnotations();
+        Class<?>[] parameterTypes = method.getParameterTypes();
         String[] keyMappings = new String[annotations.length];
+        PartitionKeyPath[] paths = new PartitionKeyPath[annotations.length];
         boolean keyMappingFound = false;
         Map<String, Integer> unique = Maps.newHashMap();
         for (int i = 0; i < annotations.length; i++) {
@@ -105,9 +101,12 @@ class AnnotationPartitionContextSupplier implements PartitionContextSupplier {
             checkState(prev == null, "Method '%s' has multiple arguments annotated with the same @PartitionKey " +
                     "value '%s': arguments %s and %s", method, key, prev, i);
             keyMappings[i] = key;
+            if (!annotation.path().isEmpty()) {
+                paths[i] = PartitionKeyPath.compile(parameterTypes[i], annotation.path());
+            }
             keyMappingFound = true;
         }
-        return keyMappingFound ? keyMappings : null;
+        return keyMappingFound ? new ArgumentPartitionContext.Layout(keyMappings, paths) : null;
     }
 
     private static PartitionKey findPartitionKeyAnnotation(Annotation[] annotations) {
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.AbstractPartitionContext;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A {@link com.bazaarvoice.ostrich.PartitionContext} that reads its values directly out of the arguments of a proxied
+ * method call.  The partition keys and the indexes of the arguments they come from are computed once per method by a
+ * {@link Layout}, so building a context costs a single allocation and the {@link #asMap()} view is only created if
+ * something asks for it.
+ * <p/>
+ * The context keeps a reference to the argument array rather than copying it.  Dynamic proxies create a new array for
+ * every call, so the values can't change underneath the context.  Partition keys taken from a property of an argument
+ * are read each time they're asked for.
+ */
+class ArgumentPartitionContext extends AbstractPartitionContext {
+    private final Layout _layout;
+    private final Object[] _args;
+    private Map<String, Object> _map;
+
+    private ArgumentPartitionContext(Layout layout, Object[] args) {
+        _layout = layout;
+        _args = args;
+    }
+
+    @Override
+    public Object get(String key) {
+        String[] keys = _layout._keys;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(key)) {
+                return _layout.getValue(i, _args);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Map<String, Object> asMap() {
+        // Benign race: the map is immutable, so at worst two threads build equal copies.
+        Map<String, Object> map = _map;
+        if (map == null) {
+            ImmutableMap.Builder<String, Object> builder = ImmutableMap.builder();
+            for (int i = 0; i < _layout._keys.length; i++) {
+                Object value = _layout.getValue(i, _args);
+                if (value != null) {
+                    builder.put(_layout._keys[i], value);
+                }
+            }
+            _map = map = builder.build();
+        }
+        return map;
+    }
+
+    /**
+     * The partition keys of a method, the indexes of the arguments that supply their values and the paths, if any, to
+     * follow from those arguments to the values.
+     */
+    static class Layout {
+        private final String[] _keys;
+        private final int[] _argIndexes;
+        private final PartitionKeyPath[] _paths;
+
+        /**
+         * @param keyMappings The partition key of each argument, indexed by argument index, or {@code null} for
+         *                    arguments that aren't partition keys.
+         */
+        Layout(String[] keyMappings) {
+            this(keyMappings, new PartitionKeyPath[keyMappings.length]);
+        }
+
+        /**
+         * @param keyMappings The partition key of each argument, indexed by argument index, or {@code null} for
+         *                    arguments that aren't partition keys.
+         * @param paths       The path to the partition key value within each argument, indexed by argument index, or
+         *                    {@code null} for arguments that are used as-is.
+         */
+        Layout(String[] keyMappings, PartitionKeyPath[] paths) {
+            checkArgument(keyMappings.length == paths.length);
+            int numKeys = 0;
+            for (String key : keyMappings) {
+                if (key != null) {
+                    numKeys++;
+                }
+            }
+            _keys = new String[numKeys];
+            _argIndexes = new int[numKeys];
+            _paths = new PartitionKeyPath[numKeys];
+            for (int i = 0, j = 0; i < keyMappings.length; i++) {
+                if (keyMappings[i] != null) {
+                    _keys[j] = keyMappings[i];
+                    _argIndexes[j] = i;
+                    _paths[j] = paths[i];
+                    j++;
+                }
+            }
+        }
+
+        private Object getValue(int keyIndex, Object[] args) {
+            Object arg = args[_argIndexes[keyIndex]];
+            PartitionKeyPath path = _paths[keyIndex];
+            return (path != null) ? path.get(arg) : arg;
+        }
+
+        ArgumentPartitionContext forCall(Object[] args) {
+            return new ArgumentPartitionContext(this, checkNotNull(args));
+        }
+    }
+}
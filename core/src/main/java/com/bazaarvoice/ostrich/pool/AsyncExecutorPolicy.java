@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A policy for sizing the executor that an {@link AsyncServicePool} creates to run asynchronous requests.  The
+ * executor runs up to a fixed number of requests at a time and queues the rest, so that a burst of requests can't
+ * create an unbounded number of threads.
+ */
+public interface AsyncExecutorPolicy {
+    /**
+     * Returns the maximum number of threads, and so the maximum number of requests that execute at the same time.
+     */
+    int getMaxNumThreads();
+
+    /**
+     * Returns the maximum number of requests that can wait for a thread.  A value of 0 means requests are never queued,
+     * a request that arrives when every thread is busy is rejected straight away.
+     */
+    int getQueueCapacity();
+
+    /**
+     * What action to take when a request can't be queued because the queue is full.
+     */
+    RejectionAction getRejectionAction();
+
+    /**
+     * The maximum amount of time to wait for space in the queue when the rejection action is
+     * {@link RejectionAction#WAIT}.
+     */
+    long getMaxQueueWaitTime(TimeUnit unit);
+
+    enum RejectionAction {
+        /** Execute the request on the thread that submitted it. */
+        CALLER_RUNS,
+
+        /** Throw a {@link java.util.concurrent.RejectedExecutionException} to the caller straight away. */
+        FAIL,
+
+        /**
+         * Wait up to the maximum queue wait time for space in the queue, then throw a
+         * {@link java.util.concurrent.RejectedExecutionException} to the caller.
+         */
+        WAIT
+    }
+}
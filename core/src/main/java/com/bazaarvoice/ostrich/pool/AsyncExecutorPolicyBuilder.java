@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.bazaarvoice.ostrich.pool.AsyncExecutorPolicy.RejectionAction;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+public class AsyncExecutorPolicyBuilder {
+    private static final int DEFAULT_MAX_NUM_THREADS = 100;
+    private static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    private int _maxNumThreads = DEFAULT_MAX_NUM_THREADS;
+    private int _queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private RejectionAction _rejectionAction = RejectionAction.FAIL;
+    private long _maxQueueWaitTimeNanos;
+
+    /**
+     * Set the maximum number of threads for the built policy.  If never called, defaults to 100.
+     *
+     * @param maxNumThreads The maximum number of requests to execute at the same time.
+     * @return this
+     */
+    public AsyncExecutorPolicyBuilder withMaxNumThreads(int maxNumThreads) {
+        checkState(maxNumThreads > 0);
+
+        _maxNumThreads = maxNumThreads;
+        return this;
+    }
+
+    /**
+     * Set the maximum number of requests that can wait for a thread in the built policy.  If never called, defaults
+     * to 10000.
+     *
+     * @param queueCapacity The maximum number of queued requests, or 0 to never queue requests.
+     * @return this
+     */
+    public AsyncExecutorPolicyBuilder withQueueCapacity(int queueCapacity) {
+        checkState(queueCapacity >= 0);
+
+        _queueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * Set the {@code RejectionAction} for the built policy.  If never called, will default to
+     * {@code RejectionAction.FAIL}.
+     * <p/>
+     * NOTE: {@code RejectionAction.WAIT} also requires a {@link #withMaxQueueWaitTime maxQueueWaitTime}.
+     *
+     * @param action The action to take when the queue is full.
+     * @return this
+     */
+    public AsyncExecutorPolicyBuilder withRejectionAction(RejectionAction action) {
+        checkNotNull(action);
+
+        _rejectionAction = action;
+        return this;
+    }
+
+    /**
+     * Set the amount of time to wait for space in a full queue when the rejection action is
+     * {@code RejectionAction.WAIT}.
+     *
+     * @param maxQueueWaitTime The time to wait for space in the queue before rejecting a request.
+     * @param unit             The unit of time the {@code maxQueueWaitTime} is in.
+     * @return this
+     */
+    public AsyncExecutorPolicyBuilder withMaxQueueWaitTime(long maxQueueWaitTime, TimeUnit unit) {
+        checkState(maxQueueWaitTime > 0);
+        checkNotNull(unit);
+
+        _maxQueueWaitTimeNanos = unit.toNanos(maxQueueWaitTime);
+        return this;
+    }
+
+    /**
+     * Build the {@code AsyncExecutorPolicy} specified by this builder.
+     *
+     * @return The {@code AsyncExecutorPolicy} that was constructed.
+     */
+    public AsyncExecutorPolicy build() {
+        checkState(_rejectionAction != RejectionAction.WAIT || _maxQueueWaitTimeNanos > 0,
+                "The WAIT rejection action requires a max queue wait time");
+
+        final int maxNumThreads = _maxNumThreads;
+        final int queueCapacity = _queueCapacity;
+        final RejectionAction rejectionAction = _rejectionAction;
+        final long maxQueueWaitTimeNanos = _maxQueueWaitTimeNanos;
+
+        return new AsyncExecutorPolicy() {
+            @Override
+            public int getMaxNumThreads() {
+                return maxNumThreads;
+            }
+
+            @Override
+            public int getQueueCapacity() {
+                return queueCapacity;
+            }
+
+            @Override
+            public RejectionAction getRejectionAction() {
+                return rejectionAction;
+            }
+
+            @Override
+            public long getMaxQueueWaitTime(TimeUnit unit) {
+                return unit.convert(maxQueueWaitTimeNanos, TimeUnit.NANOSECONDS);
+            }
+        };
+    }
+}
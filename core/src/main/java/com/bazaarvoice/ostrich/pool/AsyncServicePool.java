@@ -15,7 +15,10 @@
  */
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.DelayedRetryPolicy;
 import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.PartitionContextBuilder;
+import com.bazaarvoice.ostrich.ResultReducer;
 import com.bazaarvoice.ostrich.RetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
@@ -27,6 +30,12 @@ import com.google.common.base.Stopwatch;
 import com.google.common.base.Ticker;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.yammer.metrics.core.Histogram;
 import com.yammer.metrics.core.Meter;
 import com.yammer.metrics.core.Timer;
@@ -36,13 +45,29 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+/**
+ * Runs service pool callbacks on an executor.
+ * <p/>
+ * When given a retry scheduler, operations whose retry policy is a {@link DelayedRetryPolicy} don't hold an executor
+ * thread while backing off between attempts.  Each attempt runs as a separate executor task and a failed attempt asks
+ * the retry policy how long to wait, then has the scheduler hand the next attempt back to the executor once the delay
+ * is up.  Other retry policies are called on the executor thread, and may sleep there.
+ */
 class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S> {
     private static final Logger LOG = LoggerFactory.getLogger(AsyncServicePool.class);
 
@@ -58,30 +83,54 @@ class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S>
     private final boolean _shutdownPoolOnClose;
     private final ExecutorService _executor;
     private final boolean _shutdownExecutorOnClose;
+    private final ScheduledExecutorService _retryScheduler;
+    private final boolean _shutdownRetrySchedulerOnClose;
     private final Metrics _metrics;
     private final Timer _executionTime;
     private final Meter _numExecuteSuccesses;
     private final Meter _numExecuteFailures;
+    private final Meter _numExecuteCancellations;
     private final Histogram _executeBatchSize;
 
     AsyncServicePool(Ticker ticker, ServicePool<S> pool, boolean shutdownPoolOnClose,
                             ExecutorService executor, boolean shutdownExecutorOnClose) {
+        this(ticker, pool, shutdownPoolOnClose, executor, shutdownExecutorOnClose, null, false);
+    }
+
+    /**
+     * @param retryScheduler The scheduler for delayed retries, or {@code null} to back off on the executor thread for
+     *                       every retry policy.
+     */
+    AsyncServicePool(Ticker ticker, ServicePool<S> pool, boolean shutdownPoolOnClose,
+                     ExecutorService executor, boolean shutdownExecutorOnClose,
+                     ScheduledExecutorService retryScheduler, boolean shutdownRetrySchedulerOnClose) {
         _ticker = checkNotNull(ticker);
         _pool = checkNotNull(pool);
         _shutdownPoolOnClose = shutdownPoolOnClose;
         _executor = checkNotNull(executor);
         _shutdownExecutorOnClose = shutdownExecutorOnClose;
+        _retryScheduler = retryScheduler;
+        _shutdownRetrySchedulerOnClose = shutdownRetrySchedulerOnClose;
 
         String serviceName = _pool.getServiceName();
         _metrics = Metrics.forInstance(this, serviceName);
         _executionTime = _metrics.newTimer(serviceName, "execution-time", TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
         _numExecuteSuccesses = _metrics.newMeter(serviceName, "num-execute-successes", "successes", TimeUnit.SECONDS);
         _numExecuteFailures = _metrics.newMeter(serviceName, "num-execute-failures", "failures", TimeUnit.SECONDS);
+        _numExecuteCancellations = _metrics.newMeter(serviceName, "num-execute-cancellations", "cancellations",
+                TimeUnit.SECONDS);
         _executeBatchSize = _metrics.newHistogram(serviceName, "execute-batch-size", false);
+        if (executor instanceof BoundedAsyncExecutor) {
+            ((BoundedAsyncExecutor) executor).registerMetrics(_metrics, serviceName);
+        }
     }
 
     @Override
     public void close() throws IOException {
+        if (_shutdownRetrySchedulerOnClose && _retryScheduler != null) {
+            _retryScheduler.shutdown();
+        }
+
         if (_shutdownExecutorOnClose) {
             _executor.shutdown();
         }
@@ -94,86 +143,204 @@ class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S>
     }
 
     @Override
-    public <R> Future<R> execute(final RetryPolicy retryPolicy, final ServiceCallback<S, R> callback) {
-        return _executor.submit(new Callable<R>() {
+    public <R> Future<R> execute(RetryPolicy retryPolicy, ServiceCallback<S, R> callback) {
+        return executeListenable(retryPolicy, callback);
+    }
+
+    @Override
+    public <R> Future<R> execute(PartitionContext partitionContext, RetryPolicy retryPolicy,
+                                 ServiceCallback<S, R> callback) {
+        return executeListenable(partitionContext, retryPolicy, callback);
+    }
+
+    @Override
+    public <R> Collection<Future<R>> executeOnAll(RetryPolicy retry, ServiceCallback<S, R> callback) {
+        return executeOn(ALL_END_POINTS, retry, callback);
+    }
+
+    @Override
+    public <R> Collection<Future<R>> executeOn(ServiceEndPointPredicate predicate, RetryPolicy retry,
+                                               ServiceCallback<S, R> callback) {
+        return Lists.<Future<R>>newArrayList(executeOnListenable(predicate, retry, callback));
+    }
+
+    @Override
+    public <R> ListenableFuture<R> executeListenable(final RetryPolicy retryPolicy,
+                                                     final ServiceCallback<S, R> callback) {
+        if (isDelayed(retryPolicy)) {
+            return new DelayedExecution<R>(PartitionContextBuilder.empty(), null, (DelayedRetryPolicy) retryPolicy,
+                    callback).start(true);
+        }
+
+        final CancellableRetryPolicy retry = new CancellableRetryPolicy(retryPolicy);
+        return submit(retry, new Callable<R>() {
             @Override
             public R call() throws Exception {
-                return _pool.execute(retryPolicy, callback);
+                return _pool.execute(retry, callback);
             }
         });
     }
 
     @Override
-    public <R> Future<R> execute(final PartitionContext partitionContext, final RetryPolicy retryPolicy,
-                                 final ServiceCallback<S, R> callback) {
-        return _executor.submit(new Callable<R>() {
+    public <R> ListenableFuture<R> executeListenable(final PartitionContext partitionContext,
+                                                     final RetryPolicy retryPolicy,
+                                                     final ServiceCallback<S, R> callback) {
+        if (isDelayed(retryPolicy)) {
+            return new DelayedExecution<R>(partitionContext, null, (DelayedRetryPolicy) retryPolicy, callback)
+                    .start(true);
+        }
+
+        final CancellableRetryPolicy retry = new CancellableRetryPolicy(retryPolicy);
+        return submit(retry, new Callable<R>() {
             @Override
             public R call() throws Exception {
-                return _pool.execute(partitionContext, retryPolicy, callback);
+                return _pool.execute(partitionContext, retry, callback);
             }
         });
     }
 
     @Override
-    public <R> Collection<Future<R>> executeOnAll(RetryPolicy retry, ServiceCallback<S, R> callback) {
-        return executeOn(ALL_END_POINTS, retry, callback);
+    public <R> Collection<ListenableFuture<R>> executeOnAllListenable(RetryPolicy retry,
+                                                                      ServiceCallback<S, R> callback) {
+        return executeOnListenable(ALL_END_POINTS, retry, callback);
     }
 
     @Override
-    public <R> Collection<Future<R>> executeOn(ServiceEndPointPredicate predicate, final RetryPolicy retry,
-                                               final ServiceCallback<S, R> callback) {
-        Collection<Future<R>> futures = Lists.newArrayList();
+    public <R> Collection<ListenableFuture<R>> executeOnListenable(ServiceEndPointPredicate predicate,
+                                                                   RetryPolicy retry, ServiceCallback<S, R> callback) {
+        Collection<ListenableFuture<R>> futures = Lists.newArrayList();
 
         Iterable<ServiceEndPoint> endPoints = _pool.getAllEndPoints();
         if (Iterables.isEmpty(endPoints)) {
             throw new NoAvailableHostsException();
         }
 
-        for (final ServiceEndPoint endPoint : endPoints) {
-            if (!predicate.apply(endPoint)) {
-                continue;
+        for (ServiceEndPoint endPoint : endPoints) {
+            if (predicate.apply(endPoint)) {
+                futures.add(executeOnEndPoint(endPoint, retry, callback, true));
             }
+        }
 
-            Future<R> future = _executor.submit(new Callable<R>() {
-                @Override
-                public R call() throws Exception {
-                    TimerContext timer = _executionTime.time();
-                    Stopwatch sw = new Stopwatch(_ticker).start();
-                    int numAttempts = 0;
-
-                    try {
-                        Exception lastException;
-
-                        do {
-                            try {
-                                R result = _pool.executeOnEndPoint(endPoint, callback);
-                                _numExecuteSuccesses.mark();
-                                return result;
-                            } catch (Exception e) {
-                                _numExecuteFailures.mark();
-
-                                // Don't retry if exception is too severe.
-                                if (!_pool.isRetriableException(e)) {
-                                    throw e;
-                                }
-
-                                lastException = e;
-                                LOG.info("Retriable exception from end point id: " + endPoint.getId(), e);
+        _executeBatchSize.update(futures.size());
+        return futures;
+    }
+
+    @Override
+    public <R, T> ListenableFuture<T> reduceOnAll(RetryPolicy retry, ServiceCallback<S, R> callback,
+                                                  int maxConcurrency, ResultReducer<? super R, T> reducer) {
+        return reduceOn(ALL_END_POINTS, retry, callback, maxConcurrency, reducer);
+    }
+
+    @Override
+    public <R, T> ListenableFuture<T> reduceOn(ServiceEndPointPredicate predicate, RetryPolicy retry,
+                                               ServiceCallback<S, R> callback, int maxConcurrency,
+                                               ResultReducer<? super R, T> reducer) {
+        checkNotNull(predicate);
+        checkNotNull(retry);
+        checkNotNull(callback);
+        checkArgument(maxConcurrency > 0);
+        checkNotNull(reducer);
+
+        Iterable<ServiceEndPoint> endPoints = _pool.getAllEndPoints();
+        if (Iterables.isEmpty(endPoints)) {
+            throw new NoAvailableHostsException();
+        }
+
+        List<ServiceEndPoint> matching = Lists.newArrayList();
+        for (ServiceEndPoint endPoint : endPoints) {
+            if (predicate.apply(endPoint)) {
+                matching.add(endPoint);
+            }
+        }
+        _executeBatchSize.update(matching.size());
+        return new Reduction<R, T>(matching, retry, callback, maxConcurrency, reducer).start();
+    }
+
+    private <R> ListenableFuture<R> executeOnEndPoint(final ServiceEndPoint endPoint, RetryPolicy retryPolicy,
+                                                      final ServiceCallback<S, R> callback, boolean mayWait) {
+        if (isDelayed(retryPolicy)) {
+            return new DelayedExecution<R>(null, endPoint, (DelayedRetryPolicy) retryPolicy, callback).start(mayWait);
+        }
+
+        final CancellableRetryPolicy retry = new CancellableRetryPolicy(retryPolicy);
+        return submit(retry, new Callable<R>() {
+            @Override
+            public R call() throws Exception {
+                TimerContext timer = _executionTime.time();
+                Stopwatch sw = new Stopwatch(_ticker).start();
+                int numAttempts = 0;
+
+                try {
+                    Exception lastException;
+
+                    do {
+                        try {
+                            R result = _pool.executeOnEndPoint(endPoint, callback);
+                            _numExecuteSuccesses.mark();
+                            return result;
+                        } catch (Exception e) {
+                            if (retry.isCancelled()) {
+                                throw e;  // Counted as a cancellation, not a failure.
                             }
-                        } while (retry.allowRetry(++numAttempts, sw.elapsedMillis()));
+                            _numExecuteFailures.mark();
 
-                        throw new MaxRetriesException(lastException);
-                    } finally {
-                        timer.stop();
-                    }
+                            // Don't retry if exception is too severe.
+                            if (!_pool.isRetriableException(e)) {
+                                throw e;
+                            }
+
+                            lastException = e;
+                            LOG.info("Retriable exception from end point id: " + endPoint.getId(), e);
+                        }
+                    } while (retry.allowRetry(++numAttempts, sw.elapsedMillis()));
+
+                    throw new MaxRetriesException(lastException);
+                } finally {
+                    timer.stop();
                 }
-            });
+            }
+        }, mayWait);
+    }
 
-            futures.add(future);
-        }
+    private boolean isDelayed(RetryPolicy retryPolicy) {
+        return _retryScheduler != null && retryPolicy instanceof DelayedRetryPolicy;
+    }
 
-        _executeBatchSize.update(futures.size());
-        return futures;
+    /**
+     * Hands a task to the executor.  The future returned is the task itself, so it completes, and runs its listeners,
+     * as soon as the task finishes without anything having to wait on the executor's own future.  Cancelling the
+     * future stops the retry loop run by the task from making any more attempts.
+     */
+    private <R> ListenableFuture<R> submit(CancellableRetryPolicy retry, Callable<R> callable) {
+        return submit(retry, callable, true);
+    }
+
+    private <R> ListenableFuture<R> submit(final CancellableRetryPolicy retry, Callable<R> callable, boolean mayWait) {
+        final ListenableFutureTask<R> task = ListenableFutureTask.create(callable);
+        task.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (task.isCancelled()) {
+                    retry.cancel();
+                    _numExecuteCancellations.mark();
+                }
+            }
+        }, MoreExecutors.sameThreadExecutor());
+        executeTask(task, mayWait);
+        return task;
+    }
+
+    /**
+     * Hands a task to the executor.  Threads that pass work on for other callers, such as the retry scheduler's thread
+     * or one completing an earlier call, don't allow waiting so that a busy {@link BoundedAsyncExecutor} rejects the
+     * task instead of running it on that thread or blocking it until there's room.
+     */
+    private void executeTask(Runnable task, boolean mayWait) {
+        if (!mayWait && _executor instanceof BoundedAsyncExecutor) {
+            ((BoundedAsyncExecutor) _executor).executeWithoutWaiting(task);
+        } else {
+            _executor.execute(task);
+        }
     }
 
     @Override
@@ -185,4 +352,339 @@ class AsyncServicePool<S> implements com.bazaarvoice.ostrich.AsyncServicePool<S>
     public int getNumBadEndPoints() {
         return _pool.getNumBadEndPoints();
     }
+
+    /**
+     * An operation that runs each attempt as a separate executor task and waits out the delay between attempts on the
+     * retry scheduler, so that no thread is held while backing off.  Attempts run one after another, each handed to
+     * the next by the executor or the scheduler, so the mutable state needs no further synchronization.
+     * <p/>
+     * Cancelling the future stops any more attempts, and a retry that is waiting out its delay is dropped from the
+     * retry scheduler straight away.
+     */
+    private final class DelayedExecution<R> implements Runnable {
+        private final PartitionContext _partitionContext;
+        private final ServiceEndPoint _endPoint;
+        private final DelayedRetryPolicy _retry;
+        private final CancellableRetryPolicy _cancellation;
+        private final ServiceCallback<S, R> _callback;
+        private final SettableFuture<R> _future = SettableFuture.create();
+        private final Stopwatch _sw = new Stopwatch(_ticker);
+        private TimerContext _timer;
+        private int _numAttempts;
+        private Exception _lastException;
+        private volatile ScheduledFuture<?> _scheduledRetry;
+
+        /**
+         * @param partitionContext The partition context for choosing an end point for each attempt, if
+         *                         {@code endPoint} is null.
+         * @param endPoint         The end point to make every attempt on, or {@code null} to choose an end point from
+         *                         the pool for each attempt.
+         */
+        DelayedExecution(PartitionContext partitionContext, ServiceEndPoint endPoint, DelayedRetryPolicy retry,
+                         ServiceCallback<S, R> callback) {
+            _partitionContext = partitionContext;
+            _endPoint = endPoint;
+            _retry = retry;
+            _cancellation = new CancellableRetryPolicy(retry);
+            _callback = callback;
+        }
+
+        ListenableFuture<R> start(boolean mayWait) {
+            if (_endPoint != null) {
+                _timer = _executionTime.time();
+            }
+            _sw.start();
+            _future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    if (_future.isCancelled()) {
+                        cancelled();
+                    }
+                }
+            }, MoreExecutors.sameThreadExecutor());
+            executeTask(this, mayWait);
+            return _future;
+        }
+
+        @Override
+        public void run() {
+            if (_future.isCancelled()) {
+                return;
+            }
+
+            ServiceEndPoint endPoint = _endPoint;
+            if (endPoint == null) {
+                try {
+                    endPoint = _pool.chooseEndPoint(_partitionContext, _lastException);
+                } catch (RuntimeException e) {
+                    fail(e);
+                    return;
+                }
+            }
+
+            R result;
+            try {
+                result = attempt(endPoint);
+            } catch (Exception e) {
+                if (_future.isCancelled()) {
+                    return;
+                }
+
+                // Don't retry if exception is too severe.
+                if (!_pool.isRetriableException(e)) {
+                    fail(e);
+                    return;
+                }
+
+                LOG.info("Retriable exception from end point id: {}, {}", endPoint.getId(), e.toString());
+                LOG.debug("Exception", e);
+                _lastException = e;
+
+                long delayMs = _retry.getRetryDelayMs(++_numAttempts, _sw.elapsedMillis());
+                if (delayMs < 0) {
+                    fail(new MaxRetriesException(e));
+                } else if (delayMs == 0) {
+                    resubmit();
+                } else {
+                    schedule(delayMs);
+                }
+                return;
+            }
+
+            stopTimer();
+            _future.set(result);
+        }
+
+        private R attempt(ServiceEndPoint endPoint) throws Exception {
+            if (_endPoint == null) {
+                return _pool.executeAttempt(endPoint, _callback, _cancellation);
+            }
+
+            try {
+                R result = _pool.executeOnEndPoint(endPoint, _callback);
+                _numExecuteSuccesses.mark();
+                return result;
+            } catch (Exception e) {
+                if (!_future.isCancelled()) {
+                    _numExecuteFailures.mark();
+                }
+                throw e;
+            }
+        }
+
+        private void schedule(long delayMs) {
+            try {
+                _scheduledRetry = _retryScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        resubmit();
+                    }
+                }, delayMs, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                fail(new MaxRetriesException(_lastException));  // The pool is closing or overloaded.
+                return;
+            }
+
+            // The future may have been cancelled before the retry was scheduled.
+            if (_future.isCancelled()) {
+                _scheduledRetry.cancel(false);
+            }
+        }
+
+        /**
+         * Hands the next attempt to the executor from the retry scheduler's thread, or from the thread that ran the
+         * failed attempt.  Neither may run the attempt itself or wait for room, so a busy executor fails the call.
+         */
+        private void resubmit() {
+            try {
+                executeTask(this, false);
+            } catch (RejectedExecutionException e) {
+                fail(new MaxRetriesException(_lastException));  // The pool is closing or overloaded.
+            }
+        }
+
+        private void fail(Exception e) {
+            stopTimer();
+            _future.setException(e);
+        }
+
+        private void cancelled() {
+            _cancellation.cancel();
+            _numExecuteCancellations.mark();
+            stopTimer();
+
+            ScheduledFuture<?> scheduledRetry = _scheduledRetry;
+            if (scheduledRetry != null) {
+                scheduledRetry.cancel(false);
+            }
+        }
+
+        private void stopTimer() {
+            if (_timer != null) {
+                _timer.stop();
+            }
+        }
+    }
+
+    /**
+     * Calls a list of end points, no more than a fixed number at a time, and folds each result into the accumulated
+     * value as its call completes.  Only the accumulated value and the calls in progress are held on to.
+     */
+    private final class Reduction<R, T> {
+        private final Iterator<ServiceEndPoint> _pending;
+        private final RetryPolicy _retry;
+        private final ServiceCallback<S, R> _callback;
+        private final int _maxConcurrency;
+        private final ResultReducer<? super R, T> _reducer;
+        private final SettableFuture<T> _result = SettableFuture.create();
+        private final Set<ListenableFuture<R>> _running = Sets.newHashSet();
+        private T _accumulated;
+        private ServiceEndPoint _deferred;
+        private boolean _submitting;
+
+        Reduction(List<ServiceEndPoint> endPoints, RetryPolicy retry, ServiceCallback<S, R> callback,
+                  int maxConcurrency, ResultReducer<? super R, T> reducer) {
+            _pending = endPoints.iterator();
+            _retry = retry;
+            _callback = callback;
+            _maxConcurrency = maxConcurrency;
+            _reducer = reducer;
+        }
+
+        ListenableFuture<T> start() {
+            _result.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    cancelRunning();
+                }
+            }, MoreExecutors.sameThreadExecutor());
+
+            synchronized (this) {
+                _accumulated = _reducer.initialValue();
+            }
+            submitAvailable(true);
+            return _result;
+        }
+
+        /**
+         * Submits calls until the concurrency limit is reached.  A call that completes while this is submitting, for
+         * example because the executor ran it on this thread, leaves it to the loop already in progress to submit the
+         * next call, so that the stack doesn't grow with the number of end points.
+         * <p/>
+         * Calls submitted as earlier ones complete mustn't run on, or block, the completing thread.  If the executor
+         * is too busy to take one, it is deferred until another call completes, or fails the reduction if there are
+         * none left running to wait for.
+         */
+        private void submitAvailable(boolean mayWait) {
+            synchronized (this) {
+                if (_submitting) {
+                    return;
+                }
+                _submitting = true;
+            }
+
+            while (true) {
+                final ServiceEndPoint endPoint;
+                final SettableFuture<R> placeholder = SettableFuture.create();
+                synchronized (this) {
+                    if (_result.isDone() || _running.size() >= _maxConcurrency || !hasPending()) {
+                        _submitting = false;
+                        completeIfDone();
+                        return;
+                    }
+                    if (_deferred != null) {
+                        endPoint = _deferred;
+                        _deferred = null;
+                    } else {
+                        endPoint = _pending.next();
+                    }
+                    _running.add(placeholder);
+                }
+
+                ListenableFuture<R> future;
+                try {
+                    future = executeOnEndPoint(endPoint, _retry, _callback, mayWait);
+                } catch (RejectedExecutionException e) {
+                    synchronized (this) {
+                        _running.remove(placeholder);
+                        _submitting = false;
+                        if (!mayWait && !_running.isEmpty()) {
+                            _deferred = endPoint;  // Try again when one of the running calls completes.
+                            return;
+                        }
+                    }
+                    _result.setException(e);
+                    return;
+                } catch (RuntimeException e) {
+                    synchronized (this) {
+                        _submitting = false;
+                    }
+                    _result.setException(e);  // The executor rejected the call.
+                    return;
+                }
+
+                synchronized (this) {
+                    _running.remove(placeholder);
+                    _running.add(future);
+                }
+                addCompletionListener(endPoint, future);
+            }
+        }
+
+        private void addCompletionListener(final ServiceEndPoint endPoint, final ListenableFuture<R> future) {
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    complete(endPoint, future);
+                }
+            }, MoreExecutors.sameThreadExecutor());
+        }
+
+        private void complete(ServiceEndPoint endPoint, ListenableFuture<R> future) {
+            R value = null;
+            Throwable failure = null;
+            try {
+                value = Uninterruptibles.getUninterruptibly(future);
+            } catch (ExecutionException e) {
+                failure = e.getCause();
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+
+            synchronized (this) {
+                if (!_running.remove(future) || _result.isDone()) {
+                    return;
+                }
+                try {
+                    _accumulated = (failure == null)
+                            ? _reducer.reduce(_accumulated, endPoint, value)
+                            : _reducer.reduceFailure(_accumulated, endPoint, failure);
+                } catch (RuntimeException e) {
+                    _result.setException(e);
+                    return;
+                }
+            }
+            submitAvailable(false);
+        }
+
+        private synchronized boolean hasPending() {
+            return _deferred != null || _pending.hasNext();
+        }
+
+        private synchronized void completeIfDone() {
+            if (_running.isEmpty() && !hasPending()) {
+                _result.set(_accumulated);
+            }
+        }
+
+        private void cancelRunning() {
+            List<ListenableFuture<R>> running;
+            synchronized (this) {
+                running = Lists.newArrayList(_running);
+            }
+            for (ListenableFuture<R> future : running) {
+                future.cancel(false);
+            }
+        }
+    }
 }
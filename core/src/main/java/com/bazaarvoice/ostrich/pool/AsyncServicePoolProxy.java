@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.pool.ServicePoolProxy.MethodCallback;
+import com.bazaarvoice.ostrich.pool.ServicePoolProxy.ProxyMethod;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.reflect.AbstractInvocationHandler;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Invocation handler for the dynamic proxies created by {@link ServicePoolBuilder#buildAsyncProxy}.
+ * <p/>
+ * The asynchronous interface {@code A} mirrors the service interface {@code S}: every method of {@code A} has the same
+ * name and parameter types as a method of {@code S}, but returns a {@link ListenableFuture} (or a plain
+ * {@link java.util.concurrent.Future}) of the service method's result instead of the result itself.  Calls are handed
+ * to an {@link AsyncServicePool} with the partition context extracted from the arguments exactly as
+ * {@link ServicePoolProxy} would, so the same {@link com.bazaarvoice.ostrich.partition.PartitionKey} annotations apply.
+ * Likewise the retry annotations on the methods of {@code S}, such as {@link com.bazaarvoice.ostrich.retry.Retry},
+ * apply to the matching methods of {@code A}.
+ */
+class AsyncServicePoolProxy<S, A> extends AbstractInvocationHandler {
+    private final Class<A> _asyncType;
+    private final AsyncServicePool<S> _asyncPool;
+    private final PartitionContextSupplier _partitionContextSupplier;
+    private final boolean _shutdownPoolOnClose;
+    private final Map<Method, ProxyMethod<S>> _methods;
+
+    static <S, A> A create(Class<S> serviceType, Class<A> asyncType, RetryPolicy retryPolicy,
+                           AsyncServicePool<S> asyncPool, PartitionContextSupplier partitionContextSupplier,
+                           boolean shutdownPoolOnClose) {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        Class<?>[] interfaces = shutdownPoolOnClose
+                ? new Class<?>[] {asyncType, Closeable.class}
+                : new Class<?>[] {asyncType};
+
+        AsyncServicePoolProxy<S, A> proxy = new AsyncServicePoolProxy<S, A>(
+                serviceType, asyncType, retryPolicy, asyncPool, partitionContextSupplier, shutdownPoolOnClose);
+        return asyncType.cast(Proxy.newProxyInstance(loader, interfaces, proxy));
+    }
+
+    AsyncServicePoolProxy(Class<S> serviceType, Class<A> asyncType, RetryPolicy retryPolicy,
+                          AsyncServicePool<S> asyncPool, PartitionContextSupplier partitionContextSupplier,
+                          boolean shutdownPoolOnClose) {
+        checkArgument(serviceType.isInterface(), "Proxy functionality is only available for interface service types.");
+        checkArgument(asyncType.isInterface(), "Asynchronous proxies must implement an interface.");
+
+        _asyncType = asyncType;
+        _asyncPool = checkNotNull(asyncPool);
+        _partitionContextSupplier = checkNotNull(partitionContextSupplier);
+        _shutdownPoolOnClose = shutdownPoolOnClose;
+        _methods = buildMethodTable(serviceType, asyncType, new MethodRetryPolicies(serviceType, retryPolicy),
+                shutdownPoolOnClose);
+    }
+
+    @Override
+    protected Object handleInvocation(Object proxy, Method method, Object[] args) throws Throwable {
+        // Special case for close() allows closing the entire pool by calling close() on the proxy.
+        if (_shutdownPoolOnClose && args.length == 0 && method.getName().equals("close")) {
+            _asyncPool.close();
+            return null;
+        }
+
+        // Partition keys are looked up by the service method since that's where the annotations were found.
+        ProxyMethod<S> proxyMethod = _methods.get(method);
+        Method serviceMethod = proxyMethod.getMethod();
+        return _asyncPool.executeListenable(_partitionContextSupplier.forCall(serviceMethod, args),
+                proxyMethod.getRetryPolicy(), new MethodCallback<S>(proxyMethod, args));
+    }
+
+    @Override
+    public String toString() {
+        return "AsyncServicePoolProxy[" + _asyncType.getName() + "]";
+    }
+
+    /**
+     * Pairs every method of the asynchronous interface with the service method it mirrors.  A mismatch is reported
+     * here, when the proxy is built, rather than the first time the method is called.
+     */
+    private static <S> Map<Method, ProxyMethod<S>> buildMethodTable(Class<S> serviceType, Class<?> asyncType,
+                                                                   MethodRetryPolicies retryPolicies,
+                                                                   boolean shutdownPoolOnClose) {
+        ImmutableMap.Builder<Method, ProxyMethod<S>> builder = ImmutableMap.builder();
+        for (Method method : asyncType.getMethods()) {
+            if (ProxyMethods.isObjectMethod(method) || (shutdownPoolOnClose && isClose(method))) {
+                continue;  // Handled by the proxy itself.
+            }
+
+            Method serviceMethod;
+            try {
+                serviceMethod = serviceType.getMethod(method.getName(), method.getParameterTypes());
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(String.format("Method '%s' doesn't match any method of service " +
+                        "interface %s.", method, serviceType.getName()));
+            }
+            Class<?> returnType = method.getReturnType();
+            checkArgument(returnType == ListenableFuture.class || returnType == Future.class,
+                    "Method '%s' must return a ListenableFuture or Future.", method);
+
+            builder.put(method, new ProxyMethod<S>(serviceMethod, retryPolicies.forMethod(serviceMethod)));
+        }
+        return builder.build();
+    }
+
+    private static boolean isClose(Method method) {
+        return method.getName().equals("close") && method.getParameterTypes().length == 0;
+    }
+}
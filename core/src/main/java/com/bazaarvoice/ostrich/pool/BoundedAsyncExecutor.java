@@ -0,0 +1,211 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.google.common.base.Ticker;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.Timer;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The executor an {@link AsyncServicePool} creates when it isn't given one.  It runs up to a fixed number of tasks at
+ * a time, queues up to a fixed number more and handles the rest according to the {@link AsyncExecutorPolicy}.  Idle
+ * threads exit after a minute, the same as they would in a cached thread pool.
+ */
+class BoundedAsyncExecutor extends ThreadPoolExecutor {
+    private static final long KEEP_ALIVE_SECONDS = 60;
+    private static final RejectedExecutionHandler FAIL = new Fail();
+
+    private final Ticker _ticker;
+    private final ThreadLocal<Boolean> _withoutWaiting = new ThreadLocal<Boolean>();
+    private volatile Timer _queueWaitTime;
+    private volatile Meter _numRejections;
+
+    BoundedAsyncExecutor(AsyncExecutorPolicy policy, ThreadFactory threadFactory, Ticker ticker) {
+        super(policy.getMaxNumThreads(), policy.getMaxNumThreads(), KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                newQueue(policy.getQueueCapacity()), threadFactory, newRejectionHandler(policy));
+        _ticker = checkNotNull(ticker);
+
+        // Every thread is a core thread, so that new tasks start a thread rather than queue while under the limit.
+        allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Records queue depth, queue wait time and rejections with the metrics of the pool that uses this executor.
+     */
+    void registerMetrics(Metrics metrics, String scope) {
+        metrics.newGauge(scope, "execute-queue-size", new Gauge<Integer>() {
+            @Override
+            public Integer value() {
+                return getQueue().size();
+            }
+        });
+        _queueWaitTime = metrics.newTimer(scope, "execute-queue-wait-time", TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+        _numRejections = metrics.newMeter(scope, "num-execute-rejections", "rejections", TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        super.execute(new QueuedTask(checkNotNull(command), _ticker.read()));
+    }
+
+    /**
+     * Like {@link #execute}, except that a task that doesn't fit is always rejected rather than being run on the
+     * calling thread or waiting for room in the queue.  This is for threads that hand on work for other callers, such
+     * as the retry scheduler's thread, which mustn't run that work themselves or stall while the executor is busy.
+     */
+    void executeWithoutWaiting(Runnable command) {
+        _withoutWaiting.set(Boolean.TRUE);
+        try {
+            execute(command);
+        } finally {
+            _withoutWaiting.remove();
+        }
+    }
+
+    private boolean isWithoutWaiting() {
+        return _withoutWaiting.get() != null;
+    }
+
+    private void markRejection() {
+        Meter numRejections = _numRejections;
+        if (numRejections != null) {
+            numRejections.mark();
+        }
+    }
+
+    private static BlockingQueue<Runnable> newQueue(int capacity) {
+        return (capacity == 0) ? new SynchronousQueue<Runnable>() : new LinkedBlockingQueue<Runnable>(capacity);
+    }
+
+    private static RejectedExecutionHandler newRejectionHandler(AsyncExecutorPolicy policy) {
+        switch (policy.getRejectionAction()) {
+            case CALLER_RUNS:
+                return new CallerRuns();
+            case FAIL:
+                return FAIL;
+            case WAIT:
+                return new Wait(policy.getMaxQueueWaitTime(TimeUnit.NANOSECONDS));
+            default:
+                throw new IllegalArgumentException("Unknown rejection action: " + policy.getRejectionAction());
+        }
+    }
+
+    private static RejectedExecutionException rejected(ThreadPoolExecutor executor) {
+        return new RejectedExecutionException(executor.isShutdown()
+                ? "The executor has been shut down."
+                : "The executor queue is full.");
+    }
+
+    /**
+     * Runs a rejected task on the submitting thread.  Unlike {@link ThreadPoolExecutor.CallerRunsPolicy} this rejects
+     * tasks after shutdown rather than silently discarding them, which would leave their futures incomplete forever.
+     */
+    private static class CallerRuns implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (((BoundedAsyncExecutor) executor).isWithoutWaiting()) {
+                FAIL.rejectedExecution(task, executor);
+            }
+            if (executor.isShutdown()) {
+                throw rejected(executor);
+            }
+            ((BoundedAsyncExecutor) executor).markRejection();
+            task.run();
+        }
+    }
+
+    private static class Fail implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (!executor.isShutdown()) {
+                ((BoundedAsyncExecutor) executor).markRejection();
+            }
+            throw rejected(executor);
+        }
+    }
+
+    private static class Wait implements RejectedExecutionHandler {
+        private final long _maxWaitNanos;
+
+        Wait(long maxWaitNanos) {
+            _maxWaitNanos = maxWaitNanos;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (((BoundedAsyncExecutor) executor).isWithoutWaiting()) {
+                FAIL.rejectedExecution(task, executor);
+            }
+            if (executor.isShutdown()) {
+                throw rejected(executor);
+            }
+
+            boolean queued;
+            try {
+                queued = executor.getQueue().offer(task, _maxWaitNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queued = false;
+            }
+            if (!queued) {
+                ((BoundedAsyncExecutor) executor).markRejection();
+                throw rejected(executor);
+            }
+
+            // The task went into the queue behind the executor's back, so check the executor didn't shut down in the
+            // meantime and that there is a thread to run it.
+            if (executor.isShutdown() && executor.remove(task)) {
+                throw rejected(executor);
+            }
+            executor.prestartCoreThread();
+        }
+    }
+
+    /**
+     * Records how long a task waited in the queue before it started running.
+     */
+    private final class QueuedTask implements Runnable {
+        private final Runnable _task;
+        private final long _queuedNanos;
+
+        QueuedTask(Runnable task, long queuedNanos) {
+            _task = task;
+            _queuedNanos = queuedNanos;
+        }
+
+        @Override
+        public void run() {
+            Timer queueWaitTime = _queueWaitTime;
+            if (queueWaitTime != null) {
+                queueWaitTime.update(_ticker.read() - _queuedNanos, TimeUnit.NANOSECONDS);
+            }
+            _task.run();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.DelayedRetryPolicy;
+import com.bazaarvoice.ostrich.RetryPolicy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Wraps the retry policy of an asynchronous call so that the retry loop running the call stops as soon as the call is
+ * cancelled.  After {@link #cancel()} no more retries are allowed, and the delay before a retry of a
+ * {@link DelayedRetryPolicy} is cut short instead of being slept out, without having to interrupt the thread.
+ */
+class CancellableRetryPolicy implements RetryPolicy {
+    private final RetryPolicy _delegate;
+    private final CountDownLatch _cancelled = new CountDownLatch(1);
+
+    CancellableRetryPolicy(RetryPolicy delegate) {
+        _delegate = checkNotNull(delegate);
+    }
+
+    void cancel() {
+        _cancelled.countDown();
+    }
+
+    boolean isCancelled() {
+        return _cancelled.getCount() == 0;
+    }
+
+    RetryPolicy getDelegate() {
+        return _delegate;
+    }
+
+    @Override
+    public boolean allowRetry(int numAttempts, long elapsedTimeMs) {
+        if (isCancelled()) {
+            return false;
+        }
+        if (!(_delegate instanceof DelayedRetryPolicy)) {
+            return _delegate.allowRetry(numAttempts, elapsedTimeMs) && !isCancelled();
+        }
+
+        long delayMs = ((DelayedRetryPolicy) _delegate).getRetryDelayMs(numAttempts, elapsedTimeMs);
+        if (delayMs < 0) {
+            return false;
+        }
+        try {
+            return !_cancelled.await(delayMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.exceptions.NoAvailableHostsException;
+import com.bazaarvoice.ostrich.exceptions.NoQuorumException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+import static com.google.common.util.concurrent.Uninterruptibles.getUninterruptibly;
+
+/**
+ * Combines the futures returned by {@link com.bazaarvoice.ostrich.AsyncServicePool#executeOnAllListenable} and
+ * {@link com.bazaarvoice.ostrich.AsyncServicePool#executeOnListenable} so that callers can act on results as soon as
+ * they arrive, rather than waiting on each future in the order the calls were made.
+ * <p/>
+ * The {@code firstSuccess}, {@code firstSuccesses} and {@code quorum} methods cancel the calls that are still going as
+ * soon as their result is decided, or when their result is cancelled.  Cancelling a call stops it from starting, or
+ * from being retried, but doesn't interrupt a call that is already executing.
+ */
+public final class FanOuts {
+    private FanOuts() {}
+
+    /**
+     * Returns a list of futures in the order the calls complete: the first future in the list completes with the
+     * result of whichever call completes first, and so on.  Iterating through the list and calling {@code get()} on
+     * each future returns results as they arrive.
+     */
+    public static <R> List<ListenableFuture<R>> inCompletionOrder(
+            Collection<? extends ListenableFuture<? extends R>> futures) {
+        final List<SettableFuture<R>> ordered = Lists.newArrayListWithCapacity(futures.size());
+        for (int i = 0; i < futures.size(); i++) {
+            ordered.add(SettableFuture.<R>create());
+        }
+
+        final AtomicInteger next = new AtomicInteger();
+        for (final ListenableFuture<? extends R> future : futures) {
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    SettableFuture<R> result = ordered.get(next.getAndIncrement());
+                    if (future.isCancelled()) {
+                        result.cancel(false);
+                        return;
+                    }
+                    try {
+                        result.set(getUninterruptibly(future));
+                    } catch (ExecutionException e) {
+                        result.setException(e.getCause());
+                    } catch (RuntimeException e) {
+                        result.setException(e);
+                    }
+                }
+            }, sameThreadExecutor());
+        }
+        return ImmutableList.<ListenableFuture<R>>copyOf(ordered);
+    }
+
+    /**
+     * Returns a future for the result of the first call to succeed.  If every call fails then the future fails with
+     * the exception of the last call to fail, or a {@link NoAvailableHostsException} if there were no calls.
+     */
+    public static <R> ListenableFuture<R> firstSuccess(Collection<? extends ListenableFuture<? extends R>> futures) {
+        return new FirstSuccess<R>(futures).start();
+    }
+
+    /**
+     * Returns a future for the results of the first {@code n} calls to succeed, in the order they succeeded.  As soon
+     * as too many calls have failed for {@code n} to succeed the future fails with the exception of the last call to
+     * fail, or a {@link NoAvailableHostsException} if there were fewer than {@code n} calls.
+     */
+    public static <R> ListenableFuture<List<R>> firstSuccesses(
+            Collection<? extends ListenableFuture<? extends R>> futures, int n) {
+        checkArgument(n >= 0);
+        return new FirstSuccesses<R>(futures, n).start();
+    }
+
+    /**
+     * Returns a future for the first result to be returned by {@code k} of the calls, comparing results with
+     * {@code equals}.  As soon as no result can be returned by {@code k} calls the future fails with a
+     * {@link NoQuorumException}, caused by the exception of the last call to fail, if any.
+     */
+    public static <R> ListenableFuture<R> quorum(Collection<? extends ListenableFuture<? extends R>> futures, int k) {
+        checkArgument(k > 0);
+        return new Quorum<R>(futures, k).start();
+    }
+
+    /**
+     * Watches a set of calls until enough of them have completed to decide a result, then cancels the rest.  The
+     * callbacks for each call are serialized, so subclasses need no further synchronization.  Subclasses decide the
+     * result with {@link #succeed} or {@link #fail}, and it is only set once the lock is released, so that listeners
+     * on the result never run while it is held.
+     */
+    private abstract static class Race<R, T> {
+        private final SettableFuture<T> _result = SettableFuture.create();
+        private final List<ListenableFuture<? extends R>> _futures;
+        private int _numRemaining;
+        private boolean _decided;
+        private T _value;
+        private Throwable _failure;
+
+        Race(Collection<? extends ListenableFuture<? extends R>> futures) {
+            _futures = ImmutableList.copyOf(checkNotNull(futures));
+            _numRemaining = _futures.size();
+        }
+
+        ListenableFuture<T> start() {
+            // However the result is decided, including by being cancelled, the remaining calls aren't needed.
+            _result.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    for (ListenableFuture<? extends R> future : _futures) {
+                        future.cancel(false);
+                    }
+                }
+            }, sameThreadExecutor());
+
+            boolean decided;
+            synchronized (this) {
+                checkDone();
+                decided = _decided;
+            }
+            if (decided) {
+                publish();
+            }
+            for (final ListenableFuture<? extends R> future : _futures) {
+                future.addListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        complete(future);
+                    }
+                }, sameThreadExecutor());
+            }
+            return _result;
+        }
+
+        private void complete(ListenableFuture<? extends R> future) {
+            R value = null;
+            Throwable failure = null;
+            try {
+                value = getUninterruptibly(future);
+            } catch (ExecutionException e) {
+                failure = e.getCause();
+            } catch (CancellationException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+
+            synchronized (this) {
+                if (_decided || _result.isDone()) {
+                    return;
+                }
+                _numRemaining--;
+                if (failure == null) {
+                    onSuccess(value);
+                } else {
+                    onFailure(failure);
+                }
+                checkDone();
+                if (!_decided) {
+                    return;
+                }
+            }
+            publish();
+        }
+
+        /** Decides that the race succeeded.  Only the first decision counts. */
+        void succeed(T value) {
+            if (!_decided) {
+                _decided = true;
+                _value = value;
+            }
+        }
+
+        /** Decides that the race failed.  Only the first decision counts. */
+        void fail(Throwable failure) {
+            if (!_decided) {
+                _decided = true;
+                _failure = failure;
+            }
+        }
+
+        boolean isDecided() {
+            return _decided;
+        }
+
+        /** Sets the decided result.  Only called by the thread that decided it, after releasing the lock. */
+        private void publish() {
+            if (_failure == null) {
+                _result.set(_value);
+            } else {
+                _result.setException(_failure);
+            }
+        }
+
+        int getNumCalls() {
+            return _futures.size();
+        }
+
+        int getNumRemaining() {
+            return _numRemaining;
+        }
+
+        abstract void onSuccess(R value);
+
+        abstract void onFailure(Throwable failure);
+
+        /** Completes the result if it is decided by the calls that have completed so far. */
+        abstract void checkDone();
+    }
+
+    private static class FirstSuccess<R> extends Race<R, R> {
+        private Throwable _lastFailure;
+
+        FirstSuccess(Collection<? extends ListenableFuture<? extends R>> futures) {
+            super(futures);
+        }
+
+        @Override
+        void onSuccess(R value) {
+            succeed(value);
+        }
+
+        @Override
+        void onFailure(Throwable failure) {
+            _lastFailure = failure;
+        }
+
+        @Override
+        void checkDone() {
+            if (getNumRemaining() == 0 && !isDecided()) {
+                fail(_lastFailure != null ? _lastFailure : new NoAvailableHostsException());
+            }
+        }
+    }
+
+    private static class FirstSuccesses<R> extends Race<R, List<R>> {
+        private final int _n;
+        private final List<R> _values = Lists.newArrayList();
+        private Throwable _lastFailure;
+
+        FirstSuccesses(Collection<? extends ListenableFuture<? extends R>> futures, int n) {
+            super(futures);
+            _n = n;
+        }
+
+        @Override
+        void onSuccess(R value) {
+            _values.add(value);
+        }
+
+        @Override
+        void onFailure(Throwable failure) {
+            _lastFailure = failure;
+        }
+
+        @Override
+        void checkDone() {
+            if (_values.size() == _n) {
+                succeed(Collections.unmodifiableList(_values));
+            } else if (_values.size() + getNumRemaining() < _n) {
+                fail(_lastFailure != null ? _lastFailure : new NoAvailableHostsException());
+            }
+        }
+    }
+
+    private static class Quorum<R> extends Race<R, R> {
+        private final int _k;
+        private final Map<R, Integer> _counts = Maps.newHashMap();
+        private int _maxCount;
+        private Throwable _lastFailure;
+
+        Quorum(Collection<? extends ListenableFuture<? extends R>> futures, int k) {
+            super(futures);
+            _k = k;
+        }
+
+        @Override
+        void onSuccess(R value) {
+            Integer count = _counts.get(value);
+            count = (count == null) ? 1 : count + 1;
+            _counts.put(value, count);
+            _maxCount = Math.max(_maxCount, count);
+            if (count == _k) {
+                succeed(value);
+            }
+        }
+
+        @Override
+        void onFailure(Throwable failure) {
+            _lastFailure = failure;
+        }
+
+        @Override
+        void checkDone() {
+            if (!isDecided() && _maxCount + getNumRemaining() < _k) {
+                fail(new NoQuorumException(String.format(
+                        "No result was returned by %d of %d end points.", _k, getNumCalls()), _lastFailure));
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.DelayedRetryPolicy;
+import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.retry.ExponentialBackoffRetry;
+import com.bazaarvoice.ostrich.retry.Idempotent;
+import com.bazaarvoice.ostrich.retry.Retry;
+import com.bazaarvoice.ostrich.retry.RetryNTimes;
+import com.bazaarvoice.ostrich.retry.Timeout;
+
+import java.lang.reflect.Method;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Works out the retry policy for each method of a service interface from its {@link Idempotent}, {@link Retry} and
+ * {@link Timeout} annotations.  Proxies do this once per method when they're built so that calls never need to look
+ * at annotations.
+ */
+class MethodRetryPolicies {
+    private static final RetryPolicy NO_RETRY = new RetryNTimes(1);
+
+    private final RetryPolicy _defaultPolicy;
+    private final boolean _idempotentMethodsOnly;
+
+    /**
+     * @param serviceType The service interface whose methods will be looked up.
+     * @param defaultPolicy The retry policy for methods without a {@link Retry} annotation.
+     */
+    MethodRetryPolicies(Class<?> serviceType, RetryPolicy defaultPolicy) {
+        _defaultPolicy = checkNotNull(defaultPolicy);
+        _idempotentMethodsOnly = hasIdempotentMethods(serviceType);
+    }
+
+    /**
+     * Returns the retry policy for a method of the service interface.  Invalid annotation values are reported here so
+     * that a mistake fails when the proxy is built.
+     */
+    RetryPolicy forMethod(Method method) {
+        RetryPolicy policy;
+        Retry retry = method.getAnnotation(Retry.class);
+        if (retry != null) {
+            policy = fromAnnotation(method, retry);
+        } else if (_idempotentMethodsOnly && !method.isAnnotationPresent(Idempotent.class)) {
+            policy = NO_RETRY;
+        } else {
+            policy = _defaultPolicy;
+        }
+
+        Timeout timeout = method.getAnnotation(Timeout.class);
+        if (timeout != null) {
+            checkArgument(timeout.value() > 0, "Method '%s' has a @Timeout that isn't positive.", method);
+            long timeoutMs = timeout.unit().toMillis(timeout.value());
+            policy = (policy instanceof DelayedRetryPolicy)
+                    ? new DelayedDeadlineRetryPolicy((DelayedRetryPolicy) policy, timeoutMs)
+                    : new DeadlineRetryPolicy(policy, timeoutMs);
+        }
+        return policy;
+    }
+
+    private static RetryPolicy fromAnnotation(Method method, Retry retry) {
+        checkArgument(retry.maxAttempts() > 0, "Method '%s' has a @Retry with maxAttempts less than one.", method);
+        checkArgument(retry.backoff() >= 0 && retry.maxBackoff() >= 0,
+                "Method '%s' has a @Retry with a negative backoff.", method);
+
+        if (retry.maxBackoff() > retry.backoff()) {
+            return new ExponentialBackoffRetry(retry.maxAttempts(), retry.backoff(), retry.maxBackoff(), retry.unit());
+        }
+        return new RetryNTimes(retry.maxAttempts(), retry.backoff(), retry.unit());
+    }
+
+    private static boolean hasIdempotentMethods(Class<?> serviceType) {
+        for (Method method : serviceType.getMethods()) {
+            if (method.isAnnotationPresent(Idempotent.class)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stops retrying once the deadline has passed, otherwise defers to a retry policy that decides for itself how long
+     * to wait before retrying.
+     */
+    private static final class DeadlineRetryPolicy implements RetryPolicy {
+        private final RetryPolicy _delegate;
+        private final long _deadlineMs;
+
+        DeadlineRetryPolicy(RetryPolicy delegate, long deadlineMs) {
+            _delegate = delegate;
+            _deadlineMs = deadlineMs;
+        }
+
+        @Override
+        public boolean allowRetry(int numAttempts, long elapsedTimeMs) {
+            return elapsedTimeMs < _deadlineMs && _delegate.allowRetry(numAttempts, elapsedTimeMs);
+        }
+    }
+
+    /**
+     * Stops retrying once the deadline has passed, otherwise defers to a {@link DelayedRetryPolicy}.  It is delayed
+     * itself, so the async service pool can still schedule its retries instead of sleeping.
+     */
+    private static final class DelayedDeadlineRetryPolicy implements DelayedRetryPolicy {
+        private final DelayedRetryPolicy _delegate;
+        private final long _deadlineMs;
+
+        DelayedDeadlineRetryPolicy(DelayedRetryPolicy delegate, long deadlineMs) {
+            _delegate = delegate;
+            _deadlineMs = deadlineMs;
+        }
+
+        @Override
+        public boolean allowRetry(int numAttempts, long elapsedTimeMs) {
+            // Work out the delay before sleeping so that a backoff can't carry the call past the deadline.
+            long delayMs = getRetryDelayMs(numAttempts, elapsedTimeMs);
+            if (delayMs < 0) {
+                return false;
+            }
+
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+
+            return true;
+        }
+
+        @Override
+        public long getRetryDelayMs(int numAttempts, long elapsedTimeMs) {
+            if (elapsedTimeMs >= _deadlineMs) {
+                return -1;
+            }
+
+            // Don't wait for a retry that would start after the deadline.
+            long delayMs = _delegate.getRetryDelayMs(numAttempts, elapsedTimeMs);
+            return (delayMs < 0 || elapsedTimeMs + delayMs >= _deadlineMs) ? -1 : delayMs;
+        }
+    }
+}
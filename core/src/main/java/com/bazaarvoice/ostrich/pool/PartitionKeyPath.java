@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Reads a property from a method argument by following the {@link com.bazaarvoice.ostrich.partition.PartitionKey#path}
+ * of a partition key annotation.  Every element of the path is resolved to a getter method or field when the path is
+ * compiled, so evaluating the path on each call doesn't need to look anything up.
+ */
+class PartitionKeyPath {
+    private final String _path;
+    private final AccessibleObject[] _accessors;
+
+    /**
+     * Resolves each element of {@code path} against the declared type of the previous element, starting with
+     * {@code type}.
+     *
+     * @throws IllegalArgumentException If an element of the path doesn't name a getter or field.
+     */
+    static PartitionKeyPath compile(Class<?> type, String path) {
+        List<AccessibleObject> accessors = Lists.newArrayList();
+        for (String property : Splitter.on('.').split(path)) {
+            checkArgument(!property.isEmpty(), "Invalid partition key path '%s'.", path);
+
+            AccessibleObject accessor = findGetter(type, property);
+            if (accessor != null) {
+                type = ((Method) accessor).getReturnType();
+            } else {
+                accessor = findField(type, property);
+                checkArgument(accessor != null, "Invalid partition key path '%s': %s has no getter or field named '%s'.",
+                        path, type.getName(), property);
+                type = ((Field) accessor).getType();
+            }
+            accessor.setAccessible(true);
+            accessors.add(accessor);
+        }
+        return new PartitionKeyPath(path, accessors.toArray(new AccessibleObject[accessors.size()]));
+    }
+
+    private PartitionKeyPath(String path, AccessibleObject[] accessors) {
+        _path = path;
+        _accessors = accessors;
+    }
+
+    /**
+     * Returns the value at the end of the path, or {@code null} if any value along the path is {@code null}.
+     */
+    Object get(Object value) {
+        try {
+            for (AccessibleObject accessor : _accessors) {
+                if (value == null) {
+                    return null;
+                }
+                value = (accessor instanceof Method)
+                        ? ((Method) accessor).invoke(value)
+                        : ((Field) accessor).get(value);
+            }
+            return value;
+        } catch (InvocationTargetException e) {
+            throw Throwables.propagate(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw Throwables.propagate(e);  // Should never happen since accessors are made accessible up front.
+        }
+    }
+
+    @Override
+    public String toString() {
+        return _path;
+    }
+
+    private static Method findGetter(Class<?> type, String property) {
+        String capitalized = Character.toUpperCase(property.charAt(0)) + property.substring(1);
+        for (String name : new String[] {"get" + capitalized, "is" + capitalized, property}) {
+            try {
+                Method method = type.getMethod(name);
+                if (method.getReturnType() != void.class) {
+                    return method;
+                }
+            } catch (NoSuchMethodException e) {
+                // Try the next naming convention
+            }
+        }
+        return null;
+    }
+
+    private static Field findField(Class<?> type, String property) {
+        for (Class<?> cls = type; cls != null; cls = cls.getSuperclass()) {
+            try {
+                return cls.getDeclaredField(property);
+            } catch (NoSuchFieldException e) {
+                // Try the superclass
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import java.lang.reflect.Method;
+
+/**
+ * Helpers shared by {@link ServicePoolProxy} and {@link AsyncServicePoolProxy}.
+ */
+final class ProxyMethods {
+    private ProxyMethods() {}
+
+    /**
+     * Returns true for {@code equals}, {@code hashCode} and {@code toString}, which are handled by the proxy itself
+     * even if the service interface redeclares them.
+     */
+    static boolean isObjectMethod(Method method) {
+        try {
+            Object.class.getMethod(method.getName(), method.getParameterTypes());
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
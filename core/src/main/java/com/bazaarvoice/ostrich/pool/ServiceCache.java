@@ -17,34 +17,67 @@ package com.bazaarvoice.ostrich.pool;
 
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceFactory;
+import com.bazaarvoice.ostrich.ValidatingServiceFactory;
 import com.bazaarvoice.ostrich.exceptions.NoCachedInstancesAvailableException;
 import com.bazaarvoice.ostrich.metrics.Metrics;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.MapMaker;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.yammer.metrics.core.Timer;
 import com.yammer.metrics.core.TimerContext;
 import com.yammer.metrics.util.RatioGauge;
-import org.apache.commons.pool.BaseKeyedPoolableObjectFactory;
-import org.apache.commons.pool.impl.GenericKeyedObjectPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.Map;
-import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
 
 /**
  * A cache for service instances. Useful if there's more than insignificant overhead in creating service connections
  * from a {@link ServiceEndPoint}.  Will spawn one thread (shared by all {@code ServiceCache}s) to handle evictions of
+ * idle instances, and another to validate them.
+ * <p/>
+ * Every end point has its own lock-free stack of idle instances and atomic counts of its instances, so checking
+ * instances out and in never contends on a lock shared by the whole cache.  Instance counts only change when an
+ * instance is created or destroyed, not when it moves between idle and checked out.
+ * <p/>
+ * If the caching policy shares service instances, each end point instead has a fixed number of reference counted
+ * instances that every caller uses at once.  Checking one out or in only changes its reference count, and an evicted
+ * instance is destroyed once the last caller using it checks it in.
+ * <p/>
+ * When the service factory is a {@link ValidatingServiceFactory} idle instances are validated in the background at the
+ * caching policy's validation interval, and optionally as they're checked out, and instances that fail validation are
+ * destroyed.  Validation has its own thread so that a slow validation never holds up evictions.
+ * <p/>
+ * If the caching policy limits how long instances live, each instance is given a randomly jittered age when created
+ * and is retired the next time it's idle after reaching it.
  */
 class ServiceCache<S> implements Closeable {
     private static final Logger LOG = LoggerFactory.getLogger(ServiceCache.class);
@@ -53,16 +86,46 @@ class ServiceCache<S> implements Closeable {
                     .setNameFormat("ServiceCache-EvictionThread-%d")
                     .setDaemon(true)
                     .build());
+    private static final ScheduledExecutorService VALIDATION_EXECUTOR = Executors.newScheduledThreadPool(1,
+            new ThreadFactoryBuilder()
+                    .setNameFormat("ServiceCache-ValidationThread-%d")
+                    .setDaemon(true)
+                    .build());
 
-    /** How often to try to evict old service instances. */
+    /** How often to try to evict old service instances, unless the caching policy says otherwise. */
     @VisibleForTesting
     static final long EVICTION_DURATION_IN_SECONDS = 300;
 
-    private final GenericKeyedObjectPool<ServiceEndPoint, S> _pool;
+    /** How often to validate idle service instances, unless the caching policy says otherwise. */
+    @VisibleForTesting
+    static final long VALIDATION_DURATION_IN_SECONDS = 60;
+
+    /** The fraction of the max lifetime that instances' lifetimes are randomly shortened by. */
+    private static final double MAX_LIFETIME_JITTER = 0.1;
+
+    /** The instance count of an end point once it has been removed from the cache. */
+    private static final int RETIRED = Integer.MIN_VALUE;
+
+    private final ServiceFactory<S> _serviceFactory;
+    private final int _maxNumServiceInstances;
+    private final int _maxNumServiceInstancesPerEndPoint;
+    private final long _maxServiceInstanceIdleTimeNanos;
+    private final long _maxServiceInstanceLifetimeNanos;
+    private final ServiceCachingPolicy.ExhaustionAction _exhaustionAction;
+    private final int _numSharedInstancesPerEndPoint;
+    private final long _validationIntervalNanos;
+    private final boolean _isValidatedOnCheckOut;
+    private final Ticker _ticker;
+    private final Random _random = new Random();
+    private final ConcurrentMap<ServiceEndPoint, EndPointInstances> _instances = Maps.newConcurrentMap();
+    private final ConcurrentMap<ServiceEndPoint, SharedInstances> _sharedInstances = Maps.newConcurrentMap();
+    private final AtomicInteger _totalNumInstances = new AtomicInteger();
+    private final Queue<Waiter> _waiters = new ConcurrentLinkedQueue<Waiter>();
+    private final AtomicInteger _numWaiterDrainRequests = new AtomicInteger();
     private final AtomicLong _revisionNumber = new AtomicLong();
     private final Map<ServiceEndPoint, Long> _invalidRevisions = new MapMaker().weakKeys().makeMap();
-    private final Map<ServiceHandle, Long> _checkedOutRevisions = Maps.newHashMap();
     private final Future<?> _evictionFuture;
+    private final Future<?> _validationFuture;
     private volatile boolean _isClosed = false;
     private final Metrics _metrics;
     private final Timer _loadTimer;
@@ -70,33 +133,68 @@ class ServiceCache<S> implements Closeable {
     private final AtomicLong _missCount = new AtomicLong();
     private final AtomicLong _loadSuccessCount = new AtomicLong();
     private final AtomicLong _loadFailureCount = new AtomicLong();
+    private final Timer _validationTimer;
+    private final AtomicLong _validationSuccessCount = new AtomicLong();
+    private final AtomicLong _validationFailureCount = new AtomicLong();
 
     /**
      * Builds a basic service cache.
      *
+     * @param ticker         The ticker to measure how long instances have been idle and alive with.
      * @param policy         The configuration for this cache.
      * @param serviceFactory The factory to fall back to on cache misses.
      */
-    ServiceCache(ServiceCachingPolicy policy, ServiceFactory<S> serviceFactory) {
-        this(policy, serviceFactory, EVICTION_EXECUTOR);
+    ServiceCache(Ticker ticker, ServiceCachingPolicy policy, ServiceFactory<S> serviceFactory) {
+        this(ticker, policy, serviceFactory, EVICTION_EXECUTOR, VALIDATION_EXECUTOR);
     }
 
     /**
      * Builds a basic service cache.
      *
-     * @param policy         The configuration for this cache.
-     * @param serviceFactory The factory to fall back to on cache misses.
-     * @param executor       The executor to use for checking for idle instances to evict.
+     * @param ticker             The ticker to measure how long instances have been idle and alive with.
+     * @param policy             The configuration for this cache.
+     * @param serviceFactory     The factory to fall back to on cache misses.
+     * @param evictionExecutor   The executor to use for checking for idle instances to evict.
+     * @param validationExecutor The executor to use for validating idle instances.
      */
     @VisibleForTesting
-    ServiceCache(ServiceCachingPolicy policy, ServiceFactory<S> serviceFactory, ScheduledExecutorService executor) {
+    ServiceCache(Ticker ticker, ServiceCachingPolicy policy, ServiceFactory<S> serviceFactory,
+                 ScheduledExecutorService evictionExecutor, ScheduledExecutorService validationExecutor) {
         checkNotNull(policy);
         checkNotNull(serviceFactory);
-        checkNotNull(executor);
+        checkNotNull(evictionExecutor);
+        checkNotNull(validationExecutor);
+
+        _ticker = checkNotNull(ticker);
+        _serviceFactory = serviceFactory;
+        _maxNumServiceInstances = policy.getMaxNumServiceInstances();
+        _maxNumServiceInstancesPerEndPoint = policy.getMaxNumServiceInstancesPerEndPoint();
+        _maxServiceInstanceIdleTimeNanos = policy.getMaxServiceInstanceIdleTime(TimeUnit.NANOSECONDS);
+        _exhaustionAction = checkNotNull(policy.getCacheExhaustionAction());
+        long evictionIntervalNanos;
+        long validationIntervalNanos;
+        if (policy instanceof AdvancedServiceCachingPolicy) {
+            AdvancedServiceCachingPolicy advancedPolicy = (AdvancedServiceCachingPolicy) policy;
+            evictionIntervalNanos = advancedPolicy.getEvictionInterval(TimeUnit.NANOSECONDS);
+            _maxServiceInstanceLifetimeNanos = advancedPolicy.getMaxServiceInstanceLifetime(TimeUnit.NANOSECONDS);
+            validationIntervalNanos = advancedPolicy.getServiceInstanceValidationInterval(TimeUnit.NANOSECONDS);
+            _isValidatedOnCheckOut = advancedPolicy.isServiceInstanceValidatedOnCheckOut();
+            _numSharedInstancesPerEndPoint = advancedPolicy.getNumSharedServiceInstancesPerEndPoint();
+        } else {
+            evictionIntervalNanos = 0;
+            _maxServiceInstanceLifetimeNanos = 0;
+            validationIntervalNanos = 0;
+            _isValidatedOnCheckOut = false;
+            _numSharedInstancesPerEndPoint = 0;
+        }
+        _validationIntervalNanos = (validationIntervalNanos > 0)
+                ? validationIntervalNanos
+                : TimeUnit.SECONDS.toNanos(VALIDATION_DURATION_IN_SECONDS);
 
         String serviceName = serviceFactory.getServiceName();
         _metrics = Metrics.forInstance(this, serviceName);
         _loadTimer = _metrics.newTimer(serviceName, "load-time", TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+        _validationTimer = _metrics.newTimer(serviceName, "validation-time", TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
 
         _metrics.newGauge(serviceName, "cache-hit-ratio", new RatioGauge() {
             @Override protected double getNumerator() { return _requestCount.get() - _missCount.get(); }
@@ -120,55 +218,57 @@ class ServiceCache<S> implements Closeable {
             }
         });
 
-        GenericKeyedObjectPool.Config poolConfig = new GenericKeyedObjectPool.Config();
-
-        // Global configuration
-        poolConfig.maxTotal = policy.getMaxNumServiceInstances();
-        poolConfig.numTestsPerEvictionRun = policy.getMaxNumServiceInstances();
-        poolConfig.minEvictableIdleTimeMillis = policy.getMaxServiceInstanceIdleTime(TimeUnit.MILLISECONDS);
-
-        switch (policy.getCacheExhaustionAction()) {
-            case FAIL:
-                poolConfig.whenExhaustedAction = GenericKeyedObjectPool.WHEN_EXHAUSTED_FAIL;
-                break;
-            case GROW:
-                poolConfig.whenExhaustedAction = GenericKeyedObjectPool.WHEN_EXHAUSTED_GROW;
-                break;
-            case WAIT:
-                poolConfig.whenExhaustedAction = GenericKeyedObjectPool.WHEN_EXHAUSTED_BLOCK;
-                break;
-        }
-
-        // Per end point configuration
-        poolConfig.maxActive = policy.getMaxNumServiceInstancesPerEndPoint();
-        poolConfig.maxIdle = policy.getMaxNumServiceInstancesPerEndPoint();
-
-        // Make sure all instances in the pool are checked for staleness during eviction runs.
-        poolConfig.numTestsPerEvictionRun = policy.getMaxNumServiceInstances();
-
-        _pool = new GenericKeyedObjectPool<ServiceEndPoint, S>(new PoolServiceFactory<S>(serviceFactory), poolConfig);
+        _metrics.newGauge(serviceName, "validation-failure-ratio", new RatioGauge() {
+            @Override protected double getNumerator() { return _validationFailureCount.get(); }
+            @Override protected double getDenominator() {
+                return _validationSuccessCount.get() + _validationFailureCount.get();
+            }
+        });
 
-        // Don't schedule eviction if not caching or not expiring stale instances.
-        _evictionFuture = (policy.getMaxNumServiceInstances() != 0)
+        // Don't schedule eviction or validation if not caching or not expiring stale instances.
+        boolean isEvicting = (policy.getMaxNumServiceInstances() != 0)
                 || (policy.getMaxNumServiceInstancesPerEndPoint() != 0)
-                || (policy.getMaxServiceInstanceIdleTime(TimeUnit.MILLISECONDS) > 0)
-                ? executor.scheduleAtFixedRate(new Runnable() {
-                      @Override
-                      public void run() {
-                          try {
-                              _pool.evict();
-                          } catch (Exception e) {
-                              // Should never happen, but log just in case. Swallow exception so thread doesn't die.
-                              LOG.error("ServiceCache eviction run failed.", e);
-                          }
-                      }
-                  }, EVICTION_DURATION_IN_SECONDS, EVICTION_DURATION_IN_SECONDS, TimeUnit.SECONDS)
-                : null;
-    }
+                || (policy.getMaxServiceInstanceIdleTime(TimeUnit.MILLISECONDS) > 0);
+        if (isEvicting) {
+            Runnable eviction = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        evictIdleInstances();
+                    } catch (Exception e) {
+                        // Should never happen, but log just in case. Swallow exception so thread doesn't die.
+                        LOG.error("ServiceCache eviction run failed.", e);
+                    }
+                }
+            };
+            _evictionFuture = (evictionIntervalNanos > 0)
+                    ? evictionExecutor.scheduleAtFixedRate(eviction, evictionIntervalNanos, evictionIntervalNanos,
+                            TimeUnit.NANOSECONDS)
+                    : evictionExecutor.scheduleAtFixedRate(eviction, EVICTION_DURATION_IN_SECONDS,
+                            EVICTION_DURATION_IN_SECONDS, TimeUnit.SECONDS);
+        } else {
+            _evictionFuture = null;
+        }
 
-    @VisibleForTesting
-    GenericKeyedObjectPool<ServiceEndPoint, S> getPool() {
-        return _pool;
+        // Validation may block on the network, so it runs on its own thread, and waits for each run to finish before
+        // scheduling the next.
+        if (isEvicting && serviceFactory instanceof ValidatingServiceFactory) {
+            Runnable validation = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        validateIdleInstances();
+                    } catch (Exception e) {
+                        // Should never happen, but log just in case. Swallow exception so thread doesn't die.
+                        LOG.error("ServiceCache validation run failed.", e);
+                    }
+                }
+            };
+            _validationFuture = validationExecutor.scheduleWithFixedDelay(validation, _validationIntervalNanos,
+                    _validationIntervalNanos, TimeUnit.NANOSECONDS);
+        } else {
+            _validationFuture = null;
+        }
     }
 
     /**
@@ -185,21 +285,42 @@ class ServiceCache<S> implements Closeable {
         checkNotNull(endPoint);
         _requestCount.incrementAndGet();
 
-        try {
-            long revision = _revisionNumber.incrementAndGet();
-            S service = _pool.borrowObject(endPoint);
-            ServiceHandle<S> handle = new ServiceHandle<S>(service, endPoint);
+        if (_numSharedInstancesPerEndPoint > 0) {
+            return getHandle(checkOutShared(endPoint));
+        }
+
+        long revision = _revisionNumber.get();
+        ListenableFuture<Acquisition<S>> acquisition = acquire(endPoint);
 
-            // Remember the revision that we've checked this service out on in case we need to invalidate it later
-            _checkedOutRevisions.put(handle, revision);
+        // Wait here rather than in a listener so that the factory creates the instance on this thread.
+        Acquisition<S> acquired;
+        try {
+            acquired = acquisition.get();
+        } catch (InterruptedException e) {
+            if (!acquisition.cancel(false)) {
+                release(endPoint, Futures.getUnchecked(acquisition));
+            }
+            Thread.currentThread().interrupt();
+            throw e;
+        }
 
-            return handle;
-        } catch (NoSuchElementException e) {
-            _missCount.incrementAndGet();
+        return getHandle(checkOut(endPoint, revision, acquired));
+    }
 
-            // This will happen if there are no available connections and there is no room for a new one,
-            // or if a newly created connection is not valid.
-            throw new NoCachedInstancesAvailableException();
+    private ServiceHandle<S> getHandle(ListenableFuture<ServiceHandle<S>> handle) throws Exception {
+        try {
+            return handle.get();
+        } catch (InterruptedException e) {
+            // The instance is checked back in once it's created.
+            handle.cancel(false);
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
         }
     }
 
@@ -212,29 +333,58 @@ class ServiceCache<S> implements Closeable {
     public void checkIn(ServiceHandle<S> handle) throws Exception {
         checkNotNull(handle);
 
+        if (handle instanceof ServiceCache.SharedHandle) {
+            ((SharedHandle) handle)._instance.release(handle.getEndPoint());
+            return;
+        }
+
         S service = handle.getService();
         ServiceEndPoint endPoint = handle.getEndPoint();
+        EndPointInstances instances = getInstances(endPoint);
 
-        // Figure out if we should check this revision in.  If it was created before the last known invalid revision
-        // for this particular end point, or the cache is closed, then we shouldn't check it in.
-        Long invalidRevision = _invalidRevisions.get(endPoint);
-        Long serviceRevision = _checkedOutRevisions.remove(handle);
-
-        if (_isClosed || (invalidRevision != null && serviceRevision < invalidRevision)) {
-            _pool.invalidateObject(endPoint, service);
-        } else {
-            _pool.returnObject(endPoint, service);
+        // Figure out if we should check this revision in.  If it was checked out before the end point was last
+        // evicted, the cache is closed, it's old enough to retire, or there are already enough idle instances, then we
+        // shouldn't check it in.
+        long now = _ticker.read();
+        boolean isCheckedIn = !_isClosed
+                && isValid(endPoint, handle.getRevision())
+                && !isRetired(handle.getRetireAtNanos(), now)
+                && instances.offerIdle(new IdleInstance<S>(service, handle.getRevision(), now, now,
+                        handle.getRetireAtNanos()));
+        if (!isCheckedIn) {
+            discard(endPoint, instances, service);
         }
+
+        // Expire this end point's stale instances now rather than waiting for the next eviction run, which is cheap
+        // since they're the oldest.
+        expireIdleInstances(endPoint, instances, now);
+        signalWaiters();
     }
 
     public int getNumIdleInstances(ServiceEndPoint endPoint) {
         checkNotNull(endPoint);
-        return _pool.getNumIdle(endPoint);
+        if (_numSharedInstancesPerEndPoint > 0) {
+            SharedInstances sharedInstances = _sharedInstances.get(endPoint);
+            return (sharedInstances != null) ? sharedInstances.getNumIdle() : 0;
+        }
+
+        EndPointInstances instances = _instances.get(endPoint);
+        return (instances != null) ? Math.max(instances._numIdle.get(), 0) : 0;
     }
 
+    /**
+     * The number of instances of an end point that are checked out.  When instances are shared this is the number of
+     * callers using them, however many instances there are.
+     */
     public int getNumActiveInstances(ServiceEndPoint endPoint) {
         checkNotNull(endPoint);
-        return _pool.getNumActive(endPoint);
+        if (_numSharedInstancesPerEndPoint > 0) {
+            SharedInstances sharedInstances = _sharedInstances.get(endPoint);
+            return (sharedInstances != null) ? sharedInstances.getNumActive() : 0;
+        }
+
+        EndPointInstances instances = _instances.get(endPoint);
+        return (instances != null) ? instances.getNumActive() : 0;
     }
 
     @Override
@@ -244,46 +394,894 @@ class ServiceCache<S> implements Closeable {
         if (_evictionFuture != null) {
             _evictionFuture.cancel(false);
         }
+        if (_validationFuture != null) {
+            _validationFuture.cancel(false);
+        }
 
-        _pool.clear();
+        for (Map.Entry<ServiceEndPoint, EndPointInstances> entry : _instances.entrySet()) {
+            discardIdleInstances(entry.getKey(), entry.getValue());
+        }
+        for (ServiceEndPoint endPoint : _sharedInstances.keySet()) {
+            evictSharedInstances(endPoint);
+        }
         _metrics.close();
     }
 
     public void evict(ServiceEndPoint endPoint) {
         checkNotNull(endPoint);
 
-        // Mark all service instances created prior to now as invalid so that we don't inadvertently check them back in
+        // Mark all service instances checked out prior to now as invalid so that we don't inadvertently check them
+        // back in.
         _invalidRevisions.put(endPoint, _revisionNumber.incrementAndGet());
-        _pool.clear(endPoint);
+
+        EndPointInstances instances = _instances.get(endPoint);
+        if (instances != null) {
+            discardIdleInstances(endPoint, instances);
+            retireIfUnused(endPoint, instances);
+        }
+        evictSharedInstances(endPoint);
+        signalWaiters();
     }
 
-    private class PoolServiceFactory<S> extends BaseKeyedPoolableObjectFactory<ServiceEndPoint, S> {
-        private final ServiceFactory<S> _serviceFactory;
+    /**
+     * Destroys instances that have been idle for longer than the caching policy allows, and forgets about end points
+     * that no longer have any instances.
+     */
+    @VisibleForTesting
+    void evictIdleInstances() {
+        long now = _ticker.read();
+        for (Map.Entry<ServiceEndPoint, EndPointInstances> entry : _instances.entrySet()) {
+            ServiceEndPoint endPoint = entry.getKey();
+            EndPointInstances instances = entry.getValue();
 
-        public PoolServiceFactory(ServiceFactory<S> serviceFactory) {
-            _serviceFactory = serviceFactory;
+            expireIdleInstances(endPoint, instances, now);
+            retireOldIdleInstances(endPoint, instances, now);
+            retireIfUnused(endPoint, instances);
         }
+        for (Map.Entry<ServiceEndPoint, SharedInstances> entry : _sharedInstances.entrySet()) {
+            evictIdleSharedInstances(entry.getKey(), entry.getValue(), now);
+        }
+        signalWaiters();
+    }
 
-        @Override
-        public S makeObject(final ServiceEndPoint endPoint) throws Exception {
-            _missCount.incrementAndGet();
+    /**
+     * Validates the idle instances that are due for it, destroying the ones that fail.
+     */
+    @VisibleForTesting
+    void validateIdleInstances() {
+        if (!(_serviceFactory instanceof ValidatingServiceFactory)) {
+            return;
+        }
+
+        long now = _ticker.read();
+        for (Map.Entry<ServiceEndPoint, EndPointInstances> entry : _instances.entrySet()) {
+            validateIdleInstances(entry.getKey(), entry.getValue(), now);
+        }
+        for (Map.Entry<ServiceEndPoint, SharedInstances> entry : _sharedInstances.entrySet()) {
+            validateIdleSharedInstances(entry.getKey(), entry.getValue(), now);
+        }
+        signalWaiters();
+    }
+
+    /**
+     * Takes an instance for an end point, or room to create one, applying the caching policy's exhaustion action if
+     * neither is available.
+     */
+    private ListenableFuture<Acquisition<S>> acquire(ServiceEndPoint endPoint)
+            throws NoCachedInstancesAvailableException {
+        Acquisition<S> acquisition = tryAcquire(endPoint);
+        if (acquisition != null) {
+            return Futures.immediateFuture(acquisition);
+        }
+
+        switch (_exhaustionAction) {
+            case GROW:
+                while (!getInstances(endPoint).reserve(-1)) {
+                    // Retired, try again with a fresh set of instances.
+                }
+                _totalNumInstances.incrementAndGet();
+                return Futures.immediateFuture(Acquisition.<S>room());
+
+            case WAIT:
+                Waiter waiter = new Waiter(endPoint);
+                _waiters.add(waiter);
+
+                // An instance may have been checked in before we started waiting.
+                drainWaiters();
+                return waiter._acquisition;
+
+            default:
+                _missCount.incrementAndGet();
 
-            TimerContext timer = _loadTimer.time();
-            try {
-                S service = _serviceFactory.create(endPoint);
+                // This will happen if there are no available connections and there is no room for a new one.
+                throw new NoCachedInstancesAvailableException();
+        }
+    }
+
+    /**
+     * Takes the most recently used idle instance of an end point, or reserves room to create a new one if the caching
+     * policy allows it.
+     * @return The acquired instance or room, or {@code null} if the cache is exhausted.
+     */
+    private Acquisition<S> tryAcquire(ServiceEndPoint endPoint) {
+        while (true) {
+            EndPointInstances instances = getInstances(endPoint);
+
+            Map.Entry<Long, IdleInstance<S>> idle = pollValidIdle(endPoint, instances);
+            if (idle != null) {
+                return Acquisition.idle(idle.getKey(), idle.getValue());
+            }
+
+            if (!instances.reserve(_maxNumServiceInstancesPerEndPoint)) {
+                if (instances.isRetired()) {
+                    continue;
+                }
+                return null;
+            }
+
+            if (!reserveInstance()) {
+                instances.release();
+                return null;
+            }
+            return Acquisition.room();
+        }
+    }
+
+    private Map.Entry<Long, IdleInstance<S>> pollValidIdle(ServiceEndPoint endPoint, EndPointInstances instances) {
+        Map.Entry<Long, IdleInstance<S>> entry;
+        while ((entry = instances.pollIdle()) != null) {
+            IdleInstance<S> idle = entry.getValue();
+            if (isValid(endPoint, idle._revision)
+                    && !(_maxServiceInstanceLifetimeNanos > 0 && isRetired(idle._retireAtNanos, _ticker.read()))
+                    && validateOnCheckOut(endPoint, idle)) {
+                break;
+            }
+            // Checked in just as the end point was being evicted, too old, or broken while it was idle.
+            discard(endPoint, instances, idle._service);
+        }
+        return entry;
+    }
+
+    private boolean validateOnCheckOut(ServiceEndPoint endPoint, IdleInstance<S> idle) {
+        return !_isValidatedOnCheckOut
+                || !isDueForValidation(idle._validatedNanos, _ticker.read())
+                || validate(endPoint, idle._service);
+    }
+
+    /** Reserves room for one more instance in the cache, evicting other end points' idle instances if necessary. */
+    private boolean reserveInstance() {
+        while (true) {
+            int numInstances = _totalNumInstances.get();
+            if (_maxNumServiceInstances >= 0 && numInstances >= _maxNumServiceInstances) {
+                if (!discardOldestIdleInstance()) {
+                    return false;
+                }
+            } else if (_totalNumInstances.compareAndSet(numInstances, numInstances + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /** Destroys the instance that's been idle the longest across all end points. */
+    private boolean discardOldestIdleInstance() {
+        while (true) {
+            ServiceEndPoint oldestEndPoint = null;
+            EndPointInstances oldestInstances = null;
+            Map.Entry<Long, IdleInstance<S>> oldest = null;
+            for (Map.Entry<ServiceEndPoint, EndPointInstances> entry : _instances.entrySet()) {
+                Map.Entry<Long, IdleInstance<S>> candidate = entry.getValue()._idle.firstEntry();
+                if (candidate != null && (oldest == null
+                        || candidate.getValue()._idleSinceNanos - oldest.getValue()._idleSinceNanos < 0)) {
+                    oldestEndPoint = entry.getKey();
+                    oldestInstances = entry.getValue();
+                    oldest = candidate;
+                }
+            }
+
+            if (oldest == null) {
+                return false;
+            }
+            if (oldestInstances.removeIdle(oldest)) {
+                discard(oldestEndPoint, oldestInstances, oldest.getValue()._service);
+                return true;
+            }
+            // Somebody else took it first, so look again.
+        }
+    }
+
+    /** Turns an acquired idle instance, or room for a new instance, into a checked out service handle. */
+    private ListenableFuture<ServiceHandle<S>> checkOut(final ServiceEndPoint endPoint, final long revision,
+                                                       final Acquisition<S> acquisition) {
+        if (acquisition._idle != null) {
+            return Futures.immediateFuture(new ServiceHandle<S>(acquisition._idle._service, endPoint, revision,
+                    acquisition._idle._retireAtNanos));
+        }
+
+        final SettableFuture<ServiceHandle<S>> result = SettableFuture.create();
+        Futures.addCallback(load(endPoint), new FutureCallback<S>() {
+            @Override
+            public void onSuccess(S service) {
+                ServiceHandle<S> handle = new ServiceHandle<S>(service, endPoint, revision, newRetireAtNanos());
+                if (!result.set(handle)) {
+                    // Nobody is waiting for the instance any more.
+                    checkInQuietly(handle);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                // The instance never made it, so free up the room that was reserved for it.
+                release(endPoint, acquisition);
+                result.setException(t);
+            }
+        }, sameThreadExecutor());
+        return result;
+    }
+
+    /** Creates a new instance for a cache miss, recording how long it took. */
+    private ListenableFuture<S> load(ServiceEndPoint endPoint) {
+        _missCount.incrementAndGet();
+
+        final TimerContext timer = _loadTimer.time();
+        ListenableFuture<S> instance;
+        try {
+            instance = Futures.immediateFuture(_serviceFactory.create(endPoint));
+        } catch (Throwable t) {
+            instance = Futures.immediateFailedFuture(t);
+        }
+
+        Futures.addCallback(instance, new FutureCallback<S>() {
+            @Override
+            public void onSuccess(S service) {
                 _loadSuccessCount.incrementAndGet();
-                return service;
-            } catch (Exception e) {
+                timer.stop();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
                 _loadFailureCount.incrementAndGet();
-                throw e;
-            } finally {
                 timer.stop();
             }
+        }, sameThreadExecutor());
+        return instance;
+    }
+
+    /** Gives back an acquisition that nobody is going to use. */
+    private void release(ServiceEndPoint endPoint, Acquisition<S> acquisition) {
+        if (acquisition._idle != null) {
+            // Put the instance back where it was, as it was, so that it keeps its revision and idle time.
+            IdleInstance<S> idle = acquisition._idle;
+            EndPointInstances instances = getInstances(endPoint);
+            if (_isClosed || !isValid(endPoint, idle._revision)
+                    || !instances.restoreIdle(acquisition._checkInSequence, idle)) {
+                discard(endPoint, instances, idle._service);
+            }
+            signalWaiters();
+        } else {
+            getInstances(endPoint).release();
+            _totalNumInstances.decrementAndGet();
+            signalWaiters();
+        }
+    }
+
+    private void checkInQuietly(ServiceHandle<S> handle) {
+        try {
+            checkIn(handle);
+        } catch (Exception e) {
+            // This should never happen, but log just in case.
+            LOG.warn("Error returning end point to cache. End point ID: {}, {}",
+                    handle.getEndPoint().getId(), e.toString());
+            LOG.debug("Exception", e);
+        }
+    }
+
+    private boolean isValid(ServiceEndPoint endPoint, long revision) {
+        Long invalidRevision = _invalidRevisions.get(endPoint);
+        return invalidRevision == null || revision >= invalidRevision;
+    }
+
+    /** Gets the instances of an end point that haven't been retired, adding them if necessary. */
+    private EndPointInstances getInstances(ServiceEndPoint endPoint) {
+        while (true) {
+            EndPointInstances instances = _instances.get(endPoint);
+            if (instances == null) {
+                EndPointInstances added = new EndPointInstances();
+                instances = _instances.putIfAbsent(endPoint, added);
+                if (instances == null) {
+                    return added;
+                }
+            }
+            if (!instances.isRetired()) {
+                return instances;
+            }
+            _instances.remove(endPoint, instances);
+        }
+    }
+
+    /** Removes an end point from the cache if it has no instances, so end points that come and go don't leak. */
+    private void retireIfUnused(ServiceEndPoint endPoint, EndPointInstances instances) {
+        if (instances._numInstances.compareAndSet(0, RETIRED)) {
+            _instances.remove(endPoint, instances);
+        }
+    }
+
+    /**
+     * Destroys the instances of an end point that have been idle for too long.  Idle instances are ordered by when they
+     * were checked in, so this stops at the first that's still fresh and never looks at the rest.
+     */
+    private void expireIdleInstances(ServiceEndPoint endPoint, EndPointInstances instances, long now) {
+        if (_maxServiceInstanceIdleTimeNanos <= 0) {
+            return;
+        }
+
+        Map.Entry<Long, IdleInstance<S>> oldest;
+        while ((oldest = instances._idle.firstEntry()) != null
+                && now - oldest.getValue()._idleSinceNanos >= _maxServiceInstanceIdleTimeNanos) {
+            if (instances.removeIdle(oldest)) {
+                discard(endPoint, instances, oldest.getValue()._service);
+            }
+        }
+    }
+
+    /**
+     * Validates the idle instances of an end point that are due for it, destroying the ones that fail.  Each instance
+     * is taken off the idle stack while it's validated so nobody can check it out, then put back where it was.
+     */
+    private void validateIdleInstances(ServiceEndPoint endPoint, EndPointInstances instances, long now) {
+        for (Map.Entry<Long, IdleInstance<S>> entry : instances._idle.entrySet()) {
+            IdleInstance<S> idle = entry.getValue();
+            if (!isDueForValidation(idle._validatedNanos, now) || !instances.removeIdle(entry)) {
+                continue;
+            }
+
+            boolean isRestored = validate(endPoint, idle._service)
+                    && !_isClosed
+                    && isValid(endPoint, idle._revision)
+                    && instances.restoreIdle(entry.getKey(),
+                            new IdleInstance<S>(idle._service, idle._revision, idle._idleSinceNanos, _ticker.read(),
+                                    idle._retireAtNanos));
+            if (!isRestored) {
+                discard(endPoint, instances, idle._service);
+            }
+        }
+    }
+
+    private boolean isDueForValidation(long validatedNanos, long now) {
+        return _serviceFactory instanceof ValidatingServiceFactory && now - validatedNanos >= _validationIntervalNanos;
+    }
+
+    /** Asks the service factory whether an instance can still be used.  An exception counts as a failure. */
+    private boolean validate(ServiceEndPoint endPoint, S service) {
+        boolean isValid;
+        TimerContext timer = _validationTimer.time();
+        try {
+            isValid = ((ValidatingServiceFactory<S>) _serviceFactory).validate(endPoint, service);
+        } catch (Exception e) {
+            LOG.debug("Error validating service instance. End point ID: {}", endPoint.getId(), e);
+            isValid = false;
+        } finally {
+            timer.stop();
+        }
+
+        if (isValid) {
+            _validationSuccessCount.incrementAndGet();
+        } else {
+            _validationFailureCount.incrementAndGet();
+        }
+        return isValid;
+    }
+
+    /**
+     * Destroys the idle instances of an end point that have reached the end of their lifetime.  Those that are checked
+     * out are retired when they're checked in.  Idle instances are also ordered by when they retire, so this stops at
+     * the first that isn't due yet and never looks at the rest.
+     */
+    private void retireOldIdleInstances(ServiceEndPoint endPoint, EndPointInstances instances, long now) {
+        if (_maxServiceInstanceLifetimeNanos <= 0) {
+            return;
+        }
+
+        for (Map.Entry<Long, IdleInstance<S>> entry : instances._idleByRetireTime) {
+            if (!isRetired(entry.getValue()._retireAtNanos, now)) {
+                break;
+            }
+            if (instances.removeIdle(entry)) {
+                discard(endPoint, instances, entry.getValue()._service);
+            }
+        }
+    }
+
+    /** Picks when a new instance should retire, shortening its lifetime at random so instances don't all go at once. */
+    private long newRetireAtNanos() {
+        if (_maxServiceInstanceLifetimeNanos <= 0) {
+            return 0;
+        }
+
+        double jitter;
+        synchronized (_random) {
+            jitter = _random.nextDouble();
         }
+        long lifetimeNanos = _maxServiceInstanceLifetimeNanos
+                - (long) (jitter * MAX_LIFETIME_JITTER * _maxServiceInstanceLifetimeNanos);
+        return _ticker.read() + lifetimeNanos;
+    }
+
+    private boolean isRetired(long retireAtNanos, long now) {
+        return _maxServiceInstanceLifetimeNanos > 0 && now - retireAtNanos >= 0;
+    }
+
+    private void discardIdleInstances(ServiceEndPoint endPoint, EndPointInstances instances) {
+        Map.Entry<Long, IdleInstance<S>> idle;
+        while ((idle = instances.pollIdle()) != null) {
+            discard(endPoint, instances, idle.getValue()._service);
+        }
+    }
 
-        @Override
-        public void destroyObject(ServiceEndPoint endPoint, S service) throws Exception {
+    /** Destroys an instance that is checked out or has been taken off its end point's idle stack. */
+    private void discard(ServiceEndPoint endPoint, EndPointInstances instances, S service) {
+        instances.release();
+        _totalNumInstances.decrementAndGet();
+        destroy(endPoint, service);
+    }
+
+    private void destroy(ServiceEndPoint endPoint, S service) {
+        try {
             _serviceFactory.destroy(endPoint, service);
+        } catch (Exception e) {
+            LOG.warn("Error destroying service instance. End point ID: {}, {}", endPoint.getId(), e.toString());
+            LOG.debug("Exception", e);
+        }
+    }
+
+    /**
+     * Checks out one of an end point's shared instances, creating it if necessary.  Each thread tends to use the same
+     * instance, which spreads threads evenly across the instances without them having to agree on anything.
+     */
+    private ListenableFuture<ServiceHandle<S>> checkOutShared(ServiceEndPoint endPoint) {
+        int slot = (int) (Thread.currentThread().getId() % _numSharedInstancesPerEndPoint);
+        while (true) {
+            SharedInstances instances = getSharedInstances(endPoint);
+            SharedInstance instance = instances._slots.get(slot);
+            if (instance != null) {
+                if (instance.retain()) {
+                    if (!instance.isRetired()) {
+                        return instance.getHandle(endPoint);
+                    }
+
+                    // Too old, so take it out of its slot.  Callers already using it keep it until they check it in.
+                    if (instances._slots.compareAndSet(slot, instance, null)) {
+                        instance.release(endPoint);
+                    }
+                    instance.release(endPoint);
+                }
+                // Retired or being evicted, so look again.
+                continue;
+            }
+
+            SharedInstance added = new SharedInstance();
+            if (!instances._slots.compareAndSet(slot, null, added)) {
+                continue;
+            }
+            if ((instances._isEvicted || _isClosed) && instances._slots.compareAndSet(slot, added, null)) {
+                // Evicted while it was being added, so this caller gets to use it once.
+                added.release(endPoint);
+            }
+            added.load(endPoint, instances, slot);
+            return added.getHandle(endPoint);
+        }
+    }
+
+    private SharedInstances getSharedInstances(ServiceEndPoint endPoint) {
+        SharedInstances instances = _sharedInstances.get(endPoint);
+        if (instances == null) {
+            SharedInstances added = new SharedInstances();
+            instances = _sharedInstances.putIfAbsent(endPoint, added);
+            if (instances == null) {
+                return added;
+            }
+        }
+        return instances;
+    }
+
+    private void evictSharedInstances(ServiceEndPoint endPoint) {
+        SharedInstances instances = _sharedInstances.remove(endPoint);
+        if (instances != null) {
+            instances.evict(endPoint);
+        }
+    }
+
+    private void evictIdleSharedInstances(ServiceEndPoint endPoint, SharedInstances instances, long now) {
+        boolean isEmpty = true;
+        for (int slot = 0; slot < instances._slots.length(); slot++) {
+            SharedInstance instance = instances._slots.get(slot);
+            if (instance != null && instance.isIdle() && isExpired(instance, now)
+                    && instances._slots.compareAndSet(slot, instance, null)) {
+                instance.release(endPoint);
+            } else if (instance != null) {
+                isEmpty = false;
+            }
+        }
+
+        if (isEmpty && _sharedInstances.remove(endPoint, instances)) {
+            // Anything added since is released when its caller checks it back in.
+            instances.evict(endPoint);
+        }
+    }
+
+    /**
+     * Validates the idle shared instances of an end point that are due for it, replacing the ones that fail.  The
+     * empty slots they leave are cleaned up by the next eviction run.
+     */
+    private void validateIdleSharedInstances(ServiceEndPoint endPoint, SharedInstances instances, long now) {
+        for (int slot = 0; slot < instances._slots.length(); slot++) {
+            SharedInstance instance = instances._slots.get(slot);
+            if (instance != null && instance.isIdle() && isInvalid(endPoint, instance, now)
+                    && instances._slots.compareAndSet(slot, instance, null)) {
+                instance.release(endPoint);
+            }
+        }
+    }
+
+    private void signalWaiters() {
+        if (!_waiters.isEmpty()) {
+            drainWaiters();
+        }
+    }
+
+    /**
+     * Hands instances, or room for new instances, to the callers waiting for them in the order they started waiting.
+     * Only one thread drains at a time; a drain requested while another is in progress makes that one go again, so no
+     * returned instance is missed.
+     */
+    private void drainWaiters() {
+        if (_numWaiterDrainRequests.getAndIncrement() != 0) {
+            return;
+        }
+
+        int numRequests = 1;
+        do {
+            for (Iterator<Waiter> it = _waiters.iterator(); it.hasNext(); ) {
+                Waiter waiter = it.next();
+                if (waiter._acquisition.isDone()) {
+                    // Cancelled.
+                    it.remove();
+                    continue;
+                }
+
+                Acquisition<S> acquisition = tryAcquire(waiter._endPoint);
+                if (acquisition != null) {
+                    it.remove();
+                    if (!waiter._acquisition.set(acquisition)) {
+                        release(waiter._endPoint, acquisition);
+                    }
+                }
+            }
+            numRequests = _numWaiterDrainRequests.addAndGet(-numRequests);
+        } while (numRequests != 0);
+    }
+
+    /** The instances of a single end point. */
+    private final class EndPointInstances {
+        /**
+         * Idle instances keyed by the order they were checked in.  Used as a lock-free stack, so the most recently
+         * used instance is reused first and the others are left to expire.
+         */
+        private final ConcurrentNavigableMap<Long, IdleInstance<S>> _idle =
+                new ConcurrentSkipListMap<Long, IdleInstance<S>>();
+
+        /**
+         * The same idle instances ordered by when they retire, if the caching policy limits how long instances live.
+         * An entry is added after it's put on the idle stack and removed after it's taken off.
+         */
+        private final ConcurrentSkipListSet<Map.Entry<Long, IdleInstance<S>>> _idleByRetireTime =
+                new ConcurrentSkipListSet<Map.Entry<Long, IdleInstance<S>>>(
+                        new Comparator<Map.Entry<Long, IdleInstance<S>>>() {
+                            @Override
+                            public int compare(Map.Entry<Long, IdleInstance<S>> left,
+                                               Map.Entry<Long, IdleInstance<S>> right) {
+                                return ComparisonChain.start()
+                                        .compare(left.getValue()._retireAtNanos, right.getValue()._retireAtNanos)
+                                        .compare(left.getKey(), right.getKey())
+                                        .result();
+                            }
+                        });
+        private final AtomicLong _checkInSequence = new AtomicLong();
+        private final AtomicInteger _numIdle = new AtomicInteger();
+
+        /** Idle and checked out instances plus room reserved for instances being created, or {@link #RETIRED}. */
+        private final AtomicInteger _numInstances = new AtomicInteger();
+
+        boolean offerIdle(IdleInstance<S> instance) {
+            if (!reserveIdle()) {
+                return false;
+            }
+            putIdle(_checkInSequence.incrementAndGet(), instance);
+            return true;
+        }
+
+        /** Puts an instance that was taken off the idle stack back where it was. */
+        boolean restoreIdle(long checkInSequence, IdleInstance<S> instance) {
+            if (!reserveIdle()) {
+                return false;
+            }
+            putIdle(checkInSequence, instance);
+            return true;
+        }
+
+        private void putIdle(long checkInSequence, IdleInstance<S> instance) {
+            _idle.put(checkInSequence, instance);
+            if (_maxServiceInstanceLifetimeNanos > 0) {
+                _idleByRetireTime.add(Maps.immutableEntry(checkInSequence, instance));
+            }
+        }
+
+        private boolean reserveIdle() {
+            while (true) {
+                int numIdle = _numIdle.get();
+                if (_maxNumServiceInstancesPerEndPoint >= 0 && numIdle >= _maxNumServiceInstancesPerEndPoint) {
+                    return false;
+                }
+                if (_numIdle.compareAndSet(numIdle, numIdle + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /** Takes the most recently checked in instance, keyed by its place in the stack. */
+        Map.Entry<Long, IdleInstance<S>> pollIdle() {
+            Map.Entry<Long, IdleInstance<S>> entry = _idle.pollLastEntry();
+            if (entry == null) {
+                return null;
+            }
+            removedIdle(entry);
+            return entry;
+        }
+
+        boolean removeIdle(Map.Entry<Long, IdleInstance<S>> entry) {
+            if (!_idle.remove(entry.getKey(), entry.getValue())) {
+                return false;
+            }
+            removedIdle(entry);
+            return true;
+        }
+
+        private void removedIdle(Map.Entry<Long, IdleInstance<S>> entry) {
+            _numIdle.decrementAndGet();
+            if (_maxServiceInstanceLifetimeNanos > 0) {
+                _idleByRetireTime.remove(entry);
+            }
+        }
+
+        /**
+         * Reserves room for one more instance, unless the end point already has {@code maxNumInstances} or has been
+         * retired.  A negative maximum means there is no limit.
+         */
+        boolean reserve(int maxNumInstances) {
+            while (true) {
+                int numInstances = _numInstances.get();
+                if (numInstances == RETIRED || (maxNumInstances >= 0 && numInstances >= maxNumInstances)) {
+                    return false;
+                }
+                if (_numInstances.compareAndSet(numInstances, numInstances + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release() {
+            while (true) {
+                int numInstances = _numInstances.get();
+                if (numInstances <= 0 || _numInstances.compareAndSet(numInstances, numInstances - 1)) {
+                    return;
+                }
+            }
+        }
+
+        int getNumActive() {
+            return Math.max(_numInstances.get() - _numIdle.get(), 0);
+        }
+
+        boolean isRetired() {
+            return _numInstances.get() == RETIRED;
+        }
+    }
+
+    private static final class IdleInstance<S> {
+        private final S _service;
+        private final long _revision;
+        private final long _idleSinceNanos;
+        private final long _validatedNanos;
+        private final long _retireAtNanos;
+
+        IdleInstance(S service, long revision, long idleSinceNanos, long validatedNanos, long retireAtNanos) {
+            _service = service;
+            _revision = revision;
+            _idleSinceNanos = idleSinceNanos;
+            _validatedNanos = validatedNanos;
+            _retireAtNanos = retireAtNanos;
+        }
+    }
+
+    /** Either an idle instance taken from the cache, or room reserved in the cache to create a new instance. */
+    private static final class Acquisition<S> {
+        private static final Acquisition<?> ROOM = new Acquisition<Object>(0, null);
+
+        private final long _checkInSequence;
+        private final IdleInstance<S> _idle;
+
+        private Acquisition(long checkInSequence, IdleInstance<S> idle) {
+            _checkInSequence = checkInSequence;
+            _idle = idle;
+        }
+
+        static <S> Acquisition<S> idle(long checkInSequence, IdleInstance<S> idle) {
+            return new Acquisition<S>(checkInSequence, idle);
+        }
+
+        @SuppressWarnings("unchecked")
+        static <S> Acquisition<S> room() {
+            return (Acquisition<S>) ROOM;
+        }
+    }
+
+    private boolean isExpired(SharedInstance instance, long now) {
+        boolean isIdleTooLong = _maxServiceInstanceIdleTimeNanos > 0
+                && now - instance._lastUsedNanos >= _maxServiceInstanceIdleTimeNanos;
+        return isIdleTooLong || isRetired(instance._retireAtNanos, now);
+    }
+
+    private boolean isInvalid(ServiceEndPoint endPoint, SharedInstance instance, long now) {
+        if (!isDueForValidation(instance._lastUsedNanos, now) || !isDueForValidation(instance._validatedNanos, now)) {
+            return false;
+        }
+
+        // Shared instances are thread-safe, so this one can be validated while somebody else starts using it.
+        instance._validatedNanos = _ticker.read();
+        return !validate(endPoint, instance._createdService);
+    }
+
+    /** The shared instances of a single end point, one per slot. */
+    private final class SharedInstances {
+        private final AtomicReferenceArray<SharedInstance> _slots =
+                new AtomicReferenceArray<SharedInstance>(_numSharedInstancesPerEndPoint);
+        private volatile boolean _isEvicted;
+
+        int getNumIdle() {
+            int numIdle = 0;
+            for (int slot = 0; slot < _slots.length(); slot++) {
+                SharedInstance instance = _slots.get(slot);
+                if (instance != null && instance.isIdle()) {
+                    numIdle++;
+                }
+            }
+            return numIdle;
+        }
+
+        int getNumActive() {
+            int numActive = 0;
+            for (int slot = 0; slot < _slots.length(); slot++) {
+                SharedInstance instance = _slots.get(slot);
+                if (instance != null) {
+                    numActive += Math.max(instance._numReferences.get() - 1, 0);
+                }
+            }
+            return numActive;
+        }
+
+        /** Releases the cache's reference to every instance, so each is destroyed once nobody is using it. */
+        void evict(ServiceEndPoint endPoint) {
+            _isEvicted = true;
+            for (int slot = 0; slot < _slots.length(); slot++) {
+                SharedInstance instance = _slots.getAndSet(slot, null);
+                if (instance != null) {
+                    instance.release(endPoint);
+                }
+            }
+        }
+    }
+
+    /**
+     * An instance used by many callers at once.  The cache holds one reference while the instance is in its slot and
+     * every caller using it holds another; the instance is destroyed when the last reference is released.
+     */
+    private final class SharedInstance {
+        private final SettableFuture<S> _service = SettableFuture.create();
+        private final AtomicInteger _numReferences = new AtomicInteger(2);  // The cache's and the creator's.
+        private volatile S _createdService;
+        private volatile long _retireAtNanos;
+        private volatile long _lastUsedNanos = _ticker.read();
+        private volatile long _validatedNanos = _lastUsedNanos;
+
+        void load(final ServiceEndPoint endPoint, final SharedInstances instances, final int slot) {
+            Futures.addCallback(ServiceCache.this.load(endPoint), new FutureCallback<S>() {
+                @Override
+                public void onSuccess(S service) {
+                    _retireAtNanos = newRetireAtNanos();
+                    _createdService = service;
+                    _service.set(service);
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    // Let the next caller try again.
+                    if (instances._slots.compareAndSet(slot, SharedInstance.this, null)) {
+                        release(endPoint);
+                    }
+                    _service.setException(t);
+                }
+            }, sameThreadExecutor());
+        }
+
+        /** Adds a reference, unless the instance has already been released for good. */
+        boolean retain() {
+            while (true) {
+                int numReferences = _numReferences.get();
+                if (numReferences <= 0) {
+                    return false;
+                }
+                if (_numReferences.compareAndSet(numReferences, numReferences + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void release(ServiceEndPoint endPoint) {
+            _lastUsedNanos = _ticker.read();
+            if (_numReferences.decrementAndGet() == 0 && _createdService != null) {
+                destroy(endPoint, _createdService);
+            }
+        }
+
+        boolean isIdle() {
+            return _createdService != null && _numReferences.get() == 1;
+        }
+
+        boolean isRetired() {
+            return _maxServiceInstanceLifetimeNanos > 0 && _createdService != null
+                    && ServiceCache.this.isRetired(_retireAtNanos, _ticker.read());
+        }
+
+        /** Hands a reference the caller already holds to the caller once the instance has been created. */
+        ListenableFuture<ServiceHandle<S>> getHandle(final ServiceEndPoint endPoint) {
+            if (_createdService != null) {
+                return Futures.<ServiceHandle<S>>immediateFuture(new SharedHandle(this, endPoint));
+            }
+
+            final SettableFuture<ServiceHandle<S>> result = SettableFuture.create();
+            Futures.addCallback(_service, new FutureCallback<S>() {
+                @Override
+                public void onSuccess(S service) {
+                    if (!result.set(new SharedHandle(SharedInstance.this, endPoint))) {
+                        // Nobody is waiting for the instance any more.
+                        release(endPoint);
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    release(endPoint);
+                    result.setException(t);
+                }
+            }, sameThreadExecutor());
+            return result;
+        }
+    }
+
+    private final class SharedHandle extends ServiceHandle<S> {
+        private final SharedInstance _instance;
+
+        SharedHandle(SharedInstance instance, ServiceEndPoint endPoint) {
+            super(instance._createdService, endPoint, 0);
+            _instance = instance;
+        }
+    }
+
+    private final class Waiter {
+        private final ServiceEndPoint _endPoint;
+        private final SettableFuture<Acquisition<S>> _acquisition = SettableFuture.create();
+
+        Waiter(ServiceEndPoint endPoint) {
+            _endPoint = endPoint;
         }
     }
-}
\ No newline at end of file
+}
@@ -20,6 +20,8 @@ import java.util.concurrent.TimeUnit;
 /**
  * A policy for determining host service instance caching is performed by a {@link ServicePool}.  The
  * {@code ServiceCachingPolicy} configures how caching of should be performed by a {@link ServiceCache}.
+ * <p/>
+ * Further settings are in {@link AdvancedServiceCachingPolicy}, which policies can implement when they need them.
  */
 public interface ServiceCachingPolicy {
     /**
@@ -28,9 +28,17 @@ public class ServiceCachingPolicyBuilder {
             .withCacheExhaustionAction(ExhaustionAction.GROW)
             .build();
 
+    private static final long DEFAULT_EVICTION_INTERVAL_NANOS =
+            TimeUnit.SECONDS.toNanos(ServiceCache.EVICTION_DURATION_IN_SECONDS);
+
     private int _maxNumServiceInstances = -1;
     private int _maxNumServiceInstancesPerEndPoint = -1;
     private long _maxServiceInstanceIdleTimeNanos;
+    private long _evictionIntervalNanos;
+    private long _maxServiceInstanceLifetimeNanos;
+    private long _validationIntervalNanos;
+    private boolean _isValidatedOnCheckOut;
+    private int _numSharedServiceInstancesPerEndPoint;
     private ExhaustionAction _cacheExhaustionAction = ExhaustionAction.GROW;
 
     /**
@@ -79,6 +87,87 @@ public class ServiceCachingPolicyBuilder {
         return this;
     }
 
+    /**
+     * Set how often the built policy's cache looks for idle instances to expire.  If never called, the cache looks as
+     * often as the {@link #withMaxServiceInstanceIdleTime max service instance idle time}, but at least every five
+     * minutes, so an idle instance lives at most about twice its idle time.
+     *
+     * @param evictionInterval The time between checks for idle instances to expire.
+     * @param unit             The unit of time the {@code evictionInterval} is in.
+     * @return this
+     */
+    public ServiceCachingPolicyBuilder withEvictionInterval(int evictionInterval, TimeUnit unit) {
+        checkState(evictionInterval > 0);
+        checkNotNull(unit);
+
+        _evictionIntervalNanos = unit.toNanos(evictionInterval);
+        return this;
+    }
+
+    /**
+     * Set the maximum amount of time a cached instance lives in the built policy, however often it's used.  Instances
+     * are retired at a random point between 90% and 100% of this age, and never while checked out.  If never called,
+     * cached instances live as long as they're used.
+     *
+     * @param maxServiceInstanceLifetime The maximum age of a cached instance.
+     * @param unit                       The unit of time the {@code maxServiceInstanceLifetime} is in.
+     * @return this
+     */
+    public ServiceCachingPolicyBuilder withMaxServiceInstanceLifetime(int maxServiceInstanceLifetime, TimeUnit unit) {
+        checkState(maxServiceInstanceLifetime > 0);
+        checkNotNull(unit);
+
+        _maxServiceInstanceLifetimeNanos = unit.toNanos(maxServiceInstanceLifetime);
+        return this;
+    }
+
+    /**
+     * Set the minimum amount of time between validations of the same cached instance for the built policy, when the
+     * service factory validates instances.  If never called, idle instances are validated once a minute.
+     *
+     * @param validationInterval The time an instance must be idle since it was last used or validated before it's
+     *                           validated again.
+     * @param unit               The unit of time the {@code validationInterval} is in.
+     * @return this
+     */
+    public ServiceCachingPolicyBuilder withServiceInstanceValidationInterval(int validationInterval, TimeUnit unit) {
+        checkState(validationInterval > 0);
+        checkNotNull(unit);
+
+        _validationIntervalNanos = unit.toNanos(validationInterval);
+        return this;
+    }
+
+    /**
+     * Validate idle instances that are due for validation before checking them out in the built policy, when the
+     * service factory validates instances.  If never called, instances are only validated in the background.
+     *
+     * @return this
+     */
+    public ServiceCachingPolicyBuilder withValidationOnCheckOut() {
+        _isValidatedOnCheckOut = true;
+        return this;
+    }
+
+    /**
+     * Share service instances between all callers in the built policy, keeping {@code numServiceInstancesPerEndPoint}
+     * instances for each end point, instead of checking each instance out to one caller at a time.  Only use this if
+     * the instances the service factory creates are thread-safe.  If never called, instances are not shared.
+     * <p/>
+     * NOTE: Shared instances are never exhausted, so the maximum numbers of service instances and the exhaustion action
+     * don't apply.  Shared instances still expire once they haven't been used for the
+     * {@link #withMaxServiceInstanceIdleTime max service instance idle time}.
+     *
+     * @param numServiceInstancesPerEndPoint The number of shared service instances for each end point.
+     * @return this
+     */
+    public ServiceCachingPolicyBuilder withSharedServiceInstances(int numServiceInstancesPerEndPoint) {
+        checkState(numServiceInstancesPerEndPoint > 0);
+
+        _numSharedServiceInstancesPerEndPoint = numServiceInstancesPerEndPoint;
+        return this;
+    }
+
     /**
      * Set the {@code ExhaustionAction} for the built caching policy.  If never called, will default to
      * {@code ExhaustionAction.GROW}.
@@ -94,7 +183,8 @@ public class ServiceCachingPolicyBuilder {
     }
 
     /**
-     * Build the {@code ServiceCachingPolicy} specified by this builder.
+     * Build the {@code ServiceCachingPolicy} specified by this builder.  The policy is an
+     * {@link AdvancedServiceCachingPolicy}, so that it carries every setting this builder has.
      *
      * @return The {@code ServiceCachingPolicy} that was constructed.
      */
@@ -104,9 +194,16 @@ public class ServiceCachingPolicyBuilder {
         final int maxNumServiceInstances = _maxNumServiceInstances;
         final int maxNumServiceInstancesPerEndPoint = _maxNumServiceInstancesPerEndPoint;
         final long maxServiceInstanceIdleTimeNanos = _maxServiceInstanceIdleTimeNanos;
+        final long evictionIntervalNanos = (_evictionIntervalNanos > 0 || _maxServiceInstanceIdleTimeNanos <= 0)
+                ? _evictionIntervalNanos
+                : Math.min(_maxServiceInstanceIdleTimeNanos, DEFAULT_EVICTION_INTERVAL_NANOS);
+        final long maxServiceInstanceLifetimeNanos = _maxServiceInstanceLifetimeNanos;
+        final long validationIntervalNanos = _validationIntervalNanos;
+        final boolean isValidatedOnCheckOut = _isValidatedOnCheckOut;
+        final int numSharedServiceInstancesPerEndPoint = _numSharedServiceInstancesPerEndPoint;
         final ExhaustionAction cacheExhaustionAction = _cacheExhaustionAction;
 
-        return new ServiceCachingPolicy() {
+        return new AdvancedServiceCachingPolicy() {
             @Override
             public int getMaxNumServiceInstances() {
                 return maxNumServiceInstances;
@@ -122,6 +219,31 @@ public class ServiceCachingPolicyBuilder {
                 return unit.convert(maxServiceInstanceIdleTimeNanos, TimeUnit.NANOSECONDS);
             }
 
+            @Override
+            public long getEvictionInterval(TimeUnit unit) {
+                return unit.convert(evictionIntervalNanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public long getMaxServiceInstanceLifetime(TimeUnit unit) {
+                return unit.convert(maxServiceInstanceLifetimeNanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public long getServiceInstanceValidationInterval(TimeUnit unit) {
+                return unit.convert(validationIntervalNanos, TimeUnit.NANOSECONDS);
+            }
+
+            @Override
+            public boolean isServiceInstanceValidatedOnCheckOut() {
+                return isValidatedOnCheckOut;
+            }
+
+            @Override
+            public int getNumSharedServiceInstancesPerEndPoint() {
+                return numSharedServiceInstancesPerEndPoint;
+            }
+
             @Override
             public ExhaustionAction getCacheExhaustionAction() {
                 return cacheExhaustionAction;
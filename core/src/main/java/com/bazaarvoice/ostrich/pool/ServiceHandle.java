@@ -22,10 +22,31 @@ import static com.google.common.base.Preconditions.checkNotNull;
 class ServiceHandle<S> {
     private final S _service;
     private final ServiceEndPoint _endPoint;
+    private final long _revision;
+    private final long _retireAtNanos;
 
     public ServiceHandle(S service, ServiceEndPoint endPoint) {
+        this(service, endPoint, 0);
+    }
+
+    /**
+     * @param revision The {@link ServiceCache} revision the service was checked out on, used to tell whether the end
+     *                 point was evicted while the service was in use.
+     */
+    ServiceHandle(S service, ServiceEndPoint endPoint, long revision) {
+        this(service, endPoint, revision, 0);
+    }
+
+    /**
+     * @param revision      The {@link ServiceCache} revision the service was checked out on.
+     * @param retireAtNanos When the {@link ServiceCache} should retire the service instead of caching it again, if
+     *                      the cache limits how long instances live.
+     */
+    ServiceHandle(S service, ServiceEndPoint endPoint, long revision, long retireAtNanos) {
         _service = checkNotNull(service);
         _endPoint = checkNotNull(endPoint);
+        _revision = revision;
+        _retireAtNanos = retireAtNanos;
     }
 
     public S getService() {
@@ -35,4 +56,12 @@ class ServiceHandle<S> {
     ServiceEndPoint getEndPoint() {
         return _endPoint;
     }
+
+    long getRevision() {
+        return _revision;
+    }
+
+    long getRetireAtNanos() {
+        return _retireAtNanos;
+    }
 }
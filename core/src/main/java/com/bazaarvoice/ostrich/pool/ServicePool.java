@@ -15,12 +15,14 @@
  */
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.AsyncServiceFactory;
 import com.bazaarvoice.ostrich.HealthCheckResult;
 import com.bazaarvoice.ostrich.HealthCheckResults;
 import com.bazaarvoice.ostrich.HostDiscovery;
 import com.bazaarvoice.ostrich.LoadBalanceAlgorithm;
 import com.bazaarvoice.ostrich.PartitionContext;
 import com.bazaarvoice.ostrich.PartitionContextBuilder;
+import com.bazaarvoice.ostrich.PayloadCache;
 import com.bazaarvoice.ostrich.RetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
@@ -42,10 +44,15 @@ import com.google.common.base.Stopwatch;
 import com.google.common.base.Throwables;
 import com.google.common.base.Ticker;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.yammer.metrics.core.Gauge;
 import com.yammer.metrics.core.Meter;
 import com.yammer.metrics.core.Timer;
@@ -54,12 +61,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
 
 class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
     private static final Logger LOG = LoggerFactory.getLogger(ServicePool.class);
@@ -77,8 +88,12 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
     private final boolean _shutdownHealthCheckExecutorOnClose;
     private final PartitionFilter _partitionFilter;
     private final LoadBalanceAlgorithm _loadBalanceAlgorithm;
+    private final List<PayloadCache<?>> _payloadCaches;
     private final ServicePoolStatistics _servicePoolStatistics;
     private final Set<ServiceEndPoint> _badEndPoints;
+    private final AtomicLong _badEndPointsVersion = new AtomicLong();
+    private volatile ValidEndPoints _validEndPoints;
+    private final ConcurrentMap<ServiceEndPoint, Long> _healthChecksInProgress;
     private final Predicate<ServiceEndPoint> _badEndPointFilter;
     private final Set<ServiceEndPoint> _recentlyRemovedEndPoints;
     private final Future<?> _batchHealthChecksFuture;
@@ -93,6 +108,16 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
                 ServiceFactory<S> serviceFactory, ServiceCachingPolicy cachingPolicy,
                 PartitionFilter partitionFilter, LoadBalanceAlgorithm loadBalanceAlgorithm,
                 ScheduledExecutorService healthCheckExecutor, boolean shutdownHealthCheckExecutorOnClose) {
+        this(ticker, hostDiscovery, cleanupHostDiscoveryOnClose, serviceFactory, cachingPolicy, partitionFilter,
+                loadBalanceAlgorithm, ImmutableList.<PayloadCache<?>>of(), healthCheckExecutor,
+                shutdownHealthCheckExecutorOnClose);
+    }
+
+    ServicePool(Ticker ticker, HostDiscovery hostDiscovery, boolean cleanupHostDiscoveryOnClose,
+                ServiceFactory<S> serviceFactory, ServiceCachingPolicy cachingPolicy,
+                PartitionFilter partitionFilter, LoadBalanceAlgorithm loadBalanceAlgorithm,
+                List<PayloadCache<?>> payloadCaches, ScheduledExecutorService healthCheckExecutor,
+                boolean shutdownHealthCheckExecutorOnClose) {
         _ticker = checkNotNull(ticker);
         _hostDiscovery = checkNotNull(hostDiscovery);
         _cleanupHostDiscoveryOnClose = cleanupHostDiscoveryOnClose;
@@ -101,15 +126,17 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         _shutdownHealthCheckExecutorOnClose = shutdownHealthCheckExecutorOnClose;
         _badEndPoints = Sets.newSetFromMap(Maps.<ServiceEndPoint, Boolean>newConcurrentMap());
         _badEndPointFilter = Predicates.not(Predicates.in(_badEndPoints));
+        _healthChecksInProgress = Maps.newConcurrentMap();
         _recentlyRemovedEndPoints = Sets.newSetFromMap(CacheBuilder.newBuilder()
                 .ticker(_ticker)
                 .expireAfterWrite(10, TimeUnit.MINUTES)  // TODO: Make this a constant
                 .<ServiceEndPoint, Boolean>build()
                 .asMap());
         checkNotNull(cachingPolicy);
-        _serviceCache = new ServiceCache<S>(cachingPolicy, serviceFactory);
+        _serviceCache = new ServiceCache<S>(_ticker, cachingPolicy, serviceFactory);
         _partitionFilter = checkNotNull(partitionFilter);
         _loadBalanceAlgorithm = checkNotNull(loadBalanceAlgorithm);
+        _payloadCaches = ImmutableList.copyOf(payloadCaches);
 
         _servicePoolStatistics = new ServicePoolStatistics() {
             @Override
@@ -136,11 +163,15 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
             @Override
             public void onEndPointAdded(ServiceEndPoint endPoint) {
                 addEndPoint(endPoint);
+                decodePayloads(endPoint);
             }
 
             @Override
             public void onEndPointRemoved(ServiceEndPoint endPoint) {
                 removeEndPoint(endPoint);
+                for (PayloadCache<?> payloadCache : _payloadCaches) {
+                    payloadCache.invalidate(endPoint);
+                }
             }
         };
         _hostDiscovery.addListener(_hostDiscoveryListener);
@@ -203,34 +234,11 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         Exception lastException = null;
 
         do {
-            Iterable<ServiceEndPoint> allEndPoints = getAllEndPoints();
-            if (Iterables.isEmpty(allEndPoints)) {
-                throw (lastException == null)
-                        ? new NoAvailableHostsException()
-                        : new NoAvailableHostsException(lastException);
-            }
-
-            Iterable<ServiceEndPoint> validEndPoints = getValidEndPoints(allEndPoints);
-            if (Iterables.isEmpty(validEndPoints)) {
-                throw (lastException == null)
-                        ? new OnlyBadHostsException()
-                        : new OnlyBadHostsException(lastException);
-            }
-
-            ServiceEndPoint endPoint = chooseEndPoint(validEndPoints, partitionContext);
-            if (endPoint == null) {
-                throw (lastException == null)
-                        ? new NoSuitableHostsException()
-                        : new NoSuitableHostsException(lastException);
-            }
+            ServiceEndPoint endPoint = chooseEndPoint(partitionContext, lastException);
 
             try {
-                R result = executeOnEndPoint(endPoint, callback);
-                _numExecuteSuccesses.mark();
-                return result;
+                return executeAttempt(endPoint, callback, retry);
             } catch (Exception e) {
-                _numExecuteAttemptFailures.mark();
-
                 // Don't retry if exception is too severe.
                 if (!isRetriableException(e)) {
                     throw Throwables.propagate(e);
@@ -265,10 +273,67 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
     }
 
     /**
-     * Determine the set of usable {@link ServiceEndPoint}s.
+     * Chooses the end point for the next attempt at executing a callback.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
+     *
+     * @param lastException The exception from the previous attempt, if any, to use as the cause of the exception
+     *                      thrown when no end point can be chosen.
+     * @throws NoAvailableHostsException If there are no end points.
+     * @throws OnlyBadHostsException If every end point is bad.
+     * @throws NoSuitableHostsException If the partition filter or load balancer rejects every valid end point.
+     */
+    ServiceEndPoint chooseEndPoint(PartitionContext partitionContext, Exception lastException) {
+        Iterable<ServiceEndPoint> allEndPoints = getAllEndPoints();
+        if (Iterables.isEmpty(allEndPoints)) {
+            throw (lastException == null)
+                    ? new NoAvailableHostsException()
+                    : new NoAvailableHostsException(lastException);
+        }
+
+        Iterable<ServiceEndPoint> validEndPoints = getValidEndPoints(allEndPoints);
+        if (Iterables.isEmpty(validEndPoints)) {
+            throw (lastException == null)
+                    ? new OnlyBadHostsException()
+                    : new OnlyBadHostsException(lastException);
+        }
+
+        ServiceEndPoint endPoint = chooseEndPoint(validEndPoints, partitionContext);
+        if (endPoint == null) {
+            throw (lastException == null)
+                    ? new NoSuitableHostsException()
+                    : new NoSuitableHostsException(lastException);
+        }
+        return endPoint;
+    }
+
+    /**
+     * Determine the set of usable {@link ServiceEndPoint}s.  The same immutable list is returned for as long as host
+     * discovery returns the same end points and no end point becomes bad or good, so that partition filters which
+     * cache per set of end points recognize it without comparing every end point.
      */
     private Iterable<ServiceEndPoint> getValidEndPoints(Iterable<ServiceEndPoint> endPoints) {
-        return Iterables.filter(endPoints, _badEndPointFilter);
+        // Read the version first, so a snapshot that races with a change is never taken for the newer version.
+        long version = _badEndPointsVersion.get();
+        ValidEndPoints validEndPoints = _validEndPoints;
+        if (validEndPoints != null && validEndPoints._allEndPoints == endPoints
+                && validEndPoints._badEndPointsVersion == version) {
+            return validEndPoints._endPoints;
+        }
+
+        validEndPoints = new ValidEndPoints(endPoints, version,
+                ImmutableList.copyOf(Iterables.filter(endPoints, _badEndPointFilter)));
+        _validEndPoints = validEndPoints;
+        return validEndPoints._endPoints;
+    }
+
+    /**
+     * Makes an end point usable again, if it was bad.
+     */
+    private void removeBadEndPoint(ServiceEndPoint endPoint) {
+        if (_badEndPoints.remove(endPoint)) {
+            _badEndPointsVersion.incrementAndGet();
+        }
     }
 
     private ServiceEndPoint chooseEndPoint(Iterable<ServiceEndPoint> endPoints, PartitionContext partitionContext) {
@@ -330,6 +395,35 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         }
     }
 
+    /**
+     * Makes a single attempt at executing a callback on a specific end point, counting it towards the service pool's
+     * execute success and failure metrics.
+     * <p/>
+     * A failed attempt isn't counted as a failure if {@code retry} is a {@link CancellableRetryPolicy} that has been
+     * cancelled, since the async service pool counts it as a cancellation instead.
+     * <p/>
+     * NOTE: This method is package private specifically so that {@link AsyncServicePool} can call it.
+     */
+    <R> R executeAttempt(ServiceEndPoint endPoint, ServiceCallback<S, R> callback, RetryPolicy retry)
+            throws Exception {
+        try {
+            R result = executeOnEndPoint(endPoint, callback);
+            _numExecuteSuccesses.mark();
+            return result;
+        } catch (Exception e) {
+            // An attempt that fails because its asynchronous call was cancelled is counted as a cancellation by the
+            // async service pool, not as a failure.
+            if (!isCancelled(retry)) {
+                _numExecuteAttemptFailures.mark();
+            }
+            throw e;
+        }
+    }
+
+    private static boolean isCancelled(RetryPolicy retry) {
+        return retry instanceof CancellableRetryPolicy && ((CancellableRetryPolicy) retry).isCancelled();
+    }
+
     /**
      * Check if an exception is retriable.
      * </p>
@@ -418,10 +512,24 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
 
     private synchronized void addEndPoint(ServiceEndPoint endPoint) {
         _recentlyRemovedEndPoints.remove(endPoint);
-        _badEndPoints.remove(endPoint);
+        removeBadEndPoint(endPoint);
         LOG.debug("End point added to service pool. End point ID: {}", endPoint.getId());
     }
 
+    /**
+     * Decodes the payload of a newly discovered end point so that requests don't have to.
+     */
+    private void decodePayloads(ServiceEndPoint endPoint) {
+        for (PayloadCache<?> payloadCache : _payloadCaches) {
+            try {
+                payloadCache.get(endPoint);
+            } catch (Exception e) {
+                LOG.warn("Unable to decode payload of end point id: {}, {}", endPoint.getId(), e.toString());
+                LOG.debug("Exception", e);
+            }
+        }
+    }
+
     private synchronized void removeEndPoint(ServiceEndPoint endPoint) {
         // Mark this end point as recently removed.  We do this in order to keep a positive set of removed
         // end points so that we avoid a potential race condition where someone was using this end point while
@@ -430,7 +538,7 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         // memory leak in the bad end points set.  Having this time-limited view of the recently removed
         // end points ensures that this memory leak doesn't happen.
         _recentlyRemovedEndPoints.add(endPoint);
-        _badEndPoints.remove(endPoint);
+        removeBadEndPoint(endPoint);
         _serviceCache.evict(endPoint);
         LOG.debug("End point removed from service pool. End point ID: {}", endPoint.getId());
     }
@@ -445,6 +553,7 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
 
         // Only schedule a health check if this is the first time we've seen this end point as bad...
         if (_badEndPoints.add(endPoint)) {
+            _badEndPointsVersion.incrementAndGet();
             _healthCheckExecutor.submit(new HealthCheck(endPoint));
         }
     }
@@ -467,6 +576,49 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         }
     }
 
+    /**
+     * Checks the health of an end point without blocking the calling thread if the service factory is an
+     * {@link AsyncServiceFactory}.  Like {@link #checkHealth}, the returned future never fails.
+     */
+    @VisibleForTesting
+    ListenableFuture<HealthCheckResult> checkHealthAsync(final ServiceEndPoint endPoint) {
+        if (!(_serviceFactory instanceof AsyncServiceFactory)) {
+            return Futures.immediateFuture(checkHealth(endPoint));
+        }
+
+        final Stopwatch sw = new Stopwatch(_ticker).start();
+        final SettableFuture<HealthCheckResult> result = SettableFuture.create();
+        ListenableFuture<Boolean> healthy;
+        try {
+            healthy = checkNotNull(((AsyncServiceFactory<S>) _serviceFactory).isHealthyAsync(endPoint));
+        } catch (Exception e) {
+            healthy = Futures.immediateFailedFuture(e);
+        }
+
+        Futures.addCallback(healthy, new FutureCallback<Boolean>() {
+            @Override
+            public void onSuccess(Boolean isHealthy) {
+                long elapsed = stop();
+                result.set(Boolean.TRUE.equals(isHealthy)
+                        ? new SuccessfulHealthCheckResult(endPoint.getId(), elapsed)
+                        : new FailedHealthCheckResult(endPoint.getId(), elapsed));
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                Exception exception = (t instanceof Exception) ? (Exception) t : new RuntimeException(t);
+                result.set(new FailedHealthCheckResult(endPoint.getId(), stop(), exception));
+            }
+
+            private long stop() {
+                long elapsed = sw.stop().elapsedTime(TimeUnit.NANOSECONDS);
+                _healthCheckTime.update(elapsed, TimeUnit.NANOSECONDS);
+                return elapsed;
+            }
+        }, sameThreadExecutor());
+        return result;
+    }
+
     @VisibleForTesting
     final class HealthCheck implements Runnable {
         private final ServiceEndPoint _endPoint;
@@ -477,10 +629,7 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
 
         @Override
         public void run() {
-            HealthCheckResult result = checkHealth(_endPoint);
-            if (result.isHealthy()) {
-                _badEndPoints.remove(_endPoint);
-            }
+            checkHealthInBackground(_endPoint);
         }
     }
 
@@ -489,10 +638,8 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         @Override
         public void run() {
             for (ServiceEndPoint endPoint : _badEndPoints) {
-                HealthCheckResult result = checkHealth(endPoint);
-                if (result.isHealthy()) {
-                    _badEndPoints.remove(endPoint);
-                }
+                // Asynchronous health checks run concurrently and don't hold this thread while they're in progress.
+                checkHealthInBackground(endPoint);
 
                 // If we were interrupted during checking the health (but weren't blocked so an InterruptedException
                 // couldn't be thrown), then we should exit now.
@@ -503,6 +650,50 @@ class ServicePool<S> implements com.bazaarvoice.ostrich.ServicePool<S> {
         }
     }
 
+    /**
+     * Starts checking the health of a bad end point, and makes it available again if it's healthy.  An end point whose
+     * previous check is still in progress is skipped, so that checks of an unresponsive end point don't pile up on
+     * every run.  A check still running after a whole poll interval is given up on, and no longer holds up new ones.
+     */
+    private void checkHealthInBackground(final ServiceEndPoint endPoint) {
+        final Long startNanos = _ticker.read();
+        Long inProgress = _healthChecksInProgress.putIfAbsent(endPoint, startNanos);
+        if (inProgress != null) {
+            if (startNanos - inProgress < TimeUnit.SECONDS.toNanos(HEALTH_CHECK_POLL_INTERVAL_IN_SECONDS)
+                    || !_healthChecksInProgress.replace(endPoint, inProgress, startNanos)) {
+                return;
+            }
+        }
+
+        final ListenableFuture<HealthCheckResult> result = checkHealthAsync(endPoint);
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                _healthChecksInProgress.remove(endPoint, startNanos);
+                if (Futures.getUnchecked(result).isHealthy()) {
+                    removeBadEndPoint(endPoint);
+                }
+            }
+        }, sameThreadExecutor());
+    }
+
+    /**
+     * The usable end points computed from one result of host discovery, tagged with the bad end point version they
+     * were filtered against.
+     */
+    private static final class ValidEndPoints {
+        private final Iterable<ServiceEndPoint> _allEndPoints;
+        private final long _badEndPointsVersion;
+        private final List<ServiceEndPoint> _endPoints;
+
+        ValidEndPoints(Iterable<ServiceEndPoint> allEndPoints, long badEndPointsVersion,
+                       List<ServiceEndPoint> endPoints) {
+            _allEndPoints = allEndPoints;
+            _badEndPointsVersion = badEndPointsVersion;
+            _endPoints = endPoints;
+        }
+    }
+
     private static final class SuccessfulHealthCheckResult implements HealthCheckResult {
         private final String _endPointId;
         private final long _responseTimeInNanos;
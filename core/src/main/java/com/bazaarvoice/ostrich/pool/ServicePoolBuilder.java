@@ -18,6 +18,7 @@ package com.bazaarvoice.ostrich.pool;
 import com.bazaarvoice.ostrich.HostDiscovery;
 import com.bazaarvoice.ostrich.HostDiscoverySource;
 import com.bazaarvoice.ostrich.LoadBalanceAlgorithm;
+import com.bazaarvoice.ostrich.PayloadCache;
 import com.bazaarvoice.ostrich.RetryPolicy;
 import com.bazaarvoice.ostrich.ServiceFactory;
 import com.bazaarvoice.ostrich.loadbalance.RandomAlgorithm;
@@ -29,7 +30,10 @@ import com.google.common.base.Strings;
 import com.google.common.base.Throwables;
 import com.google.common.base.Ticker;
 import com.google.common.collect.Lists;
+import com.google.common.io.Closeables;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.List;
@@ -43,6 +47,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static java.lang.String.format;
 
 public class ServicePoolBuilder<S> {
+    private static final Logger LOG = LoggerFactory.getLogger(ServicePoolBuilder.class);
     private static final int DEFAULT_NUM_HEALTH_CHECK_THREADS = 1;
 
     private final Class<S> _serviceType;
@@ -55,7 +60,11 @@ public class ServicePoolBuilder<S> {
     private PartitionFilter _partitionFilter = new IdentityPartitionFilter();
     private PartitionContextSupplier _partitionContextSupplier = new EmptyPartitionContextSupplier();
     private LoadBalanceAlgorithm _loadBalanceAlgorithm = new RandomAlgorithm();
+    private final List<PayloadCache<?>> _payloadCaches = Lists.newArrayList();
     private ExecutorService _asyncExecutor;
+    private AsyncExecutorPolicy _asyncExecutorPolicy;
+    private boolean _methodMetrics;
+    private boolean _virtualThreads;
 
     public static <S> ServicePoolBuilder<S> create(Class<S> serviceType) {
         return new ServicePoolBuilder<S>(serviceType);
@@ -161,6 +170,40 @@ public class ServicePoolBuilder<S> {
         return this;
     }
 
+    /**
+     * Sets the {@code AsyncExecutorPolicy} that sizes the executor created for asynchronous requests.  The policy is
+     * not used unless an asynchronous pool is built with the {@link #buildAsync} method, and an executor hasn't been
+     * added with {@link #withAsyncExecutor}.
+     * <p/>
+     * Setting a policy is optional.  If one isn't specified then the defaults of {@link AsyncExecutorPolicyBuilder}
+     * are used.
+     *
+     * @param policy The policy for the executor's number of threads, queue capacity and action when the queue is full.
+     * @return this
+     */
+    public ServicePoolBuilder<S> withAsyncExecutorPolicy(AsyncExecutorPolicy policy) {
+        _asyncExecutorPolicy = checkNotNull(policy);
+        return this;
+    }
+
+    /**
+     * Runs asynchronous requests on virtual threads, if the JVM supports them (Java 21 and later).
+     * A blocked virtual thread doesn't hold on to a platform thread, so a request executed on every end point of a
+     * large service doesn't need a platform thread per end point.  If the JVM doesn't support virtual threads then the
+     * default platform thread executor is used instead.
+     * <p/>
+     * This only affects the async executor created by the builder, not one added with {@link #withAsyncExecutor}.
+     * Health checks still run on the pool's fixed-size health check executor.  A virtual thread is started for every
+     * asynchronous request, so the number of threads and queue capacity of the
+     * {@link #withAsyncExecutorPolicy async executor policy} don't apply.
+     *
+     * @return this
+     */
+    public ServicePoolBuilder<S> withVirtualThreads() {
+        _virtualThreads = true;
+        return this;
+    }
+
     /**
      * Enables caching of service instances in the built {@link ServicePool}.
      * <p/>
@@ -222,6 +265,20 @@ public class ServicePoolBuilder<S> {
         return this;
     }
 
+    /**
+     * Makes the built proxy record latency, rate and failure metrics for each method of the service interface, in
+     * addition to the metrics recorded by the service pool for the service as a whole.  The metrics are registered
+     * when the proxy is built and removed when it is closed.
+     * <p>
+     * NOTE: This is only useful if building a proxy with {@link #buildProxy(com.bazaarvoice.ostrich.RetryPolicy)}.
+     *
+     * @return this
+     */
+    public ServicePoolBuilder<S> withMethodMetrics() {
+        _methodMetrics = true;
+        return this;
+    }
+
     /**
      * Sets the {@code LoadBalanceAlgorithm} that should be used for this service.
      *
@@ -233,6 +290,22 @@ public class ServicePoolBuilder<S> {
         return this;
     }
 
+    /**
+     * Registers a cache of decoded end point payloads with the service pool.  The pool decodes the payload of each
+     * end point as soon as host discovery reports it, and discards it when the end point is removed.  The same cache
+     * should be used by the service factory, partition filter and load balance algorithm so that each payload is only
+     * decoded once.  A service factory will typically register its cache from {@link ServiceFactory#configure}.
+     * <p/>
+     * Registering a cache is optional, and more than one may be registered.
+     *
+     * @param payloadCache The {@link PayloadCache} to keep up to date
+     * @return this
+     */
+    public ServicePoolBuilder<S> withPayloadCache(PayloadCache<?> payloadCache) {
+        _payloadCaches.add(checkNotNull(payloadCache));
+        return this;
+    }
+
     /**
      * Builds a {@code com.bazaarvoice.ostrich.ServicePool}.
      *
@@ -244,27 +317,26 @@ public class ServicePoolBuilder<S> {
 
     /**
      * Builds a {@code com.bazaarvoice.ostrich.AsyncServicePool}.
+     * <p/>
+     * Operations whose retry policy is a {@link com.bazaarvoice.ostrich.DelayedRetryPolicy}, such as
+     * {@link com.bazaarvoice.ostrich.retry.ExponentialBackoffRetry}, schedule each retry for later instead of holding
+     * an async executor thread while they back off.
+     * <p/>
+     * Unless an executor is added with {@link #withAsyncExecutor}, requests run on an executor with a bounded number of
+     * threads and a bounded queue, configured with {@link #withAsyncExecutorPolicy}.
      *
      * @return The {@code com.bazaarvoice.ostrich.AsyncServicePool} that was constructed.
      */
     public com.bazaarvoice.ostrich.AsyncServicePool<S> buildAsync() {
-        ServicePool<S> pool = buildInternal();
-
-        boolean shutdownAsyncExecutorOnClose = (_asyncExecutor == null);
-        if (_asyncExecutor == null) {
-            ThreadFactory threadFactory = new ThreadFactoryBuilder()
-                    .setNameFormat(_serviceName + "-AsyncExecutorThread-%d")
-                    .setDaemon(true)
-                    .build();
-            _asyncExecutor = Executors.newCachedThreadPool(threadFactory);
-        }
-
-        return new AsyncServicePool<S>(Ticker.systemTicker(), pool, true, _asyncExecutor, shutdownAsyncExecutorOnClose);
+        return buildAsyncInternal();
     }
 
     /**
      * Builds a dynamic proxy that wraps a {@code ServicePool} and implements the service interface directly.  This is
      * appropriate for stateless services where it's sensible for the same retry policy to apply to every method.
+     * Individual methods of the service interface can override the retry policy with the
+     * {@link com.bazaarvoice.ostrich.retry.Retry}, {@link com.bazaarvoice.ostrich.retry.Idempotent} and
+     * {@link com.bazaarvoice.ostrich.retry.Timeout} annotations.
      * <p/>
      * It is the caller's responsibility to shutdown the service pool when they're done with it by casting the proxy
      * to {@link java.io.Closeable} and calling the {@link java.io.Closeable#close()} method.
@@ -274,7 +346,73 @@ public class ServicePoolBuilder<S> {
      *         {@link java.io.Closeable} interface.
      */
     public S buildProxy(RetryPolicy retryPolicy) {
-        return ServicePoolProxy.create(_serviceType, retryPolicy, build(), _partitionContextSupplier, true);
+        ServicePool<S> pool = buildInternal();
+        String methodMetricsScope = _methodMetrics ? pool.getServiceName() : null;
+        return ServicePoolProxy.create(_serviceType, retryPolicy, pool, _partitionContextSupplier, true,
+                methodMetricsScope);
+    }
+
+    /**
+     * Builds a dynamic proxy that wraps an {@code AsyncServicePool} and implements an asynchronous variant of the
+     * service interface.  Every method of {@code asyncInterface} must have the same name and parameter types as a
+     * method of the service interface, and return a {@link com.google.common.util.concurrent.ListenableFuture} (or a
+     * {@link java.util.concurrent.Future}) of that method's result.  For example, {@code String lookup(String word)}
+     * is mirrored by {@code ListenableFuture<String> lookup(String word)}.
+     * <p/>
+     * Calls are executed by the async executor with the partition context built from the arguments the same way as for
+     * {@link #buildProxy}, so {@link com.bazaarvoice.ostrich.partition.PartitionKey} annotations apply to both.
+     * <p/>
+     * It is the caller's responsibility to shutdown the service pool when they're done with it by casting the proxy
+     * to {@link java.io.Closeable} and calling the {@link java.io.Closeable#close()} method.
+     *
+     * @param asyncInterface The asynchronous interface for the proxy to implement.
+     * @param retryPolicy The retry policy to apply for every service call.
+     * @return The dynamic proxy instance that implements {@code asyncInterface} and the {@link java.io.Closeable}
+     *         interface.
+     */
+    public <A> A buildAsyncProxy(Class<A> asyncInterface, RetryPolicy retryPolicy) {
+        checkNotNull(asyncInterface);
+        checkNotNull(retryPolicy);
+
+        AsyncServicePool<S> asyncPool = buildAsyncInternal();
+        try {
+            return AsyncServicePoolProxy.create(_serviceType, asyncInterface, retryPolicy, asyncPool,
+                    _partitionContextSupplier, true);
+        } catch (RuntimeException e) {
+            // The async interface doesn't mirror the service interface, don't leak the pool that was just built.
+            Closeables.closeQuietly(asyncPool);
+            throw e;
+        }
+    }
+
+    private AsyncServicePool<S> buildAsyncInternal() {
+        ServicePool<S> pool = buildInternal();
+
+        boolean shutdownAsyncExecutorOnClose = (_asyncExecutor == null);
+        if (_asyncExecutor == null) {
+            if (useVirtualThreads()) {
+                _asyncExecutor = VirtualThreads.newThreadPerTaskExecutor(_serviceName + "-AsyncExecutorThread-");
+            } else {
+                ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                        .setNameFormat(_serviceName + "-AsyncExecutorThread-%d")
+                        .setDaemon(true)
+                        .build();
+                AsyncExecutorPolicy policy = (_asyncExecutorPolicy != null)
+                        ? _asyncExecutorPolicy
+                        : new AsyncExecutorPolicyBuilder().build();
+                _asyncExecutor = new BoundedAsyncExecutor(policy, threadFactory, Ticker.systemTicker());
+            }
+        }
+
+        // Delayed retries only need a thread to hand each attempt back to the async executor when its delay is up.
+        ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                        .setNameFormat(_serviceName + "-AsyncRetryThread-%d")
+                        .setDaemon(true)
+                        .build());
+
+        return new AsyncServicePool<S>(Ticker.systemTicker(), pool, true, _asyncExecutor, shutdownAsyncExecutorOnClose,
+                retryScheduler, true);
     }
 
     @VisibleForTesting
@@ -299,8 +437,8 @@ public class ServicePoolBuilder<S> {
             }
 
             ServicePool<S> servicePool = new ServicePool<S>(Ticker.systemTicker(), hostDiscovery, _closeHostDiscovery,
-                    _serviceFactory, _cachingPolicy, _partitionFilter, _loadBalanceAlgorithm, _healthCheckExecutor,
-                    shutdownHealthCheckExecutorOnClose);
+                    _serviceFactory, _cachingPolicy, _partitionFilter, _loadBalanceAlgorithm, _payloadCaches,
+                    _healthCheckExecutor, shutdownHealthCheckExecutorOnClose);
 
             _closeHostDiscovery = false;
 
@@ -325,6 +463,15 @@ public class ServicePoolBuilder<S> {
         }
     }
 
+    private boolean useVirtualThreads() {
+        if (_virtualThreads && !VirtualThreads.isSupported()) {
+            LOG.info("Virtual threads are not supported by this JVM, using platform threads for service: {}",
+                    _serviceName);
+            _virtualThreads = false;
+        }
+        return _virtualThreads;
+    }
+
     private HostDiscovery findHostDiscovery(String serviceName) {
         for (HostDiscoverySource source : _hostDiscoverySources) {
             HostDiscovery hostDiscovery = source.forService(serviceName);
@@ -45,8 +45,11 @@ public abstract class ServicePoolProxies {
      * @param <S> The service interface type.
      */
     public static <S> void close(S dynamicProxy) {
+        ServicePoolProxy<S> poolProxy = getServicePoolProxy(dynamicProxy);
+        poolProxy.closeMetrics();
+
         // Use closeQuietly since ServicePool.close() doesn't throw IOException.
-        Closeables.closeQuietly(getPool(dynamicProxy));
+        Closeables.closeQuietly(poolProxy.getServicePool());
     }
 
     /**
@@ -86,10 +89,14 @@ public abstract class ServicePoolProxies {
      * @return The {@link com.bazaarvoice.ostrich.ServicePool} used by the specified dynamic service proxy.
      */
     public static <S> com.bazaarvoice.ostrich.ServicePool<S> getPool(S dynamicProxy) {
+        return getServicePoolProxy(dynamicProxy).getServicePool();
+    }
+
+    private static <S> ServicePoolProxy<S> getServicePoolProxy(S dynamicProxy) {
         checkNotNull(dynamicProxy);
         checkArgument(isProxy(dynamicProxy));
         @SuppressWarnings("unchecked") ServicePoolProxy<S> poolProxy = (ServicePoolProxy<S>)
                 Proxy.getInvocationHandler(dynamicProxy);
-        return poolProxy.getServicePool();
+        return poolProxy;
     }
 }
@@ -20,45 +20,84 @@ import com.bazaarvoice.ostrich.RetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
 import com.bazaarvoice.ostrich.ServicePool;
 import com.bazaarvoice.ostrich.exceptions.ServiceException;
+import com.bazaarvoice.ostrich.metrics.Metrics;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.reflect.AbstractInvocationHandler;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
 
 import java.io.Closeable;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 
-class ServicePoolProxy<S> extends AbstractInvocationHandler {
+/**
+ * Invocation handler for the dynamic proxies created by {@link ServicePoolBuilder#buildProxy}.
+ * <p/>
+ * Each service method uses the proxy's retry policy unless the service interface overrides it with
+ * {@link com.bazaarvoice.ostrich.retry.Retry}, {@link com.bazaarvoice.ostrich.retry.Idempotent} or
+ * {@link com.bazaarvoice.ostrich.retry.Timeout} annotations.  The policy for each method is determined once, when the
+ * proxy is built.
+ * <p/>
+ * Proxies can optionally record the latency, rate and failures of every service method.  The metrics are registered
+ * when the proxy is built, scoped to the service name like the service pool's own metrics, and removed when the proxy
+ * is closed.
+ */
+class ServicePoolProxy<S> extends AbstractInvocationHandler implements Closeable {
     private final Class<S> _serviceType;
-    private final RetryPolicy _retryPolicy;
     private final ServicePool<S> _servicePool;
     private final PartitionContextSupplier _partitionContextSupplier;
     private final boolean _shutdownPoolOnClose;
+    private final Metrics _metrics;
+    private final Map<Method, ProxyMethod<S>> _methods;
 
     static <S> S create(Class<S> serviceType, RetryPolicy retryPolicy, ServicePool<S> pool,
                         PartitionContextSupplier partitionContextSupplier, boolean shutdownPoolOnClose) {
+        return create(serviceType, retryPolicy, pool, partitionContextSupplier, shutdownPoolOnClose, null);
+    }
+
+    /**
+     * @param methodMetricsScope The scope to register metrics for each service method under, usually the service name,
+     *                           or {@code null} to not record metrics for each method.
+     */
+    static <S> S create(Class<S> serviceType, RetryPolicy retryPolicy, ServicePool<S> pool,
+                        PartitionContextSupplier partitionContextSupplier, boolean shutdownPoolOnClose,
+                        String methodMetricsScope) {
         ClassLoader loader = Thread.currentThread().getContextClassLoader();
         Class<?>[] interfaces = shutdownPoolOnClose
                 ? new Class<?>[] {serviceType, Closeable.class}
                 : new Class<?>[] {serviceType};
 
         ServicePoolProxy<S> proxy = new ServicePoolProxy<S>(
-                serviceType, retryPolicy, pool, partitionContextSupplier, shutdownPoolOnClose);
+                serviceType, retryPolicy, pool, partitionContextSupplier, shutdownPoolOnClose, methodMetricsScope);
         return serviceType.cast(Proxy.newProxyInstance(loader, interfaces, proxy));
     }
 
     ServicePoolProxy(Class<S> serviceType, RetryPolicy retryPolicy, ServicePool<S> servicePool,
                      PartitionContextSupplier partitionContextSupplier, boolean shutdownPoolOnClose) {
+        this(serviceType, retryPolicy, servicePool, partitionContextSupplier, shutdownPoolOnClose, null);
+    }
+
+    ServicePoolProxy(Class<S> serviceType, RetryPolicy retryPolicy, ServicePool<S> servicePool,
+                     PartitionContextSupplier partitionContextSupplier, boolean shutdownPoolOnClose,
+                     String methodMetricsScope) {
         checkState(serviceType.isInterface(), "Proxy functionality is only available for interface service types.");
 
         _serviceType = checkNotNull(serviceType);
-        _retryPolicy = checkNotNull(retryPolicy);
         _servicePool = checkNotNull(servicePool);
         _partitionContextSupplier = checkNotNull(partitionContextSupplier);
         _shutdownPoolOnClose = shutdownPoolOnClose;
+        _metrics = (methodMetricsScope != null) ? Metrics.forInstance(this, methodMetricsScope) : null;
+        _methods = buildMethodTable(serviceType, new MethodRetryPolicies(serviceType, retryPolicy), _metrics,
+                methodMetricsScope);
     }
 
     /**
@@ -68,33 +107,168 @@ class ServicePoolProxy<S> extends AbstractInvocationHandler {
         return _servicePool;
     }
 
+    /**
+     * Removes the metrics for each service method, if there are any.
+     */
+    void closeMetrics() {
+        if (_metrics != null) {
+            _metrics.close();
+        }
+    }
+
     @Override
-    protected Object handleInvocation(Object proxy, final Method method, final Object[] args) throws Throwable {
+    protected Object handleInvocation(Object proxy, Method method, Object[] args) throws Throwable {
         // Special case for close() allows closing the entire pool by calling close() on the proxy.
         if (_shutdownPoolOnClose && args.length == 0 && method.getName().equals("close")) {
-            _servicePool.close();
+            close();
             return null;
         }
 
+        ProxyMethod<S> proxyMethod = _methods.get(method);
+        Timer executionTime = proxyMethod.getExecutionTime();
+        if (executionTime == null) {
+            return execute(proxyMethod, method, args);
+        }
+
+        TimerContext timer = executionTime.time();
+        try {
+            return execute(proxyMethod, method, args);
+        } catch (RuntimeException e) {
+            proxyMethod.getNumFailures().mark();
+            throw e;
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Delegates the method through to a service provider in the pool.
+     */
+    private Object execute(ProxyMethod<S> proxyMethod, Method method, Object[] args) {
         PartitionContext partitionContext = _partitionContextSupplier.forCall(method, args);
+        return _servicePool.execute(partitionContext, proxyMethod.getRetryPolicy(),
+                new MethodCallback<S>(proxyMethod, args));
+    }
 
-        // Delegate the method through to a service provider in the pool.
-        return _servicePool.execute(partitionContext, _retryPolicy, new ServiceCallback<S, Object>() {
-            @Override
-            public Object call(S service) throws ServiceException {
-                try {
-                    return method.invoke(service, args);
-                } catch (IllegalAccessException e) {
-                    throw Throwables.propagate(e);
-                } catch (InvocationTargetException e) {
-                    throw Throwables.propagate(e.getTargetException());
-                }
-            }
-        });
+    /** Closes the pool and removes the method metrics.  Only used if the proxy is allowed to close the pool. */
+    @Override
+    public void close() throws IOException {
+        closeMetrics();
+        _servicePool.close();
     }
 
     @Override
     public String toString() {
         return "ServicePoolProxy[" + _serviceType.getName() + "]";
     }
+
+    private static <S> Map<Method, ProxyMethod<S>> buildMethodTable(Class<S> serviceType,
+                                                                   MethodRetryPolicies retryPolicies,
+                                                                   Metrics metrics, String metricsScope) {
+        ImmutableMap.Builder<Method, ProxyMethod<S>> builder = ImmutableMap.builder();
+        for (Method method : serviceType.getMethods()) {
+            if (ProxyMethods.isObjectMethod(method)) {
+                continue;
+            }
+
+            RetryPolicy retryPolicy = retryPolicies.forMethod(method);
+            if (metrics == null) {
+                builder.put(method, new ProxyMethod<S>(method, retryPolicy));
+            } else {
+                String name = getMetricName(serviceType, method);
+                Timer executionTime = metrics.newTimer(metricsScope, name + "-execution-time",
+                        TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+                Meter numFailures = metrics.newMeter(metricsScope, name + "-num-failures", "failures",
+                        TimeUnit.SECONDS);
+                builder.put(method, new ProxyMethod<S>(method, retryPolicy, executionTime, numFailures));
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Names the metrics for a method after the method, adding the parameter types if the method is overloaded.
+     */
+    private static String getMetricName(Class<?> serviceType, Method method) {
+        int numOverloads = 0;
+        for (Method other : serviceType.getMethods()) {
+            if (other.getName().equals(method.getName())) {
+                numOverloads++;
+            }
+        }
+        if (numOverloads == 1) {
+            return method.getName();
+        }
+
+        StringBuilder name = new StringBuilder(method.getName());
+        for (Class<?> parameterType : method.getParameterTypes()) {
+            name.append('-').append(parameterType.getSimpleName());
+        }
+        return name.toString();
+    }
+
+    /**
+     * The retry policy and metrics of a single service method.  Shared with {@link AsyncServicePoolProxy}.
+     */
+    static final class ProxyMethod<S> {
+        private final Method _method;
+        private final RetryPolicy _retryPolicy;
+        private final Timer _executionTime;
+        private final Meter _numFailures;
+
+        ProxyMethod(Method method, RetryPolicy retryPolicy) {
+            this(method, retryPolicy, null, null);
+        }
+
+        ProxyMethod(Method method, RetryPolicy retryPolicy, Timer executionTime, Meter numFailures) {
+            _method = method;
+            _retryPolicy = retryPolicy;
+            _executionTime = executionTime;
+            _numFailures = numFailures;
+        }
+
+        Method getMethod() {
+            return _method;
+        }
+
+        RetryPolicy getRetryPolicy() {
+            return _retryPolicy;
+        }
+
+        /**
+         * @return The timer for calls to this method, or {@code null} if the proxy doesn't record method metrics.
+         */
+        Timer getExecutionTime() {
+            return _executionTime;
+        }
+
+        Meter getNumFailures() {
+            return _numFailures;
+        }
+
+        Object invoke(S service, Object[] args) {
+            try {
+                return _method.invoke(service, args);
+            } catch (IllegalAccessException e) {
+                throw Throwables.propagate(e);
+            } catch (InvocationTargetException e) {
+                throw Throwables.propagate(e.getTargetException());
+            }
+        }
+    }
+
+    static final class MethodCallback<S> implements ServiceCallback<S, Object> {
+        private final ProxyMethod<S> _method;
+        private final Object[] _args;
+
+        MethodCallback(ProxyMethod<S> method, Object[] args) {
+            _method = method;
+            _args = args;
+        }
+
+        @Override
+        public Object call(S service) throws ServiceException {
+            return _method.invoke(service, _args);
+        }
+    }
 }
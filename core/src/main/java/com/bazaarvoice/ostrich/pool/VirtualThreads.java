@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Creates executors that run each task on a virtual thread, on JVMs that have them.  Ostrich builds against older
+ * versions of Java, so the virtual thread API is looked up reflectively.  On a JVM without virtual threads (or one
+ * where they are a preview feature that isn't enabled) {@link #isSupported()} returns false and callers should fall
+ * back to platform threads.
+ */
+final class VirtualThreads {
+    private static final Logger LOG = LoggerFactory.getLogger(VirtualThreads.class);
+
+    private static final Method OF_VIRTUAL;
+    private static final Method NAME;
+    private static final Method FACTORY;
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+    static {
+        Method ofVirtual = null, name = null, factory = null, newThreadPerTaskExecutor = null;
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builderClass.getMethod("name", String.class, long.class);
+            factory = builderClass.getMethod("factory");
+            newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor",
+                    ThreadFactory.class);
+
+            // Make sure virtual threads can actually be created, they're disabled on JVMs that only preview them.
+            ofVirtual.invoke(null);
+        } catch (Exception e) {
+            LOG.debug("Virtual threads are not available: {}", e.toString());
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        NAME = name;
+        FACTORY = factory;
+        NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+    }
+
+    private VirtualThreads() {}
+
+    /**
+     * Returns true if the JVM supports virtual threads.
+     */
+    static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Returns a factory for virtual threads whose names are {@code namePrefix} followed by a counter.
+     *
+     * @throws UnsupportedOperationException if the JVM doesn't support virtual threads.
+     */
+    static ThreadFactory newThreadFactory(String namePrefix) {
+        checkNotNull(namePrefix);
+        try {
+            Object builder = NAME.invoke(checkSupported().invoke(null), namePrefix, 0L);
+            return (ThreadFactory) FACTORY.invoke(builder);
+        } catch (Exception e) {
+            throw new UnsupportedOperationException("Unable to create a virtual thread factory.", e);
+        }
+    }
+
+    /**
+     * Returns an executor that starts a new virtual thread for each task.  Virtual threads are cheap to create and
+     * don't tie up a platform thread while they block, so there is no point pooling them.
+     *
+     * @throws UnsupportedOperationException if the JVM doesn't support virtual threads.
+     */
+    static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        ThreadFactory threadFactory = newThreadFactory(namePrefix);
+        try {
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory);
+        } catch (Exception e) {
+            throw new UnsupportedOperationException("Unable to create a virtual thread executor.", e);
+        }
+    }
+
+    private static Method checkSupported() {
+        if (OF_VIRTUAL == null) {
+            throw new UnsupportedOperationException("Virtual threads are not supported by this JVM.");
+        }
+        return OF_VIRTUAL;
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.retry;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Marks a service interface method as safe to call more than once, so that a service pool proxy may retry it after a
+ * failure.
+ * <p/>
+ * Interfaces that don't use this annotation keep the existing behavior of retrying every method with the proxy's
+ * retry policy.  Once any method of an interface is marked {@code @Idempotent}, the proxy retries only the marked
+ * methods and methods with an explicit {@link Retry} annotation.  Every other method is attempted exactly once.
+ */
+@Target({METHOD})
+@Retention(RUNTIME)
+public @interface Idempotent {
+}
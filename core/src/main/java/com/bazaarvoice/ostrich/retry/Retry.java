@@ -0,0 +1,55 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.retry;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Overrides the retry policy of a service pool proxy for a single service interface method.
+ * <p/>
+ * With the default {@code maxBackoff} the proxy waits {@code backoff} between attempts, as {@link RetryNTimes} does.
+ * If {@code maxBackoff} is greater than {@code backoff} the wait grows exponentially from {@code backoff} up to
+ * {@code maxBackoff}, as {@link ExponentialBackoffRetry} does.
+ */
+@Target({METHOD})
+@Retention(RUNTIME)
+public @interface Retry {
+    /**
+     * The maximum number of attempts.  This is equal one plus the maximum number of retries.
+     */
+    int maxAttempts();
+
+    /**
+     * The amount of time to wait before each retry attempt, or the base amount of time if {@link #maxBackoff()} is
+     * greater.  If zero, there will be no delay between attempts.
+     */
+    long backoff() default 0;
+
+    /**
+     * The maximum amount of time to wait before each retry attempt when backing off exponentially.
+     */
+    long maxBackoff() default 0;
+
+    /**
+     * The units of {@link #backoff()} and {@link #maxBackoff()}.
+     */
+    TimeUnit unit() default TimeUnit.MILLISECONDS;
+}
@@ -15,11 +15,11 @@
  */
 package com.bazaarvoice.ostrich.retry;
 
-import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.DelayedRetryPolicy;
 
 import static com.google.common.base.Preconditions.checkArgument;
 
-public abstract class SleepingRetry implements RetryPolicy {
+public abstract class SleepingRetry implements DelayedRetryPolicy {
     private final int _maxNumAttempts;
 
     protected SleepingRetry(int maxNumAttempts) {
@@ -29,13 +29,13 @@ public abstract class SleepingRetry implements RetryPolicy {
 
     @Override
     public boolean allowRetry(int numAttempts, long elapsedTimeMs) {
-        checkArgument(numAttempts >= 1);
-        if (numAttempts >= _maxNumAttempts) {
+        long sleepTimeMs = getRetryDelayMs(numAttempts, elapsedTimeMs);
+        if (sleepTimeMs < 0) {
             return false;
         }
 
         try {
-            Thread.sleep(getSleepTimeMs(numAttempts, elapsedTimeMs));
+            Thread.sleep(sleepTimeMs);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             return false;
@@ -44,5 +44,14 @@ public abstract class SleepingRetry implements RetryPolicy {
         return true;
     }
 
+    @Override
+    public long getRetryDelayMs(int numAttempts, long elapsedTimeMs) {
+        checkArgument(numAttempts >= 1);
+        if (numAttempts >= _maxNumAttempts) {
+            return -1;
+        }
+        return getSleepTimeMs(numAttempts, elapsedTimeMs);
+    }
+
     protected abstract long getSleepTimeMs(int numAttempts, long elapsedTimeMs);
 }
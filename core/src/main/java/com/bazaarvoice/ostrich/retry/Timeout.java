@@ -0,0 +1,49 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.retry;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * Limits how long a service pool proxy keeps retrying a service interface method.  Once the time since the first
+ * attempt began exceeds the timeout, a failure is no longer retried, regardless of what the method's retry policy
+ * would allow.
+ * <p/>
+ * An attempt that is already in progress is not interrupted, so the time taken by a single attempt remains bounded by
+ * the timeouts of the service client itself (socket timeouts and the like).
+ * <p/>
+ * The same holds for asynchronous proxies: the timeout only bounds retries, and the future returned by the proxy is
+ * not cancelled when the timeout passes.  Callers that need to stop waiting sooner should use
+ * {@link java.util.concurrent.Future#get(long, TimeUnit)}.
+ */
+@Target({METHOD})
+@Retention(RUNTIME)
+public @interface Timeout {
+    /**
+     * The maximum amount of time to spend retrying, which must be greater than zero.
+     */
+    long value();
+
+    /**
+     * The units of {@link #value()}.
+     */
+    TimeUnit unit() default TimeUnit.MILLISECONDS;
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class PayloadCacheTest {
+    private final AtomicInteger _numDecodes = new AtomicInteger();
+    private PayloadCache<Integer> _cache;
+
+    @Before
+    public void setup() {
+        _cache = new PayloadCache<Integer>(new PayloadDecoder<Integer>() {
+            @Override
+            public Integer decode(ServiceEndPoint endPoint) {
+                _numDecodes.incrementAndGet();
+                return Integer.parseInt(endPoint.getPayload());
+            }
+        });
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullDecoder() {
+        new PayloadCache<Integer>(null);
+    }
+
+    @Test
+    public void testDecodesOnce() {
+        ServiceEndPoint endPoint = endPoint("42");
+
+        Integer payload = _cache.get(endPoint);
+        assertEquals(42, (int) payload);
+        assertSame(payload, _cache.get(endPoint));
+        assertEquals(1, _numDecodes.get());
+    }
+
+    @Test
+    public void testDecodesEachInstance() {
+        // Equal end points from different discovery events are decoded separately.
+        _cache.get(endPoint("42"));
+        _cache.get(endPoint("42"));
+        assertEquals(2, _numDecodes.get());
+    }
+
+    @Test
+    public void testInvalidate() {
+        ServiceEndPoint endPoint = endPoint("42");
+        _cache.get(endPoint);
+        _cache.invalidate(endPoint);
+        _cache.get(endPoint);
+        assertEquals(2, _numDecodes.get());
+    }
+
+    @Test
+    public void testDecodeFailureNotCached() {
+        ServiceEndPoint endPoint = endPoint("not-a-number");
+        for (int i = 1; i <= 2; i++) {
+            try {
+                _cache.get(endPoint);
+                fail();
+            } catch (NumberFormatException e) {
+                assertEquals(i, _numDecodes.get());
+            }
+        }
+    }
+
+    private ServiceEndPoint endPoint(String payload) {
+        return new ServiceEndPointBuilder()
+                .withServiceName("Foo")
+                .withId("server:80")
+                .withPayload(payload)
+                .build();
+    }
+}
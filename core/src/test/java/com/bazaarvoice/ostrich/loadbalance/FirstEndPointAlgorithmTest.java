@@ -0,0 +1,47 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.loadbalance;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+public class FirstEndPointAlgorithmTest {
+    @Test(expected = NullPointerException.class)
+    public void testNullIterable() {
+        new FirstEndPointAlgorithm().choose(null, null);
+    }
+
+    @Test
+    public void testEmptyIterable() {
+        ServiceEndPoint endPoint = new FirstEndPointAlgorithm().choose(Collections.<ServiceEndPoint>emptyList(), null);
+        assertNull(endPoint);
+    }
+
+    @Test
+    public void testChoosesFirst() {
+        List<ServiceEndPoint> endPoints = ImmutableList.of(mock(ServiceEndPoint.class), mock(ServiceEndPoint.class));
+
+        assertSame(endPoints.get(0), new FirstEndPointAlgorithm().choose(endPoints, null));
+    }
+}
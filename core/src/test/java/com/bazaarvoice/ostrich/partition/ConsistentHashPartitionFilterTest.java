@@ -19,9 +19,12 @@ import com.bazaarvoice.ostrich.PartitionContext;
 import com.bazaarvoice.ostrich.PartitionContextBuilder;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
@@ -117,4 +120,79 @@ public class ConsistentHashPartitionFilterTest {
         // Doesn't ignore the PartitionContext because it has an entry for at least one of cluster, ensemble or group.
         assertEquals(singleton(FOO), filter.filter(endPoints, PartitionContextBuilder.of("ensemble", "aaa")));
     }
+
+    @Test
+    public void testAlternateHashFunction() {
+        ConsistentHashPartitionFilter filter = new ConsistentHashPartitionFilter(
+                Collections.<String>emptyList(), PartitionHashFunctions.murmur3_128());
+        List<ServiceEndPoint> endPoints = ImmutableList.of(FOO, BAR);
+
+        PartitionContext context = PartitionContextBuilder.of(UUID.randomUUID().toString());
+        Iterable<ServiceEndPoint> chosen = filter.filter(endPoints, context);
+
+        assertEquals(1, Iterables.size(chosen));
+        assertEquals(chosen, filter.filter(endPoints, context));
+    }
+
+    @Test
+    public void testNumericKeysHashConsistently() {
+        ConsistentHashPartitionFilter filter = new ConsistentHashPartitionFilter(
+                Collections.<String>emptyList(), PartitionHashFunctions.murmur3_128());
+        List<ServiceEndPoint> endPoints = ImmutableList.of(FOO, BAR);
+
+        // The same number must map to the same end point regardless of its boxed type.
+        for (int i = 0; i < 100; i++) {
+            assertEquals(filter.filter(endPoints, PartitionContextBuilder.of(i)),
+                    filter.filter(endPoints, PartitionContextBuilder.of((long) i)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidReplicationFactor() {
+        new ConsistentHashPartitionFilter(Collections.<String>emptyList(), PartitionHashFunctions.md5(), 0);
+    }
+
+    @Test
+    public void testReplicasStartWithOwner() {
+        ConsistentHashPartitionFilter filter = new ConsistentHashPartitionFilter(
+                Collections.<String>emptyList(), PartitionHashFunctions.md5(), 2);
+        List<ServiceEndPoint> endPoints = ImmutableList.of(FOO, BAR);
+
+        // The owner is the same end point the default filter would choose.
+        assertEquals(ImmutableList.of(FOO, BAR),
+                ImmutableList.copyOf(filter.filter(endPoints, PartitionContextBuilder.of("a"))));
+        assertEquals(ImmutableList.of(BAR, FOO),
+                ImmutableList.copyOf(filter.filter(endPoints, PartitionContextBuilder.of("c"))));
+    }
+
+    @Test
+    public void testReplicasAreSuccessors() {
+        ConsistentHashPartitionFilter single = new ConsistentHashPartitionFilter();
+        ConsistentHashPartitionFilter replicated = new ConsistentHashPartitionFilter(
+                Collections.<String>emptyList(), PartitionHashFunctions.md5(), 2);
+        ServiceEndPoint baz = mock(ServiceEndPoint.class);
+        when(baz.getId()).thenReturn("baz");
+        List<ServiceEndPoint> endPoints = ImmutableList.of(FOO, BAR, baz);
+
+        for (int i = 0; i < 100; i++) {
+            PartitionContext context = PartitionContextBuilder.of(i);
+            List<ServiceEndPoint> replicas = ImmutableList.copyOf(replicated.filter(endPoints, context));
+            assertEquals(2, replicas.size());
+            assertEquals(singleton(replicas.get(0)), single.filter(endPoints, context));
+
+            // The second replica is the end point that takes over the partition if the owner goes away.
+            List<ServiceEndPoint> remaining = Lists.newArrayList(endPoints);
+            remaining.remove(replicas.get(0));
+            assertEquals(singleton(replicas.get(1)), new ConsistentHashPartitionFilter().filter(remaining, context));
+        }
+    }
+
+    @Test
+    public void testReplicationFactorLargerThanEndPoints() {
+        ConsistentHashPartitionFilter filter = new ConsistentHashPartitionFilter(
+                Collections.<String>emptyList(), PartitionHashFunctions.md5(), 5);
+        List<ServiceEndPoint> endPoints = ImmutableList.of(FOO, BAR);
+
+        assertEquals(2, Iterables.size(filter.filter(endPoints, PartitionContextBuilder.of("a"))));
+    }
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.partition;
+
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.PartitionContextBuilder;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static java.util.Collections.singleton;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MaglevPartitionFilterTest {
+    private ServiceEndPoint FOO, FOO2, BAR, BAZ;
+
+    @Before
+    public void setup() {
+        FOO = mock(ServiceEndPoint.class);
+        when(FOO.getId()).thenReturn("foo");
+
+        FOO2 = mock(ServiceEndPoint.class);
+        when(FOO2.getId()).thenReturn("foo");
+        when(FOO2.getPayload()).thenReturn("2");
+
+        BAR = mock(ServiceEndPoint.class);
+        when(BAR.getId()).thenReturn("bar");
+
+        BAZ = mock(ServiceEndPoint.class);
+        when(BAZ.getId()).thenReturn("baz");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTableSizeNotPrime() {
+        new MaglevPartitionFilter(Collections.<String>emptyList(), PartitionHashFunctions.murmur3_128(), 65536);
+    }
+
+    @Test
+    public void testEmptyContext() {
+        MaglevPartitionFilter filter = new MaglevPartitionFilter();
+        List<ServiceEndPoint> endPoints = ImmutableList.of(FOO, BAR);
+
+        assertEquals(endPoints, filter.filter(endPoints, PartitionContextBuilder.empty()));
+    }
+
+    @Test
+    public void testNoEndPoints() {
+        MaglevPartitionFilter filter = new MaglevPartitionFilter();
+
+        assertTrue(Iterables.isEmpty(filter.filter(Collections.<ServiceEndPoint>emptyList(),
+                PartitionContextBuilder.of("a"))));
+    }
+
+    @Test
+    public void testConsistency() {
+        MaglevPartitionFilter filter = new MaglevPartitionFilter();
+
+        // Generate a context to reuse and ensure consistency. What's in the context doesn't matter.
+        PartitionContext context = PartitionContextBuilder.of(UUID.randomUUID().toString());
+
+        // The order in which the end points are supplied must not matter.
+        assertEquals(filter.filter(ImmutableList.of(FOO, BAR, BAZ), context),
+                filter.filter(ImmutableList.of(BAZ, BAR, FOO), context));
+        assertEquals(filter.filter(ImmutableList.of(FOO, BAR, BAZ), context),
+                new MaglevPartitionFilter().filter(ImmutableList.of(BAR, FOO, BAZ), context));
+    }
+
+    @Test
+    public void testSameImmutableEndPointsReused() {
+        MaglevPartitionFilter filter = new MaglevPartitionFilter();
+        List<ServiceEndPoint> endPoints = ImmutableList.of(FOO, BAR, BAZ);
+        PartitionContext context = PartitionContextBuilder.of(UUID.randomUUID().toString());
+
+        assertEquals(filter.filter(endPoints, context), filter.filter(endPoints, context));
+    }
+
+    @Test
+    public void testChangeToSameMutableEndPointsDetected() {
+        MaglevPartitionFilter filter = new MaglevPartitionFilter();
+        List<ServiceEndPoint> endPoints = Lists.newArrayList(FOO, BAR);
+
+        // Find a partition owned by FOO.
+        PartitionContext context = null;
+        for (int i = 0; context == null; i++) {
+            PartitionContext candidate = PartitionContextBuilder.of(i);
+            if (singleton(FOO).equals(filter.filter(endPoints, candidate))) {
+                context = candidate;
+            }
+        }
+
+        // The same list, now without FOO, must not be mistaken for the one the table was built from.
+        endPoints.set(0, BAZ);
+        assertFalse(singleton(FOO).equals(filter.filter(endPoints, context)));
+    }
+
+    @Test
+    public void testServiceIdConflict() {
+        MaglevPartitionFilter filter = new MaglevPartitionFilter();
+
+        // Find a partition owned by FOO.
+        PartitionContext context = null;
+        for (int i = 0; context == null; i++) {
+            PartitionContext candidate = PartitionContextBuilder.of(i);
+            if (singleton(FOO).equals(filter.filter(ImmutableList.of(FOO, BAR), candidate))) {
+                context = candidate;
+            }
+        }
+
+        // Add a new server that will get ignored because it has the same ID as FOO and FOO comes last in the list.
+        assertEquals(singleton(FOO), filter.filter(ImmutableList.of(FOO2, FOO, BAR), context));
+
+        // Now remove the original FOO and verify that FOO2 is discovered.
+        assertEquals(singleton(FOO2), filter.filter(ImmutableList.of(FOO2, BAR), context));
+    }
+
+    @Test
+    public void testBalance() {
+        MaglevPartitionFilter filter = new MaglevPartitionFilter(Collections.<String>emptyList(),
+                PartitionHashFunctions.murmur3_128(), 101);
+        Map<String, ServiceEndPoint> endPoints = ImmutableMap.of("foo", FOO, "bar", BAR, "baz", BAZ);
+
+        // 101 slots split between 3 end points gives each end point 33 or 34 slots.
+        for (int count : filter.build(endPoints).getSlotCounts().values()) {
+            assertTrue(count == 33 || count == 34);
+        }
+    }
+
+    @Test
+    public void testMinimalDisruption() {
+        MaglevPartitionFilter filter = new MaglevPartitionFilter();
+        List<ServiceEndPoint> before = ImmutableList.of(FOO, BAR);
+        List<ServiceEndPoint> after = ImmutableList.of(FOO, BAR, BAZ);
+
+        int moved = 0;
+        int movedElsewhere = 0;
+        for (int i = 0; i < 1000; i++) {
+            ServiceEndPoint oldOwner = Iterables.getOnlyElement(filter.filter(before, PartitionContextBuilder.of(i)));
+            ServiceEndPoint newOwner = Iterables.getOnlyElement(filter.filter(after, PartitionContextBuilder.of(i)));
+            if (oldOwner != newOwner) {
+                moved++;
+                if (newOwner != BAZ) {
+                    movedElsewhere++;
+                }
+            }
+        }
+        assertTrue(moved > 250 && moved < 450);
+        assertTrue(movedElsewhere < 50);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.partition;
+
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.PartitionContextBuilder;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ServiceEndPointBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the hash-based partition filters.  Not run as part of the unit tests, run it manually with:
+ * <pre>
+ * java -cp ... com.bazaarvoice.ostrich.partition.PartitionFilterBenchmark [numEndPoints] [numThreads]
+ * </pre>
+ * Reports the fraction of partitions that move when an end point is removed or added (ideally 1 / numEndPoints) and
+ * the lookup throughput with a stable set of end points.
+ */
+public class PartitionFilterBenchmark {
+    private static final int NUM_KEYS = 100000;
+    private static final int LOOKUPS_PER_THREAD = 200000;
+
+    public static void main(String[] args) throws Exception {
+        int numEndPoints = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+        int numThreads = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+
+        List<ServiceEndPoint> endPoints = Lists.newArrayList();
+        for (int i = 0; i < numEndPoints; i++) {
+            endPoints.add(new ServiceEndPointBuilder()
+                    .withServiceName("benchmark")
+                    .withId("10.0.0." + i + ":8080")
+                    .build());
+        }
+
+        System.out.printf("%d end points, %d keys, %d threads%n", numEndPoints, NUM_KEYS, numThreads);
+        System.out.printf("%-22s %10s %10s %14s%n", "filter", "removed", "added", "lookups/sec");
+        run("ring (md5)", new Factory() {
+            public PartitionFilter create() {
+                return new ConsistentHashPartitionFilter();
+            }
+        }, endPoints, numThreads);
+        run("ring (murmur3_128)", new Factory() {
+            public PartitionFilter create() {
+                return new ConsistentHashPartitionFilter(Collections.<String>emptyList(),
+                        PartitionHashFunctions.murmur3_128());
+            }
+        }, endPoints, numThreads);
+        run("maglev (murmur3_128)", new Factory() {
+            public PartitionFilter create() {
+                return new MaglevPartitionFilter();
+            }
+        }, endPoints, numThreads);
+    }
+
+    private static void run(String name, Factory factory, List<ServiceEndPoint> endPoints, int numThreads)
+            throws Exception {
+        List<ServiceEndPoint> removed = endPoints.subList(0, endPoints.size() - 1);
+        double removedFraction = disruption(factory, endPoints, removed);
+        double addedFraction = disruption(factory, removed, endPoints);
+
+        // Warm up, then measure.
+        throughput(factory.create(), endPoints, numThreads);
+        double lookupsPerSecond = throughput(factory.create(), endPoints, numThreads);
+
+        System.out.printf("%-22s %9.2f%% %9.2f%% %,14.0f%n", name, removedFraction * 100, addedFraction * 100,
+                lookupsPerSecond);
+    }
+
+    private static double disruption(Factory factory, List<ServiceEndPoint> before, List<ServiceEndPoint> after) {
+        PartitionFilter filter = factory.create();
+        ServiceEndPoint[] owners = new ServiceEndPoint[NUM_KEYS];
+        for (int i = 0; i < NUM_KEYS; i++) {
+            owners[i] = Iterables.getOnlyElement(filter.filter(before, PartitionContextBuilder.of(i)));
+        }
+        int moved = 0;
+        for (int i = 0; i < NUM_KEYS; i++) {
+            if (!owners[i].equals(Iterables.getOnlyElement(filter.filter(after, PartitionContextBuilder.of(i))))) {
+                moved++;
+            }
+        }
+        return moved / (double) NUM_KEYS;
+    }
+
+    private static double throughput(final PartitionFilter filter, List<ServiceEndPoint> endPoints, int numThreads)
+            throws Exception {
+        final List<ServiceEndPoint> stable = ImmutableList.copyOf(endPoints);
+        final PartitionContext[] contexts = new PartitionContext[1024];
+        for (int i = 0; i < contexts.length; i++) {
+            contexts[i] = PartitionContextBuilder.of("key-" + i);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Callable<Integer>> tasks = Lists.newArrayList();
+            for (int t = 0; t < numThreads; t++) {
+                tasks.add(new Callable<Integer>() {
+                    @Override
+                    public Integer call() {
+                        int check = 0;
+                        for (int i = 0; i < LOOKUPS_PER_THREAD; i++) {
+                            check += filter.filter(stable, contexts[i & 1023]).hashCode();
+                        }
+                        return check;
+                    }
+                });
+            }
+            long start = System.nanoTime();
+            for (Future<Integer> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+            long elapsed = System.nanoTime() - start;
+            return numThreads * (double) LOOKUPS_PER_THREAD / elapsed * TimeUnit.SECONDS.toNanos(1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private interface Factory {
+        PartitionFilter create();
+    }
+}
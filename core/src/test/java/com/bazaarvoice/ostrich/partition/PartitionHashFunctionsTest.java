@@ -0,0 +1,74 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.partition;
+
+import com.google.common.base.Charsets;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionHashFunctionsTest {
+    @Test
+    public void testLegacyHashesKeysAsStrings() {
+        PartitionHashFunction md5 = PartitionHashFunctions.md5();
+
+        assertArrayEquals(md5.newHasher().putString("123").hash(), md5.newHasher().putKey(123).hash());
+        assertArrayEquals(md5.newHasher().putString("123").hash(), md5.newHasher().putKey(123L).hash());
+    }
+
+    @Test
+    public void testIntegralKeysHashAsLongs() {
+        PartitionHashFunction murmur = PartitionHashFunctions.murmur3_128();
+
+        assertArrayEquals(murmur.newHasher().putLong(123).hash(), murmur.newHasher().putKey(123).hash());
+        assertArrayEquals(murmur.newHasher().putLong(123).hash(), murmur.newHasher().putKey(123L).hash());
+        assertArrayEquals(murmur.newHasher().putLong(123).hash(), murmur.newHasher().putKey((short) 123).hash());
+        assertFalse(Arrays.equals(murmur.newHasher().putString("123").hash(), murmur.newHasher().putKey(123).hash()));
+    }
+
+    @Test
+    public void testByteArrayKeysHashContents() {
+        PartitionHashFunction murmur = PartitionHashFunctions.murmur3_128();
+        byte[] bytes = "abc".getBytes(Charsets.UTF_8);
+
+        assertArrayEquals(murmur.newHasher().putBytes(bytes).hash(), murmur.newHasher().putKey(bytes).hash());
+        assertArrayEquals(murmur.newHasher().putKey(bytes).hash(), murmur.newHasher().putKey(bytes.clone()).hash());
+    }
+
+    @Test
+    public void testHashablePartitionKey() {
+        PartitionHashFunction murmur = PartitionHashFunctions.murmur3_32();
+        HashablePartitionKey key = new HashablePartitionKey() {
+            @Override
+            public void hashTo(PartitionHasher hasher) {
+                hasher.putInt(42).putString("tenant");
+            }
+        };
+
+        assertArrayEquals(murmur.newHasher().putInt(42).putString("tenant").hash(), murmur.newHasher().putKey(key).hash());
+    }
+
+    @Test
+    public void testHashIsAtLeastFourBytes() {
+        assertTrue(PartitionHashFunctions.murmur3_32().newHasher().putKey("a").hash().length >= 4);
+        assertTrue(PartitionHashFunctions.murmur3_128().newHasher().putKey("a").hash().length >= 4);
+        assertTrue(PartitionHashFunctions.md5().newHasher().putKey("a").hash().length >= 4);
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.partition;
+
+import com.bazaarvoice.ostrich.PartitionContextBuilder;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RangePartitionFilterTest {
+    private final AtomicInteger _numParses = new AtomicInteger();
+    private RangePartitionFilter<Integer> _filter;
+
+    @Before
+    public void setup() {
+        // Payloads look like "0-10,20-30" with closed-open ranges where either bound may be omitted.
+        _filter = new RangePartitionFilter<Integer>(new RangePartitioner<Integer>() {
+            @Override
+            public Iterable<PartitionRange<Integer>> getRanges(ServiceEndPoint endPoint) {
+                _numParses.incrementAndGet();
+                List<PartitionRange<Integer>> ranges = Lists.newArrayList();
+                for (String range : endPoint.getPayload().split(",")) {
+                    String[] bounds = range.split("-", -1);
+                    Integer lower = bounds[0].isEmpty() ? null : Integer.valueOf(bounds[0]);
+                    Integer upper = bounds[1].isEmpty() ? null : Integer.valueOf(bounds[1]);
+                    if (upper == null) {
+                        ranges.add(lower == null ? PartitionRange.<Integer>all() : PartitionRange.atLeast(lower));
+                    } else {
+                        ranges.add(lower == null
+                                ? PartitionRange.lessThan(upper)
+                                : PartitionRange.closedOpen(lower, upper));
+                    }
+                }
+                return ranges;
+            }
+
+            @Override
+            public Integer getKey(Object partitionValue) {
+                return (Integer) partitionValue;
+            }
+        });
+    }
+
+    @Test
+    public void testNoPartitionKey() {
+        List<ServiceEndPoint> endPoints = ImmutableList.of(endPoint("a", "0-10"), endPoint("b", "10-20"));
+
+        assertEquals(endPoints, _filter.filter(endPoints, PartitionContextBuilder.empty()));
+    }
+
+    @Test
+    public void testBoundaries() {
+        ServiceEndPoint a = endPoint("a", "0-10");
+        ServiceEndPoint b = endPoint("b", "10-20");
+        List<ServiceEndPoint> endPoints = ImmutableList.of(a, b);
+
+        assertEquals(ImmutableList.of(), route(endPoints, -1));
+        assertEquals(ImmutableList.of(a), route(endPoints, 0));
+        assertEquals(ImmutableList.of(a), route(endPoints, 9));
+        assertEquals(ImmutableList.of(b), route(endPoints, 10));
+        assertEquals(ImmutableList.of(b), route(endPoints, 19));
+        assertEquals(ImmutableList.of(), route(endPoints, 20));
+    }
+
+    @Test
+    public void testMultipleRangesPerEndPoint() {
+        ServiceEndPoint a = endPoint("a", "0-10,20-30");
+        ServiceEndPoint b = endPoint("b", "10-20");
+        List<ServiceEndPoint> endPoints = ImmutableList.of(a, b);
+
+        assertEquals(ImmutableList.of(a), route(endPoints, 5));
+        assertEquals(ImmutableList.of(b), route(endPoints, 15));
+        assertEquals(ImmutableList.of(a), route(endPoints, 25));
+    }
+
+    @Test
+    public void testOverlappingRanges() {
+        ServiceEndPoint a = endPoint("a", "0-20");
+        ServiceEndPoint b = endPoint("b", "10-30");
+        List<ServiceEndPoint> endPoints = ImmutableList.of(b, a);
+
+        assertEquals(ImmutableList.of(a), route(endPoints, 5));
+        assertEquals(ImmutableList.of(a, b), route(endPoints, 15));
+        assertEquals(ImmutableList.of(b), route(endPoints, 25));
+    }
+
+    @Test
+    public void testUnboundedRanges() {
+        ServiceEndPoint a = endPoint("a", "-0");
+        ServiceEndPoint b = endPoint("b", "0-");
+        List<ServiceEndPoint> endPoints = ImmutableList.of(a, b);
+
+        assertEquals(ImmutableList.of(a), route(endPoints, Integer.MIN_VALUE));
+        assertEquals(ImmutableList.of(b), route(endPoints, 0));
+        assertEquals(ImmutableList.of(b), route(endPoints, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void testClosedRange() {
+        RangePartitionFilter<Integer> filter = new RangePartitionFilter<Integer>(new RangePartitioner<Integer>() {
+            @Override
+            public Iterable<PartitionRange<Integer>> getRanges(ServiceEndPoint endPoint) {
+                return Collections.singleton(PartitionRange.closed(0, 10));
+            }
+
+            @Override
+            public Integer getKey(Object partitionValue) {
+                return (Integer) partitionValue;
+            }
+        });
+        List<ServiceEndPoint> endPoints = ImmutableList.of(endPoint("a", ""));
+
+        assertEquals(1, Iterables.size(filter.filter(endPoints, PartitionContextBuilder.of(10))));
+        assertTrue(Iterables.isEmpty(filter.filter(endPoints, PartitionContextBuilder.of(11))));
+    }
+
+    @Test
+    public void testInvalidRangesAreIgnored() {
+        ServiceEndPoint a = endPoint("a", "0-10");
+        ServiceEndPoint b = endPoint("b", "not a range");
+        List<ServiceEndPoint> endPoints = ImmutableList.of(a, b);
+
+        assertEquals(ImmutableList.of(a), route(endPoints, 5));
+    }
+
+    @Test
+    public void testRangesDeterminedOncePerEndPoint() {
+        ServiceEndPoint a = endPoint("a", "0-10");
+        ServiceEndPoint b = endPoint("b", "10-20");
+        ServiceEndPoint c = endPoint("c", "20-30");
+
+        for (int i = 0; i < 10; i++) {
+            route(ImmutableList.of(a, b), i);
+            route(ImmutableList.of(b, a), i);
+        }
+        assertEquals(2, _numParses.get());
+
+        // Membership changes only determine the ranges of new end points.
+        assertEquals(ImmutableList.of(c), route(ImmutableList.of(a, b, c), 25));
+        assertEquals(3, _numParses.get());
+        assertEquals(ImmutableList.of(), route(ImmutableList.of(a, b), 25));
+        assertEquals(3, _numParses.get());
+    }
+
+    @Test
+    public void testSameImmutableEndPointsReused() {
+        List<ServiceEndPoint> endPoints = ImmutableList.of(endPoint("a", "0-10"), endPoint("b", "10-20"));
+
+        assertEquals(route(endPoints, 5), route(endPoints, 5));
+        assertEquals(2, _numParses.get());
+    }
+
+    @Test
+    public void testChangeToSameMutableEndPointsDetected() {
+        ServiceEndPoint a = endPoint("a", "0-10");
+        ServiceEndPoint c = endPoint("c", "0-10");
+        List<ServiceEndPoint> endPoints = Lists.newArrayList(a, endPoint("b", "10-20"));
+        assertEquals(ImmutableList.of(a), route(endPoints, 5));
+
+        // The same list, now without a, must not be mistaken for the one the index was built from.
+        endPoints.set(0, c);
+        assertEquals(ImmutableList.of(c), route(endPoints, 5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRange() {
+        PartitionRange.closedOpen(10, 10);
+    }
+
+    private List<ServiceEndPoint> route(List<ServiceEndPoint> endPoints, int key) {
+        return ImmutableList.copyOf(_filter.filter(endPoints, PartitionContextBuilder.of(key)));
+    }
+
+    private ServiceEndPoint endPoint(String id, String payload) {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        when(endPoint.getId()).thenReturn(id);
+        when(endPoint.getPayload()).thenReturn(payload);
+        return endPoint;
+    }
+}
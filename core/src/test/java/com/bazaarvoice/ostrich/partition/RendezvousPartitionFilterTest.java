@@ -0,0 +1,152 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.partition;
+
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.PartitionContextBuilder;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RendezvousPartitionFilterTest {
+    private ServiceEndPoint FOO, BAR, BAZ;
+
+    @Before
+    public void setup() {
+        FOO = mock(ServiceEndPoint.class);
+        when(FOO.getId()).thenReturn("foo");
+
+        BAR = mock(ServiceEndPoint.class);
+        when(BAR.getId()).thenReturn("bar");
+
+        BAZ = mock(ServiceEndPoint.class);
+        when(BAZ.getId()).thenReturn("baz");
+    }
+
+    @Test
+    public void testEmptyContext() {
+        RendezvousPartitionFilter filter = new RendezvousPartitionFilter();
+        List<ServiceEndPoint> endPoints = ImmutableList.of(FOO, BAR);
+
+        assertEquals(endPoints, filter.filter(endPoints, PartitionContextBuilder.empty()));
+    }
+
+    @Test
+    public void testNoEndPoints() {
+        RendezvousPartitionFilter filter = new RendezvousPartitionFilter();
+
+        assertTrue(Iterables.isEmpty(filter.filter(Collections.<ServiceEndPoint>emptyList(),
+                PartitionContextBuilder.of("a"))));
+    }
+
+    @Test
+    public void testConsistency() {
+        RendezvousPartitionFilter filter = new RendezvousPartitionFilter();
+
+        // Generate a context to reuse and ensure consistency. What's in the context doesn't matter.
+        PartitionContext context = PartitionContextBuilder.of(UUID.randomUUID().toString());
+
+        // The order in which the end points are supplied must not matter.
+        assertEquals(ImmutableList.copyOf(filter.filter(ImmutableList.of(FOO, BAR, BAZ), context)),
+                ImmutableList.copyOf(filter.filter(ImmutableList.of(BAZ, BAR, FOO), context)));
+    }
+
+    @Test
+    public void testRankedOrder() {
+        RendezvousPartitionFilter top = new RendezvousPartitionFilter();
+        RendezvousPartitionFilter ranked = new RendezvousPartitionFilter(Collections.<String>emptyList(),
+                PartitionHashFunctions.murmur3_128(), null, 2);
+        List<ServiceEndPoint> endPoints = ImmutableList.of(FOO, BAR, BAZ);
+
+        for (int i = 0; i < 100; i++) {
+            PartitionContext context = PartitionContextBuilder.of(i);
+            List<ServiceEndPoint> result = ImmutableList.copyOf(ranked.filter(endPoints, context));
+
+            assertEquals(2, result.size());
+            assertFalse(result.get(0).equals(result.get(1)));
+            assertEquals(Iterables.getOnlyElement(top.filter(endPoints, context)), result.get(0));
+
+            // Removing the top-ranked end point promotes the second-ranked end point.
+            List<ServiceEndPoint> remaining = Lists.newArrayList(endPoints);
+            remaining.remove(result.get(0));
+            assertEquals(result.get(1), Iterables.getOnlyElement(top.filter(remaining, context)));
+        }
+    }
+
+    @Test
+    public void testMinimalDisruption() {
+        RendezvousPartitionFilter filter = new RendezvousPartitionFilter();
+        List<ServiceEndPoint> before = ImmutableList.of(FOO, BAR);
+        List<ServiceEndPoint> after = ImmutableList.of(FOO, BAR, BAZ);
+
+        // Adding an end point only moves partitions to the new end point.
+        int moved = 0;
+        for (int i = 0; i < 1000; i++) {
+            PartitionContext context = PartitionContextBuilder.of(i);
+            ServiceEndPoint oldOwner = Iterables.getOnlyElement(filter.filter(before, context));
+            ServiceEndPoint newOwner = Iterables.getOnlyElement(filter.filter(after, context));
+            if (oldOwner != newOwner) {
+                assertEquals(BAZ, newOwner);
+                moved++;
+            }
+        }
+        assertTrue(moved > 250 && moved < 420);
+    }
+
+    @Test
+    public void testWeights() {
+        assertWeightsRespected(PartitionHashFunctions.murmur3_128());
+    }
+
+    @Test
+    public void testWeightsWith32BitHash() {
+        assertWeightsRespected(PartitionHashFunctions.murmur3_32());
+    }
+
+    private void assertWeightsRespected(PartitionHashFunction hashFunction) {
+        RendezvousPartitionFilter filter = new RendezvousPartitionFilter(Collections.<String>emptyList(),
+                hashFunction, new EndPointWeightFunction() {
+                    @Override
+                    public double getWeight(ServiceEndPoint endPoint) {
+                        return endPoint == FOO ? 3 : endPoint == BAR ? 1 : 0;
+                    }
+                }, 1);
+        List<ServiceEndPoint> endPoints = ImmutableList.of(FOO, BAR, BAZ);
+
+        int foo = 0;
+        for (int i = 0; i < 4000; i++) {
+            ServiceEndPoint owner = Iterables.getOnlyElement(filter.filter(endPoints, PartitionContextBuilder.of(i)));
+            assertFalse(owner == BAZ);  // Zero weight end points are never chosen over positive weights.
+            if (owner == FOO) {
+                foo++;
+            }
+        }
+        assertTrue(foo > 2800 && foo < 3200);
+    }
+}
@@ -131,6 +131,55 @@ public class AnnotationPartitionContextSupplierTest {
         assertEquals(ImmutableMap.<String, Object>of("", "value"), partitionContext.asMap());
     }
 
+    @Test
+    public void testGetterPath() throws Exception {
+        PartitionContextSupplier contextSupplier =
+                new AnnotationPartitionContextSupplier(PathService.class, PathServiceImpl.class);
+
+        assertEquals(ImmutableMap.<String, Object>of("tenant", "t1"), contextSupplier.forCall(
+                PathService.class.getMethod("getter", Request.class), new Request(new Header("t1", 5))).asMap());
+    }
+
+    @Test
+    public void testFieldPath() throws Exception {
+        PartitionContextSupplier contextSupplier =
+                new AnnotationPartitionContextSupplier(PathService.class, PathServiceImpl.class);
+
+        assertEquals(ImmutableMap.<String, Object>of("", 5), contextSupplier.forCall(
+                PathService.class.getMethod("field", Request.class), new Request(new Header("t1", 5))).asMap());
+    }
+
+    @Test
+    public void testPathAndPlainKey() throws Exception {
+        PartitionContextSupplier contextSupplier =
+                new AnnotationPartitionContextSupplier(PathService.class, PathServiceImpl.class);
+
+        assertEquals(ImmutableMap.<String, Object>of("tenant", "t1", "id", "x"), contextSupplier.forCall(
+                PathService.class.getMethod("mixed", Request.class, String.class),
+                new Request(new Header("t1", 5)), "x").asMap());
+    }
+
+    @Test
+    public void testNullAlongPath() throws Exception {
+        PartitionContextSupplier contextSupplier =
+                new AnnotationPartitionContextSupplier(PathService.class, PathServiceImpl.class);
+
+        assertTrue(contextSupplier.forCall(PathService.class.getMethod("getter", Request.class),
+                new Request(null)).asMap().isEmpty());
+        assertTrue(contextSupplier.forCall(PathService.class.getMethod("getter", Request.class),
+                new Object[] {null}).asMap().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPath() {
+        new AnnotationPartitionContextSupplier(PathService.class, InvalidPathServiceImpl.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyPathElement() {
+        new AnnotationPartitionContextSupplier(PathService.class, EmptyPathElementServiceImpl.class);
+    }
+
     private static interface MyService {
         void noArgs();
         void unnamed(String string);
@@ -168,4 +217,56 @@ public class AnnotationPartitionContextSupplierTest {
         @Override
         public void twoArgsOneKey(@PartitionKey int num, @PartitionKey String string) {}
     }
+
+    private static class Header {
+        private final String _tenantId;
+        private final int shard;
+
+        Header(String tenantId, int shard) {
+            _tenantId = tenantId;
+            this.shard = shard;
+        }
+
+        public String getTenantId() {
+            return _tenantId;
+        }
+    }
+
+    private static class Request {
+        private final Header _header;
+
+        Request(Header header) {
+            _header = header;
+        }
+
+        public Header getHeader() {
+            return _header;
+        }
+    }
+
+    private static interface PathService {
+        void getter(Request request);
+        void field(Request request);
+        void mixed(Request request, String id);
+    }
+
+    private static class PathServiceImpl implements PathService {
+        @Override
+        public void getter(@PartitionKey (value = "tenant", path = "header.tenantId") Request request) {}
+        @Override
+        public void field(@PartitionKey (path = "header.shard") Request request) {}
+        @Override
+        public void mixed(@PartitionKey (value = "tenant", path = "header.tenantId") Request request,
+                          @PartitionKey ("id") String id) {}
+    }
+
+    private static class InvalidPathServiceImpl extends PathServiceImpl {
+        @Override
+        public void getter(@PartitionKey (path = "header.missing") Request request) {}
+    }
+
+    private static class EmptyPathElementServiceImpl extends PathServiceImpl {
+        @Override
+        public void getter(@PartitionKey (path = "header..tenantId") Request request) {}
+    }
 }
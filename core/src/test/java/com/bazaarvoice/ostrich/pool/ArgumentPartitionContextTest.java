@@ -0,0 +1,85 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.PartitionContextBuilder;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ArgumentPartitionContextTest {
+    private static final ArgumentPartitionContext.Layout DEFAULT_KEY =
+            new ArgumentPartitionContext.Layout(new String[] {null, ""});
+    private static final ArgumentPartitionContext.Layout TWO_KEYS =
+            new ArgumentPartitionContext.Layout(new String[] {"a", null, "b"});
+
+    @Test
+    public void testGet() {
+        PartitionContext context = DEFAULT_KEY.forCall(new Object[] {1, "value"});
+
+        assertSame("value", context.get());
+        assertSame("value", context.get(""));
+        assertNull(context.get("other"));
+    }
+
+    @Test
+    public void testGetNamed() {
+        PartitionContext context = TWO_KEYS.forCall(new Object[] {"one", "ignored", "two"});
+
+        assertSame("one", context.get("a"));
+        assertSame("two", context.get("b"));
+        assertNull(context.get());
+    }
+
+    @Test
+    public void testAsMap() {
+        PartitionContext context = TWO_KEYS.forCall(new Object[] {"one", "ignored", "two"});
+
+        assertEquals(ImmutableMap.<String, Object>of("a", "one", "b", "two"), context.asMap());
+        assertSame(context.asMap(), context.asMap());
+    }
+
+    @Test
+    public void testNullArgumentsOmitted() {
+        PartitionContext context = TWO_KEYS.forCall(new Object[] {null, "ignored", "two"});
+
+        assertNull(context.get("a"));
+        assertEquals(ImmutableMap.<String, Object>of("b", "two"), context.asMap());
+    }
+
+    @Test
+    public void testAllArgumentsNull() {
+        PartitionContext context = DEFAULT_KEY.forCall(new Object[] {1, null});
+
+        assertTrue(context.asMap().isEmpty());
+        assertEquals(PartitionContextBuilder.empty(), context);
+    }
+
+    @Test
+    public void testEqualsBuiltContext() {
+        PartitionContext context = TWO_KEYS.forCall(new Object[] {"one", "ignored", "two"});
+        PartitionContext built = PartitionContextBuilder.of("a", "one", "b", "two");
+
+        assertEquals(built, context);
+        assertEquals(context, built);
+        assertEquals(built.hashCode(), context.hashCode());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class AsyncExecutorPolicyBuilderTest {
+    @Test
+    public void testDefaults() {
+        AsyncExecutorPolicy policy = new AsyncExecutorPolicyBuilder().build();
+
+        assertEquals(100, policy.getMaxNumThreads());
+        assertEquals(10000, policy.getQueueCapacity());
+        assertEquals(AsyncExecutorPolicy.RejectionAction.FAIL, policy.getRejectionAction());
+    }
+
+    @Test
+    public void testMaxNumThreadsSet() {
+        AsyncExecutorPolicyBuilder builder = new AsyncExecutorPolicyBuilder();
+        builder.withMaxNumThreads(1);
+
+        assertEquals(1, builder.build().getMaxNumThreads());
+    }
+
+    @Test
+    public void testQueueCapacitySet() {
+        AsyncExecutorPolicyBuilder builder = new AsyncExecutorPolicyBuilder();
+        builder.withQueueCapacity(0);
+
+        assertEquals(0, builder.build().getQueueCapacity());
+    }
+
+    @Test
+    public void testRejectionActionSet() {
+        AsyncExecutorPolicyBuilder builder = new AsyncExecutorPolicyBuilder();
+        builder.withRejectionAction(AsyncExecutorPolicy.RejectionAction.CALLER_RUNS);
+
+        assertEquals(AsyncExecutorPolicy.RejectionAction.CALLER_RUNS, builder.build().getRejectionAction());
+    }
+
+    @Test
+    public void testMaxQueueWaitTimeSet() {
+        AsyncExecutorPolicyBuilder builder = new AsyncExecutorPolicyBuilder();
+        builder.withRejectionAction(AsyncExecutorPolicy.RejectionAction.WAIT);
+        builder.withMaxQueueWaitTime(10, TimeUnit.SECONDS);
+
+        assertEquals(10, builder.build().getMaxQueueWaitTime(TimeUnit.SECONDS));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testWaitWithoutMaxQueueWaitTime() {
+        AsyncExecutorPolicyBuilder builder = new AsyncExecutorPolicyBuilder();
+        builder.withRejectionAction(AsyncExecutorPolicy.RejectionAction.WAIT);
+        builder.build();
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testNullRejectionAction() {
+        AsyncExecutorPolicyBuilder builder = new AsyncExecutorPolicyBuilder();
+        builder.withRejectionAction(null);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidMaxNumThreads() {
+        AsyncExecutorPolicyBuilder builder = new AsyncExecutorPolicyBuilder();
+        builder.withMaxNumThreads(0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidQueueCapacity() {
+        AsyncExecutorPolicyBuilder builder = new AsyncExecutorPolicyBuilder();
+        builder.withQueueCapacity(-1);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidMaxQueueWaitTime() {
+        AsyncExecutorPolicyBuilder builder = new AsyncExecutorPolicyBuilder();
+        builder.withMaxQueueWaitTime(0, TimeUnit.MILLISECONDS);
+    }
+}
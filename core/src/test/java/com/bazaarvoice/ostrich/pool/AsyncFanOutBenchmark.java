@@ -0,0 +1,176 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.AsyncServicePool;
+import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.ServiceCallback;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ServiceEndPointBuilder;
+import com.bazaarvoice.ostrich.ServiceFactory;
+import com.bazaarvoice.ostrich.discovery.FixedHostDiscovery;
+import com.bazaarvoice.ostrich.exceptions.ServiceException;
+import com.bazaarvoice.ostrich.retry.RetryNTimes;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+/**
+ * Measures how many platform threads an {@link AsyncServicePool} needs, and how quickly it completes, when requests
+ * are executed on every end point of a large service with {@code executeOnAllListenable}.  Each service call blocks
+ * for a fixed time to simulate a remote call.  Compares the default platform thread executor with the virtual thread
+ * executor enabled by {@link ServicePoolBuilder#withVirtualThreads()}.  Not run as part of the unit tests, run it
+ * manually with:
+ * <pre>
+ * java -cp ... com.bazaarvoice.ostrich.pool.AsyncFanOutBenchmark [platform|virtual|all] [endPoints] [latencyMs]
+ *     [concurrentFanOuts]
+ * </pre>
+ * Run each executor in its own JVM, otherwise threads left over from the first pool inflate the second's peak count.
+ * On a JVM without virtual threads the "virtual" row falls back to platform threads, so it matches the "platform" row.
+ */
+public class AsyncFanOutBenchmark {
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        String executor = (args.length > 0) ? args[0] : "all";
+        int numEndPoints = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+        int latencyMs = (args.length > 2) ? Integer.parseInt(args[2]) : 20;
+        int concurrentFanOuts = (args.length > 3) ? Integer.parseInt(args[3]) : 4;
+
+        List<ServiceEndPoint> endPoints = Lists.newArrayList();
+        for (int i = 0; i < numEndPoints; i++) {
+            endPoints.add(new ServiceEndPointBuilder()
+                    .withServiceName("sleeper")
+                    .withId("host-" + i + ":8080")
+                    .build());
+        }
+
+        System.out.printf("%d end points, %d ms per call, %d concurrent fan-outs, best of %d rounds%n",
+                numEndPoints, latencyMs, concurrentFanOuts, ROUNDS);
+        System.out.printf("virtual threads supported: %s%n", VirtualThreads.isSupported());
+        System.out.printf("%-10s %14s %14s %16s%n", "executor", "fan-out ms", "calls/s", "peak threads");
+        if (executor.equals("all") || executor.equals("platform")) {
+            run("platform", endPoints, latencyMs, concurrentFanOuts, false);
+        }
+        if (executor.equals("all") || executor.equals("virtual")) {
+            run("virtual", endPoints, latencyMs, concurrentFanOuts, true);
+        }
+    }
+
+    private static void run(String name, List<ServiceEndPoint> endPoints, int latencyMs, int concurrentFanOuts,
+                            boolean virtualThreads) throws Exception {
+        ServicePoolBuilder<Sleeper> builder = ServicePoolBuilder.create(Sleeper.class)
+                .withHostDiscovery(new FixedHostDiscovery(endPoints))
+                .withServiceFactory(new SleeperFactory(latencyMs))
+                .withCachingPolicy(ServiceCachingPolicyBuilder.NO_CACHING);
+        if (virtualThreads) {
+            builder.withVirtualThreads();
+        }
+        AsyncServicePool<Sleeper> pool = builder.buildAsync();
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        RetryPolicy retry = new RetryNTimes(1);
+        ServiceCallback<Sleeper, Integer> callback = new ServiceCallback<Sleeper, Integer>() {
+            @Override
+            public Integer call(Sleeper service) throws ServiceException {
+                return service.sleep();
+            }
+        };
+
+        try {
+            // Warm up, then only count the threads started by the measured rounds.
+            fanOut(pool, retry, callback, concurrentFanOuts);
+            threads.resetPeakThreadCount();
+
+            double bestMs = Double.MAX_VALUE;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                fanOut(pool, retry, callback, concurrentFanOuts);
+                bestMs = Math.min(bestMs, (System.nanoTime() - start) / 1e6);
+            }
+            double callsPerSecond = endPoints.size() * concurrentFanOuts / (bestMs / 1000);
+
+            // The peak only counts platform threads, virtual threads are not reported by the thread MXBean.
+            System.out.printf("%-10s %14.1f %14.0f %16d%n", name, bestMs, callsPerSecond,
+                    threads.getPeakThreadCount());
+        } finally {
+            pool.close();
+        }
+    }
+
+    private static void fanOut(AsyncServicePool<Sleeper> pool, RetryPolicy retry,
+                               ServiceCallback<Sleeper, Integer> callback, int concurrentFanOuts) throws Exception {
+        List<ListenableFuture<Integer>> futures = Lists.newArrayList();
+        for (int i = 0; i < concurrentFanOuts; i++) {
+            futures.addAll(pool.executeOnAllListenable(retry, callback));
+        }
+        Futures.allAsList(futures).get();
+    }
+
+    public static interface Sleeper {
+        int sleep();
+    }
+
+    private static class SleeperFactory implements ServiceFactory<Sleeper> {
+        private final Sleeper _sleeper;
+
+        SleeperFactory(final int latencyMs) {
+            _sleeper = new Sleeper() {
+                @Override
+                public int sleep() {
+                    try {
+                        Thread.sleep(latencyMs);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return latencyMs;
+                }
+            };
+        }
+
+        @Override
+        public String getServiceName() {
+            return "sleeper";
+        }
+
+        @Override
+        public void configure(ServicePoolBuilder<Sleeper> servicePoolBuilder) {
+        }
+
+        @Override
+        public Sleeper create(ServiceEndPoint endPoint) {
+            return _sleeper;
+        }
+
+        @Override
+        public void destroy(ServiceEndPoint endPoint, Sleeper service) {
+        }
+
+        @Override
+        public boolean isHealthy(ServiceEndPoint endPoint) {
+            return true;
+        }
+
+        @Override
+        public boolean isRetriableException(Exception exception) {
+            return false;
+        }
+    }
+}
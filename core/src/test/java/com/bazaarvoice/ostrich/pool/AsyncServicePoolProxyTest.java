@@ -0,0 +1,216 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.ServiceCallback;
+import com.bazaarvoice.ostrich.exceptions.ServiceException;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class AsyncServicePoolProxyTest {
+    private static final Service FOO_SERVICE = mock(Service.class);
+    private static final RetryPolicy NEVER_RETRY = mock(RetryPolicy.class);
+    private static final PartitionContext CONTEXT = mock(PartitionContext.class);
+
+    @SuppressWarnings("unchecked")
+    private final ServicePool<Service> _pool = mock(ServicePool.class);
+    private final PartitionContextSupplier _supplier = mock(PartitionContextSupplier.class);
+    private AsyncServicePool<Service> _asyncPool;
+
+    @Before
+    public void setup() {
+        when(_supplier.forCall(any(Method.class), any(Object[].class))).thenReturn(CONTEXT);
+        when(_pool.getServiceName()).thenReturn(Service.class.getSimpleName());
+
+        // Use a real executor so that calls actually reach the service pool.
+        _asyncPool = new AsyncServicePool<Service>(mock(Ticker.class), _pool, true,
+                MoreExecutors.sameThreadExecutor(), true);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCallsServiceMethod() throws Exception {
+        AsyncService service = newProxy(AsyncService.class, false);
+        service.echo("hello");
+
+        // Capture and execute the callback.
+        ArgumentCaptor<ServiceCallback<Service, ?>> captor =
+                (ArgumentCaptor) ArgumentCaptor.forClass(ServiceCallback.class);
+        verify(_pool).execute(same(CONTEXT), any(RetryPolicy.class), captor.capture());
+        captor.getValue().call(FOO_SERVICE);
+
+        verify(FOO_SERVICE).echo("hello");
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testReturnsResult() throws Exception {
+        when(_pool.execute(same(CONTEXT), any(RetryPolicy.class), any(ServiceCallback.class))).thenReturn("world");
+
+        AsyncService service = newProxy(AsyncService.class, false);
+
+        assertEquals("world", service.echo("hello").get());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testReturnsFailure() throws Exception {
+        ServiceException exception = new ServiceException();
+        when(_pool.execute(same(CONTEXT), any(RetryPolicy.class), any(ServiceCallback.class))).thenThrow(exception);
+
+        AsyncService service = newProxy(AsyncService.class, false);
+
+        try {
+            service.echo("hello").get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(exception, e.getCause());
+        }
+    }
+
+    @Test
+    public void testPartitionContextFromServiceMethod() throws Exception {
+        AsyncService service = newProxy(AsyncService.class, false);
+        service.echo("hello");
+
+        // The partition context supplier only knows about the methods of the service interface.
+        verify(_supplier).forCall(Service.class.getMethod("echo", String.class), "hello");
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testNoArguments() throws Exception {
+        when(_pool.execute(same(CONTEXT), any(RetryPolicy.class), any(ServiceCallback.class))).thenReturn(42);
+
+        AsyncService service = newProxy(AsyncService.class, false);
+
+        assertEquals(42, (int) service.count().get());
+    }
+
+    @Test
+    public void testFutureReturnType() throws Exception {
+        newProxy(PlainFutureService.class, false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingServiceMethod() {
+        newProxy(MissingMethodService.class, false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotFutureReturnType() {
+        newProxy(BlockingService.class, false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testObjectReturnType() {
+        newProxy(ObjectReturningService.class, false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAsyncClassNotInterface() {
+        newProxy(Object.class, false);
+    }
+
+    @Test
+    public void testProxyDoesNotImplementCloseable() {
+        AsyncService service = newProxy(AsyncService.class, false);
+
+        assertFalse(service instanceof Closeable);
+    }
+
+    @Test
+    public void testProxyClosesPool() throws IOException {
+        AsyncService service = newProxy(AsyncService.class, true);
+        ((Closeable) service).close();
+
+        verify(_pool).close();
+    }
+
+    @Test
+    public void testObjectMethodsNotForwarded() {
+        AsyncService service = newProxy(AsyncService.class, false);
+        AsyncService other = newProxy(AsyncService.class, false);
+
+        assertEquals(service, service);
+        assertFalse(service.equals(other));
+        assertEquals(service.hashCode(), service.hashCode());
+        assertEquals("AsyncServicePoolProxy[" + AsyncService.class.getName() + "]", service.toString());
+        verifyZeroInteractions(_supplier);
+    }
+
+    @Test
+    public void testReturnsListenableFuture() {
+        AsyncService service = newProxy(AsyncService.class, false);
+
+        assertTrue(service.echo("hello").isDone());
+    }
+
+    private <A> A newProxy(Class<A> asyncType, boolean shutdownPoolOnClose) {
+        return AsyncServicePoolProxy.create(Service.class, asyncType, NEVER_RETRY, _asyncPool, _supplier,
+                shutdownPoolOnClose);
+    }
+
+    private static interface Service {
+        String echo(String message);
+        int count();
+    }
+
+    private static interface AsyncService {
+        ListenableFuture<String> echo(String message);
+        ListenableFuture<Integer> count();
+    }
+
+    private static interface PlainFutureService {
+        Future<String> echo(String message);
+    }
+
+    private static interface MissingMethodService {
+        ListenableFuture<String> echo(String message, String other);
+    }
+
+    private static interface BlockingService {
+        String echo(String message);
+    }
+
+    private static interface ObjectReturningService {
+        Object echo(String message);
+    }
+}
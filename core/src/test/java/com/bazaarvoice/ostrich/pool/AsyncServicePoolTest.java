@@ -15,54 +15,94 @@
  */
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.DelayedRetryPolicy;
 import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.ResultReducer;
 import com.bazaarvoice.ostrich.RetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceEndPointPredicate;
 import com.bazaarvoice.ostrich.exceptions.MaxRetriesException;
+import com.bazaarvoice.ostrich.exceptions.NoAvailableHostsException;
 import com.google.common.base.Ticker;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.common.io.Closeables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 public class AsyncServicePoolTest {
     private static final RetryPolicy NEVER_RETRY = mock(RetryPolicy.class);
 
+    /** Adds up the results, and 100 for each failure. */
+    private static final ResultReducer<Integer, Integer> SUM = new ResultReducer<Integer, Integer>() {
+        @Override
+        public Integer initialValue() {
+            return 0;
+        }
+
+        @Override
+        public Integer reduce(Integer accumulated, ServiceEndPoint endPoint, Integer result) {
+            return accumulated + result;
+        }
+
+        @Override
+        public Integer reduceFailure(Integer accumulated, ServiceEndPoint endPoint, Throwable failure) {
+            return accumulated + 100;
+        }
+    };
+
     @SuppressWarnings("unchecked")
     private final ServicePool<Service> _mockPool = mock(ServicePool.class);
 
     private final Ticker _mockTicker = mock(Ticker.class);
     private final ExecutorService _mockExecutor = mock(ExecutorService.class);
+    private final ScheduledExecutorService _mockScheduler = mock(ScheduledExecutorService.class);
     private final Collection<AsyncServicePool<Service>> _asyncServicePools = Lists.newArrayList();
 
     @Before
@@ -95,11 +135,11 @@ public class AsyncServicePoolTest {
 
     @SuppressWarnings("unchecked")
     @Test
-    public void testSubmitsCallableToExecutor() {
+    public void testSubmitsTaskToExecutor() {
         AsyncServicePool<Service> pool = newAsyncPool();
         pool.execute(NEVER_RETRY, mock(ServiceCallback.class));
 
-        verify(_mockExecutor).submit(any(Callable.class));
+        verify(_mockExecutor).execute(any(Runnable.class));
     }
 
     @SuppressWarnings("unchecked")
@@ -111,7 +151,10 @@ public class AsyncServicePoolTest {
         ServiceCallback<Service, Void> callback = (ServiceCallback<Service, Void>) mock(ServiceCallback.class);
         pool.execute(NEVER_RETRY, callback);
 
-        verify(_mockPool).execute(same(NEVER_RETRY), same(callback));
+        // The retry policy is wrapped so that cancelling the future stops it retrying.
+        ArgumentCaptor<RetryPolicy> retry = ArgumentCaptor.forClass(RetryPolicy.class);
+        verify(_mockPool).execute(retry.capture(), same(callback));
+        assertSame(NEVER_RETRY, ((CancellableRetryPolicy) retry.getValue()).getDelegate());
     }
 
     @SuppressWarnings("unchecked")
@@ -123,12 +166,54 @@ public class AsyncServicePoolTest {
         PartitionContext context = mock(PartitionContext.class);
         pool.execute(context, NEVER_RETRY, callback);
 
-        verify(_mockPool).execute(same(context), same(NEVER_RETRY), same(callback));
+        ArgumentCaptor<RetryPolicy> retry = ArgumentCaptor.forClass(RetryPolicy.class);
+        verify(_mockPool).execute(same(context), retry.capture(), same(callback));
+        assertSame(NEVER_RETRY, ((CancellableRetryPolicy) retry.getValue()).getDelegate());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testFutureCompletedByExecutorTask() throws Exception {
+        when(_mockPool.execute(any(RetryPolicy.class), any(ServiceCallback.class))).thenReturn("result");
+        AsyncServicePool<Service> pool = newAsyncPool();
+
+        ListenableFuture<String> future = pool.executeListenable(NEVER_RETRY, mock(ServiceCallback.class));
+        Runnable listener = mock(Runnable.class);
+        future.addListener(listener, MoreExecutors.sameThreadExecutor());
+        assertFalse(future.isDone());
+
+        // Running the task handed to the executor completes the future and runs its listeners.
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(_mockExecutor).execute(task.capture());
+        task.getValue().run();
+
+        verify(listener).run();
+        assertEquals("result", future.get());
     }
 
     @SuppressWarnings("unchecked")
     @Test
-    public void testExecuteAllSubmitsMultipleCallablesToExecutor() {
+    public void testExecuteOnAllFuturesCompletedByExecutorTasks() throws Exception {
+        when(_mockPool.getAllEndPoints()).thenReturn(Lists.newArrayList(mock(ServiceEndPoint.class)));
+        when(_mockPool.executeOnEndPoint(any(ServiceEndPoint.class), any(ServiceCallback.class))).thenReturn("result");
+        AsyncServicePool<Service> pool = newAsyncPool();
+
+        Collection<ListenableFuture<String>> futures =
+                pool.executeOnAllListenable(NEVER_RETRY, mock(ServiceCallback.class));
+        ListenableFuture<List<String>> results = Futures.allAsList(futures);
+        assertFalse(results.isDone());
+
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(_mockExecutor).execute(task.capture());
+        task.getValue().run();
+
+        assertTrue(results.isDone());
+        assertEquals(Lists.newArrayList("result"), results.get());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteAllSubmitsMultipleTasksToExecutor() {
         List<ServiceEndPoint> endPoints = Lists.newArrayList(
                 mock(ServiceEndPoint.class),
                 mock(ServiceEndPoint.class),
@@ -139,7 +224,7 @@ public class AsyncServicePoolTest {
         AsyncServicePool<Service> pool = newAsyncPool();
         pool.executeOnAll(NEVER_RETRY, mock(ServiceCallback.class));
 
-        verify(_mockExecutor, times(endPoints.size())).submit(any(Callable.class));
+        verify(_mockExecutor, times(endPoints.size())).execute(any(Runnable.class));
     }
 
     @SuppressWarnings("unchecked")
@@ -238,7 +323,7 @@ public class AsyncServicePoolTest {
 
     @SuppressWarnings("unchecked")
     @Test
-    public void testExecuteOnSubmitsValidCallablesToExecutor() {
+    public void testExecuteOnSubmitsValidTasksToExecutor() {
         ServiceEndPoint FOO = mock(ServiceEndPoint.class);
         ServiceEndPoint BAR = mock(ServiceEndPoint.class);
         ServiceEndPoint BAZ = mock(ServiceEndPoint.class);
@@ -252,12 +337,12 @@ public class AsyncServicePoolTest {
         AsyncServicePool<Service> pool = newAsyncPool();
         pool.executeOn(predicate, NEVER_RETRY, mock(ServiceCallback.class));
 
-        verify(_mockExecutor, times(2)).submit(any(Callable.class));
+        verify(_mockExecutor, times(2)).execute(any(Runnable.class));
     }
 
     @SuppressWarnings("unchecked")
     @Test
-    public void testExecuteOnSubmitsNoCallablesToExecutor() {
+    public void testExecuteOnSubmitsNoTasksToExecutor() {
         ServiceEndPoint FOO = mock(ServiceEndPoint.class);
         ServiceEndPoint BAR = mock(ServiceEndPoint.class);
         ServiceEndPoint BAZ = mock(ServiceEndPoint.class);
@@ -271,7 +356,7 @@ public class AsyncServicePoolTest {
         AsyncServicePool<Service> pool = newAsyncPool();
         pool.executeOn(predicate, NEVER_RETRY, mock(ServiceCallback.class));
 
-        verify(_mockExecutor, never()).submit(any(Callable.class));
+        verify(_mockExecutor, never()).execute(any(Runnable.class));
     }
 
     @SuppressWarnings("unchecked")
@@ -386,6 +471,480 @@ public class AsyncServicePoolTest {
         future.get(10, TimeUnit.SECONDS);
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testDelayedRetryIsScheduled() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        when(_mockPool.chooseEndPoint(any(PartitionContext.class), any(Exception.class))).thenReturn(endPoint);
+        when(_mockPool.executeAttempt(same(endPoint), any(ServiceCallback.class), any(RetryPolicy.class)))
+                .thenThrow(new RuntimeException()).thenReturn("result");
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(true);
+        DelayedRetryPolicy retry = mock(DelayedRetryPolicy.class);
+        when(retry.getRetryDelayMs(eq(1), anyLong())).thenReturn(100L);
+
+        AsyncServicePool<Service> pool = newDelayedRetryAsyncPool(MoreExecutors.sameThreadExecutor());
+        ListenableFuture<String> future = pool.executeListenable(retry, mock(ServiceCallback.class));
+
+        // The first attempt failed and the retry is waiting on the scheduler rather than on an executor thread.
+        assertFalse(future.isDone());
+        verify(retry, never()).allowRetry(anyInt(), anyLong());
+        ArgumentCaptor<Runnable> retryTask = ArgumentCaptor.forClass(Runnable.class);
+        verify(_mockScheduler).schedule(retryTask.capture(), eq(100L), same(TimeUnit.MILLISECONDS));
+
+        retryTask.getValue().run();
+        assertEquals("result", future.get());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCancelDropsScheduledRetry() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        when(_mockPool.chooseEndPoint(any(PartitionContext.class), any(Exception.class))).thenReturn(endPoint);
+        when(_mockPool.executeAttempt(same(endPoint), any(ServiceCallback.class), any(RetryPolicy.class)))
+                .thenThrow(new RuntimeException());
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(true);
+        DelayedRetryPolicy retry = mock(DelayedRetryPolicy.class);
+        when(retry.getRetryDelayMs(eq(1), anyLong())).thenReturn(100L);
+        ScheduledFuture<?> scheduledRetry = mock(ScheduledFuture.class);
+        doReturn(scheduledRetry).when(_mockScheduler).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+
+        AsyncServicePool<Service> pool = newDelayedRetryAsyncPool(MoreExecutors.sameThreadExecutor());
+        long numCancellations = meter("num-execute-cancellations").count();
+        ListenableFuture<String> future = pool.executeListenable(retry, mock(ServiceCallback.class));
+        future.cancel(false);
+
+        verify(scheduledRetry).cancel(false);
+        assertEquals(numCancellations + 1, meter("num-execute-cancellations").count());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCancelledAttemptTellsServicePool() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        final AtomicReference<Future<String>> future = new AtomicReference<Future<String>>();
+        final AtomicReference<RetryPolicy> attemptRetry = new AtomicReference<RetryPolicy>();
+        when(_mockPool.chooseEndPoint(any(PartitionContext.class), any(Exception.class))).thenReturn(endPoint);
+        when(_mockPool.executeAttempt(same(endPoint), any(ServiceCallback.class), any(RetryPolicy.class)))
+                .thenAnswer(new Answer<String>() {
+                    @Override
+                    public String answer(InvocationOnMock invocation) throws Throwable {
+                        // The caller gives up while the attempt is in progress, which then fails.
+                        future.get().cancel(false);
+                        attemptRetry.set((RetryPolicy) invocation.getArguments()[2]);
+                        throw new RuntimeException();
+                    }
+                });
+        BoundedAsyncExecutor executor = mock(BoundedAsyncExecutor.class);
+
+        AsyncServicePool<Service> pool = newDelayedRetryAsyncPool(executor);
+        future.set(pool.executeListenable(mock(DelayedRetryPolicy.class), mock(ServiceCallback.class)));
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).execute(task.capture());
+        task.getValue().run();
+
+        // The service pool only counts the failed attempt as a failure if the retry policy it's given isn't cancelled.
+        assertTrue(attemptRetry.get() instanceof CancellableRetryPolicy);
+        assertTrue(((CancellableRetryPolicy) attemptRetry.get()).isCancelled());
+        verifyZeroInteractions(_mockScheduler);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testDelayedRetryWithoutDelayIsNotScheduled() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        when(_mockPool.chooseEndPoint(any(PartitionContext.class), any(Exception.class))).thenReturn(endPoint);
+        when(_mockPool.executeAttempt(same(endPoint), any(ServiceCallback.class), any(RetryPolicy.class)))
+                .thenThrow(new RuntimeException()).thenReturn("result");
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(true);
+        DelayedRetryPolicy retry = mock(DelayedRetryPolicy.class);
+        when(retry.getRetryDelayMs(anyInt(), anyLong())).thenReturn(0L);
+
+        AsyncServicePool<Service> pool = newDelayedRetryAsyncPool(MoreExecutors.sameThreadExecutor());
+        ListenableFuture<String> future = pool.executeListenable(retry, mock(ServiceCallback.class));
+
+        assertEquals("result", future.get());
+        verifyZeroInteractions(_mockScheduler);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testDelayedRetryGivesUp() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        RuntimeException exception = new RuntimeException();
+        when(_mockPool.chooseEndPoint(any(PartitionContext.class), any(Exception.class))).thenReturn(endPoint);
+        when(_mockPool.executeAttempt(same(endPoint), any(ServiceCallback.class), any(RetryPolicy.class)))
+                .thenThrow(exception);
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(true);
+        DelayedRetryPolicy retry = mock(DelayedRetryPolicy.class);
+        when(retry.getRetryDelayMs(anyInt(), anyLong())).thenReturn(-1L);
+
+        AsyncServicePool<Service> pool = newDelayedRetryAsyncPool(MoreExecutors.sameThreadExecutor());
+        ListenableFuture<String> future = pool.executeListenable(retry, mock(ServiceCallback.class));
+
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof MaxRetriesException);
+            assertSame(exception, e.getCause().getCause());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testDelayedRetryNonRetriableException() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        RuntimeException exception = new RuntimeException();
+        when(_mockPool.chooseEndPoint(any(PartitionContext.class), any(Exception.class))).thenReturn(endPoint);
+        when(_mockPool.executeAttempt(same(endPoint), any(ServiceCallback.class), any(RetryPolicy.class)))
+                .thenThrow(exception);
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(false);
+        DelayedRetryPolicy retry = mock(DelayedRetryPolicy.class);
+
+        AsyncServicePool<Service> pool = newDelayedRetryAsyncPool(MoreExecutors.sameThreadExecutor());
+        ListenableFuture<String> future = pool.executeListenable(retry, mock(ServiceCallback.class));
+
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(exception, e.getCause());
+        }
+        verify(retry, never()).getRetryDelayMs(anyInt(), anyLong());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testDelayedRetryNoEndPoints() throws Exception {
+        NoAvailableHostsException exception = new NoAvailableHostsException();
+        when(_mockPool.chooseEndPoint(any(PartitionContext.class), any(Exception.class))).thenThrow(exception);
+
+        AsyncServicePool<Service> pool = newDelayedRetryAsyncPool(MoreExecutors.sameThreadExecutor());
+        ListenableFuture<String> future =
+                pool.executeListenable(mock(DelayedRetryPolicy.class), mock(ServiceCallback.class));
+
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(exception, e.getCause());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testExecuteOnDelayedRetryIsScheduled() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        when(_mockPool.getAllEndPoints()).thenReturn(Lists.newArrayList(endPoint));
+        when(_mockPool.executeOnEndPoint(same(endPoint), any(ServiceCallback.class)))
+                .thenThrow(new RuntimeException()).thenReturn("result");
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(true);
+        DelayedRetryPolicy retry = mock(DelayedRetryPolicy.class);
+        when(retry.getRetryDelayMs(eq(1), anyLong())).thenReturn(100L);
+
+        AsyncServicePool<Service> pool = newDelayedRetryAsyncPool(MoreExecutors.sameThreadExecutor());
+        Collection<ListenableFuture<String>> futures = pool.executeOnAllListenable(retry, mock(ServiceCallback.class));
+        ListenableFuture<String> future = futures.iterator().next();
+
+        assertFalse(future.isDone());
+        ArgumentCaptor<Runnable> retryTask = ArgumentCaptor.forClass(Runnable.class);
+        verify(_mockScheduler).schedule(retryTask.capture(), eq(100L), same(TimeUnit.MILLISECONDS));
+
+        retryTask.getValue().run();
+        assertEquals("result", future.get());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testDelayedRetryFailsWhenExecutorBusy() throws Exception {
+        ServiceEndPoint endPoint = mock(ServiceEndPoint.class);
+        RuntimeException exception = new RuntimeException();
+        when(_mockPool.chooseEndPoint(any(PartitionContext.class), any(Exception.class))).thenReturn(endPoint);
+        when(_mockPool.executeAttempt(same(endPoint), any(ServiceCallback.class), any(RetryPolicy.class)))
+                .thenThrow(exception);
+        when(_mockPool.isRetriableException(any(Exception.class))).thenReturn(true);
+        DelayedRetryPolicy retry = mock(DelayedRetryPolicy.class);
+        when(retry.getRetryDelayMs(eq(1), anyLong())).thenReturn(100L);
+        BoundedAsyncExecutor executor = mock(BoundedAsyncExecutor.class);
+        doThrow(new RejectedExecutionException()).when(executor).executeWithoutWaiting(any(Runnable.class));
+
+        AsyncServicePool<Service> pool = newDelayedRetryAsyncPool(executor);
+        ListenableFuture<String> future = pool.executeListenable(retry, mock(ServiceCallback.class));
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).execute(task.capture());
+        task.getValue().run();
+        ArgumentCaptor<Runnable> retryTask = ArgumentCaptor.forClass(Runnable.class);
+        verify(_mockScheduler).schedule(retryTask.capture(), eq(100L), same(TimeUnit.MILLISECONDS));
+
+        // The retry scheduler's thread mustn't run the retry itself or wait for the executor to have room.
+        retryTask.getValue().run();
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof MaxRetriesException);
+            assertSame(exception, e.getCause().getCause());
+        }
+        verify(executor, times(1)).execute(any(Runnable.class));
+        verify(_mockPool, times(1)).executeAttempt(same(endPoint), any(ServiceCallback.class), any(RetryPolicy.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testDelayedRetryPolicyWithoutScheduler() {
+        // Without a retry scheduler the service pool backs off on the executor thread, like any other retry policy.
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
+
+        DelayedRetryPolicy retry = mock(DelayedRetryPolicy.class);
+        ServiceCallback<Service, Void> callback = (ServiceCallback<Service, Void>) mock(ServiceCallback.class);
+        pool.execute(retry, callback);
+
+        ArgumentCaptor<RetryPolicy> retryCaptor = ArgumentCaptor.forClass(RetryPolicy.class);
+        verify(_mockPool).execute(retryCaptor.capture(), same(callback));
+        assertSame(retry, ((CancellableRetryPolicy) retryCaptor.getValue()).getDelegate());
+    }
+
+    @Test
+    public void testCloseDoesShutdownRetryScheduler() throws IOException {
+        AsyncServicePool<Service> pool = newDelayedRetryAsyncPool(_mockExecutor);
+        pool.close();
+
+        verify(_mockScheduler).shutdown();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testReduceOnAllFoldsResults() throws Exception {
+        ServiceEndPoint endPoint1 = mock(ServiceEndPoint.class);
+        ServiceEndPoint endPoint2 = mock(ServiceEndPoint.class);
+        when(_mockPool.getAllEndPoints()).thenReturn(Lists.newArrayList(endPoint1, endPoint2));
+        when(_mockPool.executeOnEndPoint(same(endPoint1), any(ServiceCallback.class))).thenReturn(1);
+        when(_mockPool.executeOnEndPoint(same(endPoint2), any(ServiceCallback.class))).thenReturn(2);
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
+
+        ListenableFuture<Integer> result = pool.reduceOnAll(NEVER_RETRY,
+                (ServiceCallback<Service, Integer>) mock(ServiceCallback.class), 1, SUM);
+
+        assertEquals(3, (int) result.get());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testReduceOnLimitsConcurrency() throws Exception {
+        when(_mockPool.getAllEndPoints()).thenReturn(Lists.newArrayList(
+                mock(ServiceEndPoint.class), mock(ServiceEndPoint.class), mock(ServiceEndPoint.class)));
+        when(_mockPool.executeOnEndPoint(any(ServiceEndPoint.class), any(ServiceCallback.class))).thenReturn(1);
+        AsyncServicePool<Service> pool = newAsyncPool();
+
+        pool.reduceOnAll(NEVER_RETRY, (ServiceCallback<Service, Integer>) mock(ServiceCallback.class), 2, SUM);
+
+        ArgumentCaptor<Runnable> tasks = ArgumentCaptor.forClass(Runnable.class);
+        verify(_mockExecutor, times(2)).execute(tasks.capture());
+
+        // The third call is only submitted once one of the first two completes.
+        tasks.getAllValues().get(0).run();
+        verify(_mockExecutor, times(3)).execute(any(Runnable.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testReduceOnDefersCallWhenExecutorBusy() throws Exception {
+        when(_mockPool.getAllEndPoints()).thenReturn(Lists.newArrayList(
+                mock(ServiceEndPoint.class), mock(ServiceEndPoint.class), mock(ServiceEndPoint.class)));
+        when(_mockPool.executeOnEndPoint(any(ServiceEndPoint.class), any(ServiceCallback.class))).thenReturn(1);
+        BoundedAsyncExecutor executor = mock(BoundedAsyncExecutor.class);
+        doThrow(new RejectedExecutionException()).when(executor).executeWithoutWaiting(any(Runnable.class));
+        AsyncServicePool<Service> pool = newAsyncPool(executor);
+
+        ListenableFuture<Integer> result = pool.reduceOnAll(NEVER_RETRY,
+                (ServiceCallback<Service, Integer>) mock(ServiceCallback.class), 2, SUM);
+        ArgumentCaptor<Runnable> tasks = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor, times(2)).execute(tasks.capture());
+
+        // The completing thread can't submit the third call, so it waits for the second call to complete.
+        tasks.getAllValues().get(0).run();
+        verify(executor, times(1)).executeWithoutWaiting(any(Runnable.class));
+        assertFalse(result.isDone());
+
+        doNothing().when(executor).executeWithoutWaiting(any(Runnable.class));
+        tasks.getAllValues().get(1).run();
+        ArgumentCaptor<Runnable> deferred = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor, times(2)).executeWithoutWaiting(deferred.capture());
+        deferred.getValue().run();
+        assertEquals(3, (int) result.get());
+        verify(executor, times(2)).execute(any(Runnable.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testReduceOnFailsWhenExecutorBusyWithNothingRunning() throws Exception {
+        when(_mockPool.getAllEndPoints()).thenReturn(Lists.newArrayList(
+                mock(ServiceEndPoint.class), mock(ServiceEndPoint.class)));
+        when(_mockPool.executeOnEndPoint(any(ServiceEndPoint.class), any(ServiceCallback.class))).thenReturn(1);
+        BoundedAsyncExecutor executor = mock(BoundedAsyncExecutor.class);
+        doThrow(new RejectedExecutionException()).when(executor).executeWithoutWaiting(any(Runnable.class));
+        AsyncServicePool<Service> pool = newAsyncPool(executor);
+
+        ListenableFuture<Integer> result = pool.reduceOnAll(NEVER_RETRY,
+                (ServiceCallback<Service, Integer>) mock(ServiceCallback.class), 1, SUM);
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor).execute(task.capture());
+        task.getValue().run();
+
+        try {
+            result.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testReduceOnFoldsFailures() throws Exception {
+        ServiceEndPoint endPoint1 = mock(ServiceEndPoint.class);
+        ServiceEndPoint endPoint2 = mock(ServiceEndPoint.class);
+        when(_mockPool.getAllEndPoints()).thenReturn(Lists.newArrayList(endPoint1, endPoint2));
+        when(_mockPool.executeOnEndPoint(same(endPoint1), any(ServiceCallback.class))).thenReturn(1);
+        when(_mockPool.executeOnEndPoint(same(endPoint2), any(ServiceCallback.class)))
+                .thenThrow(new NullPointerException());
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
+
+        ListenableFuture<Integer> result = pool.reduceOnAll(NEVER_RETRY,
+                (ServiceCallback<Service, Integer>) mock(ServiceCallback.class), 1, SUM);
+
+        assertEquals(101, (int) result.get());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testReduceOnReducerFailureStopsCalls() throws Exception {
+        when(_mockPool.getAllEndPoints()).thenReturn(Lists.newArrayList(
+                mock(ServiceEndPoint.class), mock(ServiceEndPoint.class)));
+        when(_mockPool.executeOnEndPoint(any(ServiceEndPoint.class), any(ServiceCallback.class)))
+                .thenThrow(new NullPointerException());
+        ResultReducer<Integer, Integer> failFast = mock(ResultReducer.class);
+        when(failFast.reduceFailure(anyInt(), any(ServiceEndPoint.class), any(Throwable.class)))
+                .thenThrow(new IllegalStateException());
+        AsyncServicePool<Service> pool = newAsyncPool(MoreExecutors.sameThreadExecutor());
+
+        ListenableFuture<Integer> result = pool.reduceOnAll(NEVER_RETRY,
+                (ServiceCallback<Service, Integer>) mock(ServiceCallback.class), 1, failFast);
+
+        try {
+            result.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        verify(_mockPool, times(1)).executeOnEndPoint(any(ServiceEndPoint.class), any(ServiceCallback.class));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testReduceOnNoMatchingEndPoints() throws Exception {
+        when(_mockPool.getAllEndPoints()).thenReturn(Lists.newArrayList(mock(ServiceEndPoint.class)));
+        ServiceEndPointPredicate predicate = mock(ServiceEndPointPredicate.class);
+        when(predicate.apply(any(ServiceEndPoint.class))).thenReturn(false);
+        AsyncServicePool<Service> pool = newAsyncPool();
+
+        ListenableFuture<Integer> result = pool.reduceOn(predicate, NEVER_RETRY,
+                (ServiceCallback<Service, Integer>) mock(ServiceCallback.class), 1, SUM);
+
+        assertEquals(0, (int) result.get());
+        verifyZeroInteractions(_mockExecutor);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test(expected = NoAvailableHostsException.class)
+    public void testReduceOnNoEndPoints() {
+        when(_mockPool.getAllEndPoints()).thenReturn(Lists.<ServiceEndPoint>newArrayList());
+        AsyncServicePool<Service> pool = newAsyncPool();
+
+        pool.reduceOnAll(NEVER_RETRY, (ServiceCallback<Service, Integer>) mock(ServiceCallback.class), 1, SUM);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test(expected = IllegalArgumentException.class)
+    public void testReduceOnInvalidConcurrency() {
+        AsyncServicePool<Service> pool = newAsyncPool();
+
+        pool.reduceOnAll(NEVER_RETRY, (ServiceCallback<Service, Integer>) mock(ServiceCallback.class), 0, SUM);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCancelReduceOnStopsCalls() {
+        when(_mockPool.getAllEndPoints()).thenReturn(Lists.newArrayList(
+                mock(ServiceEndPoint.class), mock(ServiceEndPoint.class)));
+        AsyncServicePool<Service> pool = newAsyncPool();
+
+        ListenableFuture<Integer> result = pool.reduceOnAll(NEVER_RETRY,
+                (ServiceCallback<Service, Integer>) mock(ServiceCallback.class), 1, SUM);
+        result.cancel(false);
+
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(_mockExecutor).execute(task.capture());
+        assertTrue(((ListenableFuture<?>) task.getValue()).isCancelled());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCancelStopsRetries() throws Exception {
+        AsyncServicePool<Service> pool = newAsyncPool();
+        RetryPolicy retry = mock(RetryPolicy.class);
+        when(retry.allowRetry(anyInt(), anyLong())).thenReturn(true);
+
+        long numCancellations = meter("num-execute-cancellations").count();
+        ListenableFuture<String> future = pool.executeListenable(retry, mock(ServiceCallback.class));
+        future.cancel(false);
+
+        // A cancelled task never reaches the service pool.
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(_mockExecutor).execute(task.capture());
+        task.getValue().run();
+        verify(_mockPool, never()).execute(any(RetryPolicy.class), any(ServiceCallback.class));
+        assertEquals(numCancellations + 1, meter("num-execute-cancellations").count());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCancelWhileExecutingStopsRetries() throws Exception {
+        final AtomicReference<ListenableFuture<?>> future = new AtomicReference<ListenableFuture<?>>();
+        final AtomicReference<Boolean> allowed = new AtomicReference<Boolean>();
+        RetryPolicy retry = mock(RetryPolicy.class);
+        when(retry.allowRetry(anyInt(), anyLong())).thenReturn(true);
+        when(_mockPool.execute(any(RetryPolicy.class), any(ServiceCallback.class))).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                // Cancel the call part way through, then try to retry it.
+                future.get().cancel(false);
+                allowed.set(((RetryPolicy) invocation.getArguments()[0]).allowRetry(1, 0));
+                return null;
+            }
+        });
+        AsyncServicePool<Service> pool = newAsyncPool();
+
+        future.set(pool.executeListenable(retry, mock(ServiceCallback.class)));
+        ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+        verify(_mockExecutor).execute(task.capture());
+        task.getValue().run();
+
+        assertFalse(allowed.get());
+        verify(retry, never()).allowRetry(anyInt(), anyLong());
+    }
+
+    @Test
+    public void testBoundedExecutorQueueMetrics() {
+        BoundedAsyncExecutor executor = new BoundedAsyncExecutor(new AsyncExecutorPolicyBuilder().build(),
+                Executors.defaultThreadFactory(), Ticker.systemTicker());
+        newAsyncPool(executor);
+        MetricName queueSize = new MetricName(AsyncServicePool.class, "execute-queue-size",
+                Service.class.getSimpleName());
+
+        assertTrue(Metrics.defaultRegistry().allMetrics().containsKey(queueSize));
+    }
+
     @Test
     public void testCloseDoesShutdownExecutor() throws IOException {
         AsyncServicePool<Service> pool = newAsyncPool(_mockExecutor, true);
@@ -444,6 +1003,11 @@ public class AsyncServicePoolTest {
         return newAsyncPool(_mockExecutor);
     }
 
+    private static Meter meter(String name) {
+        return (Meter) Metrics.defaultRegistry().allMetrics()
+                .get(new MetricName(AsyncServicePool.class, name, Service.class.getSimpleName()));
+    }
+
     private AsyncServicePool<Service> newAsyncPool(ExecutorService executor) {
         return newAsyncPool(executor, true);
     }
@@ -455,6 +1019,13 @@ public class AsyncServicePoolTest {
         return pool;
     }
 
+    private AsyncServicePool<Service> newDelayedRetryAsyncPool(ExecutorService executor) {
+        AsyncServicePool<Service> pool = new AsyncServicePool<Service>(_mockTicker, _mockPool, true, executor, true,
+                _mockScheduler, true);
+        _asyncServicePools.add(pool);
+        return pool;
+    }
+
     private AsyncServicePool<Service> newAsyncPool(ServicePool<Service> pool, boolean shutdownPoolOnClose) {
         AsyncServicePool<Service> asyncPool =
                 new AsyncServicePool<Service>(_mockTicker, pool, shutdownPoolOnClose, _mockExecutor, true);
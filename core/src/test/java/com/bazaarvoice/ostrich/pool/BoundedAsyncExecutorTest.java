@@ -0,0 +1,252 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.metrics.Metrics;
+import com.google.common.base.Ticker;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.Timer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.bazaarvoice.ostrich.pool.AsyncExecutorPolicy.RejectionAction;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BoundedAsyncExecutorTest {
+    private static final String SCOPE = "BoundedAsyncExecutorTest";
+
+    private final CountDownLatch _release = new CountDownLatch(1);
+    private final Runnable _blocker = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                _release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    };
+    private Metrics _metrics;
+    private BoundedAsyncExecutor _executor;
+
+    @Before
+    public void setup() {
+        _metrics = Metrics.forClass(AsyncServicePool.class);
+    }
+
+    @After
+    public void teardown() {
+        _release.countDown();
+        if (_executor != null) {
+            _executor.shutdownNow();
+        }
+        _metrics.close();
+    }
+
+    @Test
+    public void testRunsTasks() throws Exception {
+        _executor = newExecutor(RejectionAction.FAIL, 0);
+        final CountDownLatch ran = new CountDownLatch(1);
+        _executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        });
+
+        assertTrue(ran.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFailWhenQueueFull() {
+        _executor = newExecutor(RejectionAction.FAIL, 0);
+        fill();
+
+        try {
+            _executor.execute(_blocker);
+            fail();
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+        assertEquals(1, meter("num-execute-rejections").count());
+    }
+
+    @Test
+    public void testCallerRunsWhenQueueFull() {
+        _executor = newExecutor(RejectionAction.CALLER_RUNS, 0);
+        fill();
+
+        final AtomicReference<Thread> thread = new AtomicReference<Thread>();
+        _executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                thread.set(Thread.currentThread());
+            }
+        });
+
+        assertSame(Thread.currentThread(), thread.get());
+        assertEquals(1, meter("num-execute-rejections").count());
+    }
+
+    @Test
+    public void testCallerRunsRejectsWithoutWaiting() {
+        _executor = newExecutor(RejectionAction.CALLER_RUNS, 0);
+        fill();
+
+        try {
+            _executor.executeWithoutWaiting(new Runnable() {
+                @Override
+                public void run() {
+                    fail();
+                }
+            });
+            fail();
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+        assertEquals(1, meter("num-execute-rejections").count());
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testCallerRunsRejectsAfterShutdown() {
+        _executor = newExecutor(RejectionAction.CALLER_RUNS, 0);
+        _executor.shutdown();
+
+        _executor.execute(_blocker);
+    }
+
+    @Test
+    public void testWaitTimesOut() {
+        _executor = newExecutor(RejectionAction.WAIT, 10);
+        fill();
+
+        try {
+            _executor.execute(_blocker);
+            fail();
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+        assertEquals(1, meter("num-execute-rejections").count());
+    }
+
+    @Test
+    public void testWaitRejectsWithoutWaiting() {
+        _executor = newExecutor(RejectionAction.WAIT, TimeUnit.SECONDS.toMillis(10));
+        fill();
+
+        long start = System.nanoTime();
+        try {
+            _executor.executeWithoutWaiting(_blocker);
+            fail();
+        } catch (RejectedExecutionException e) {
+            // Expected
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 10);
+        assertEquals(1, meter("num-execute-rejections").count());
+    }
+
+    @Test
+    public void testWaitForSpaceInQueue() throws Exception {
+        _executor = newExecutor(RejectionAction.WAIT, TimeUnit.SECONDS.toMillis(10));
+        fill();
+
+        // Free up the thread, and so the queue, while the next task is waiting to be queued.
+        ScheduledExecutorService releaser = Executors.newSingleThreadScheduledExecutor();
+        releaser.schedule(new Runnable() {
+            @Override
+            public void run() {
+                _release.countDown();
+            }
+        }, 50, TimeUnit.MILLISECONDS);
+
+        final CountDownLatch ran = new CountDownLatch(1);
+        try {
+            _executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ran.countDown();
+                }
+            });
+        } finally {
+            releaser.shutdown();
+        }
+
+        assertTrue(ran.await(10, TimeUnit.SECONDS));
+        assertEquals(0, meter("num-execute-rejections").count());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testQueueMetrics() throws Exception {
+        _executor = newExecutor(RejectionAction.FAIL, 0);
+        fill();
+
+        Gauge<Integer> queueSize = (Gauge<Integer>) metric("execute-queue-size");
+        assertEquals(1, (int) queueSize.value());
+
+        _release.countDown();
+        _executor.shutdown();
+        assertTrue(_executor.awaitTermination(10, TimeUnit.SECONDS));
+
+        assertEquals(0, (int) queueSize.value());
+        assertEquals(2, ((Timer) metric("execute-queue-wait-time")).count());
+    }
+
+    /**
+     * Occupies the executor's one thread and one queue slot.
+     */
+    private void fill() {
+        _executor.execute(_blocker);
+        _executor.execute(_blocker);
+    }
+
+    private BoundedAsyncExecutor newExecutor(RejectionAction action, long maxQueueWaitTimeMs) {
+        AsyncExecutorPolicyBuilder builder = new AsyncExecutorPolicyBuilder()
+                .withMaxNumThreads(1)
+                .withQueueCapacity(1)
+                .withRejectionAction(action);
+        if (maxQueueWaitTimeMs > 0) {
+            builder.withMaxQueueWaitTime(maxQueueWaitTimeMs, TimeUnit.MILLISECONDS);
+        }
+        BoundedAsyncExecutor executor = new BoundedAsyncExecutor(builder.build(), Executors.defaultThreadFactory(),
+                Ticker.systemTicker());
+        executor.registerMetrics(_metrics, SCOPE);
+        return executor;
+    }
+
+    private Meter meter(String name) {
+        return (Meter) metric(name);
+    }
+
+    private Metric metric(String name) {
+        return com.yammer.metrics.Metrics.defaultRegistry().allMetrics()
+                .get(new MetricName(AsyncServicePool.class, name, SCOPE));
+    }
+}
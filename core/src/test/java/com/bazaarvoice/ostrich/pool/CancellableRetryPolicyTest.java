@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.DelayedRetryPolicy;
+import com.bazaarvoice.ostrich.RetryPolicy;
+import com.google.common.base.Stopwatch;
+import org.junit.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+public class CancellableRetryPolicyTest {
+    @Test
+    public void testDelegates() {
+        RetryPolicy delegate = mock(RetryPolicy.class);
+        when(delegate.allowRetry(1, 0)).thenReturn(true);
+        CancellableRetryPolicy retry = new CancellableRetryPolicy(delegate);
+
+        assertTrue(retry.allowRetry(1, 0));
+        assertFalse(retry.allowRetry(2, 0));
+    }
+
+    @Test
+    public void testNoRetryOnceCancelled() {
+        RetryPolicy delegate = mock(RetryPolicy.class);
+        CancellableRetryPolicy retry = new CancellableRetryPolicy(delegate);
+        retry.cancel();
+
+        assertTrue(retry.isCancelled());
+        assertFalse(retry.allowRetry(1, 0));
+        verifyZeroInteractions(delegate);
+    }
+
+    @Test
+    public void testWaitsOutDelay() {
+        DelayedRetryPolicy delegate = mock(DelayedRetryPolicy.class);
+        when(delegate.getRetryDelayMs(anyInt(), anyLong())).thenReturn(20L);
+        CancellableRetryPolicy retry = new CancellableRetryPolicy(delegate);
+
+        Stopwatch sw = new Stopwatch().start();
+        assertTrue(retry.allowRetry(1, 0));
+        assertTrue(sw.elapsedMillis() >= 20);
+    }
+
+    @Test
+    public void testNoRetryWithNegativeDelay() {
+        DelayedRetryPolicy delegate = mock(DelayedRetryPolicy.class);
+        when(delegate.getRetryDelayMs(anyInt(), anyLong())).thenReturn(-1L);
+
+        assertFalse(new CancellableRetryPolicy(delegate).allowRetry(1, 0));
+    }
+
+    @Test
+    public void testCancelCutsDelayShort() {
+        DelayedRetryPolicy delegate = mock(DelayedRetryPolicy.class);
+        when(delegate.getRetryDelayMs(anyInt(), anyLong())).thenReturn(TimeUnit.MINUTES.toMillis(10));
+        final CancellableRetryPolicy retry = new CancellableRetryPolicy(delegate);
+
+        ScheduledExecutorService canceller = Executors.newSingleThreadScheduledExecutor();
+        try {
+            canceller.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    retry.cancel();
+                }
+            }, 50, TimeUnit.MILLISECONDS);
+
+            Stopwatch sw = new Stopwatch().start();
+            assertFalse(retry.allowRetry(1, 0));
+            assertTrue(sw.elapsedMillis() < TimeUnit.MINUTES.toMillis(1));
+        } finally {
+            canceller.shutdown();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.exceptions.NoAvailableHostsException;
+import com.bazaarvoice.ostrich.exceptions.NoQuorumException;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FanOutsTest {
+    private static final RuntimeException FAILURE = new RuntimeException("failure");
+
+    private SettableFuture<String> _first;
+    private SettableFuture<String> _second;
+    private SettableFuture<String> _third;
+    private List<SettableFuture<String>> _futures;
+
+    @Before
+    public void setup() {
+        _first = SettableFuture.create();
+        _second = SettableFuture.create();
+        _third = SettableFuture.create();
+        _futures = ImmutableList.of(_first, _second, _third);
+    }
+
+    @Test
+    public void testInCompletionOrder() throws Exception {
+        List<ListenableFuture<String>> ordered = FanOuts.inCompletionOrder(_futures);
+        _third.set("third");
+        _first.setException(FAILURE);
+
+        assertEquals("third", ordered.get(0).get());
+        assertSame(FAILURE, getFailure(ordered.get(1)));
+        assertFalse(ordered.get(2).isDone());
+
+        _second.cancel(false);
+        assertTrue(ordered.get(2).isCancelled());
+    }
+
+    @Test
+    public void testInCompletionOrderAlreadyComplete() throws Exception {
+        _second.set("second");
+        List<ListenableFuture<String>> ordered = FanOuts.inCompletionOrder(_futures);
+        _first.set("first");
+        _third.set("third");
+
+        assertEquals("second", ordered.get(0).get());
+        assertEquals("first", ordered.get(1).get());
+        assertEquals("third", ordered.get(2).get());
+    }
+
+    @Test
+    public void testFirstSuccess() throws Exception {
+        ListenableFuture<String> result = FanOuts.firstSuccess(_futures);
+        _first.setException(FAILURE);
+        assertFalse(result.isDone());
+
+        _second.set("second");
+        assertEquals("second", result.get());
+        assertTrue(_third.isCancelled());
+    }
+
+    @Test
+    public void testFirstSuccessAllFail() throws Exception {
+        ListenableFuture<String> result = FanOuts.firstSuccess(_futures);
+        _first.setException(new RuntimeException());
+        _second.setException(new RuntimeException());
+        _third.setException(FAILURE);
+
+        assertSame(FAILURE, getFailure(result));
+    }
+
+    @Test
+    public void testFirstSuccessNoCalls() throws Exception {
+        ListenableFuture<String> result = FanOuts.firstSuccess(Collections.<ListenableFuture<String>>emptyList());
+
+        assertTrue(getFailure(result) instanceof NoAvailableHostsException);
+    }
+
+    @Test
+    public void testCancelResultCancelsCalls() {
+        ListenableFuture<String> result = FanOuts.firstSuccess(_futures);
+        result.cancel(false);
+
+        assertTrue(_first.isCancelled());
+        assertTrue(_second.isCancelled());
+        assertTrue(_third.isCancelled());
+    }
+
+    @Test
+    public void testResultListenersRunWithoutLock() throws Exception {
+        // A call that ignores cancellation, so it can still complete after the result is decided.
+        final UncancellableFuture<String> late = new UncancellableFuture<String>();
+        ListenableFuture<String> result = FanOuts.firstSuccess(ImmutableList.of(_first, late));
+
+        // A listener that waits for another thread to complete a call would deadlock if the lock were still held.
+        final Thread completer = new Thread() {
+            @Override
+            public void run() {
+                late.complete("late");
+            }
+        };
+        final AtomicBoolean completed = new AtomicBoolean();
+        result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                completer.start();
+                try {
+                    completer.join(TimeUnit.SECONDS.toMillis(10));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                completed.set(!completer.isAlive());
+            }
+        }, MoreExecutors.sameThreadExecutor());
+
+        _first.set("first");
+        assertTrue(completed.get());
+        assertEquals("first", result.get());
+    }
+
+    @Test
+    public void testFirstSuccesses() throws Exception {
+        ListenableFuture<List<String>> result = FanOuts.firstSuccesses(_futures, 2);
+        _third.set("third");
+        _second.setException(FAILURE);
+        assertFalse(result.isDone());
+
+        _first.set("first");
+        assertEquals(ImmutableList.of("third", "first"), result.get());
+    }
+
+    @Test
+    public void testFirstSuccessesCancelsRemainingCalls() throws Exception {
+        ListenableFuture<List<String>> result = FanOuts.firstSuccesses(_futures, 2);
+        _first.set("first");
+        _second.set("second");
+
+        assertEquals(ImmutableList.of("first", "second"), result.get());
+        assertTrue(_third.isCancelled());
+    }
+
+    @Test
+    public void testFirstSuccessesFailsAsSoonAsImpossible() throws Exception {
+        ListenableFuture<List<String>> result = FanOuts.firstSuccesses(_futures, 2);
+        _first.setException(new RuntimeException());
+        assertFalse(result.isDone());
+
+        _second.setException(FAILURE);
+        assertSame(FAILURE, getFailure(result));
+        assertTrue(_third.isCancelled());
+    }
+
+    @Test
+    public void testFirstSuccessesMoreThanCalls() throws Exception {
+        ListenableFuture<List<String>> result = FanOuts.firstSuccesses(_futures, 4);
+
+        assertTrue(getFailure(result) instanceof NoAvailableHostsException);
+    }
+
+    @Test
+    public void testFirstZeroSuccesses() throws Exception {
+        ListenableFuture<List<String>> result = FanOuts.firstSuccesses(_futures, 0);
+
+        assertEquals(Collections.<String>emptyList(), result.get());
+        assertTrue(_first.isCancelled());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeFirstSuccesses() {
+        FanOuts.firstSuccesses(_futures, -1);
+    }
+
+    @Test
+    public void testQuorum() throws Exception {
+        ListenableFuture<String> result = FanOuts.quorum(_futures, 2);
+        _first.set("a");
+        _second.set("b");
+        assertFalse(result.isDone());
+
+        _third.set("b");
+        assertEquals("b", result.get());
+    }
+
+    @Test
+    public void testQuorumCancelsRemainingCalls() throws Exception {
+        ListenableFuture<String> result = FanOuts.quorum(_futures, 2);
+        _first.set("a");
+        _second.set("a");
+
+        assertEquals("a", result.get());
+        assertTrue(_third.isCancelled());
+    }
+
+    @Test
+    public void testQuorumOfNulls() throws Exception {
+        ListenableFuture<String> result = FanOuts.quorum(_futures, 2);
+        _first.set(null);
+        _second.set(null);
+
+        assertEquals(null, result.get());
+    }
+
+    @Test
+    public void testNoQuorum() throws Exception {
+        ListenableFuture<String> result = FanOuts.quorum(_futures, 2);
+        _first.set("a");
+        _second.set("b");
+        assertFalse(result.isDone());
+
+        _third.setException(FAILURE);
+        Throwable failure = getFailure(result);
+        assertTrue(failure instanceof NoQuorumException);
+        assertSame(FAILURE, failure.getCause());
+    }
+
+    @Test
+    public void testNoQuorumAsSoonAsImpossible() throws Exception {
+        ListenableFuture<String> result = FanOuts.quorum(_futures, 3);
+        _first.set("a");
+        _second.set("b");
+
+        assertTrue(getFailure(result) instanceof NoQuorumException);
+        assertTrue(_third.isCancelled());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroQuorum() {
+        FanOuts.quorum(_futures, 0);
+    }
+
+    private static class UncancellableFuture<V> extends AbstractFuture<V> {
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        void complete(V value) {
+            set(value);
+        }
+    }
+
+    private static Throwable getFailure(ListenableFuture<?> future) throws InterruptedException {
+        try {
+            future.get();
+            fail();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.DelayedRetryPolicy;
+import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.retry.ExponentialBackoffRetry;
+import com.bazaarvoice.ostrich.retry.Idempotent;
+import com.bazaarvoice.ostrich.retry.Retry;
+import com.bazaarvoice.ostrich.retry.RetryNTimes;
+import com.bazaarvoice.ostrich.retry.Timeout;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MethodRetryPoliciesTest {
+    private final RetryPolicy _defaultPolicy = mock(RetryPolicy.class);
+
+    @Test(expected = NullPointerException.class)
+    public void testNullDefaultPolicy() {
+        new MethodRetryPolicies(Service.class, null);
+    }
+
+    @Test
+    public void testDefaultPolicy() throws Exception {
+        MethodRetryPolicies policies = new MethodRetryPolicies(Service.class, _defaultPolicy);
+
+        assertSame(_defaultPolicy, policies.forMethod(method(Service.class, "plain")));
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        MethodRetryPolicies policies = new MethodRetryPolicies(Service.class, _defaultPolicy);
+        RetryPolicy policy = policies.forMethod(method(Service.class, "retried"));
+
+        assertTrue(policy instanceof RetryNTimes);
+        assertTrue(policy.allowRetry(2, 0));
+        assertFalse(policy.allowRetry(3, 0));
+    }
+
+    @Test
+    public void testRetryWithBackoff() throws Exception {
+        MethodRetryPolicies policies = new MethodRetryPolicies(Service.class, _defaultPolicy);
+
+        assertTrue(policies.forMethod(method(Service.class, "backedOff")) instanceof ExponentialBackoffRetry);
+    }
+
+    @Test
+    public void testTimeoutAllowsRetryBeforeDeadline() throws Exception {
+        when(_defaultPolicy.allowRetry(anyInt(), anyLong())).thenReturn(true);
+        MethodRetryPolicies policies = new MethodRetryPolicies(Service.class, _defaultPolicy);
+
+        assertTrue(policies.forMethod(method(Service.class, "timed")).allowRetry(1, 999));
+    }
+
+    @Test
+    public void testTimeoutStopsRetryAfterDeadline() throws Exception {
+        when(_defaultPolicy.allowRetry(anyInt(), anyLong())).thenReturn(true);
+        MethodRetryPolicies policies = new MethodRetryPolicies(Service.class, _defaultPolicy);
+
+        assertFalse(policies.forMethod(method(Service.class, "timed")).allowRetry(1, 1000));
+        verify(_defaultPolicy, never()).allowRetry(anyInt(), anyLong());
+    }
+
+    @Test
+    public void testTimeoutRespectsPolicy() throws Exception {
+        MethodRetryPolicies policies = new MethodRetryPolicies(Service.class, _defaultPolicy);
+
+        assertFalse(policies.forMethod(method(Service.class, "timed")).allowRetry(1, 0));
+        verify(_defaultPolicy).allowRetry(1, 0);
+    }
+
+    @Test
+    public void testTimeoutDelay() throws Exception {
+        DelayedRetryPolicy defaultPolicy = mock(DelayedRetryPolicy.class);
+        when(defaultPolicy.getRetryDelayMs(anyInt(), anyLong())).thenReturn(100L);
+        MethodRetryPolicies policies = new MethodRetryPolicies(Service.class, defaultPolicy);
+        DelayedRetryPolicy policy = (DelayedRetryPolicy) policies.forMethod(method(Service.class, "timed"));
+
+        assertEquals(100, policy.getRetryDelayMs(1, 0));
+        assertTrue(policy.getRetryDelayMs(1, 900) < 0);  // The retry would start after the deadline.
+        assertTrue(policy.getRetryDelayMs(1, 1000) < 0);
+    }
+
+    @Test
+    public void testTimeoutWithBlockingPolicyIsNotDelayed() throws Exception {
+        when(_defaultPolicy.allowRetry(anyInt(), anyLong())).thenReturn(true);
+        MethodRetryPolicies policies = new MethodRetryPolicies(Service.class, _defaultPolicy);
+        RetryPolicy policy = policies.forMethod(method(Service.class, "timed"));
+
+        // The delegate may block in allowRetry, so the async pool must not be told it can schedule the retry instead.
+        assertFalse(policy instanceof DelayedRetryPolicy);
+        assertTrue(policy.allowRetry(1, 0));
+        assertFalse(policy.allowRetry(1, 1000));
+    }
+
+    @Test
+    public void testTimeoutDelayDoesNotCallBlockingMethod() throws Exception {
+        DelayedRetryPolicy defaultPolicy = mock(DelayedRetryPolicy.class);
+        when(defaultPolicy.getRetryDelayMs(anyInt(), anyLong())).thenReturn(100L);
+        MethodRetryPolicies policies = new MethodRetryPolicies(Service.class, defaultPolicy);
+        DelayedRetryPolicy policy = (DelayedRetryPolicy) policies.forMethod(method(Service.class, "timed"));
+
+        policy.getRetryDelayMs(1, 0);
+        verify(defaultPolicy, never()).allowRetry(anyInt(), anyLong());
+    }
+
+    @Test
+    public void testTimeoutDoesNotSleepPastDeadline() throws Exception {
+        MethodRetryPolicies policies = new MethodRetryPolicies(Service.class, _defaultPolicy);
+        RetryPolicy policy = policies.forMethod(method(Service.class, "timedWithLongBackoff"));
+
+        // The 5 second backoff would overrun the 1 second timeout, so the retry is refused without sleeping.
+        long start = System.nanoTime();
+        assertFalse(policy.allowRetry(1, 0));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+    }
+
+    @Test
+    public void testTimeoutSleepsForDelegateDelay() throws Exception {
+        DelayedRetryPolicy defaultPolicy = mock(DelayedRetryPolicy.class);
+        when(defaultPolicy.getRetryDelayMs(anyInt(), anyLong())).thenReturn(10L);
+        MethodRetryPolicies policies = new MethodRetryPolicies(Service.class, defaultPolicy);
+
+        assertTrue(policies.forMethod(method(Service.class, "timed")).allowRetry(1, 0));
+        assertFalse(policies.forMethod(method(Service.class, "timed")).allowRetry(1, 995));
+        verify(defaultPolicy, never()).allowRetry(anyInt(), anyLong());
+    }
+
+    @Test
+    public void testIdempotentMethodRetried() throws Exception {
+        MethodRetryPolicies policies = new MethodRetryPolicies(IdempotentService.class, _defaultPolicy);
+
+        assertSame(_defaultPolicy, policies.forMethod(method(IdempotentService.class, "read")));
+    }
+
+    @Test
+    public void testNonIdempotentMethodNotRetried() throws Exception {
+        when(_defaultPolicy.allowRetry(anyInt(), anyLong())).thenReturn(true);
+        MethodRetryPolicies policies = new MethodRetryPolicies(IdempotentService.class, _defaultPolicy);
+
+        assertFalse(policies.forMethod(method(IdempotentService.class, "write")).allowRetry(1, 0));
+    }
+
+    @Test
+    public void testRetryOverridesIdempotent() throws Exception {
+        MethodRetryPolicies policies = new MethodRetryPolicies(IdempotentService.class, _defaultPolicy);
+
+        assertTrue(policies.forMethod(method(IdempotentService.class, "retriedWrite")).allowRetry(1, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidMaxAttempts() throws Exception {
+        new MethodRetryPolicies(InvalidService.class, _defaultPolicy)
+                .forMethod(method(InvalidService.class, "noAttempts"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeBackoff() throws Exception {
+        new MethodRetryPolicies(InvalidService.class, _defaultPolicy)
+                .forMethod(method(InvalidService.class, "negativeBackoff"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidTimeout() throws Exception {
+        new MethodRetryPolicies(InvalidService.class, _defaultPolicy)
+                .forMethod(method(InvalidService.class, "noTimeout"));
+    }
+
+    private static Method method(Class<?> type, String name) throws NoSuchMethodException {
+        return type.getMethod(name);
+    }
+
+    private static interface Service {
+        void plain();
+
+        @Retry(maxAttempts = 3)
+        void retried();
+
+        @Retry(maxAttempts = 3, backoff = 10, maxBackoff = 100)
+        void backedOff();
+
+        @Timeout(value = 1, unit = TimeUnit.SECONDS)
+        void timed();
+
+        @Retry(maxAttempts = 3, backoff = 5, unit = TimeUnit.SECONDS)
+        @Timeout(value = 1, unit = TimeUnit.SECONDS)
+        void timedWithLongBackoff();
+    }
+
+    private static interface IdempotentService {
+        @Idempotent
+        void read();
+
+        void write();
+
+        @Retry(maxAttempts = 2)
+        void retriedWrite();
+    }
+
+    private static interface InvalidService {
+        @Retry(maxAttempts = 0)
+        void noAttempts();
+
+        @Retry(maxAttempts = 2, backoff = -1)
+        void negativeBackoff();
+
+        @Timeout(0)
+        void noTimeout();
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.HealthCheckResults;
+import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.RetryPolicy;
+import com.bazaarvoice.ostrich.ServiceCallback;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ServiceEndPointBuilder;
+import com.bazaarvoice.ostrich.ServiceFactory;
+import com.bazaarvoice.ostrich.ServicePool;
+import com.bazaarvoice.ostrich.discovery.FixedHostDiscovery;
+import com.bazaarvoice.ostrich.exceptions.ServiceException;
+import com.bazaarvoice.ostrich.retry.RetryNTimes;
+/**
+ * Measures the overhead of calling a service through a {@link ServicePoolProxy} compared with calling the same
+ * service through the pool with a hand-written callback.  The pool used here just runs the callback, so the numbers
+ * isolate the cost of proxy dispatch.  Not run as part of the unit tests, run it manually with:
+ * <pre>
+ * java -cp ... com.bazaarvoice.ostrich.pool.ProxyBenchmark [callback|proxy|pool|all] [callsPerRound]
+ * </pre>
+ * Run each kind of dispatch in its own JVM for comparable numbers, otherwise the call sites they share become
+ * megamorphic and whichever runs last is penalized.
+ */
+public class ProxyBenchmark {
+    private static final int ROUNDS = 10;
+
+    /** Keeps the JIT from eliminating the calls being measured. */
+    private static volatile long _sink;
+
+    public static void main(String[] args) throws Exception {
+        String dispatch = (args.length > 0) ? args[0] : "all";
+        int calls = (args.length > 1) ? Integer.parseInt(args[1]) : 5000000;
+
+        final ServicePool<Calculator> pool = new DirectServicePool<Calculator>(new CalculatorImpl());
+        final RetryPolicy retry = new RetryNTimes(1);
+
+        Calculator direct = new Calculator() {
+            @Override
+            public int add(final int a, final int b) {
+                return pool.execute(retry, new ServiceCallback<Calculator, Integer>() {
+                    @Override
+                    public Integer call(Calculator service) throws ServiceException {
+                        return service.add(a, b);
+                    }
+                });
+            }
+
+            @Override
+            public int zero() {
+                return pool.execute(retry, new ServiceCallback<Calculator, Integer>() {
+                    @Override
+                    public Integer call(Calculator service) throws ServiceException {
+                        return service.zero();
+                    }
+                });
+            }
+        };
+        Calculator proxy = ServicePoolProxy.create(Calculator.class, retry, pool,
+                new EmptyPartitionContextSupplier(), false);
+
+        System.out.printf("%d calls per round, best of %d rounds%n", calls, ROUNDS);
+        System.out.printf("%-20s %14s %14s%n", "dispatch", "add(a,b) ns", "zero() ns");
+        if (dispatch.equals("all") || dispatch.equals("callback")) {
+            run("callback", direct, calls);
+        }
+        if (dispatch.equals("all") || dispatch.equals("proxy")) {
+            run("proxy", proxy, calls);
+        }
+        if (dispatch.equals("all") || dispatch.equals("pool")) {
+            // For scale: the same proxy in front of a real service pool with one cached service instance.
+            Calculator pooled = ServicePoolBuilder.create(Calculator.class)
+                    .withHostDiscovery(new FixedHostDiscovery(new ServiceEndPointBuilder()
+                            .withServiceName("calculator")
+                            .withId("localhost:8080")
+                            .build()))
+                    .withServiceFactory(new CalculatorFactory())
+                    .withCachingPolicy(ServiceCachingPolicyBuilder.NO_CACHING)
+                    .buildProxy(retry);
+            try {
+                run("proxy + pool", pooled, calls / 10);
+            } finally {
+                ServicePoolProxies.close(pooled);
+            }
+        }
+    }
+
+    private static void run(String name, Calculator calculator, int calls) {
+        double bestAdd = Double.MAX_VALUE;
+        double bestZero = Double.MAX_VALUE;
+        long sink = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < calls; i++) {
+                sink += calculator.add(i, 1);
+            }
+            bestAdd = Math.min(bestAdd, (System.nanoTime() - start) / (double) calls);
+
+            start = System.nanoTime();
+            for (int i = 0; i < calls; i++) {
+                sink += calculator.zero();
+            }
+            bestZero = Math.min(bestZero, (System.nanoTime() - start) / (double) calls);
+        }
+        _sink = sink;
+        System.out.printf("%-20s %14.1f %14.1f%n", name, bestAdd, bestZero);
+    }
+
+    public static interface Calculator {
+        int add(int a, int b);
+        int zero();
+    }
+
+    private static class CalculatorImpl implements Calculator {
+        @Override
+        public int add(int a, int b) {
+            return a + b;
+        }
+
+        @Override
+        public int zero() {
+            return 0;
+        }
+    }
+
+    private static class CalculatorFactory implements ServiceFactory<Calculator> {
+        private final Calculator _calculator = new CalculatorImpl();
+
+        @Override
+        public String getServiceName() {
+            return "calculator";
+        }
+
+        @Override
+        public void configure(ServicePoolBuilder<Calculator> servicePoolBuilder) {
+        }
+
+        @Override
+        public Calculator create(ServiceEndPoint endPoint) {
+            return _calculator;
+        }
+
+        @Override
+        public void destroy(ServiceEndPoint endPoint, Calculator service) {
+        }
+
+        @Override
+        public boolean isHealthy(ServiceEndPoint endPoint) {
+            return true;
+        }
+
+        @Override
+        public boolean isRetriableException(Exception exception) {
+            return false;
+        }
+    }
+
+    /**
+     * A service pool with a single service instance that runs every callback on the calling thread.
+     */
+    private static class DirectServicePool<S> implements ServicePool<S> {
+        private final S _service;
+
+        DirectServicePool(S service) {
+            _service = service;
+        }
+
+        @Override
+        public <R> R execute(RetryPolicy retryPolicy, ServiceCallback<S, R> callback) {
+            return callback.call(_service);
+        }
+
+        @Override
+        public <R> R execute(PartitionContext partitionContext, RetryPolicy retryPolicy,
+                             ServiceCallback<S, R> callback) {
+            return callback.call(_service);
+        }
+
+        @Override
+        public HealthCheckResults checkForHealthyEndPoint() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getNumValidEndPoints() {
+            return 1;
+        }
+
+        @Override
+        public int getNumBadEndPoints() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
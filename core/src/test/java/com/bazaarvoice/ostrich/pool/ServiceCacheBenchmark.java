@@ -0,0 +1,145 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+import com.bazaarvoice.ostrich.ServiceEndPointBuilder;
+import com.bazaarvoice.ostrich.ServiceFactory;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how {@link ServiceCache} check out and check in throughput scales with the number of threads using the
+ * cache at once.  Each thread repeatedly checks an instance of a random end point out and back in, so the cache itself
+ * is the only shared state.  Not run as part of the unit tests, run it manually with:
+ * <pre>
+ * java -cp ... com.bazaarvoice.ostrich.pool.ServiceCacheBenchmark [maxThreads] [endPoints] [seconds]
+ * </pre>
+ * Thread counts above the number of available processors measure contention rather than scaling.
+ */
+public class ServiceCacheBenchmark {
+    public static void main(String[] args) throws Exception {
+        int maxThreads = (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int numEndPoints = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+        int seconds = (args.length > 2) ? Integer.parseInt(args[2]) : 2;
+
+        List<ServiceEndPoint> endPoints = Lists.newArrayList();
+        for (int i = 0; i < numEndPoints; i++) {
+            endPoints.add(new ServiceEndPointBuilder()
+                    .withServiceName("benchmark")
+                    .withId("host-" + i + ":8080")
+                    .build());
+        }
+
+        ServiceCachingPolicy policy = new ServiceCachingPolicyBuilder()
+                .withMaxNumServiceInstancesPerEndPoint(maxThreads)
+                .withCacheExhaustionAction(ServiceCachingPolicy.ExhaustionAction.WAIT)
+                .build();
+        ServiceCache<Object> cache = new ServiceCache<Object>(Ticker.systemTicker(), policy, new ObjectFactory());
+
+        System.out.printf("%d end points, %d s per run, %d processors%n", numEndPoints, seconds,
+                Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-8s %16s %18s%n", "threads", "ops/s", "ops/s per thread");
+        try {
+            // Warm up.
+            run(cache, endPoints, maxThreads, seconds);
+
+            for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2) {
+                long ops = run(cache, endPoints, numThreads, seconds);
+                System.out.printf("%-8d %16.0f %18.0f%n", numThreads, (double) ops / seconds,
+                        (double) ops / seconds / numThreads);
+            }
+        } finally {
+            cache.close();
+        }
+    }
+
+    private static long run(final ServiceCache<Object> cache, final List<ServiceEndPoint> endPoints, int numThreads,
+                            int seconds) throws Exception {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<Long>> futures = Lists.newArrayList();
+            for (int i = 0; i < numThreads; i++) {
+                final Random random = new Random(i);
+                futures.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        start.await();
+                        long ops = 0;
+                        while (System.nanoTime() < deadline) {
+                            for (int j = 0; j < 100; j++) {
+                                ServiceEndPoint endPoint = endPoints.get(random.nextInt(endPoints.size()));
+                                cache.checkIn(cache.checkOut(endPoint));
+                            }
+                            ops += 100;
+                        }
+                        return ops;
+                    }
+                }));
+            }
+            start.countDown();
+
+            long ops = 0;
+            for (Future<Long> future : futures) {
+                ops += future.get();
+            }
+            return ops;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static class ObjectFactory implements ServiceFactory<Object> {
+        @Override
+        public String getServiceName() {
+            return "benchmark";
+        }
+
+        @Override
+        public void configure(ServicePoolBuilder<Object> servicePoolBuilder) {
+        }
+
+        @Override
+        public Object create(ServiceEndPoint endPoint) {
+            return new Object();
+        }
+
+        @Override
+        public void destroy(ServiceEndPoint endPoint, Object service) {
+        }
+
+        @Override
+        public boolean isHealthy(ServiceEndPoint endPoint) {
+            return true;
+        }
+
+        @Override
+        public boolean isRetriableException(Exception exception) {
+            return false;
+        }
+    }
+}
@@ -17,10 +17,12 @@ package com.bazaarvoice.ostrich.pool;
 
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceFactory;
+import com.bazaarvoice.ostrich.ValidatingServiceFactory;
 import com.bazaarvoice.ostrich.exceptions.NoCachedInstancesAvailableException;
+import com.google.common.base.Ticker;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import org.apache.commons.pool.impl.GenericKeyedObjectPool;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -38,6 +40,8 @@ import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -59,7 +63,8 @@ public class ServiceCacheTest {
     private static final ServiceEndPoint END_POINT = mock(ServiceEndPoint.class);
 
     private ServiceFactory<Service> _factory;
-    private ServiceCachingPolicy _cachingPolicy;
+    private AdvancedServiceCachingPolicy _cachingPolicy;
+    private Ticker _ticker;
     private List<ServiceCache<?>> _caches = Lists.newArrayList();
 
     @SuppressWarnings("unchecked")
@@ -75,10 +80,12 @@ public class ServiceCacheTest {
         });
 
         // By default the caching policy will grow infinitely
-        _cachingPolicy = mock(ServiceCachingPolicy.class);
+        _cachingPolicy = mock(AdvancedServiceCachingPolicy.class);
         when(_cachingPolicy.getMaxNumServiceInstances()).thenReturn(-1);
         when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(1);
         when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.FAIL);
+
+        _ticker = mock(Ticker.class);
     }
 
     @After
@@ -88,21 +95,9 @@ public class ServiceCacheTest {
         }
     }
 
-    @Test
-    public void testKeyedObjectPoolIsCorrectlyConfigured() {
-        // Set values to be different from corresponding GenericKeyedObjectPool defaults.
-        when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.GROW);
-        when(_cachingPolicy.getMaxNumServiceInstances()).thenReturn(20);
-        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(5);
-        when(_cachingPolicy.getMaxServiceInstanceIdleTime(TimeUnit.MILLISECONDS)).thenReturn(10L);
-
-        GenericKeyedObjectPool<ServiceEndPoint, Service> pool = newCache().getPool();
-        assertEquals(GenericKeyedObjectPool.WHEN_EXHAUSTED_GROW, pool.getWhenExhaustedAction());
-        assertEquals(20, pool.getMaxTotal());
-        assertEquals(5, pool.getMaxActive());
-        assertEquals(5, pool.getMaxIdle());
-        assertEquals(10L, pool.getMinEvictableIdleTimeMillis());
-        assertEquals(20, pool.getNumTestsPerEvictionRun());
+    @Test(expected = NullPointerException.class)
+    public void testNullTicker() {
+        new ServiceCache<Service>(null, _cachingPolicy, _factory);
     }
 
     @Test(expected = NullPointerException.class)
@@ -388,6 +383,135 @@ public class ServiceCacheTest {
         assertFalse(seenServices.contains(newHandle.getService()));
     }
 
+    @Test(expected = NoCachedInstancesAvailableException.class)
+    public void testTotalLimitApplies() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstances()).thenReturn(2);
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(2);
+
+        ServiceCache<Service> cache = newCache();
+        cache.checkOut(END_POINT);
+        cache.checkOut(END_POINT);
+        cache.checkOut(mock(ServiceEndPoint.class));
+    }
+
+    @Test
+    public void testIdleInstancesLimitedPerEndPoint() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(2);
+        when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.GROW);
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle1 = cache.checkOut(END_POINT);
+        ServiceHandle<Service> handle2 = cache.checkOut(END_POINT);
+        ServiceHandle<Service> handle3 = cache.checkOut(END_POINT);
+        cache.checkIn(handle1);
+        cache.checkIn(handle2);
+        cache.checkIn(handle3);
+
+        assertEquals(2, cache.getNumIdleInstances(END_POINT));
+        verify(_factory).destroy(END_POINT, handle3.getService());
+    }
+
+    @Test
+    public void testMostRecentlyUsedInstanceReused() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(2);
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle1 = cache.checkOut(END_POINT);
+        ServiceHandle<Service> handle2 = cache.checkOut(END_POINT);
+        cache.checkIn(handle1);
+        cache.checkIn(handle2);
+
+        assertSame(handle2.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testIdleInstancesExpire() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(2);
+        when(_cachingPolicy.getMaxServiceInstanceIdleTime(TimeUnit.NANOSECONDS)).thenReturn(1L);
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(1));
+        cache.evictIdleInstances();
+
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+        verify(_factory).destroy(END_POINT, handle.getService());
+    }
+
+    @Test
+    public void testIdleInstancesDoNotExpireWithoutIdleTime() throws Exception {
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        cache.evictIdleInstances();
+
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+        verify(_factory, never()).destroy(any(ServiceEndPoint.class), any(Service.class));
+    }
+
+    @Test
+    public void testInterruptedWaitDoesNotTakeInstance() throws Exception {
+        when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.WAIT);
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        BackgroundCheckOut waiting = BackgroundCheckOut.startCheckOut(cache);
+        waiting.interrupt();
+        assertTrue(waiting.getException() instanceof InterruptedException);
+        cache.checkIn(handle);
+
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+        assertEquals(0, cache.getNumActiveInstances(END_POINT));
+    }
+
+    @Test
+    public void testConcurrentCheckOutsRespectLimits() throws Exception {
+        final int maxPerEndPoint = 3;
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(maxPerEndPoint);
+        when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.WAIT);
+
+        final ServiceCache<Service> cache = newCache();
+        final Set<Service> inUse = Sets.newSetFromMap(Maps.<Service, Boolean>newConcurrentMap());
+        final AtomicInteger maxInUse = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> futures = Lists.newArrayList();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int j = 0; j < 1000; j++) {
+                            ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+
+                            // No instance may be handed to two callers at once.
+                            assertTrue(inUse.add(handle.getService()));
+                            int numInUse = inUse.size();
+                            int max;
+                            while ((max = maxInUse.get()) < numInUse && !maxInUse.compareAndSet(max, numInUse)) {
+                                // Try again.
+                            }
+                            inUse.remove(handle.getService());
+
+                            cache.checkIn(handle);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(maxInUse.get() <= maxPerEndPoint);
+        assertEquals(0, cache.getNumActiveInstances(END_POINT));
+        assertTrue(cache.getNumIdleInstances(END_POINT) <= maxPerEndPoint);
+        verify(_factory, never()).destroy(any(ServiceEndPoint.class), any(Service.class));
+    }
+
     @Test
     public void testWaitCacheExhaustionAction() throws Exception {
         when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(1);
@@ -452,6 +576,69 @@ public class ServiceCacheTest {
                 eq(TimeUnit.SECONDS));
     }
 
+    @Test
+    public void testSchedulesEvictionCheckAtConfiguredInterval() {
+        when(_cachingPolicy.getEvictionInterval(TimeUnit.NANOSECONDS)).thenReturn(TimeUnit.SECONDS.toNanos(10));
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        when(executor.scheduleAtFixedRate(any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class))).thenAnswer(
+                new Answer<ScheduledFuture<?>>() {
+                    @Override
+                    public ScheduledFuture<?> answer(InvocationOnMock invocation) throws Throwable {
+                        return mock(ScheduledFuture.class);
+                    }
+                }
+        );
+
+        newCache(executor);
+        verify(executor).scheduleAtFixedRate(
+                any(Runnable.class),
+                eq(TimeUnit.SECONDS.toNanos(10)),
+                eq(TimeUnit.SECONDS.toNanos(10)),
+                eq(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testBasicPolicyUsesDefaults() throws Exception {
+        ServiceCachingPolicy policy = mock(ServiceCachingPolicy.class);
+        when(policy.getMaxNumServiceInstances()).thenReturn(-1);
+        when(policy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(2);
+        when(policy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.FAIL);
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+
+        ServiceCache<Service> cache = new ServiceCache<Service>(_ticker, policy, _factory, executor, executor);
+        _caches.add(cache);
+        ServiceHandle<Service> handle1 = cache.checkOut(END_POINT);
+        ServiceHandle<Service> handle2 = cache.checkOut(END_POINT);
+        cache.checkIn(handle1);
+
+        // Instances aren't shared, and are evicted at the default interval.
+        assertNotSame(handle1.getService(), handle2.getService());
+        assertSame(handle1.getService(), cache.checkOut(END_POINT).getService());
+        verify(executor).scheduleAtFixedRate(
+                any(Runnable.class),
+                eq(ServiceCache.EVICTION_DURATION_IN_SECONDS),
+                eq(ServiceCache.EVICTION_DURATION_IN_SECONDS),
+                eq(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testStaleIdleInstancesExpireOnCheckIn() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(2);
+        when(_cachingPolicy.getMaxServiceInstanceIdleTime(TimeUnit.NANOSECONDS)).thenReturn(
+                TimeUnit.MILLISECONDS.toNanos(50));
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle1 = cache.checkOut(END_POINT);
+        ServiceHandle<Service> handle2 = cache.checkOut(END_POINT);
+        cache.checkIn(handle1);
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(100));
+        cache.checkIn(handle2);
+
+        // The stale instance goes without waiting for an eviction run, the fresh one stays.
+        verify(_factory).destroy(END_POINT, handle1.getService());
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+    }
+
     @Test(expected = NullPointerException.class)
     public void testNumIdleNullEndPoint() {
         ServiceCache<Service> cache = newCache();
@@ -557,17 +744,552 @@ public class ServiceCacheTest {
         cache.close();
     }
 
+    @Test
+    public void testFailedCreationFreesSlot() throws Exception {
+        Service service = mock(Service.class);
+        when(_factory.create(END_POINT)).thenThrow(new RuntimeException()).thenReturn(service);
+
+        ServiceCache<Service> cache = newCache();
+        try {
+            cache.checkOut(END_POINT);
+            fail();
+        } catch (RuntimeException e) {
+            // Expected
+        }
+        assertEquals(0, cache.getNumActiveInstances(END_POINT));
+
+        // Only one instance is allowed per end point, so this only works if the failed one gave up its slot.
+        assertSame(service, cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testSharedInstanceUsedByConcurrentCheckOuts() throws Exception {
+        when(_cachingPolicy.getNumSharedServiceInstancesPerEndPoint()).thenReturn(1);
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle1 = cache.checkOut(END_POINT);
+        ServiceHandle<Service> handle2 = cache.checkOut(END_POINT);
+
+        assertSame(handle1.getService(), handle2.getService());
+        assertEquals(2, cache.getNumActiveInstances(END_POINT));
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+        verify(_factory, times(1)).create(END_POINT);
+    }
+
+    @Test
+    public void testSharedInstanceIdleOnceCheckedIn() throws Exception {
+        when(_cachingPolicy.getNumSharedServiceInstancesPerEndPoint()).thenReturn(1);
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle1 = cache.checkOut(END_POINT);
+        ServiceHandle<Service> handle2 = cache.checkOut(END_POINT);
+        cache.checkIn(handle1);
+        assertEquals(1, cache.getNumActiveInstances(END_POINT));
+
+        cache.checkIn(handle2);
+        assertEquals(0, cache.getNumActiveInstances(END_POINT));
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+        verify(_factory, never()).destroy(any(ServiceEndPoint.class), any(Service.class));
+    }
+
+    @Test
+    public void testSharedInstancesLimitedAcrossThreads() throws Exception {
+        when(_cachingPolicy.getNumSharedServiceInstancesPerEndPoint()).thenReturn(2);
+
+        final ServiceCache<Service> cache = newCache();
+        final Set<Service> services = Sets.newSetFromMap(Maps.<Service, Boolean>newConcurrentMap());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> futures = Lists.newArrayList();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int j = 0; j < 1000; j++) {
+                            ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+                            services.add(handle.getService());
+                            cache.checkIn(handle);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertTrue(services.size() <= 2);
+        assertEquals(0, cache.getNumActiveInstances(END_POINT));
+        verify(_factory, never()).destroy(any(ServiceEndPoint.class), any(Service.class));
+    }
+
+    @Test
+    public void testEvictedSharedInstanceDestroyedAfterLastCheckIn() throws Exception {
+        when(_cachingPolicy.getNumSharedServiceInstancesPerEndPoint()).thenReturn(1);
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle1 = cache.checkOut(END_POINT);
+        ServiceHandle<Service> handle2 = cache.checkOut(END_POINT);
+        cache.evict(END_POINT);
+
+        cache.checkIn(handle1);
+        verify(_factory, never()).destroy(any(ServiceEndPoint.class), any(Service.class));
+
+        cache.checkIn(handle2);
+        verify(_factory).destroy(END_POINT, handle2.getService());
+    }
+
+    @Test
+    public void testEvictedSharedInstanceReplaced() throws Exception {
+        when(_cachingPolicy.getNumSharedServiceInstancesPerEndPoint()).thenReturn(1);
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.evict(END_POINT);
+
+        assertNotSame(handle.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testIdleSharedInstancesExpire() throws Exception {
+        when(_cachingPolicy.getNumSharedServiceInstancesPerEndPoint()).thenReturn(1);
+        when(_cachingPolicy.getMaxServiceInstanceIdleTime(TimeUnit.NANOSECONDS)).thenReturn(1L);
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(1));
+        cache.evictIdleInstances();
+
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+        verify(_factory).destroy(END_POINT, handle.getService());
+    }
+
+    @Test
+    public void testSharedInstancesInUseDoNotExpire() throws Exception {
+        when(_cachingPolicy.getNumSharedServiceInstancesPerEndPoint()).thenReturn(1);
+        when(_cachingPolicy.getMaxServiceInstanceIdleTime(TimeUnit.NANOSECONDS)).thenReturn(1L);
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(1));
+        cache.evictIdleInstances();
+
+        assertSame(handle.getService(), cache.checkOut(END_POINT).getService());
+        verify(_factory, never()).destroy(any(ServiceEndPoint.class), any(Service.class));
+    }
+
+    @Test
+    public void testFailedSharedInstanceCreationRetried() throws Exception {
+        when(_cachingPolicy.getNumSharedServiceInstancesPerEndPoint()).thenReturn(1);
+        Service service = mock(Service.class);
+        when(_factory.create(END_POINT)).thenThrow(new RuntimeException()).thenReturn(service);
+
+        ServiceCache<Service> cache = newCache();
+        try {
+            cache.checkOut(END_POINT);
+            fail();
+        } catch (RuntimeException e) {
+            // Expected
+        }
+
+        assertEquals(0, cache.getNumActiveInstances(END_POINT));
+        assertSame(service, cache.checkOut(END_POINT).getService());
+        verify(_factory, times(2)).create(END_POINT);
+    }
+
+    @Test
+    public void testCloseDestroysIdleSharedInstances() throws Exception {
+        when(_cachingPolicy.getNumSharedServiceInstancesPerEndPoint()).thenReturn(1);
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        cache.close();
+
+        verify(_factory).destroy(END_POINT, handle.getService());
+    }
+
+    @Test
+    public void testInvalidIdleInstanceDestroyedInBackground() throws Exception {
+        ValidatingServiceFactory<Service> factory = newValidatingFactory();
+        when(factory.validate(any(ServiceEndPoint.class), any(Service.class))).thenReturn(false);
+
+        ServiceCache<Service> cache = newCache(factory);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(ServiceCache.VALIDATION_DURATION_IN_SECONDS));
+        cache.validateIdleInstances();
+
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+        verify(factory).destroy(END_POINT, handle.getService());
+    }
+
+    @Test
+    public void testValidIdleInstanceKept() throws Exception {
+        ValidatingServiceFactory<Service> factory = newValidatingFactory();
+        when(factory.validate(any(ServiceEndPoint.class), any(Service.class))).thenReturn(true);
+
+        ServiceCache<Service> cache = newCache(factory);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(ServiceCache.VALIDATION_DURATION_IN_SECONDS));
+        cache.validateIdleInstances();
+
+        verify(factory).validate(END_POINT, handle.getService());
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+        assertSame(handle.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testValidationExceptionDestroysInstance() throws Exception {
+        ValidatingServiceFactory<Service> factory = newValidatingFactory();
+        when(factory.validate(any(ServiceEndPoint.class), any(Service.class))).thenThrow(new RuntimeException());
+
+        ServiceCache<Service> cache = newCache(factory);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(ServiceCache.VALIDATION_DURATION_IN_SECONDS));
+        cache.validateIdleInstances();
+
+        verify(factory).destroy(END_POINT, handle.getService());
+    }
+
+    @Test
+    public void testRecentlyUsedInstanceNotValidated() throws Exception {
+        when(_cachingPolicy.getServiceInstanceValidationInterval(TimeUnit.NANOSECONDS)).thenReturn(
+                TimeUnit.HOURS.toNanos(1));
+        ValidatingServiceFactory<Service> factory = newValidatingFactory();
+
+        ServiceCache<Service> cache = newCache(factory);
+        cache.checkIn(cache.checkOut(END_POINT));
+        cache.validateIdleInstances();
+
+        verify(factory, never()).validate(any(ServiceEndPoint.class), any(Service.class));
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testInvalidInstanceNotCheckedOut() throws Exception {
+        when(_cachingPolicy.isServiceInstanceValidatedOnCheckOut()).thenReturn(true);
+        ValidatingServiceFactory<Service> factory = newValidatingFactory();
+        when(factory.validate(any(ServiceEndPoint.class), any(Service.class))).thenReturn(false);
+
+        ServiceCache<Service> cache = newCache(factory);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(ServiceCache.VALIDATION_DURATION_IN_SECONDS));
+
+        assertNotSame(handle.getService(), cache.checkOut(END_POINT).getService());
+        verify(factory).destroy(END_POINT, handle.getService());
+    }
+
+    @Test
+    public void testCancelledWaitDoesNotReviveEvictedInstance() throws Exception {
+        when(_cachingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.WAIT);
+        when(_cachingPolicy.isServiceInstanceValidatedOnCheckOut()).thenReturn(true);
+        final AtomicLong now = new AtomicLong();
+        when(_ticker.read()).thenAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(InvocationOnMock invocation) {
+                // Time moves on so that the instance is due for validation once it's checked in.
+                return now.addAndGet(TimeUnit.SECONDS.toNanos(ServiceCache.VALIDATION_DURATION_IN_SECONDS));
+            }
+        });
+        ValidatingServiceFactory<Service> factory = newValidatingFactory();
+        final ServiceCache<Service> cache = newCache(factory);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        final BackgroundCheckOut waiting = BackgroundCheckOut.startCheckOut(cache);
+        while (waiting.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+
+        // Once the instance has been taken for the waiting check out, the end point is evicted and the wait given up.
+        when(factory.validate(any(ServiceEndPoint.class), any(Service.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                cache.evict(END_POINT);
+                waiting.interrupt();
+                waiting.join();
+                return true;
+            }
+        });
+        cache.checkIn(handle);
+
+        assertTrue(waiting.getException() instanceof InterruptedException);
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+        verify(factory).destroy(END_POINT, handle.getService());
+    }
+
+    @Test
+    public void testSchedulesValidationOnItsOwnExecutor() {
+        ScheduledExecutorService evictionExecutor = mock(ScheduledExecutorService.class);
+        ScheduledExecutorService validationExecutor = mock(ScheduledExecutorService.class);
+
+        ServiceCache<Service> cache = new ServiceCache<Service>(_ticker, _cachingPolicy, newValidatingFactory(),
+                evictionExecutor, validationExecutor);
+        _caches.add(cache);
+
+        verify(validationExecutor).scheduleWithFixedDelay(
+                any(Runnable.class),
+                eq(TimeUnit.SECONDS.toNanos(ServiceCache.VALIDATION_DURATION_IN_SECONDS)),
+                eq(TimeUnit.SECONDS.toNanos(ServiceCache.VALIDATION_DURATION_IN_SECONDS)),
+                eq(TimeUnit.NANOSECONDS));
+        verify(evictionExecutor, never()).scheduleWithFixedDelay(
+                any(Runnable.class), anyLong(), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void testBlockingValidationDoesNotDelayEviction() throws Exception {
+        AdvancedServiceCachingPolicy validatingPolicy = mock(AdvancedServiceCachingPolicy.class);
+        when(validatingPolicy.getMaxNumServiceInstances()).thenReturn(-1);
+        when(validatingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(1);
+        when(validatingPolicy.getCacheExhaustionAction()).thenReturn(ServiceCachingPolicy.ExhaustionAction.FAIL);
+        when(validatingPolicy.getServiceInstanceValidationInterval(TimeUnit.NANOSECONDS)).thenReturn(
+                TimeUnit.MILLISECONDS.toNanos(1));
+        final CountDownLatch validating = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        ValidatingServiceFactory<Service> factory = newValidatingFactory();
+        when(factory.validate(any(ServiceEndPoint.class), any(Service.class))).thenAnswer(new Answer<Boolean>() {
+            @Override
+            public Boolean answer(InvocationOnMock invocation) throws Throwable {
+                validating.countDown();
+                release.await();
+                return true;
+            }
+        });
+        when(_cachingPolicy.getMaxServiceInstanceIdleTime(TimeUnit.NANOSECONDS)).thenReturn(1L);
+        when(_cachingPolicy.getEvictionInterval(TimeUnit.NANOSECONDS)).thenReturn(TimeUnit.MILLISECONDS.toNanos(1));
+
+        try {
+            // One cache's validation blocks the validation thread...
+            ServiceCache<Service> validatingCache =
+                    new ServiceCache<Service>(Ticker.systemTicker(), validatingPolicy, factory);
+            _caches.add(validatingCache);
+            validatingCache.checkIn(validatingCache.checkOut(END_POINT));
+            assertTrue(validating.await(10, TimeUnit.SECONDS));
+
+            // ...while another cache's idle instances still expire in the background.
+            ServiceCache<Service> cache = new ServiceCache<Service>(_ticker, _cachingPolicy, _factory);
+            _caches.add(cache);
+            cache.checkIn(cache.checkOut(END_POINT));
+            when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(1));
+
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (cache.getNumIdleInstances(END_POINT) != 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(0, cache.getNumIdleInstances(END_POINT));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testInstanceNotValidatedOnCheckOutByDefault() throws Exception {
+        ValidatingServiceFactory<Service> factory = newValidatingFactory();
+
+        ServiceCache<Service> cache = newCache(factory);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+
+        assertSame(handle.getService(), cache.checkOut(END_POINT).getService());
+        verify(factory, never()).validate(any(ServiceEndPoint.class), any(Service.class));
+    }
+
+    @Test
+    public void testInvalidIdleSharedInstanceDestroyed() throws Exception {
+        when(_cachingPolicy.getNumSharedServiceInstancesPerEndPoint()).thenReturn(1);
+        ValidatingServiceFactory<Service> factory = newValidatingFactory();
+        when(factory.validate(any(ServiceEndPoint.class), any(Service.class))).thenReturn(false);
+
+        ServiceCache<Service> cache = newCache(factory);
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        when(_ticker.read()).thenReturn(TimeUnit.SECONDS.toNanos(ServiceCache.VALIDATION_DURATION_IN_SECONDS));
+        cache.validateIdleInstances();
+
+        verify(factory).destroy(END_POINT, handle.getService());
+        assertNotSame(handle.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testOldInstanceRetiredOnCheckIn() throws Exception {
+        when(_cachingPolicy.getMaxServiceInstanceLifetime(TimeUnit.NANOSECONDS)).thenReturn(1L);
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(1));
+        cache.evictIdleInstances();
+
+        // Never retired while it's checked out.
+        verify(_factory, never()).destroy(any(ServiceEndPoint.class), any(Service.class));
+
+        cache.checkIn(handle);
+        verify(_factory).destroy(END_POINT, handle.getService());
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testOldIdleInstanceRetiredInBackground() throws Exception {
+        when(_cachingPolicy.getMaxServiceInstanceLifetime(TimeUnit.NANOSECONDS)).thenReturn(
+                TimeUnit.MILLISECONDS.toNanos(50));
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(100));
+        cache.evictIdleInstances();
+
+        verify(_factory).destroy(END_POINT, handle.getService());
+        assertEquals(0, cache.getNumIdleInstances(END_POINT));
+    }
+
+    @Test
+    public void testOnlyIdleInstancesDueToRetireRetiredInBackground() throws Exception {
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(-1);
+        when(_cachingPolicy.getMaxServiceInstanceLifetime(TimeUnit.NANOSECONDS)).thenReturn(
+                TimeUnit.MILLISECONDS.toNanos(50));
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> oldHandle = cache.checkOut(END_POINT);
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(40));
+        ServiceHandle<Service> youngHandle = cache.checkOut(END_POINT);
+
+        // The instance that retires first is the most recently checked in, so it's last in the idle stack's order.
+        cache.checkIn(youngHandle);
+        cache.checkIn(oldHandle);
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(60));
+        cache.evictIdleInstances();
+
+        verify(_factory).destroy(END_POINT, oldHandle.getService());
+        verify(_factory, never()).destroy(END_POINT, youngHandle.getService());
+        assertEquals(1, cache.getNumIdleInstances(END_POINT));
+        assertSame(youngHandle.getService(), cache.checkOut(END_POINT).getService());
+    }
+
+    @Test
+    public void testOldIdleInstanceNotCheckedOut() throws Exception {
+        when(_cachingPolicy.getMaxServiceInstanceLifetime(TimeUnit.NANOSECONDS)).thenReturn(
+                TimeUnit.MILLISECONDS.toNanos(50));
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> handle = cache.checkOut(END_POINT);
+        cache.checkIn(handle);
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(100));
+
+        assertNotSame(handle.getService(), cache.checkOut(END_POINT).getService());
+        verify(_factory).destroy(END_POINT, handle.getService());
+    }
+
+    @Test
+    public void testInstanceLifetimesJittered() throws Exception {
+        long maxLifetimeNanos = TimeUnit.HOURS.toNanos(1);
+        when(_cachingPolicy.getMaxNumServiceInstancesPerEndPoint()).thenReturn(-1);
+        when(_cachingPolicy.getMaxServiceInstanceLifetime(TimeUnit.NANOSECONDS)).thenReturn(maxLifetimeNanos);
+
+        ServiceCache<Service> cache = newCache();
+        Set<Long> retireAtNanos = Sets.newHashSet();
+        for (int i = 0; i < 10; i++) {
+            long retireAt = cache.checkOut(END_POINT).getRetireAtNanos();
+            assertTrue(retireAt >= maxLifetimeNanos * 9 / 10);
+            assertTrue(retireAt <= maxLifetimeNanos);
+            retireAtNanos.add(retireAt);
+        }
+        assertTrue(retireAtNanos.size() > 1);
+    }
+
+    @Test
+    public void testOldSharedInstanceReplacedOnceUnused() throws Exception {
+        when(_cachingPolicy.getNumSharedServiceInstancesPerEndPoint()).thenReturn(1);
+        when(_cachingPolicy.getMaxServiceInstanceLifetime(TimeUnit.NANOSECONDS)).thenReturn(
+                TimeUnit.MILLISECONDS.toNanos(50));
+
+        ServiceCache<Service> cache = newCache();
+        ServiceHandle<Service> oldHandle = cache.checkOut(END_POINT);
+        when(_ticker.read()).thenReturn(TimeUnit.MILLISECONDS.toNanos(100));
+        ServiceHandle<Service> newHandle = cache.checkOut(END_POINT);
+        assertNotSame(oldHandle.getService(), newHandle.getService());
+        verify(_factory, never()).destroy(any(ServiceEndPoint.class), any(Service.class));
+
+        cache.checkIn(oldHandle);
+        verify(_factory).destroy(END_POINT, oldHandle.getService());
+    }
+
+    @SuppressWarnings("unchecked")
+    private ValidatingServiceFactory<Service> newValidatingFactory() {
+        ValidatingServiceFactory<Service> factory = mock(ValidatingServiceFactory.class);
+        when(factory.getServiceName()).thenReturn(Service.class.getSimpleName());
+        when(factory.create(any(ServiceEndPoint.class))).thenAnswer(new Answer<Service>() {
+            @Override
+            public Service answer(InvocationOnMock invocation) throws Throwable {
+                return mock(Service.class);
+            }
+        });
+        return factory;
+    }
+
+    private ServiceCache<Service> newCache(ServiceFactory<Service> factory) {
+        ServiceCache<Service> cache = new ServiceCache<Service>(_ticker, _cachingPolicy, factory);
+        _caches.add(cache);
+        return cache;
+    }
+
     private ServiceCache<Service> newCache() {
-        ServiceCache<Service> cache = new ServiceCache<Service>(_cachingPolicy, _factory);
+        ServiceCache<Service> cache = new ServiceCache<Service>(_ticker, _cachingPolicy, _factory);
         _caches.add(cache);
         return cache;
     }
 
     private ServiceCache<Service> newCache(ScheduledExecutorService executor) {
-        ServiceCache<Service> cache = new ServiceCache<Service>(_cachingPolicy, _factory, executor);
+        ServiceCache<Service> cache = new ServiceCache<Service>(_ticker, _cachingPolicy, _factory, executor, executor);
         _caches.add(cache);
         return cache;
     }
 
     public static interface Service {}
+
+    /**
+     * Checks an instance out on its own thread, so that the test can carry on while the check out waits.
+     */
+    private static final class BackgroundCheckOut extends Thread {
+        private final ServiceCache<Service> _cache;
+        private volatile ServiceHandle<Service> _handle;
+        private volatile Exception _exception;
+
+        private BackgroundCheckOut(ServiceCache<Service> cache) {
+            _cache = cache;
+            setDaemon(true);
+        }
+
+        static BackgroundCheckOut startCheckOut(ServiceCache<Service> cache) {
+            BackgroundCheckOut checkOut = new BackgroundCheckOut(cache);
+            checkOut.start();
+            return checkOut;
+        }
+
+        @Override
+        public void run() {
+            try {
+                _handle = _cache.checkOut(END_POINT);
+            } catch (Exception e) {
+                _exception = e;
+            }
+        }
+
+        ServiceHandle<Service> getHandle() throws InterruptedException {
+            join(TimeUnit.SECONDS.toMillis(10));
+            assertFalse(isAlive());
+            return _handle;
+        }
+
+        Exception getException() throws InterruptedException {
+            join(TimeUnit.SECONDS.toMillis(10));
+            assertFalse(isAlive());
+            return _exception;
+        }
+    }
 }
\ No newline at end of file
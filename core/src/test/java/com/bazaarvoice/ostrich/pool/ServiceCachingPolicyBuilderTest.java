@@ -20,6 +20,8 @@ import org.junit.Test;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class ServiceCachingPolicyBuilderTest {
     @Test
@@ -54,6 +56,74 @@ public class ServiceCachingPolicyBuilderTest {
         assertEquals(10, builder.build().getMaxServiceInstanceIdleTime(TimeUnit.SECONDS));
     }
 
+    @Test
+    public void testEvictionIntervalSet() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withMaxServiceInstanceIdleTime(10, TimeUnit.MINUTES);
+        builder.withEvictionInterval(30, TimeUnit.SECONDS);
+
+        assertEquals(30, build(builder).getEvictionInterval(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testEvictionIntervalDefaultsToIdleTime() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withMaxServiceInstanceIdleTime(10, TimeUnit.SECONDS);
+
+        assertEquals(10, build(builder).getEvictionInterval(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testDefaultEvictionIntervalLimited() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withMaxServiceInstanceIdleTime(1, TimeUnit.HOURS);
+
+        assertEquals(ServiceCache.EVICTION_DURATION_IN_SECONDS,
+                build(builder).getEvictionInterval(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testMaxServiceInstanceLifetimeSet() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withMaxServiceInstanceLifetime(30, TimeUnit.MINUTES);
+
+        assertEquals(30, build(builder).getMaxServiceInstanceLifetime(TimeUnit.MINUTES));
+    }
+
+    @Test
+    public void testServiceInstanceValidationIntervalSet() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withServiceInstanceValidationInterval(30, TimeUnit.SECONDS);
+
+        assertEquals(30, build(builder).getServiceInstanceValidationInterval(TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testValidationOnCheckOutSet() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withValidationOnCheckOut();
+
+        assertTrue(build(builder).isServiceInstanceValidatedOnCheckOut());
+    }
+
+    @Test
+    public void testNoValidationOnCheckOutByDefault() {
+        assertFalse(build(new ServiceCachingPolicyBuilder()).isServiceInstanceValidatedOnCheckOut());
+    }
+
+    @Test
+    public void testSharedServiceInstancesSet() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withSharedServiceInstances(2);
+
+        assertEquals(2, build(builder).getNumSharedServiceInstancesPerEndPoint());
+    }
+
+    @Test
+    public void testServiceInstancesNotSharedByDefault() {
+        assertEquals(0, build(new ServiceCachingPolicyBuilder()).getNumSharedServiceInstancesPerEndPoint());
+    }
+
     @Test(expected = NullPointerException.class)
     public void testNullExhaustionAction() {
         ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
@@ -77,4 +147,32 @@ public class ServiceCachingPolicyBuilderTest {
         ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
         builder.withMaxServiceInstanceIdleTime(0, TimeUnit.MILLISECONDS);
     }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidSharedServiceInstances() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withSharedServiceInstances(0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidEvictionInterval() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withEvictionInterval(0, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidServiceInstanceValidationInterval() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withServiceInstanceValidationInterval(0, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testInvalidMaxServiceInstanceLifetime() {
+        ServiceCachingPolicyBuilder builder = new ServiceCachingPolicyBuilder();
+        builder.withMaxServiceInstanceLifetime(0, TimeUnit.MINUTES);
+    }
+
+    private static AdvancedServiceCachingPolicy build(ServiceCachingPolicyBuilder builder) {
+        return (AdvancedServiceCachingPolicy) builder.build();
+    }
 }
@@ -32,6 +32,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.ScheduledExecutorService;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyString;
@@ -370,6 +371,53 @@ public class ServicePoolBuilderTest {
                 .buildProxy(mock(RetryPolicy.class));
     }
 
+    @Test
+    public void testBuildProxyWithMethodMetrics() throws IOException {
+        Service service = ServicePoolBuilder.create(Service.class)
+                .withServiceFactory(_serviceFactory)
+                .withCachingPolicy(_cachingPolicy)
+                .withHostDiscovery(_hostDiscovery)
+                .withMethodMetrics()
+                .buildProxy(mock(RetryPolicy.class));
+        assertTrue(service instanceof Closeable);
+        ServicePoolProxies.close(service);
+    }
+
+    @Test
+    public void testBuildAsyncWithVirtualThreads() throws Exception {
+        // Falls back to platform threads when the JVM doesn't support virtual threads.
+        com.bazaarvoice.ostrich.AsyncServicePool<Service> pool = ServicePoolBuilder.create(Service.class)
+                .withServiceFactory(_serviceFactory)
+                .withCachingPolicy(_cachingPolicy)
+                .withHostDiscovery(_hostDiscovery)
+                .withPartitionFilter(_partitionFilter)
+                .withVirtualThreads()
+                .buildAsync();
+        assertNotNull(pool);
+        pool.close();
+    }
+
+    @Test
+    public void testBuildAsyncProxy() {
+        AsyncService service = ServicePoolBuilder.create(Service.class)
+                .withServiceFactory(_serviceFactory)
+                .withCachingPolicy(_cachingPolicy)
+                .withHostDiscovery(_hostDiscovery)
+                .withAsyncExecutor(_asyncExecutor)
+                .withPartitionFilter(_partitionFilter)
+                .buildAsyncProxy(AsyncService.class, mock(RetryPolicy.class));
+        assertTrue(service instanceof Closeable);
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testBuildAsyncProxyWithNullInterface() {
+        ServicePoolBuilder.create(Service.class)
+                .withServiceFactory(_serviceFactory)
+                .withCachingPolicy(_cachingPolicy)
+                .withHostDiscovery(_hostDiscovery)
+                .buildAsyncProxy(null, mock(RetryPolicy.class));
+    }
+
     @Test
     public void testServiceFactoryConfigure() {
         ServicePoolBuilder<Service> builder = ServicePoolBuilder.create(Service.class);
@@ -382,4 +430,6 @@ public class ServicePoolBuilderTest {
     private static interface Service {}
 
     private static class ServiceChild implements Service{}
+
+    private static interface AsyncService {}
 }
@@ -19,6 +19,8 @@ import com.bazaarvoice.ostrich.HealthCheckResults;
 import com.bazaarvoice.ostrich.RetryPolicy;
 import com.bazaarvoice.ostrich.ServicePool;
 import com.google.common.reflect.Reflection;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.MetricName;
 import org.junit.Test;
 
 import java.io.IOException;
@@ -71,6 +73,21 @@ public class ServicePoolProxiesTest {
         verify(pool).close();
     }
 
+    @Test
+    public void testCloseRemovesMethodMetrics() throws IOException {
+        @SuppressWarnings("unchecked")
+        ServicePool<Service> pool = mock(ServicePool.class);
+        Service service = ServicePoolProxy.create(Service.class, mock(RetryPolicy.class), pool,
+                mock(PartitionContextSupplier.class), true, "testCloseRemovesMethodMetrics");
+        MetricName name = new MetricName(ServicePoolProxy.class, "num-instances", "testCloseRemovesMethodMetrics");
+        assertTrue(Metrics.defaultRegistry().allMetrics().containsKey(name));
+
+        ServicePoolProxies.close(service);
+
+        assertFalse(Metrics.defaultRegistry().allMetrics().containsKey(name));
+        verify(pool).close();
+    }
+
     @SuppressWarnings("unchecked")
     @Test
     public void testCheckForHealthyEndPoint() {
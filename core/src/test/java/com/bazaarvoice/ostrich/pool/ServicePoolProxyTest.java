@@ -18,6 +18,14 @@ package com.bazaarvoice.ostrich.pool;
 import com.bazaarvoice.ostrich.PartitionContext;
 import com.bazaarvoice.ostrich.RetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
+import com.bazaarvoice.ostrich.exceptions.ServiceException;
+import com.bazaarvoice.ostrich.retry.Retry;
+import com.bazaarvoice.ostrich.retry.RetryNTimes;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.Metric;
+import com.yammer.metrics.core.MetricName;
+import com.yammer.metrics.core.Timer;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
@@ -25,15 +33,19 @@ import org.mockito.ArgumentCaptor;
 import java.io.Closeable;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.Map;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 public class ServicePoolProxyTest {
@@ -90,6 +102,93 @@ public class ServicePoolProxyTest {
         verify(_pool).close();
     }
 
+    @Test
+    public void testObjectMethodsNotForwarded() {
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
+        Service other = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
+
+        assertEquals(service, service);
+        assertFalse(service.equals(other));
+        assertEquals(service.hashCode(), service.hashCode());
+        assertEquals("ServicePoolProxy[" + Service.class.getName() + "]", service.toString());
+        verifyZeroInteractions(_pool);
+    }
+
+    @Test
+    public void testArgumentsPassedThrough() {
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
+        service.echo("hello");
+
+        @SuppressWarnings("unchecked") ArgumentCaptor<ServiceCallback<Service, ?>> captor =
+                (ArgumentCaptor) ArgumentCaptor.forClass(ServiceCallback.class);
+        verify(_pool).execute(same(CONTEXT), same(NEVER_RETRY), captor.capture());
+        captor.getValue().call(FOO_SERVICE);
+
+        verify(FOO_SERVICE).echo("hello");
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testMethodRetryPolicy() {
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
+        service.retried();
+
+        ArgumentCaptor<RetryPolicy> captor = ArgumentCaptor.forClass(RetryPolicy.class);
+        verify(_pool).execute(same(CONTEXT), captor.capture(), any(ServiceCallback.class));
+        assertTrue(captor.getValue() instanceof RetryNTimes);
+    }
+
+    @Test
+    public void testNoMethodMetricsByDefault() {
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
+        service.echo("hello");
+
+        assertFalse(registeredMetrics().containsKey(metricName("testNoMethodMetricsByDefault", "echo-execution-time")));
+    }
+
+    @Test
+    public void testMethodMetrics() {
+        String scope = "testMethodMetrics";
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false, scope);
+        service.echo("hello");
+        service.echo("again");
+
+        assertEquals(2, ((Timer) registeredMetrics().get(metricName(scope, "echo-execution-time"))).count());
+        assertEquals(0, ((Meter) registeredMetrics().get(metricName(scope, "echo-num-failures"))).count());
+        assertEquals(0, ((Timer) registeredMetrics().get(metricName(scope, "close-execution-time"))).count());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testMethodMetricsFailure() {
+        String scope = "testMethodMetricsFailure";
+        when(_pool.execute(same(CONTEXT), any(RetryPolicy.class), any(ServiceCallback.class)))
+                .thenThrow(new ServiceException());
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, false, scope);
+
+        try {
+            service.echo("hello");
+            fail();
+        } catch (ServiceException e) {
+            // Expected
+        }
+
+        assertEquals(1, ((Timer) registeredMetrics().get(metricName(scope, "echo-execution-time"))).count());
+        assertEquals(1, ((Meter) registeredMetrics().get(metricName(scope, "echo-num-failures"))).count());
+    }
+
+    @Test
+    public void testMethodMetricsRemovedOnClose() throws IOException {
+        String scope = "testMethodMetricsRemovedOnClose";
+        Service service = ServicePoolProxy.create(Service.class, NEVER_RETRY, _pool, SUPPLIER, true, scope);
+        assertTrue(registeredMetrics().containsKey(metricName(scope, "echo-execution-time")));
+
+        ((Closeable) service).close();
+
+        assertFalse(registeredMetrics().containsKey(metricName(scope, "echo-execution-time")));
+        verify(_pool).close();
+    }
+
     @Test
     public void testGetServicePool() {
         ServicePoolProxy<Service> proxy = new ServicePoolProxy<Service>(Service.class, NEVER_RETRY, _pool, SUPPLIER, false);
@@ -97,7 +196,19 @@ public class ServicePoolProxyTest {
         assertSame(_pool, proxy.getServicePool());
     }
 
+    private static Map<MetricName, Metric> registeredMetrics() {
+        return Metrics.defaultRegistry().allMetrics();
+    }
+
+    private static MetricName metricName(String scope, String name) {
+        return new MetricName(ServicePoolProxy.class, name, scope);
+    }
+
     private static interface Service {
         void close();
+        String echo(String message);
+
+        @Retry(maxAttempts = 3)
+        void retried();
     }
 }
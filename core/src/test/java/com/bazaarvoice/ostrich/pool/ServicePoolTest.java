@@ -15,10 +15,14 @@
  */
 package com.bazaarvoice.ostrich.pool;
 
+import com.bazaarvoice.ostrich.AsyncServiceFactory;
+import com.bazaarvoice.ostrich.HealthCheckResult;
 import com.bazaarvoice.ostrich.HealthCheckResults;
 import com.bazaarvoice.ostrich.HostDiscovery;
 import com.bazaarvoice.ostrich.LoadBalanceAlgorithm;
 import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.PayloadCache;
+import com.bazaarvoice.ostrich.PayloadDecoder;
 import com.bazaarvoice.ostrich.RetryPolicy;
 import com.bazaarvoice.ostrich.ServiceCallback;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
@@ -35,6 +39,11 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Meter;
+import com.yammer.metrics.core.MetricName;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -45,6 +54,7 @@ import org.mockito.stubbing.Answer;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
@@ -56,6 +66,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -68,6 +79,7 @@ import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
@@ -272,6 +284,43 @@ public class ServicePoolTest {
         assertEquals(ImmutableList.of(BAR_ENDPOINT), ImmutableList.copyOf(balanceEndPoints.getValue()));
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testPartitionFilterSeesSameEndPointsUntilAnEndPointGoesBad() {
+        ServiceCallback<Service, Void> succeed = new ServiceCallback<Service, Void>() {
+            @Override
+            public Void call(Service service) throws ServiceException {
+                return null;
+            }
+        };
+        _pool.execute(NEVER_RETRY, succeed);
+        _pool.execute(NEVER_RETRY, succeed);
+        try {
+            _pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (MaxRetriesException e) {
+            // Expected
+        }
+        _pool.execute(NEVER_RETRY, succeed);
+
+        ArgumentCaptor<Iterable> filterEndPoints = ArgumentCaptor.forClass(Iterable.class);
+        verify(_partitionFilter, times(4)).filter(filterEndPoints.capture(), any(PartitionContext.class));
+        List<Iterable> calls = filterEndPoints.getAllValues();
+
+        // Nothing changed between the first three calls, so the filter can recognize the end points by identity.
+        assertSame(calls.get(0), calls.get(1));
+        assertSame(calls.get(0), calls.get(2));
+
+        // The failed call made FOO bad, which must produce a new set of end points.
+        assertNotSame(calls.get(0), calls.get(3));
+        assertEquals(ImmutableList.of(BAR_ENDPOINT, BAZ_ENDPOINT), ImmutableList.copyOf(calls.get(3)));
+    }
+
     @Test(expected = NoSuitableHostsException.class)
     public void testThrowsNoSuitableHostsExceptionWhenLoadBalancerReturnsNull() {
         // Reset the load balance algorithm's setup and make it always return null.
@@ -406,6 +455,27 @@ public class ServicePoolTest {
         }
     }
 
+    @Test
+    public void testCancelledAttemptNotCountedAsFailure() {
+        final CancellableRetryPolicy retry = new CancellableRetryPolicy(NEVER_RETRY);
+        Meter attemptFailures = meter("num-execute-attempt-failures");
+        long numAttemptFailures = attemptFailures.count();
+
+        try {
+            _pool.execute(retry, new ServiceCallback<Service, Void>() {
+                @Override
+                public Void call(Service service) throws ServiceException {
+                    retry.cancel();
+                    throw new ServiceException();
+                }
+            });
+            fail();
+        } catch (MaxRetriesException expected) {
+            // The async service pool reports the cancellation, and nothing else sees the exception.
+        }
+        assertEquals(numAttemptFailures, attemptFailures.count());
+    }
+
     @Test
     public void testOnlyBadHostsExceptionIncludesUnderlyingCauseIfItMadeARequest() {
         // Exhaust all but one of the available end points...
@@ -863,6 +933,60 @@ public class ServicePoolTest {
         assertTrue(_pool.getBadEndPoints().isEmpty());
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testDecodesPayloadsOfDiscoveredEndPoints() {
+        PayloadDecoder<String> decoder = mock(PayloadDecoder.class);
+        when(decoder.decode(FOO_ENDPOINT)).thenReturn("foo");
+        PayloadCache<String> payloads = new PayloadCache<String>(decoder);
+
+        ServicePool<Service> pool = new ServicePool<Service>(_ticker, _hostDiscovery, false, _serviceFactory,
+                ServiceCachingPolicyBuilder.NO_CACHING, _partitionFilter, _loadBalanceAlgorithm,
+                ImmutableList.<PayloadCache<?>>of(payloads), _healthCheckExecutor, false);
+        try {
+            ArgumentCaptor<HostDiscovery.EndPointListener> listener = ArgumentCaptor.forClass(
+                    HostDiscovery.EndPointListener.class);
+            verify(_hostDiscovery, times(2)).addListener(listener.capture());
+
+            // The payload is decoded as soon as the end point is discovered, and only once.
+            listener.getValue().onEndPointAdded(FOO_ENDPOINT);
+            verify(decoder).decode(FOO_ENDPOINT);
+            assertEquals("foo", payloads.get(FOO_ENDPOINT));
+            verify(decoder).decode(FOO_ENDPOINT);
+
+            // Once the end point goes away it has to be decoded again.
+            listener.getValue().onEndPointRemoved(FOO_ENDPOINT);
+            payloads.get(FOO_ENDPOINT);
+            verify(decoder, times(2)).decode(FOO_ENDPOINT);
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testPayloadDecodeFailureDoesNotPreventDiscovery() {
+        PayloadCache<String> payloads = new PayloadCache<String>(new PayloadDecoder<String>() {
+            @Override
+            public String decode(ServiceEndPoint endPoint) {
+                throw new IllegalArgumentException();
+            }
+        });
+
+        ServicePool<Service> pool = new ServicePool<Service>(_ticker, _hostDiscovery, false, _serviceFactory,
+                ServiceCachingPolicyBuilder.NO_CACHING, _partitionFilter, _loadBalanceAlgorithm,
+                ImmutableList.<PayloadCache<?>>of(payloads), _healthCheckExecutor, false);
+        try {
+            ArgumentCaptor<HostDiscovery.EndPointListener> listener = ArgumentCaptor.forClass(
+                    HostDiscovery.EndPointListener.class);
+            verify(_hostDiscovery, times(2)).addListener(listener.capture());
+
+            // The exception is logged, not propagated back to host discovery.
+            listener.getValue().onEndPointAdded(FOO_ENDPOINT);
+        } finally {
+            pool.close();
+        }
+    }
+
     @Test
     public void testIsHealthyHandlesExceptions() {
         when(_serviceFactory.isHealthy(FOO_ENDPOINT)).thenThrow(new RuntimeException());
@@ -983,6 +1107,178 @@ public class ServicePoolTest {
         assertEquals(2, _pool.getNumBadEndPoints());
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testAsyncHealthCheckDoesNotBlock() {
+        SettableFuture<Boolean> healthy = SettableFuture.create();
+        AsyncServiceFactory<Service> serviceFactory = (AsyncServiceFactory<Service>) mock(AsyncServiceFactory.class);
+        when(serviceFactory.getServiceName()).thenReturn(Service.class.getSimpleName());
+        when(serviceFactory.isHealthyAsync(FOO_ENDPOINT)).thenReturn(healthy);
+
+        ServicePool<Service> pool = new ServicePool<Service>(_ticker, _hostDiscovery, false, serviceFactory,
+                UNLIMITED_CACHING, _partitionFilter, _loadBalanceAlgorithm, _healthCheckExecutor, false);
+        try {
+            ListenableFuture<HealthCheckResult> result = pool.checkHealthAsync(FOO_ENDPOINT);
+            assertFalse(result.isDone());
+
+            healthy.set(true);
+            assertTrue(Futures.getUnchecked(result).isHealthy());
+            verify(serviceFactory, never()).isHealthy(any(ServiceEndPoint.class));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testFailedAsyncHealthCheck() {
+        AsyncServiceFactory<Service> serviceFactory = (AsyncServiceFactory<Service>) mock(AsyncServiceFactory.class);
+        when(serviceFactory.getServiceName()).thenReturn(Service.class.getSimpleName());
+        when(serviceFactory.isHealthyAsync(FOO_ENDPOINT))
+                .thenReturn(Futures.<Boolean>immediateFailedFuture(new ServiceException()));
+
+        ServicePool<Service> pool = new ServicePool<Service>(_ticker, _hostDiscovery, false, serviceFactory,
+                UNLIMITED_CACHING, _partitionFilter, _loadBalanceAlgorithm, _healthCheckExecutor, false);
+        try {
+            assertFalse(Futures.getUnchecked(pool.checkHealthAsync(FOO_ENDPOINT)).isHealthy());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testBatchHealthCheckWithAsyncFactory() {
+        SettableFuture<Boolean> healthy = SettableFuture.create();
+        AsyncServiceFactory<Service> serviceFactory = (AsyncServiceFactory<Service>) mock(AsyncServiceFactory.class);
+        when(serviceFactory.getServiceName()).thenReturn(Service.class.getSimpleName());
+        when(serviceFactory.isRetriableException(any(Exception.class))).thenReturn(true);
+        when(serviceFactory.create(FOO_ENDPOINT)).thenReturn(FOO_SERVICE);
+        // The health check done as soon as the end point is marked bad fails, the next one waits on the test.
+        when(serviceFactory.isHealthyAsync(FOO_ENDPOINT)).thenReturn(Futures.immediateFuture(false), healthy);
+        when(_hostDiscovery.getHosts()).thenReturn(ImmutableList.of(FOO_ENDPOINT));
+
+        ServicePool<Service> pool = new ServicePool<Service>(_ticker, _hostDiscovery, false, serviceFactory,
+                UNLIMITED_CACHING, _partitionFilter, _loadBalanceAlgorithm, _healthCheckExecutor, false);
+        try {
+            try {
+                pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                    @Override
+                    public Void call(Service service) throws ServiceException {
+                        throw new ServiceException();
+                    }
+                });
+                fail();
+            } catch (MaxRetriesException e) {
+                // Expected
+            }
+            assertEquals(1, pool.getNumBadEndPoints());
+
+            // Capture the BatchHealthChecks runnable that was registered with the executor so that we can execute it.
+            ArgumentCaptor<Runnable> check = ArgumentCaptor.forClass(Runnable.class);
+            verify(_healthCheckExecutor, times(2)).scheduleAtFixedRate(check.capture(), anyLong(), anyLong(),
+                    any(TimeUnit.class));
+
+            // The batch health check doesn't wait for the result...
+            check.getValue().run();
+            assertEquals(1, pool.getNumBadEndPoints());
+
+            // ...but makes the end point available again once it's in.
+            healthy.set(true);
+            assertEquals(0, pool.getNumBadEndPoints());
+            verify(serviceFactory, never()).isHealthy(any(ServiceEndPoint.class));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testBatchHealthCheckSkipsEndPointWithCheckInProgress() {
+        SettableFuture<Boolean> healthy = SettableFuture.create();
+        AsyncServiceFactory<Service> serviceFactory = (AsyncServiceFactory<Service>) mock(AsyncServiceFactory.class);
+        when(serviceFactory.getServiceName()).thenReturn(Service.class.getSimpleName());
+        when(serviceFactory.isRetriableException(any(Exception.class))).thenReturn(true);
+        when(serviceFactory.create(FOO_ENDPOINT)).thenReturn(FOO_SERVICE);
+        when(serviceFactory.isHealthyAsync(FOO_ENDPOINT)).thenReturn(healthy);
+        when(_hostDiscovery.getHosts()).thenReturn(ImmutableList.of(FOO_ENDPOINT));
+
+        ServicePool<Service> pool = new ServicePool<Service>(_ticker, _hostDiscovery, false, serviceFactory,
+                UNLIMITED_CACHING, _partitionFilter, _loadBalanceAlgorithm, _healthCheckExecutor, false);
+        try {
+            try {
+                pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                    @Override
+                    public Void call(Service service) throws ServiceException {
+                        throw new ServiceException();
+                    }
+                });
+                fail();
+            } catch (MaxRetriesException e) {
+                // Expected
+            }
+            ArgumentCaptor<Runnable> check = ArgumentCaptor.forClass(Runnable.class);
+            verify(_healthCheckExecutor, times(2)).scheduleAtFixedRate(check.capture(), anyLong(), anyLong(),
+                    any(TimeUnit.class));
+
+            // The health check started when the end point was marked bad is still running, so it isn't repeated.
+            check.getValue().run();
+            check.getValue().run();
+            verify(serviceFactory, times(1)).isHealthyAsync(FOO_ENDPOINT);
+
+            // Once it's done, the next batch checks the end point again.
+            healthy.set(false);
+            check.getValue().run();
+            verify(serviceFactory, times(2)).isHealthyAsync(FOO_ENDPOINT);
+            assertEquals(1, pool.getNumBadEndPoints());
+        } finally {
+            pool.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testBatchHealthCheckGivesUpOnCheckRunningForPollInterval() {
+        AsyncServiceFactory<Service> serviceFactory = (AsyncServiceFactory<Service>) mock(AsyncServiceFactory.class);
+        when(serviceFactory.getServiceName()).thenReturn(Service.class.getSimpleName());
+        when(serviceFactory.isRetriableException(any(Exception.class))).thenReturn(true);
+        when(serviceFactory.create(FOO_ENDPOINT)).thenReturn(FOO_SERVICE);
+        when(serviceFactory.isHealthyAsync(FOO_ENDPOINT)).thenReturn(SettableFuture.<Boolean>create());
+        when(_hostDiscovery.getHosts()).thenReturn(ImmutableList.of(FOO_ENDPOINT));
+
+        ServicePool<Service> pool = new ServicePool<Service>(_ticker, _hostDiscovery, false, serviceFactory,
+                UNLIMITED_CACHING, _partitionFilter, _loadBalanceAlgorithm, _healthCheckExecutor, false);
+        try {
+            try {
+                pool.execute(NEVER_RETRY, new ServiceCallback<Service, Void>() {
+                    @Override
+                    public Void call(Service service) throws ServiceException {
+                        throw new ServiceException();
+                    }
+                });
+                fail();
+            } catch (MaxRetriesException e) {
+                // Expected
+            }
+            ArgumentCaptor<Runnable> check = ArgumentCaptor.forClass(Runnable.class);
+            verify(_healthCheckExecutor, times(2)).scheduleAtFixedRate(check.capture(), anyLong(), anyLong(),
+                    any(TimeUnit.class));
+
+            // The check started when the end point was marked bad never finishes, so it's given up on after a while.
+            long pollIntervalNanos = TimeUnit.SECONDS.toNanos(ServicePool.HEALTH_CHECK_POLL_INTERVAL_IN_SECONDS);
+            when(_ticker.read()).thenReturn(pollIntervalNanos);
+            check.getValue().run();
+            verify(serviceFactory, times(2)).isHealthyAsync(FOO_ENDPOINT);
+        } finally {
+            pool.close();
+        }
+    }
+
+    private static Meter meter(String name) {
+        return (Meter) Metrics.defaultRegistry().allMetrics()
+                .get(new MetricName(ServicePool.class, name, Service.class.getSimpleName()));
+    }
+
     // A dummy interface for testing...
     private static interface Service {
     }
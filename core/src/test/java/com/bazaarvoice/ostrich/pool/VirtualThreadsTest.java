@@ -0,0 +1,86 @@
+/*
+ * Copyright 2013 Bazaarvoice, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bazaarvoice.ostrich.pool;
+
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class VirtualThreadsTest {
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    @Test
+    public void testThreadFactory() throws Exception {
+        if (!VirtualThreads.isSupported()) {
+            try {
+                VirtualThreads.newThreadFactory("test-");
+                fail();
+            } catch (UnsupportedOperationException e) {
+                // Expected
+            }
+            return;
+        }
+
+        ThreadFactory threadFactory = VirtualThreads.newThreadFactory("test-");
+        Thread first = threadFactory.newThread(NOOP);
+        Thread second = threadFactory.newThread(NOOP);
+
+        assertTrue(isVirtual(first));
+        assertEquals("test-0", first.getName());
+        assertEquals("test-1", second.getName());
+    }
+
+    @Test
+    public void testThreadPerTaskExecutor() throws Exception {
+        if (!VirtualThreads.isSupported()) {
+            try {
+                VirtualThreads.newThreadPerTaskExecutor("test-");
+                fail();
+            } catch (UnsupportedOperationException e) {
+                // Expected
+            }
+            return;
+        }
+
+        ExecutorService executor = VirtualThreads.newThreadPerTaskExecutor("test-");
+        try {
+            boolean virtual = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return isVirtual(Thread.currentThread());
+                }
+            }).get(10, TimeUnit.SECONDS);
+            assertTrue(virtual);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static boolean isVirtual(Thread thread) throws Exception {
+        return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+    }
+}
@@ -74,6 +74,24 @@ public class RetryNTimesTest {
         assertFalse(retry.allowRetry(2, 0));
     }
 
+    @Test
+    public void testRetryDelay() {
+        RetryNTimes retry = new RetryNTimes(2, 123, TimeUnit.MILLISECONDS);
+        assertEquals(123, retry.getRetryDelayMs(1, 0));
+        assertTrue(retry.getRetryDelayMs(2, 0) < 0);
+    }
+
+    @Test
+    public void testRetryDelayWithoutSleep() {
+        RetryNTimes retry = new RetryNTimes(2);
+        assertEquals(0, retry.getRetryDelayMs(1, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRetryDelayZeroAttempts() {
+        new RetryNTimes(2).getRetryDelayMs(0, 0);
+    }
+
     @Test
     public void testRetryRandomTimes() {
         Random rnd = new Random();
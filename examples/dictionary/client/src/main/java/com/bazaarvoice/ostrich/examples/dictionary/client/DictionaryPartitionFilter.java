@@ -16,23 +16,44 @@
 package com.bazaarvoice.ostrich.examples.dictionary.client;
 
 import com.bazaarvoice.ostrich.PartitionContext;
+import com.bazaarvoice.ostrich.PayloadCache;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
-import com.bazaarvoice.ostrich.partition.PartitionFilter;
-import com.google.common.base.Predicate;
-import com.google.common.collect.Iterables;
+import com.bazaarvoice.ostrich.partition.PartitionRange;
+import com.bazaarvoice.ostrich.partition.RangePartitionFilter;
+import com.bazaarvoice.ostrich.partition.RangePartitioner;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-public class DictionaryPartitionFilter implements PartitionFilter {
-    @Override
-    public Iterable<ServiceEndPoint> filter(Iterable<ServiceEndPoint> endPoints, PartitionContext partitionContext) {
-        final String word = (String) checkNotNull(partitionContext.get());
+/**
+ * Routes each word to the end points whose {@link WordRange} contains it.  End point payloads are only parsed when
+ * the set of end points changes.  Every call must be partitioned by a word.
+ */
+public class DictionaryPartitionFilter extends RangePartitionFilter<String> {
+    public DictionaryPartitionFilter() {
+        this(Payload.newCache());
+    }
 
-        return Iterables.filter(endPoints, new Predicate<ServiceEndPoint>() {
+    /**
+     * Reads word ranges from a payload cache shared with the {@link DictionaryServiceFactory}.
+     */
+    public DictionaryPartitionFilter(final PayloadCache<Payload> payloads) {
+        super(new RangePartitioner<String>() {
             @Override
-            public boolean apply(ServiceEndPoint endPoint) {
-                return Payload.valueOf(endPoint.getPayload()).getPartition().apply(word);
+            public Iterable<PartitionRange<String>> getRanges(ServiceEndPoint endPoint) {
+                return payloads.get(endPoint).getPartition().getRanges();
+            }
+
+            @Override
+            public String getKey(Object partitionValue) {
+                return ((String) partitionValue).toLowerCase();
             }
         });
     }
+
+    @Override
+    public Iterable<ServiceEndPoint> filter(Iterable<ServiceEndPoint> endPoints, PartitionContext partitionContext) {
+        // Without a word there's no sensible end point to send the call to, so don't fall back to all of them.
+        checkNotNull(partitionContext.get());
+        return super.filter(endPoints, partitionContext);
+    }
 }
@@ -15,6 +15,7 @@
  */
 package com.bazaarvoice.ostrich.examples.dictionary.client;
 
+import com.bazaarvoice.ostrich.PayloadCache;
 import com.bazaarvoice.ostrich.ServiceEndPoint;
 import com.bazaarvoice.ostrich.ServiceFactory;
 import com.bazaarvoice.ostrich.pool.ServicePoolBuilder;
@@ -36,6 +37,7 @@ import java.net.URI;
 
 public class DictionaryServiceFactory implements ServiceFactory<DictionaryService> {
     private final Client _client;
+    private final PayloadCache<Payload> _payloads = Payload.newCache();
 
     /**
      * Connects to the DictionaryService using the Apache commons http client library.
@@ -67,14 +69,15 @@ public class DictionaryServiceFactory implements ServiceFactory<DictionaryServic
 
     @Override
     public void configure(ServicePoolBuilder<DictionaryService> servicePoolBuilder) {
-        // Set up partitioning on the builder.
-        servicePoolBuilder.withPartitionFilter(new DictionaryPartitionFilter())
+        // Set up partitioning on the builder.  The partition filter shares the decoded payloads with this factory.
+        servicePoolBuilder.withPayloadCache(_payloads)
+                .withPartitionFilter(new DictionaryPartitionFilter(_payloads))
                 .withPartitionContextAnnotationsFrom(DictionaryClient.class);
     }
 
     @Override
     public DictionaryService create(ServiceEndPoint endPoint) {
-        return new DictionaryClient(endPoint, _client);
+        return new DictionaryClient(_payloads.get(endPoint).getServiceUrl(), _client);
     }
 
     @Override
@@ -92,7 +95,7 @@ public class DictionaryServiceFactory implements ServiceFactory<DictionaryServic
 
     @Override
     public boolean isHealthy(ServiceEndPoint endPoint) {
-        URI adminUrl = Payload.valueOf(endPoint.getPayload()).getAdminUrl();
+        URI adminUrl = _payloads.get(endPoint).getAdminUrl();
         return _client.resource(adminUrl).path("/healthcheck").head().getStatus() == 200;
     }
 }
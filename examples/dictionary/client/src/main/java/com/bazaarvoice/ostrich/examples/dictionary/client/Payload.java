@@ -15,6 +15,10 @@
  */
 package com.bazaarvoice.ostrich.examples.dictionary.client;
 
+import com.bazaarvoice.ostrich.PayloadCache;
+import com.bazaarvoice.ostrich.PayloadDecoder;
+import com.bazaarvoice.ostrich.ServiceEndPoint;
+
 import java.net.URI;
 import java.util.Map;
 
@@ -32,6 +36,18 @@ public class Payload {
     private final URI _adminUrl;
     private final WordRange _partition;
 
+    /**
+     * Returns a cache of the payloads of dictionary end points.
+     */
+    public static PayloadCache<Payload> newCache() {
+        return new PayloadCache<Payload>(new PayloadDecoder<Payload>() {
+            @Override
+            public Payload decode(ServiceEndPoint endPoint) {
+                return valueOf(endPoint.getPayload());
+            }
+        });
+    }
+
     public static Payload valueOf(String string) {
         Map<?, ?> map = JsonHelper.fromJson(string, Map.class);
         URI serviceUri = URI.create((String) checkNotNull(map.get("url"), "url"));
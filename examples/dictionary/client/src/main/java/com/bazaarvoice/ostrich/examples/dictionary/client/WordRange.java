@@ -15,11 +15,14 @@
  */
 package com.bazaarvoice.ostrich.examples.dictionary.client;
 
+import com.bazaarvoice.ostrich.partition.PartitionRange;
 import com.fasterxml.jackson.annotation.JsonValue;
 import com.google.common.base.Predicate;
 import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.regex.Matcher;
@@ -77,6 +80,18 @@ public class WordRange implements Predicate<String> {
         return entry != null && lower.compareTo(entry.getValue()) <= 0;
     }
 
+    /**
+     * Returns the ranges as inclusive ranges of lower case words, for use with a
+     * {@link com.bazaarvoice.ostrich.partition.RangePartitionFilter}.
+     */
+    public List<PartitionRange<String>> getRanges() {
+        List<PartitionRange<String>> list = Lists.newArrayList();
+        for (Map.Entry<String, String> entry : ranges.entrySet()) {
+            list.add(PartitionRange.closed(entry.getKey(), entry.getValue()));
+        }
+        return list;
+    }
+
     @Override
     @JsonValue
     public String toString() {
@@ -23,6 +23,7 @@ import com.bazaarvoice.ostrich.metrics.Metrics;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multiset;
@@ -61,6 +62,7 @@ public class ZooKeeperHostDiscovery implements HostDiscovery {
 
     private final NodeDiscovery<ServiceEndPoint> _nodeDiscovery;
     private final Multiset<ServiceEndPoint> _endPoints;
+    private volatile Set<ServiceEndPoint> _hosts = ImmutableSet.of();
     private final Set<EndPointListener> _listeners;
 
     private final Metrics _metrics;
@@ -115,9 +117,13 @@ public class ZooKeeperHostDiscovery implements HostDiscovery {
         _nodeDiscovery.start();
     }
 
+    /**
+     * Returns an immutable snapshot of the known end points.  The same instance is returned until an end point is
+     * added or removed, so callers can tell that nothing has changed without comparing every end point.
+     */
     @Override
     public Iterable<ServiceEndPoint> getHosts() {
-        return Iterables.unmodifiableIterable(_endPoints.elementSet());
+        return _hosts;
     }
 
     @Override
@@ -136,12 +142,14 @@ public class ZooKeeperHostDiscovery implements HostDiscovery {
     public void close() throws IOException {
         _nodeDiscovery.close();
         _endPoints.clear();
+        refreshHosts();
         _metrics.close();
     }
 
     private void addServiceEndPoint(ServiceEndPoint serviceEndPoint) {
         // add returns the number of instances that were in the Multiset before the add.
         if (_endPoints.add(serviceEndPoint, 1) == 0) {
+            refreshHosts();
             fireAddEvent(serviceEndPoint);
         }
     }
@@ -149,10 +157,19 @@ public class ZooKeeperHostDiscovery implements HostDiscovery {
     private void removeServiceEndPoint(ServiceEndPoint serviceEndPoint) {
         // remove returns the number of instances that were in the Multiset before the remove.
         if (_endPoints.remove(serviceEndPoint, 1) == 1) {
+            refreshHosts();
             fireRemoveEvent(serviceEndPoint);
         }
     }
 
+    /**
+     * Replaces the snapshot returned by {@link #getHosts}.  Synchronized so that a snapshot copied before a concurrent
+     * change can never overwrite one copied after it.
+     */
+    private synchronized void refreshHosts() {
+        _hosts = ImmutableSet.copyOf(_endPoints.elementSet());
+    }
+
     private void fireAddEvent(ServiceEndPoint endPoint) {
         for (EndPointListener listener : _listeners) {
             listener.onEndPointAdded(endPoint);